@@ -18,6 +18,8 @@ import java.util.Map;
 import javax.annotation.Nullable;
 
 import org.sonatype.nexus.common.collect.AutoClosableIterable;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.hash.MultiHashingInputStream;
 import org.sonatype.sisu.goodies.lifecycle.Lifecycle;
 
 /**
@@ -54,6 +56,18 @@ public interface BlobStore
    */
   Blob create(InputStream blobData, Map<String, String> headers);
 
+  /**
+   * Creates a new blob from a stream the caller is already hashing, as {@link #create(InputStream, Map)}.
+   *
+   * The stream must be hashing with {@link HashAlgorithm#SHA1}; the blob store takes the content SHA1 and size from
+   * the stream once it has been consumed instead of digesting the content a second time, so each byte is hashed once
+   * for all of the caller's algorithms.
+   *
+   * @throws BlobStoreException       (or a subclass) if the input stream can't be read correctly
+   * @throws IllegalArgumentException if mandatory headers are missing, or the stream is not hashing SHA1
+   */
+  Blob create(MultiHashingInputStream blobData, Map<String, String> headers);
+
   /**
    * Returns the corresponding {@link Blob}, or {@code null} if the  blob does not exist or has been {@link #delete
    * deleted}.
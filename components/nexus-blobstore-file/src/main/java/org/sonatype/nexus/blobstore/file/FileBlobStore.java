@@ -15,6 +15,7 @@ package org.sonatype.nexus.blobstore.file;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -34,8 +35,11 @@ import org.sonatype.nexus.blobstore.api.BlobStoreConfiguration;
 import org.sonatype.nexus.blobstore.api.BlobStoreException;
 import org.sonatype.nexus.blobstore.api.BlobStoreListener;
 import org.sonatype.nexus.blobstore.api.BlobStoreMetrics;
+import org.sonatype.nexus.blobstore.api.ChannelBlob;
 import org.sonatype.nexus.blobstore.file.FileOperations.StreamMetrics;
 import org.sonatype.nexus.common.collect.AutoClosableIterable;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.hash.MultiHashingInputStream;
 import org.sonatype.nexus.common.io.DirSupport;
 import org.sonatype.sisu.goodies.lifecycle.LifecycleSupport;
 
@@ -46,6 +50,7 @@ import org.joda.time.DateTime;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A {@link BlobStore} that stores its content on the file system, and metadata in a {@link BlobMetadataStore}.
@@ -65,6 +70,18 @@ public class FileBlobStore
 
   private static final String PATH_KEY = "path";
 
+  /**
+   * Selects the {@link BlobMetadataStore} implementation; one of {@link #METADATA_STORE_MAPDB} (the default),
+   * {@link #METADATA_STORE_JOURNAL} or {@link #METADATA_STORE_PROPERTIES}.
+   */
+  public static final String METADATA_STORE_KEY = "metadataStore";
+
+  public static final String METADATA_STORE_MAPDB = "mapdb";
+
+  public static final String METADATA_STORE_JOURNAL = "journal";
+
+  public static final String METADATA_STORE_PROPERTIES = "properties";
+
   private Path root;
 
   private BlobMetadataStore metadataStore;
@@ -77,6 +94,11 @@ public class FileBlobStore
 
   private BlobStoreConfiguration blobStoreConfiguration;
 
+  /**
+   * Directory of a MapDB metadata store to migrate into a {@link PropertiesBlobMetadataStore} on start.
+   */
+  private File migrateFrom;
+
   @Inject
   public FileBlobStore(final LocationStrategy locationStrategy,
                        final FileOperations fileOperations)
@@ -99,6 +121,10 @@ public class FileBlobStore
   @Override
   protected void doStart() throws Exception {
     metadataStore.start();
+    if (migrateFrom != null) {
+      new MapdbBlobMetadataMigrator().migrate(migrateFrom, (PropertiesBlobMetadataStore) metadataStore);
+      migrateFrom = null;
+    }
   }
 
   @Override
@@ -128,6 +154,23 @@ public class FileBlobStore
   @Override
   public Blob create(final InputStream blobData, final Map<String, String> headers) {
     checkNotNull(blobData);
+    return doCreate(blobData, null, headers);
+  }
+
+  @Override
+  public Blob create(final MultiHashingInputStream blobData, final Map<String, String> headers) {
+    checkNotNull(blobData);
+    checkArgument(blobData.algorithms().contains(HashAlgorithm.SHA1), "Stream is not hashing SHA1");
+    return doCreate(blobData, blobData, headers);
+  }
+
+  /**
+   * Creates a blob, reusing the hashes of {@code hashingData} when given, otherwise digesting {@code blobData}.
+   */
+  private Blob doCreate(final InputStream blobData,
+                        @Nullable final MultiHashingInputStream hashingData,
+                        final Map<String, String> headers)
+  {
     checkNotNull(headers);
 
     checkArgument(headers.containsKey(BLOB_NAME_HEADER), "Missing header: %s", BLOB_NAME_HEADER);
@@ -143,7 +186,9 @@ public class FileBlobStore
       final Path path = pathFor(blobId);
       log.debug("Writing blob {} to {}", blobId, path);
 
-      final StreamMetrics streamMetrics = fileOperations.create(path, blobData);
+      final StreamMetrics streamMetrics = hashingData != null
+          ? fileOperations.create(path, hashingData)
+          : fileOperations.create(path, blobData);
       final BlobMetrics metrics = new BlobMetrics(new DateTime(), streamMetrics.getSHA1(), streamMetrics.getSize());
       final FileBlob blob = new FileBlob(blobId, headers, path, metrics);
 
@@ -304,7 +349,31 @@ public class FileBlobStore
     DirSupport.mkdir(content);
     DirSupport.mkdir(metadataFile);
     this.root = content;
-    this.metadataStore = MapdbBlobMetadataStore.create(metadataFile);
+    this.metadataStore = createMetadataStore(configuration, metadataFile);
+  }
+
+  private BlobMetadataStore createMetadataStore(final BlobStoreConfiguration configuration, final File metadataFile) {
+    String type = (String) configuration.attributes(CONFIG_KEY).get(METADATA_STORE_KEY, METADATA_STORE_MAPDB);
+    log.debug("Using {} metadata store: {}", type, metadataFile);
+    switch (type) {
+      case METADATA_STORE_MAPDB:
+        return MapdbBlobMetadataStore.create(metadataFile);
+      case METADATA_STORE_JOURNAL:
+        // the journal store can not import MapDB records, so starting on top of them would lose every blob
+        checkState(!new MapdbBlobMetadataMigrator().isMigrationRequired(metadataFile),
+            "Blob store %s has an existing %s metadata store in %s which the %s metadata store can not read; " +
+                "migrate it to the %s metadata store or keep using %s",
+            configuration.getName(), METADATA_STORE_MAPDB, metadataFile, METADATA_STORE_JOURNAL,
+            METADATA_STORE_PROPERTIES, METADATA_STORE_MAPDB);
+        return new JournalBlobMetadataStore(metadataFile);
+      case METADATA_STORE_PROPERTIES:
+        if (new MapdbBlobMetadataMigrator().isMigrationRequired(metadataFile)) {
+          migrateFrom = metadataFile;
+        }
+        return new PropertiesBlobMetadataStore(root, locationStrategy);
+      default:
+        throw new IllegalArgumentException("Unknown metadata store: " + type);
+    }
   }
 
   @Override
@@ -341,7 +410,7 @@ public class FileBlobStore
   }
 
   class FileBlob
-      implements Blob
+      implements ChannelBlob
   {
     private final BlobId blobId;
 
@@ -383,6 +452,17 @@ public class FileBlobStore
       }
     }
 
+    @Override
+    public FileChannel openFileChannel() {
+      try {
+        checkExists(contentPath, blobId);
+        return fileOperations.openFileChannel(contentPath);
+      }
+      catch (IOException e) {
+        throw new BlobStoreException(e, blobId);
+      }
+    }
+
     @Override
     public BlobMetrics getMetrics() {
       return metrics;
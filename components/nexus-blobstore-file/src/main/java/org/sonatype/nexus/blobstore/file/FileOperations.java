@@ -14,8 +14,12 @@ package org.sonatype.nexus.blobstore.file;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.hash.MultiHashingInputStream;
+
 /**
  * A wrapper around file operations to make mocking easier.
  *
@@ -51,10 +55,23 @@ public interface FileOperations
    */
   StreamMetrics create(Path path, InputStream data) throws IOException;
 
+  /**
+   * Creates a file as {@link #create(Path, InputStream)}, but takes the metrics from a stream which is already
+   * computing a {@link HashAlgorithm#SHA1} hash of the data rather than digesting it again.
+   *
+   * @return Basic metrics about the stream.
+   */
+  StreamMetrics create(Path path, MultiHashingInputStream data) throws IOException;
+
   boolean exists(Path path);
 
   InputStream openInputStream(Path path) throws IOException;
 
+  /**
+   * Opens a read-only channel to the file.
+   */
+  FileChannel openFileChannel(Path path) throws IOException;
+
   /**
    * Returns true if the file existed before deletion, false otherwise.
    */
@@ -0,0 +1,773 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
+import org.sonatype.nexus.common.collect.AutoClosableIterable;
+import org.sonatype.nexus.common.io.DirSupport;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.sisu.goodies.lifecycle.LifecycleSupport;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.joda.time.DateTime;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.sonatype.nexus.blobstore.file.internal.ExternalizationHelper.readNullableLong;
+import static org.sonatype.nexus.blobstore.file.internal.ExternalizationHelper.readNullableString;
+import static org.sonatype.nexus.blobstore.file.internal.ExternalizationHelper.writeNullableLong;
+import static org.sonatype.nexus.blobstore.file.internal.ExternalizationHelper.writeNullableString;
+
+/**
+ * Journal implementation of {@link BlobMetadataStore}.
+ *
+ * All metadata is held in an in-memory index keyed by blob-id. Every mutation is appended to a write-ahead journal
+ * by a single committer thread, which drains all pending mutations, writes them with one append and makes them
+ * durable with one {@code fsync}; concurrent writers therefore share the cost of a commit. A mutation is applied to
+ * the index only after it is durable, so readers never see a change that a crash could lose. {@link #compact()} and
+ * {@link #stop()} write the index to a snapshot and truncate the journal, and {@link #start()} rebuilds the index
+ * from the snapshot plus a replay of the journal.
+ *
+ * @since 3.0
+ */
+public class JournalBlobMetadataStore
+    extends LifecycleSupport
+    implements BlobMetadataStore
+{
+  private static final int FORMAT_VERSION = 1;
+
+  private static final String SNAPSHOT_FILE = "metadata.snapshot";
+
+  private static final String JOURNAL_FILE = "metadata.journal";
+
+  private static final byte OP_PUT = 1;
+
+  private static final byte OP_DELETE = 2;
+
+  /**
+   * Size of the journal header, which only holds the format version.
+   */
+  private static final long JOURNAL_HEADER_SIZE = 4;
+
+  /**
+   * Size of the per-entry frame header: payload length and CRC32 of the payload.
+   */
+  private static final int FRAME_HEADER_SIZE = 4 + 8;
+
+  private static final int MAX_BATCH_SIZE = 1024;
+
+  /**
+   * How long a writer waits for its mutation to become durable before the write fails.
+   */
+  private static final long COMMIT_TIMEOUT_MILLIS =
+      SystemPropertiesHelper.getLong(JournalBlobMetadataStore.class.getName() + ".commitTimeoutMillis", 30000L);
+
+  private final File directory;
+
+  private final File snapshotFile;
+
+  private final File journalFile;
+
+  private final ConcurrentMap<BlobId, BlobMetadata> entries = new ConcurrentHashMap<>();
+
+  private final Map<BlobState, NavigableSet<BlobId>> states = new EnumMap<>(BlobState.class);
+
+  private final AtomicLong idSequence = new AtomicLong();
+
+  /**
+   * Guards the index and the queued mutations, so each mutation is checked against the state left by those queued
+   * before it.
+   */
+  private final Object mutex = new Object();
+
+  /**
+   * Latest queued mutation of each blob whose changes are not yet durable, guarded by {@link #mutex}.
+   */
+  private final Map<BlobId, PendingWrite> queued = Maps.newHashMap();
+
+  /**
+   * Guards the journal channel between the committer and snapshots, and keeps the index in step with the journal.
+   */
+  private final Lock journalLock = new ReentrantLock();
+
+  private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+
+  private FileChannel journal;
+
+  private Thread committer;
+
+  private volatile boolean running;
+
+  public JournalBlobMetadataStore(final File directory) {
+    this.directory = checkNotNull(directory);
+    this.snapshotFile = new File(directory, SNAPSHOT_FILE);
+    this.journalFile = new File(directory, JOURNAL_FILE);
+    for (BlobState state : BlobState.values()) {
+      states.put(state, new ConcurrentSkipListSet<BlobId>());
+    }
+    log.debug("Directory: {}", directory);
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    DirSupport.mkdir(directory);
+
+    entries.clear();
+    for (NavigableSet<BlobId> ids : states.values()) {
+      ids.clear();
+    }
+    idSequence.set(0);
+
+    readSnapshot();
+    openJournal();
+
+    running = true;
+    committer = new Thread(new Committer(), "blob-metadata-journal-" + directory.getName());
+    committer.setDaemon(true);
+    committer.start();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    running = false;
+    committer.join();
+    committer = null;
+
+    writeSnapshot();
+    journal.close();
+    journal = null;
+  }
+
+  //
+  // BlobMetadataStore
+  //
+
+  @Override
+  public BlobId add(final BlobMetadata metadata) {
+    checkNotNull(metadata);
+    ensureStarted();
+
+    BlobId id = new BlobId(String.format("%016x", idSequence.incrementAndGet()));
+    BlobMetadata record = copy(metadata);
+    byte[] frame = frame(OP_PUT, id, record);
+    log.trace("Add: {}={}", id, record);
+
+    PendingWrite write;
+    synchronized (mutex) {
+      checkState(current(id) == null, "Duplicate blob-id: %s", id);
+      write = enqueue(id, record, frame);
+    }
+    awaitCommit(write);
+
+    return id;
+  }
+
+  @Nullable
+  @Override
+  public BlobMetadata get(final BlobId id) {
+    checkNotNull(id);
+    ensureStarted();
+
+    log.trace("Get: {}", id);
+
+    BlobMetadata record = entries.get(id);
+    if (record != null) {
+      return copy(record);
+    }
+    return null;
+  }
+
+  @Override
+  public void update(final BlobId id, final BlobMetadata metadata) {
+    checkNotNull(id);
+    checkNotNull(metadata);
+    ensureStarted();
+
+    BlobMetadata record = copy(metadata);
+    byte[] frame = frame(OP_PUT, id, record);
+    log.trace("Update: {}={}", id, record);
+
+    PendingWrite write;
+    synchronized (mutex) {
+      checkState(current(id) != null, "Can not update non-existent blob-id: %s", id);
+      write = enqueue(id, record, frame);
+    }
+    awaitCommit(write);
+  }
+
+  @Override
+  public void delete(final BlobId id) {
+    checkNotNull(id);
+    ensureStarted();
+
+    byte[] frame = frame(OP_DELETE, id, null);
+    log.trace("Delete: {}", id);
+
+    PendingWrite write;
+    synchronized (mutex) {
+      checkState(current(id) != null, "Can not delete non-existent blob-id: %s", id);
+      write = enqueue(id, null, frame);
+    }
+    awaitCommit(write);
+  }
+
+  /**
+   * Returns a weakly consistent view of the blob-ids in the given state; closing it is a no-op.
+   */
+  @Override
+  public AutoClosableIterable<BlobId> findWithState(final BlobState state) {
+    checkNotNull(state);
+    ensureStarted();
+
+    log.trace("Find with state: {}", state);
+
+    final NavigableSet<BlobId> ids = states.get(state);
+
+    return new AutoClosableIterable<BlobId>()
+    {
+      @Override
+      public Iterator<BlobId> iterator() {
+        return ids.iterator();
+      }
+
+      @Override
+      public void close() throws Exception {
+        // no-op
+      }
+    };
+  }
+
+  @Override
+  public long getBlobCount() {
+    ensureStarted();
+    return entries.size();
+  }
+
+  @Override
+  public long getTotalSize() {
+    ensureStarted();
+    return snapshotFile.length() + journalFile.length();
+  }
+
+  @Override
+  public void compact() {
+    ensureStarted();
+
+    log.trace("Compacting");
+    try {
+      writeSnapshot();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Failed to compact journal: " + journalFile, e);
+    }
+  }
+
+  //
+  // Journal
+  //
+
+  /**
+   * Pending journal entry, completed once the entry has been made durable and applied to the index.
+   */
+  private static class PendingWrite
+  {
+    private final BlobId id;
+
+    /**
+     * New metadata of the blob, or {@code null} if it is deleted.
+     */
+    @Nullable
+    private final BlobMetadata record;
+
+    private final byte[] frame;
+
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    /**
+     * Mutation of the same blob queued before this one, if it was still queued; guarded by {@link #mutex}.
+     */
+    @Nullable
+    private PendingWrite previous;
+
+    /**
+     * Whether this mutation has been committed, has failed or was withdrawn; guarded by {@link #mutex}.
+     */
+    private boolean dequeued;
+
+    private PendingWrite(final BlobId id, @Nullable final BlobMetadata record, final byte[] frame) {
+      this.id = id;
+      this.record = record;
+      this.frame = frame;
+    }
+  }
+
+  /**
+   * Queues a mutation for the committer. Must be called holding {@link #mutex}.
+   */
+  private PendingWrite enqueue(final BlobId id, @Nullable final BlobMetadata record, final byte[] frame) {
+    PendingWrite write = new PendingWrite(id, record, frame);
+    write.previous = queued.put(id, write);
+    pendingWrites.add(write);
+    return write;
+  }
+
+  /**
+   * Returns the metadata a blob will have once its queued mutations are committed, or {@code null} if it will not
+   * exist. Must be called holding {@link #mutex}.
+   */
+  @Nullable
+  private BlobMetadata current(final BlobId id) {
+    PendingWrite write = queued.get(id);
+    return write != null ? write.record : entries.get(id);
+  }
+
+  /**
+   * Forgets queued mutations once they are committed or have failed, unless a later mutation of the same blob is
+   * queued. Must be called holding {@link #mutex}.
+   */
+  private void dequeue(final List<PendingWrite> batch) {
+    for (PendingWrite write : batch) {
+      if (queued.get(write.id) == write) {
+        queued.remove(write.id);
+      }
+      write.dequeued = true;
+      write.previous = null;
+    }
+  }
+
+  /**
+   * Waits for a queued mutation to become durable, failing the write if that takes longer than
+   * {@link #COMMIT_TIMEOUT_MILLIS}. A timed out mutation the committer has not picked up yet is withdrawn, so it is
+   * never applied; one already being committed, or one a later mutation of the same blob was checked against, is
+   * left to complete and the failure says so.
+   */
+  private void awaitCommit(final PendingWrite write) {
+    try {
+      Uninterruptibles.getUninterruptibly(write.future, COMMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    catch (TimeoutException e) {
+      boolean withdrawn;
+      synchronized (mutex) {
+        withdrawn = queued.get(write.id) == write && pendingWrites.remove(write);
+        if (withdrawn) {
+          PendingWrite previous = write.previous;
+          if (previous != null && !previous.dequeued) {
+            queued.put(write.id, previous);
+          }
+          else {
+            queued.remove(write.id);
+          }
+          write.dequeued = true;
+          write.previous = null;
+        }
+      }
+      throw new IllegalStateException(String.format(
+          "Timed out after %d ms waiting for journal commit of blob-id: %s; the change %s", COMMIT_TIMEOUT_MILLIS,
+          write.id, withdrawn ? "was withdrawn" : "may still be committed"), e);
+    }
+  }
+
+  /**
+   * Drains pending writes and group-commits them to the journal.
+   */
+  private class Committer
+      implements Runnable
+  {
+    @Override
+    public void run() {
+      List<PendingWrite> batch = Lists.newArrayListWithCapacity(MAX_BATCH_SIZE);
+      while (running || !pendingWrites.isEmpty()) {
+        try {
+          PendingWrite first = pendingWrites.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          pendingWrites.drainTo(batch, MAX_BATCH_SIZE - 1);
+        }
+        catch (InterruptedException e) {
+          log.debug("Interrupted waiting for journal entries");
+          continue;
+        }
+
+        try {
+          commit(batch);
+          for (PendingWrite write : batch) {
+            write.future.set(null);
+          }
+        }
+        catch (Exception e) {
+          log.error("Failed to commit {} entries to journal: {}", batch.size(), journalFile, e);
+          for (PendingWrite write : batch) {
+            write.future.setException(e);
+          }
+        }
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Appends a batch to the journal and makes it durable, then applies it to the index. Both happen under the journal
+   * lock, so a snapshot never misses an entry that is already in the journal. If the append fails the journal is cut
+   * back to where the batch started and the index is left untouched.
+   */
+  private void commit(final List<PendingWrite> batch) throws IOException {
+    int length = 0;
+    for (PendingWrite write : batch) {
+      length += write.frame.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (PendingWrite write : batch) {
+      buffer.put(write.frame);
+    }
+    buffer.flip();
+
+    journalLock.lock();
+    try {
+      long start = journal.position();
+      try {
+        while (buffer.hasRemaining()) {
+          journal.write(buffer);
+        }
+        journal.force(false);
+      }
+      catch (IOException e) {
+        try {
+          journal.truncate(start);
+          journal.position(start);
+        }
+        catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        synchronized (mutex) {
+          dequeue(batch);
+        }
+        throw e;
+      }
+
+      synchronized (mutex) {
+        for (PendingWrite write : batch) {
+          apply(write.id, write.record);
+        }
+        dequeue(batch);
+      }
+    }
+    finally {
+      journalLock.unlock();
+    }
+    log.trace("Committed {} entries ({} bytes)", batch.size(), length);
+  }
+
+  /**
+   * Opens the journal, replaying valid entries on top of the snapshot and truncating any torn tail.
+   */
+  private void openJournal() throws IOException {
+    boolean exists = journalFile.exists();
+    journal = FileChannel.open(journalFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    if (!exists || journal.size() < JOURNAL_HEADER_SIZE) {
+      resetJournal();
+      return;
+    }
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(journal)));
+    int version = in.readInt();
+    checkState(version == FORMAT_VERSION, "Unsupported journal version: %s", version);
+
+    long position = JOURNAL_HEADER_SIZE;
+    int replayed = 0;
+    CRC32 crc = new CRC32();
+    while (true) {
+      byte[] payload;
+      long checksum;
+      try {
+        int length = in.readInt();
+        checksum = in.readLong();
+        if (length <= 0 || position + FRAME_HEADER_SIZE + length > journal.size()) {
+          break;
+        }
+        payload = new byte[length];
+        in.readFully(payload);
+      }
+      catch (EOFException e) {
+        break;
+      }
+      crc.reset();
+      crc.update(payload, 0, payload.length);
+      if (crc.getValue() != checksum) {
+        break;
+      }
+      replay(payload);
+      position += FRAME_HEADER_SIZE + payload.length;
+      replayed++;
+    }
+
+    if (position < journal.size()) {
+      log.warn("Truncating {} trailing bytes of incomplete journal: {}", journal.size() - position, journalFile);
+      journal.truncate(position);
+    }
+    journal.position(position);
+    log.debug("Replayed {} journal entries", replayed);
+  }
+
+  private void resetJournal() throws IOException {
+    journal.truncate(0);
+    ByteBuffer header = ByteBuffer.allocate((int) JOURNAL_HEADER_SIZE);
+    header.putInt(FORMAT_VERSION);
+    header.flip();
+    journal.position(0);
+    while (header.hasRemaining()) {
+      journal.write(header);
+    }
+    journal.force(true);
+  }
+
+  private void replay(final byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte op = in.readByte();
+    BlobId id = new BlobId(in.readUTF());
+    trackSequence(id);
+
+    if (op == OP_PUT) {
+      apply(id, readRecord(in));
+    }
+    else {
+      checkState(op == OP_DELETE, "Unknown journal operation: %s", op);
+      apply(id, null);
+    }
+  }
+
+  /**
+   * Applies a put, or a delete if the record is {@code null}, to the index.
+   */
+  private void apply(final BlobId id, @Nullable final BlobMetadata record) {
+    BlobMetadata prev = record != null ? entries.put(id, record) : entries.remove(id);
+    if (prev != null) {
+      states.get(prev.getBlobState()).remove(id);
+    }
+    if (record != null) {
+      states.get(record.getBlobState()).add(id);
+    }
+  }
+
+  /**
+   * Builds a journal frame: payload length, CRC32 of the payload and the payload itself.
+   */
+  private byte[] frame(final byte op, final BlobId id, @Nullable final BlobMetadata record) {
+    try {
+      ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(256);
+      DataOutputStream payload = new DataOutputStream(payloadBytes);
+      payload.writeByte(op);
+      payload.writeUTF(id.asUniqueString());
+      if (record != null) {
+        writeRecord(payload, record);
+      }
+      payload.flush();
+
+      byte[] bytes = payloadBytes.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length);
+
+      ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + bytes.length);
+      frame.putInt(bytes.length);
+      frame.putLong(crc.getValue());
+      frame.put(bytes);
+      return frame.array();
+    }
+    catch (IOException e) {
+      // should never happen, writing to memory
+      throw new RuntimeException(e);
+    }
+  }
+
+  //
+  // Snapshot
+  //
+
+  private void readSnapshot() throws IOException {
+    if (!snapshotFile.exists()) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+      int version = in.readInt();
+      checkState(version == FORMAT_VERSION, "Unsupported snapshot version: %s", version);
+      idSequence.set(in.readLong());
+
+      while (in.readBoolean()) {
+        BlobId id = new BlobId(in.readUTF());
+        BlobMetadata record = readRecord(in);
+        entries.put(id, record);
+        states.get(record.getBlobState()).add(id);
+        trackSequence(id);
+      }
+    }
+    log.debug("Loaded {} entries from snapshot: {}", entries.size(), snapshotFile);
+  }
+
+  /**
+   * Writes the index to a new snapshot, atomically replaces the previous one and truncates the journal.
+   *
+   * Holding the journal lock keeps the committer out. The committer applies entries to the index only under that
+   * lock, so the index holds exactly the journalled entries while the snapshot is written, and entries queued in the
+   * meantime land in the fresh journal.
+   */
+  private void writeSnapshot() throws IOException {
+    File tempFile = new File(directory, SNAPSHOT_FILE + ".tmp");
+
+    journalLock.lock();
+    try {
+      int count = 0;
+      try (FileOutputStream file = new FileOutputStream(tempFile);
+           DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(idSequence.get());
+        for (Map.Entry<BlobId, BlobMetadata> entry : entries.entrySet()) {
+          out.writeBoolean(true);
+          out.writeUTF(entry.getKey().asUniqueString());
+          writeRecord(out, entry.getValue());
+          count++;
+        }
+        out.writeBoolean(false);
+        out.flush();
+        file.getFD().sync();
+      }
+      Files.move(tempFile.toPath(), snapshotFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      resetJournal();
+      log.debug("Wrote {} entries to snapshot: {}", count, snapshotFile);
+    }
+    finally {
+      journalLock.unlock();
+    }
+  }
+
+  //
+  // Helpers
+  //
+
+  private void trackSequence(final BlobId id) {
+    try {
+      long value = Long.parseLong(id.asUniqueString(), 16);
+      if (value > idSequence.get()) {
+        idSequence.set(value);
+      }
+    }
+    catch (NumberFormatException e) {
+      log.warn("Ignoring non-sequential blob-id: {}", id);
+    }
+  }
+
+  private static void writeRecord(final DataOutput out, final BlobMetadata record) throws IOException {
+    out.writeInt(record.getBlobState().ordinal());
+
+    Map<String, String> headers = record.getHeaders();
+    out.writeInt(headers.size());
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      writeNullableString(out, header.getKey());
+      writeNullableString(out, header.getValue());
+    }
+
+    BlobMetrics metrics = record.getMetrics();
+    out.writeBoolean(metrics != null);
+    if (metrics != null) {
+      writeNullableLong(out, metrics.getCreationTime() == null ? null : metrics.getCreationTime().getMillis());
+      writeNullableString(out, metrics.getSHA1Hash());
+      out.writeLong(metrics.getContentSize());
+    }
+  }
+
+  private static BlobMetadata readRecord(final DataInput in) throws IOException {
+    int ordinal = in.readInt();
+    checkArgument(ordinal >= 0 && ordinal < BlobState.values().length, "Invalid blob state: %s", ordinal);
+    BlobState state = BlobState.values()[ordinal];
+
+    Map<String, String> headers = Maps.newHashMap();
+    int numberOfHeaders = in.readInt();
+    for (int i = 0; i < numberOfHeaders; i++) {
+      headers.put(readNullableString(in), readNullableString(in));
+    }
+
+    BlobMetadata record = new BlobMetadata(state, headers);
+    if (in.readBoolean()) {
+      Long createdMillis = readNullableLong(in);
+      String sha1 = readNullableString(in);
+      long size = in.readLong();
+      record.setMetrics(new BlobMetrics(createdMillis == null ? null : new DateTime(createdMillis), sha1, size));
+    }
+    return record;
+  }
+
+  /**
+   * {@link BlobMetadata} is mutable, so the index only ever holds and hands out private copies.
+   */
+  private static BlobMetadata copy(final BlobMetadata source) {
+    BlobMetadata target = new BlobMetadata(source.getBlobState(), Maps.newHashMap(source.getHeaders()));
+    target.setMetrics(source.getMetrics());
+    return target;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file;
+
+import java.io.File;
+
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.common.collect.AutoClosableIterable;
+import org.sonatype.nexus.common.io.DirSupport;
+import org.sonatype.sisu.goodies.common.ComponentSupport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Copies the contents of a {@link MapdbBlobMetadataStore} into a {@link PropertiesBlobMetadataStore}.
+ *
+ * Blob-ids are preserved, so content files stay where they are. Once complete the MapDB directory is moved aside,
+ * with a {@code -migrated} suffix, so the migration is not repeated.
+ *
+ * @since 3.0
+ */
+public class MapdbBlobMetadataMigrator
+    extends ComponentSupport
+{
+  public static final String MIGRATED_SUFFIX = "-migrated";
+
+  /**
+   * Returns {@code true} if the directory holds a MapDB metadata store which has not been migrated.
+   */
+  public boolean isMigrationRequired(final File directory) {
+    checkNotNull(directory);
+    return MapdbBlobMetadataStore.databaseFile(directory).exists();
+  }
+
+  /**
+   * Migrates all records of the MapDB store in the given directory, in every state, to the (started) target store.
+   *
+   * @return The number of records migrated.
+   */
+  public long migrate(final File directory, final PropertiesBlobMetadataStore target) throws Exception {
+    checkNotNull(directory);
+    checkNotNull(target);
+
+    log.info("Migrating blob metadata from {}", directory);
+
+    long count = 0;
+    BlobMetadataStore source = MapdbBlobMetadataStore.create(directory);
+    source.start();
+    try {
+      for (BlobState state : BlobState.values()) {
+        try (AutoClosableIterable<BlobId> ids = source.findWithState(state)) {
+          for (BlobId id : ids) {
+            BlobMetadata metadata = source.get(id);
+            if (metadata != null) {
+              target.put(id, metadata);
+              count++;
+            }
+          }
+        }
+      }
+    }
+    finally {
+      source.stop();
+    }
+
+    File migrated = new File(directory.getParentFile(), directory.getName() + MIGRATED_SUFFIX);
+    DirSupport.move(directory.toPath(), migrated.toPath());
+
+    log.info("Migrated {} blob metadata records; previous store moved to {}", count, migrated);
+    return count;
+  }
+}
@@ -66,10 +66,17 @@ public class MapdbBlobMetadataStore
 
   private MapdbBlobMetadataStore(final File directory) {
     checkNotNull(directory);
-    this.file = new File(directory, directory.getName() + ".db");
+    this.file = databaseFile(directory);
     log.debug("File: {}", file);
   }
 
+  /**
+   * Returns the primary database file of a store in the given directory.
+   */
+  public static File databaseFile(final File directory) {
+    return new File(directory, directory.getName() + ".db");
+  }
+
   /**
    * MapDB uses a classloading strategy incompatible with OSGi (it uses the current thread's context class loader).
    * This method produces a BlobMetadataStore that has been wrapped with a proxy that ensures the right classloader
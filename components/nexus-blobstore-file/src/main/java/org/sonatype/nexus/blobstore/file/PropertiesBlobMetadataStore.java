@@ -0,0 +1,671 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
+import org.sonatype.nexus.common.collect.AutoClosableIterable;
+import org.sonatype.nexus.common.io.DirSupport;
+import org.sonatype.sisu.goodies.lifecycle.LifecycleSupport;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
+import org.joda.time.DateTime;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * {@link BlobMetadataStore} which keeps each blob's metadata in a {@code .properties} file next to its content file.
+ *
+ * Each sidecar is written to a temporary file and atomically moved into place, so create, get and delete only touch
+ * the blob's own directory and scale with the file system instead of contending on a central database. The blob
+ * state, including the soft-delete marker, is a property of the sidecar.
+ *
+ * Blobs marked for deletion additionally get an empty marker file in the {@value #DELETIONS_DIR} directory, so
+ * compaction only reads the sidecars of marked blobs instead of every sidecar in the store. A marker is created
+ * before its sidecar is marked and removed only after the sidecar is unmarked or deleted; markers left stale by a
+ * crash are dropped when found, and missing ones are restored by the startup walk.
+ *
+ * Blob count and total size are rebuilt at startup by walking the volume directories in parallel, and are maintained
+ * incrementally afterwards. Changes to the same blob are serialized by a striped lock, so reading the previous
+ * metadata, writing the new one and adjusting the totals happen as one step.
+ *
+ * @since 3.0
+ */
+public class PropertiesBlobMetadataStore
+    extends LifecycleSupport
+    implements BlobMetadataStore
+{
+  public static final String METADATA_SUFFIX = ".properties";
+
+  public static final String DELETIONS_DIR = "deletions";
+
+  private static final int LOCK_STRIPES = 64;
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final String STATE_KEY = "@state";
+
+  private static final String CREATED_KEY = "@created";
+
+  private static final String SHA1_KEY = "@sha1";
+
+  private static final String SIZE_KEY = "@size";
+
+  private static final String HEADER_PREFIX = "header.";
+
+  private final Path root;
+
+  private final LocationStrategy locationStrategy;
+
+  private final Path deletions;
+
+  private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+
+  private final AtomicLong blobCount = new AtomicLong();
+
+  private final AtomicLong totalSize = new AtomicLong();
+
+  public PropertiesBlobMetadataStore(final Path root, final LocationStrategy locationStrategy) {
+    this.root = checkNotNull(root);
+    this.locationStrategy = checkNotNull(locationStrategy);
+    this.deletions = root.resolve(DELETIONS_DIR);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    DirSupport.mkdir(root);
+    DirSupport.mkdir(deletions);
+    rebuildMetrics();
+  }
+
+  /**
+   * Returns path for blob-id metadata file relative to root directory.
+   */
+  private Path pathFor(final BlobId id) {
+    return root.resolve(locationStrategy.location(id) + METADATA_SUFFIX);
+  }
+
+  /**
+   * Returns path for blob-id deletion marker file.
+   */
+  private Path markerFor(final BlobId id) {
+    return deletions.resolve(id.asUniqueString());
+  }
+
+  @Override
+  public BlobId add(final BlobMetadata metadata) {
+    checkNotNull(metadata);
+    ensureStarted();
+
+    BlobId id = new BlobId(UUID.randomUUID().toString());
+    log.trace("Add: {}={}", id, metadata);
+
+    Path path = pathFor(id);
+    Lock lock = locks.get(id);
+    lock.lock();
+    try {
+      checkState(!Files.exists(path), "Duplicate blob-id: %s", id);
+      store(id, path, null, metadata);
+
+      blobCount.incrementAndGet();
+      totalSize.addAndGet(sizeOf(metadata));
+    }
+    finally {
+      lock.unlock();
+    }
+    return id;
+  }
+
+  /**
+   * Writes the metadata for a blob with a given id, replacing any existing metadata. Used by migration, which has to
+   * preserve the blob-ids (and therefore the content locations) of the source store.
+   */
+  public void put(final BlobId id, final BlobMetadata metadata) {
+    checkNotNull(id);
+    checkNotNull(metadata);
+    ensureStarted();
+
+    log.trace("Put: {}={}", id, metadata);
+
+    Path path = pathFor(id);
+    Lock lock = locks.get(id);
+    lock.lock();
+    try {
+      BlobMetadata prev = read(id, path);
+      store(id, path, prev, metadata);
+
+      if (prev == null) {
+        blobCount.incrementAndGet();
+      }
+      totalSize.addAndGet(sizeOf(metadata) - sizeOf(prev));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Nullable
+  @Override
+  public BlobMetadata get(final BlobId id) {
+    checkNotNull(id);
+    ensureStarted();
+
+    log.trace("Get: {}", id);
+
+    return read(id, pathFor(id));
+  }
+
+  @Override
+  public void update(final BlobId id, final BlobMetadata metadata) {
+    checkNotNull(id);
+    checkNotNull(metadata);
+    ensureStarted();
+
+    log.trace("Update: {}={}", id, metadata);
+
+    Path path = pathFor(id);
+    Lock lock = locks.get(id);
+    lock.lock();
+    try {
+      BlobMetadata prev = read(id, path);
+      checkState(prev != null, "Can not update non-existent blob-id: %s", id);
+      store(id, path, prev, metadata);
+
+      totalSize.addAndGet(sizeOf(metadata) - sizeOf(prev));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void delete(final BlobId id) {
+    checkNotNull(id);
+    ensureStarted();
+
+    log.trace("Delete: {}", id);
+
+    Path path = pathFor(id);
+    Lock lock = locks.get(id);
+    lock.lock();
+    try {
+      BlobMetadata prev = read(id, path);
+      checkState(prev != null, "Can not delete non-existent blob-id: %s", id);
+      try {
+        Files.delete(path);
+      }
+      catch (IOException e) {
+        throw new RuntimeException("Failed to delete metadata for blob-id: " + id, e);
+      }
+      if (isMarked(prev)) {
+        unmark(id);
+      }
+
+      blobCount.decrementAndGet();
+      totalSize.addAndGet(-sizeOf(prev));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns a lazy view of the blob-ids in the given state. Blobs marked for deletion are listed from their markers,
+   * any other state is found by reading the sidecars one directory at a time.
+   */
+  @Override
+  public AutoClosableIterable<BlobId> findWithState(final BlobState state) {
+    checkNotNull(state);
+    ensureStarted();
+
+    log.trace("Find with state: {}", state);
+
+    return new AutoClosableIterable<BlobId>()
+    {
+      private final List<Closeable> iterators = Lists.newArrayList();
+
+      @Override
+      public Iterator<BlobId> iterator() {
+        if (state == BlobState.MARKED_FOR_DELETION) {
+          MarkerFileIterator iterator = new MarkerFileIterator();
+          iterators.add(iterator);
+          return iterator;
+        }
+        MetadataFileIterator iterator = new MetadataFileIterator(state);
+        iterators.add(iterator);
+        return iterator;
+      }
+
+      @Override
+      public void close() throws Exception {
+        for (Closeable iterator : iterators) {
+          iterator.close();
+        }
+      }
+    };
+  }
+
+  @Override
+  public long getBlobCount() {
+    ensureStarted();
+    return blobCount.get();
+  }
+
+  @Override
+  public long getTotalSize() {
+    ensureStarted();
+    return totalSize.get();
+  }
+
+  @Override
+  public void compact() {
+    // nothing to compact, metadata files are removed along with their blobs
+  }
+
+  //
+  // Sidecar files
+  //
+
+  @Nullable
+  private BlobMetadata read(final BlobId id, final Path path) {
+    Properties properties = new Properties();
+    try (InputStream input = Files.newInputStream(path)) {
+      properties.load(input);
+    }
+    catch (NoSuchFileException e) {
+      return null;
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Failed to read metadata for blob-id: " + id, e);
+    }
+    return convert(properties);
+  }
+
+  private void write(final BlobId id, final Path path, final BlobMetadata metadata) {
+    Path temp = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+    try {
+      DirSupport.mkdir(path.getParent());
+      try (FileOutputStream output = new FileOutputStream(temp.toFile())) {
+        convert(metadata).store(output, null);
+        output.getFD().sync();
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Failed to write metadata for blob-id: " + id, e);
+    }
+  }
+
+  /**
+   * Writes the sidecar of a blob, creating or removing its deletion marker around the write.
+   */
+  private void store(final BlobId id,
+                     final Path path,
+                     @Nullable final BlobMetadata prev,
+                     final BlobMetadata metadata)
+  {
+    if (isMarked(metadata)) {
+      mark(id);
+    }
+    write(id, path, metadata);
+    if (isMarked(prev) && !isMarked(metadata)) {
+      unmark(id);
+    }
+  }
+
+  private void mark(final BlobId id) {
+    try {
+      Files.createFile(markerFor(id));
+    }
+    catch (FileAlreadyExistsException e) {
+      // already marked
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Failed to mark blob-id for deletion: " + id, e);
+    }
+  }
+
+  private void unmark(final BlobId id) {
+    try {
+      Files.deleteIfExists(markerFor(id));
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Failed to unmark blob-id for deletion: " + id, e);
+    }
+  }
+
+  /**
+   * Checks a deletion marker against the blob's sidecar, dropping the marker if the blob is no longer marked.
+   */
+  private boolean confirmMarked(final BlobId id) {
+    Lock lock = locks.get(id);
+    lock.lock();
+    try {
+      if (isMarked(read(id, pathFor(id)))) {
+        return true;
+      }
+      log.debug("Dropping stale deletion marker: {}", id);
+      unmark(id);
+      return false;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private static boolean isMarked(@Nullable final BlobMetadata metadata) {
+    return metadata != null && metadata.getBlobState() == BlobState.MARKED_FOR_DELETION;
+  }
+
+  private static Properties convert(final BlobMetadata source) {
+    Properties target = new Properties();
+    target.setProperty(STATE_KEY, source.getBlobState().name());
+    for (Map.Entry<String, String> header : source.getHeaders().entrySet()) {
+      if (header.getKey() != null && header.getValue() != null) {
+        target.setProperty(HEADER_PREFIX + header.getKey(), header.getValue());
+      }
+    }
+    BlobMetrics metrics = source.getMetrics();
+    if (metrics != null) {
+      if (metrics.getCreationTime() != null) {
+        target.setProperty(CREATED_KEY, String.valueOf(metrics.getCreationTime().getMillis()));
+      }
+      if (metrics.getSHA1Hash() != null) {
+        target.setProperty(SHA1_KEY, metrics.getSHA1Hash());
+      }
+      target.setProperty(SIZE_KEY, String.valueOf(metrics.getContentSize()));
+    }
+    return target;
+  }
+
+  private static BlobMetadata convert(final Properties source) {
+    Map<String, String> headers = Maps.newHashMap();
+    for (String name : source.stringPropertyNames()) {
+      if (name.startsWith(HEADER_PREFIX)) {
+        headers.put(name.substring(HEADER_PREFIX.length()), source.getProperty(name));
+      }
+    }
+    BlobMetadata target = new BlobMetadata(BlobState.valueOf(source.getProperty(STATE_KEY)), headers);
+    String size = source.getProperty(SIZE_KEY);
+    if (size != null) {
+      String created = source.getProperty(CREATED_KEY);
+      target.setMetrics(new BlobMetrics(
+          created == null ? null : new DateTime(Long.parseLong(created)),
+          source.getProperty(SHA1_KEY),
+          Long.parseLong(size)
+      ));
+    }
+    return target;
+  }
+
+  private static long sizeOf(@Nullable final BlobMetadata metadata) {
+    if (metadata == null || metadata.getMetrics() == null) {
+      return 0;
+    }
+    return metadata.getMetrics().getContentSize();
+  }
+
+  private static BlobId blobIdOf(final Path path) {
+    String name = path.getFileName().toString();
+    return new BlobId(name.substring(0, name.length() - METADATA_SUFFIX.length()));
+  }
+
+  //
+  // Directory walking
+  //
+
+  /**
+   * Returns the volume directories, skipping the deletion markers.
+   */
+  private List<Path> listVolumes() throws IOException {
+    List<Path> volumes = Lists.newArrayList();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+      for (Path volume : stream) {
+        if (Files.isDirectory(volume) && !volume.equals(deletions)) {
+          volumes.add(volume);
+        }
+      }
+    }
+    return volumes;
+  }
+
+  /**
+   * Recalculates blob count and total size by reading every sidecar, one volume directory per worker thread.
+   * Temporary files left behind by an interrupted write are removed, and deletion markers lost by a crash are
+   * restored.
+   */
+  private void rebuildMetrics() throws Exception {
+    List<Path> volumes = listVolumes();
+
+    long count = 0;
+    long size = 0;
+    if (!volumes.isEmpty()) {
+      int threads = Math.min(volumes.size(), Runtime.getRuntime().availableProcessors());
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<long[]>> futures = Lists.newArrayList();
+        for (final Path volume : volumes) {
+          futures.add(executor.submit(new Callable<long[]>()
+          {
+            @Override
+            public long[] call() throws Exception {
+              return walkVolume(volume);
+            }
+          }));
+        }
+        for (Future<long[]> future : futures) {
+          long[] totals = future.get();
+          count += totals[0];
+          size += totals[1];
+        }
+      }
+      finally {
+        executor.shutdownNow();
+      }
+    }
+
+    blobCount.set(count);
+    totalSize.set(size);
+    log.debug("Found {} blobs, {} bytes in {} volumes: {}", count, size, volumes.size(), root);
+  }
+
+  private long[] walkVolume(final Path volume) throws IOException {
+    long count = 0;
+    long size = 0;
+    try (DirectoryStream<Path> chapters = Files.newDirectoryStream(volume)) {
+      for (Path chapter : chapters) {
+        if (!Files.isDirectory(chapter)) {
+          continue;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(chapter)) {
+          for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(METADATA_SUFFIX + TEMP_SUFFIX)) {
+              log.debug("Removing incomplete metadata file: {}", file);
+              Files.deleteIfExists(file);
+            }
+            else if (name.endsWith(METADATA_SUFFIX)) {
+              BlobId id = blobIdOf(file);
+              BlobMetadata metadata = read(id, file);
+              if (metadata != null) {
+                count++;
+                size += sizeOf(metadata);
+                if (isMarked(metadata)) {
+                  mark(id);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    return new long[]{count, size};
+  }
+
+  /**
+   * Iterates the blob-ids of sidecars in a given state, holding at most one open directory stream per level.
+   */
+  private class MetadataFileIterator
+      extends AbstractIterator<BlobId>
+      implements Closeable
+  {
+    private final BlobState state;
+
+    private final Iterator<Path> volumes;
+
+    private Iterator<Path> chapters;
+
+    private Iterator<Path> files;
+
+    private DirectoryStream<Path> chapterStream;
+
+    private DirectoryStream<Path> fileStream;
+
+    private MetadataFileIterator(final BlobState state) {
+      this.state = state;
+      try {
+        this.volumes = listVolumes().iterator();
+      }
+      catch (IOException e) {
+        throw new RuntimeException("Failed to list volumes: " + root, e);
+      }
+    }
+
+    @Override
+    protected BlobId computeNext() {
+      try {
+        while (true) {
+          if (files != null && files.hasNext()) {
+            Path file = files.next();
+            if (!file.getFileName().toString().endsWith(METADATA_SUFFIX)) {
+              continue;
+            }
+            BlobId id = blobIdOf(file);
+            BlobMetadata metadata = read(id, file);
+            if (metadata != null && metadata.getBlobState() == state) {
+              return id;
+            }
+          }
+          else if (chapters != null && chapters.hasNext()) {
+            Path chapter = chapters.next();
+            if (Files.isDirectory(chapter)) {
+              closeQuietly(fileStream);
+              fileStream = Files.newDirectoryStream(chapter);
+              files = fileStream.iterator();
+            }
+          }
+          else if (volumes.hasNext()) {
+            closeQuietly(chapterStream);
+            chapterStream = Files.newDirectoryStream(volumes.next());
+            chapters = chapterStream.iterator();
+            files = null;
+          }
+          else {
+            close();
+            return endOfData();
+          }
+        }
+      }
+      catch (IOException e) {
+        close();
+        throw new RuntimeException("Failed to walk metadata files: " + root, e);
+      }
+    }
+
+    @Override
+    public void close() {
+      closeQuietly(fileStream);
+      closeQuietly(chapterStream);
+      fileStream = null;
+      chapterStream = null;
+    }
+  }
+
+  /**
+   * Iterates the blob-ids of deletion markers, confirming each against its sidecar.
+   */
+  private class MarkerFileIterator
+      extends AbstractIterator<BlobId>
+      implements Closeable
+  {
+    private final DirectoryStream<Path> markerStream;
+
+    private final Iterator<Path> markers;
+
+    private MarkerFileIterator() {
+      try {
+        this.markerStream = Files.newDirectoryStream(deletions);
+      }
+      catch (IOException e) {
+        throw new RuntimeException("Failed to list deletion markers: " + deletions, e);
+      }
+      this.markers = markerStream.iterator();
+    }
+
+    @Override
+    protected BlobId computeNext() {
+      while (markers.hasNext()) {
+        BlobId id = new BlobId(markers.next().getFileName().toString());
+        if (confirmMarked(id)) {
+          return id;
+        }
+      }
+      close();
+      return endOfData();
+    }
+
+    @Override
+    public void close() {
+      closeQuietly(markerStream);
+    }
+  }
+
+  private void closeQuietly(@Nullable final DirectoryStream<Path> stream) {
+    if (stream != null) {
+      try {
+        stream.close();
+      }
+      catch (IOException e) {
+        log.debug("Failed to close directory stream", e);
+      }
+    }
+  }
+}
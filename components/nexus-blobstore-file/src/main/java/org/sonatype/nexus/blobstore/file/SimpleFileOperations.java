@@ -15,6 +15,7 @@ package org.sonatype.nexus.blobstore.file;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -22,11 +23,14 @@ import java.nio.file.StandardOpenOption;
 import javax.inject.Named;
 
 import org.sonatype.nexus.blobstore.file.internal.MetricsInputStream;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.hash.MultiHashingInputStream;
 import org.sonatype.nexus.common.io.DirSupport;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
 import com.google.common.io.ByteStreams;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -46,12 +50,29 @@ public class SimpleFileOperations
     checkNotNull(path);
     checkNotNull(data);
 
+    final MetricsInputStream input = new MetricsInputStream(data);
+    write(path, input, data);
+
+    return input.getMetrics();
+  }
+
+  @Override
+  public StreamMetrics create(final Path path, final MultiHashingInputStream data) throws IOException {
+    checkNotNull(path);
+    checkNotNull(data);
+    checkArgument(data.algorithms().contains(HashAlgorithm.SHA1), "Stream is not hashing SHA1");
+
+    write(path, data, data);
+
+    return new StreamMetrics(data.count(), data.hashes().get(HashAlgorithm.SHA1).toString());
+  }
+
+  private void write(final Path path, final InputStream input, final InputStream data) throws IOException {
     // Ensure path exists for new blob
     Path dir = path.getParent();
     checkNotNull(dir, "Null parent for path: %s", path);
     DirSupport.mkdir(dir);
 
-    final MetricsInputStream input = new MetricsInputStream(data);
     try {
       try (final OutputStream output = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW)) {
         ByteStreams.copy(input, output);
@@ -61,8 +82,6 @@ public class SimpleFileOperations
       // FIXME: Revisit closing stream which is passed in as parameter, this should be the responsibility of the caller
       data.close();
     }
-
-    return input.getMetrics();
   }
 
   @Override
@@ -77,6 +96,12 @@ public class SimpleFileOperations
     return Files.newInputStream(path, StandardOpenOption.READ);
   }
 
+  @Override
+  public FileChannel openFileChannel(final Path path) throws IOException {
+    checkNotNull(path);
+    return FileChannel.open(path, StandardOpenOption.READ);
+  }
+
   @Override
   public boolean delete(final Path path) throws IOException {
     checkNotNull(path);
@@ -12,24 +12,24 @@
  */
 package org.sonatype.nexus.blobstore.file.internal;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 
 import javax.annotation.Nullable;
 
 /**
- * Helper methods for externalizing primitives to {@link ObjectOutput} instances.
+ * Helper methods for externalizing primitives to {@link DataOutput} instances.
  *
  * @since 3.0
  */
 public class ExternalizationHelper
 {
   /**
-   * Writes a possibly null {@link Long} to an {@link ObjectOutput}. Read the value using {@link
-   * #readNullableLong(ObjectInput)}.
+   * Writes a possibly null {@link Long} to an {@link DataOutput}. Read the value using {@link
+   * #readNullableLong(DataInput)}.
    */
-  public static void writeNullableLong(ObjectOutput out, Long value) throws IOException {
+  public static void writeNullableLong(DataOutput out, Long value) throws IOException {
     out.writeBoolean(value != null);
     if (value != null) {
       out.writeLong(value);
@@ -37,7 +37,7 @@ public class ExternalizationHelper
   }
 
   @Nullable
-  public static Long readNullableLong(ObjectInput in) throws IOException {
+  public static Long readNullableLong(DataInput in) throws IOException {
     if (in.readBoolean()) {
       return in.readLong();
     }
@@ -45,10 +45,10 @@ public class ExternalizationHelper
   }
 
   /**
-   * Writes a possibly null {@link String} to an {@link ObjectOutput}. Read the value using {@link
-   * #readNullableString(ObjectInput)}.
+   * Writes a possibly null {@link String} to an {@link DataOutput}. Read the value using {@link
+   * #readNullableString(DataInput)}.
    */
-  public static void writeNullableString(ObjectOutput out, String value) throws IOException {
+  public static void writeNullableString(DataOutput out, String value) throws IOException {
     out.writeBoolean(value != null);
     if (value != null) {
       out.writeUTF(value);
@@ -56,7 +56,7 @@ public class ExternalizationHelper
   }
 
   @Nullable
-  public static String readNullableString(ObjectInput in) throws IOException {
+  public static String readNullableString(DataInput in) throws IOException {
     if (in.readBoolean()) {
       return in.readUTF();
     }
@@ -0,0 +1,128 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobStoreConfiguration;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.hash.MultiHashingInputStream;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.sonatype.nexus.blobstore.api.BlobStore.BLOB_NAME_HEADER;
+import static org.sonatype.nexus.blobstore.api.BlobStore.CREATED_BY_HEADER;
+
+/**
+ * Trials of the CPU spent per GB creating blobs from a caller-hashed (SHA1 + MD5) stream, with the blob store
+ * digesting the content again versus reusing the caller's hashes.
+ */
+public class FileBlobStoreHashingTrial
+    extends TestSupport
+{
+  private static final long GB = 1024L * 1024L * 1024L;
+
+  private static final List<HashAlgorithm> ALGORITHMS = ImmutableList.of(HashAlgorithm.SHA1, HashAlgorithm.MD5);
+
+  private static final ImmutableMap<String, String> HEADERS = ImmutableMap.of(
+      CREATED_BY_HEADER, "trial",
+      BLOB_NAME_HEADER, "trial/data.bin"
+  );
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  private FileBlobStore underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    Path root = util.createTempDir().toPath();
+    underTest = new FileBlobStore(root.resolve("content"), new VolumeChapterLocationStrategy(),
+        new SimpleFileOperations(), MapdbBlobMetadataStore.create(root.resolve("metadata").toFile()),
+        new BlobStoreConfiguration());
+    underTest.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    underTest.stop();
+  }
+
+  @Test
+  public void hashedTwice() throws Exception {
+    long start = threads.getCurrentThreadCpuTime();
+    MultiHashingInputStream input = new MultiHashingInputStream(ALGORITHMS, new ZeroInputStream(GB));
+    Blob blob = underTest.create((InputStream) input, HEADERS);
+    input.hashes();
+    report("hashed twice", blob, start);
+  }
+
+  @Test
+  public void hashedOnce() throws Exception {
+    long start = threads.getCurrentThreadCpuTime();
+    MultiHashingInputStream input = new MultiHashingInputStream(ALGORITHMS, new ZeroInputStream(GB));
+    Blob blob = underTest.create(input, HEADERS);
+    input.hashes();
+    report("hashed once", blob, start);
+  }
+
+  private void report(final String name, final Blob blob, final long startCpuNanos) {
+    long cpuMillis = (threads.getCurrentThreadCpuTime() - startCpuNanos) / 1_000_000L;
+    double gigabytes = blob.getMetrics().getContentSize() / (double) GB;
+    log("{}: {} ms CPU for {} GB ({} ms CPU/GB)", name, cpuMillis, gigabytes, (long) (cpuMillis / gigabytes));
+  }
+
+  /**
+   * Generates a fixed number of zero bytes without allocating them.
+   */
+  private static class ZeroInputStream
+      extends InputStream
+  {
+    private long remaining;
+
+    private ZeroInputStream(final long size) {
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      remaining--;
+      return 0;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int off, final int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int count = (int) Math.min(len, remaining);
+      Arrays.fill(bytes, off, off + count, (byte) 0);
+      remaining -= count;
+      return count;
+    }
+  }
+}
@@ -22,9 +22,13 @@ import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.blobstore.api.BlobMetrics;
 import org.sonatype.nexus.blobstore.api.BlobStoreConfiguration;
 import org.sonatype.nexus.blobstore.api.BlobStoreMetrics;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.common.hash.MultiHashingInputStream;
 import org.sonatype.sisu.litmus.testsupport.TestSupport;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import org.junit.After;
 import org.junit.Before;
@@ -120,6 +124,21 @@ public class FileBlobStoreIT
     }
   }
 
+  @Test
+  public void callerHashesAreReused() throws Exception {
+    final byte[] content = new byte[TEST_DATA_LENGTH];
+    new Random().nextBytes(content);
+
+    final MultiHashingInputStream input = new MultiHashingInputStream(
+        ImmutableList.of(HashAlgorithm.SHA1, HashAlgorithm.MD5), new ByteArrayInputStream(content));
+    final Blob blob = underTest.create(input, TEST_HEADERS);
+
+    assertThat(extractContent(blob), is(equalTo(content)));
+    assertThat(blob.getMetrics().getContentSize(), is(equalTo((long) TEST_DATA_LENGTH)));
+    assertThat(blob.getMetrics().getSHA1Hash(), is(equalTo(Hashing.sha1().hashBytes(content).toString())));
+    assertThat(input.hashes().get(HashAlgorithm.MD5), is(equalTo(Hashing.md5().hashBytes(content))));
+  }
+
   @Test
   public void hardDeletePreventsGetDespiteOpenStreams() throws Exception {
     final byte[] content = new byte[TEST_DATA_LENGTH];
@@ -138,4 +157,19 @@ public class FileBlobStoreIT
     final Blob newBlob = underTest.get(blob.getId());
     assertThat(newBlob, is(nullValue()));
   }
+
+  @Test(expected = IllegalStateException.class)
+  public void journalModeRefusesExistingMapdbStore() throws Exception {
+    Path root = util.createTempDir().toPath();
+    BlobMetadataStore mapdb = MapdbBlobMetadataStore.create(root.resolve("metadata").toFile());
+    mapdb.start();
+    mapdb.stop();
+
+    BlobStoreConfiguration configuration = new BlobStoreConfiguration();
+    configuration.setName("journal");
+    configuration.attributes("file").set("path", root.toString());
+    configuration.attributes("file").set(FileBlobStore.METADATA_STORE_KEY, FileBlobStore.METADATA_STORE_JOURNAL);
+
+    new FileBlobStore(new VolumeChapterLocationStrategy(), new SimpleFileOperations()).init(configuration);
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file.internal;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
+import org.sonatype.nexus.blobstore.file.BlobMetadata;
+import org.sonatype.nexus.blobstore.file.BlobMetadataStore;
+import org.sonatype.nexus.blobstore.file.BlobState;
+import org.sonatype.nexus.blobstore.file.JournalBlobMetadataStore;
+import org.sonatype.nexus.blobstore.file.MapdbBlobMetadataStore;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.sonatype.nexus.blobstore.api.BlobStore.BLOB_NAME_HEADER;
+import static org.sonatype.nexus.blobstore.api.BlobStore.CREATED_BY_HEADER;
+
+/**
+ * Trials comparing create/update/delete throughput of {@link BlobMetadataStore} implementations, following the
+ * sequence {@link org.sonatype.nexus.blobstore.file.FileBlobStore} performs for each blob.
+ */
+public class BlobMetadataStoreThroughputTrial
+  extends TestSupport
+{
+  private static final int OPERATIONS_PER_WRITER = 2_000;
+
+  private static final int[] WRITERS = {1, 8, 64};
+
+  @Test
+  public void mapdb() throws Exception {
+    for (int writers : WRITERS) {
+      File dir = new File(util.createTempDir("mapdb"), "metadata");
+      run("mapdb", MapdbBlobMetadataStore.create(dir), writers);
+    }
+  }
+
+  @Test
+  public void journal() throws Exception {
+    for (int writers : WRITERS) {
+      File dir = new File(util.createTempDir("journal"), "metadata");
+      run("journal", new JournalBlobMetadataStore(dir), writers);
+    }
+  }
+
+  private void run(final String name, final BlobMetadataStore store, final int writers) throws Exception {
+    store.start();
+    ExecutorService executor = Executors.newFixedThreadPool(writers);
+    try {
+      final CyclicBarrier startingGun = new CyclicBarrier(writers + 1);
+      List<Future<Void>> futures = Lists.newArrayList();
+      for (int i = 0; i < writers; i++) {
+        futures.add(executor.submit(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws Exception {
+            startingGun.await();
+            for (int j = 0; j < OPERATIONS_PER_WRITER; j++) {
+              BlobMetadata metadata = new BlobMetadata(BlobState.CREATING, ImmutableMap.of(
+                  BLOB_NAME_HEADER, "trial/" + j,
+                  CREATED_BY_HEADER, "trial"
+              ));
+              BlobId id = store.add(metadata);
+              metadata.setMetrics(new BlobMetrics(new DateTime(), "da39a3ee5e6b4b0d3255bfef95601890afd80709", j));
+              metadata.setBlobState(BlobState.ALIVE);
+              store.update(id, metadata);
+              store.delete(id);
+            }
+            return null;
+          }
+        }));
+      }
+
+      startingGun.await();
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+      stopwatch.stop();
+
+      long operations = 3L * OPERATIONS_PER_WRITER * writers;
+      log("{} with {} writers: {} operations in {} ({} ops/s)", name, writers, operations, stopwatch,
+          operations * 1000 / Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+    }
+    finally {
+      executor.shutdownNow();
+      store.stop();
+    }
+  }
+}
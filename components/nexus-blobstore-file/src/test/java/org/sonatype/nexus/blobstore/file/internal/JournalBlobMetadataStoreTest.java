@@ -0,0 +1,178 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file.internal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
+import org.sonatype.nexus.blobstore.file.BlobMetadata;
+import org.sonatype.nexus.blobstore.file.BlobState;
+import org.sonatype.nexus.blobstore.file.JournalBlobMetadataStore;
+import org.sonatype.nexus.common.collect.AutoClosableIterable;
+import org.sonatype.nexus.common.io.DirSupport;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link JournalBlobMetadataStore}.
+ */
+public class JournalBlobMetadataStoreTest
+  extends TestSupport
+{
+  private File dir;
+
+  private JournalBlobMetadataStore underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    File root = util.createTempDir("databases");
+    dir = new File(root, "test");
+    open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (underTest != null) {
+      underTest.stop();
+    }
+  }
+
+  /**
+   * Helper to find states and close iterable.
+   */
+  private Iterable<BlobId> findWithState(final BlobState state) throws Exception {
+    List<BlobId> results = Lists.newArrayList();
+    try (AutoClosableIterable<BlobId> iter = underTest.findWithState(state)) {
+      for (BlobId id : iter) {
+        results.add(id);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Switches to a copy of the store's files as they are now, which is what a crash leaves behind. The store is
+   * stopped only after the copy is taken, as stopping writes a new snapshot and truncates the journal.
+   */
+  private void crash() throws Exception {
+    File crashed = new File(dir.getParentFile(), dir.getName() + "-crashed");
+    DirSupport.mkdir(crashed);
+    for (File file : dir.listFiles()) {
+      Files.copy(file.toPath(), new File(crashed, file.getName()).toPath(), REPLACE_EXISTING);
+    }
+    underTest.stop();
+    underTest = null;
+    dir = crashed;
+  }
+
+  private void open() throws Exception {
+    underTest = new JournalBlobMetadataStore(dir);
+    underTest.start();
+  }
+
+  @Test
+  public void stateTracking() throws Exception {
+    BlobMetadata md = new BlobMetadata(BlobState.CREATING, ImmutableMap.of("foo", "bar"));
+    BlobId id = underTest.add(md);
+
+    assertThat(findWithState(BlobState.CREATING), contains(id));
+    assertThat(findWithState(BlobState.ALIVE), emptyIterable());
+
+    md.setBlobState(BlobState.ALIVE);
+    underTest.update(id, md);
+
+    assertThat(findWithState(BlobState.CREATING), emptyIterable());
+    assertThat(findWithState(BlobState.ALIVE), contains(id));
+
+    md.setBlobState(BlobState.MARKED_FOR_DELETION);
+    underTest.update(id, md);
+
+    assertThat(findWithState(BlobState.ALIVE), emptyIterable());
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), contains(id));
+
+    underTest.delete(id);
+
+    assertThat(findWithState(BlobState.CREATING), emptyIterable());
+    assertThat(findWithState(BlobState.ALIVE), emptyIterable());
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), emptyIterable());
+    assertThat(underTest.get(id), nullValue());
+  }
+
+  @Test
+  public void journalIsReplayedOnRestart() throws Exception {
+    BlobMetadata md = new BlobMetadata(BlobState.CREATING, ImmutableMap.of("foo", "bar"));
+    BlobId kept = underTest.add(md);
+    BlobId deleted = underTest.add(md);
+
+    md.setBlobState(BlobState.ALIVE);
+    md.setMetrics(new BlobMetrics(new DateTime(), "sha1", 42L));
+    underTest.update(kept, md);
+    underTest.delete(deleted);
+
+    crash();
+    open();
+
+    BlobMetadata restored = underTest.get(kept);
+    assertThat(restored, notNullValue());
+    assertThat(restored.getBlobState(), is(BlobState.ALIVE));
+    assertThat(restored.getHeaders().get("foo"), is("bar"));
+    assertThat(restored.getMetrics().getSHA1Hash(), is("sha1"));
+    assertThat(restored.getMetrics().getContentSize(), is(42L));
+    assertThat(underTest.get(deleted), nullValue());
+    assertThat(findWithState(BlobState.ALIVE), contains(kept));
+    assertThat(underTest.getBlobCount(), is(1L));
+
+    // identifiers must never be reused, even for deleted blobs
+    BlobId next = underTest.add(md);
+    assertThat(next, not(equalTo(kept)));
+    assertThat(next, not(equalTo(deleted)));
+  }
+
+  @Test
+  public void tornJournalTailIsDiscarded() throws Exception {
+    BlobMetadata md = new BlobMetadata(BlobState.ALIVE, ImmutableMap.of("foo", "bar"));
+    BlobId id = underTest.add(md);
+    underTest.compact();
+    BlobId second = underTest.add(md);
+
+    // simulate a crash while the last entry was being written
+    crash();
+    try (RandomAccessFile file = new RandomAccessFile(new File(dir, "metadata.journal"), "rw")) {
+      file.setLength(file.length() - 3);
+    }
+    open();
+
+    assertThat(underTest.get(id), notNullValue());
+    assertThat(underTest.get(second), nullValue());
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.file.internal;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.sonatype.nexus.blobstore.api.BlobId;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
+import org.sonatype.nexus.blobstore.file.BlobMetadata;
+import org.sonatype.nexus.blobstore.file.BlobMetadataStore;
+import org.sonatype.nexus.blobstore.file.BlobState;
+import org.sonatype.nexus.blobstore.file.MapdbBlobMetadataMigrator;
+import org.sonatype.nexus.blobstore.file.MapdbBlobMetadataStore;
+import org.sonatype.nexus.blobstore.file.PropertiesBlobMetadataStore;
+import org.sonatype.nexus.blobstore.file.VolumeChapterLocationStrategy;
+import org.sonatype.nexus.common.collect.AutoClosableIterable;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link PropertiesBlobMetadataStore}.
+ */
+public class PropertiesBlobMetadataStoreTest
+  extends TestSupport
+{
+  private Path root;
+
+  private PropertiesBlobMetadataStore underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    root = util.createTempDir("content").toPath();
+    underTest = new PropertiesBlobMetadataStore(root, new VolumeChapterLocationStrategy());
+    underTest.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (underTest != null) {
+      underTest.stop();
+    }
+  }
+
+  /**
+   * Helper to find states and close iterable.
+   */
+  private Iterable<BlobId> findWithState(final BlobState state) throws Exception {
+    List<BlobId> results = Lists.newArrayList();
+    try (AutoClosableIterable<BlobId> iter = underTest.findWithState(state)) {
+      for (BlobId id : iter) {
+        results.add(id);
+      }
+    }
+    return results;
+  }
+
+  private BlobMetadata alive(final long size) {
+    BlobMetadata md = new BlobMetadata(BlobState.ALIVE, ImmutableMap.of("foo", "bar"));
+    md.setMetrics(new BlobMetrics(new DateTime(), "sha1", size));
+    return md;
+  }
+
+  @Test
+  public void stateTracking() throws Exception {
+    BlobMetadata md = new BlobMetadata(BlobState.CREATING, ImmutableMap.of("foo", "bar"));
+    BlobId id = underTest.add(md);
+
+    assertThat(findWithState(BlobState.CREATING), contains(id));
+    assertThat(findWithState(BlobState.ALIVE), emptyIterable());
+
+    md.setBlobState(BlobState.MARKED_FOR_DELETION);
+    underTest.update(id, md);
+
+    assertThat(findWithState(BlobState.CREATING), emptyIterable());
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), contains(id));
+
+    underTest.delete(id);
+
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), emptyIterable());
+    assertThat(underTest.get(id), nullValue());
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    BlobId id = underTest.add(alive(42L));
+
+    BlobMetadata md = underTest.get(id);
+    assertThat(md, notNullValue());
+    assertThat(md.getBlobState(), is(BlobState.ALIVE));
+    assertThat(md.getHeaders().get("foo"), is("bar"));
+    assertThat(md.getMetrics().getSHA1Hash(), is("sha1"));
+    assertThat(md.getMetrics().getContentSize(), is(42L));
+  }
+
+  @Test
+  public void metricsAreRebuiltOnRestart() throws Exception {
+    underTest.add(alive(10L));
+    underTest.add(alive(20L));
+    BlobId deleted = underTest.add(alive(30L));
+    underTest.delete(deleted);
+
+    assertThat(underTest.getBlobCount(), is(2L));
+    assertThat(underTest.getTotalSize(), is(30L));
+
+    underTest.stop();
+    underTest = new PropertiesBlobMetadataStore(root, new VolumeChapterLocationStrategy());
+    underTest.start();
+
+    assertThat(underTest.getBlobCount(), is(2L));
+    assertThat(underTest.getTotalSize(), is(30L));
+  }
+
+  @Test
+  public void staleDeletionMarkersAreDropped() throws Exception {
+    BlobId alive = underTest.add(alive(10L));
+    BlobMetadata md = alive(20L);
+    md.setBlobState(BlobState.MARKED_FOR_DELETION);
+    BlobId marked = underTest.add(md);
+
+    Path deletions = root.resolve(PropertiesBlobMetadataStore.DELETIONS_DIR);
+    assertThat(Files.exists(deletions.resolve(marked.asUniqueString())), is(true));
+
+    // as if a crash happened between marking and unmarking the blob
+    Files.createFile(deletions.resolve(alive.asUniqueString()));
+
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), contains(marked));
+    assertThat(Files.exists(deletions.resolve(alive.asUniqueString())), is(false));
+  }
+
+  @Test
+  public void lostDeletionMarkersAreRestoredOnRestart() throws Exception {
+    BlobMetadata md = alive(20L);
+    md.setBlobState(BlobState.MARKED_FOR_DELETION);
+    BlobId marked = underTest.add(md);
+
+    Files.delete(root.resolve(PropertiesBlobMetadataStore.DELETIONS_DIR).resolve(marked.asUniqueString()));
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), emptyIterable());
+
+    underTest.stop();
+    underTest = new PropertiesBlobMetadataStore(root, new VolumeChapterLocationStrategy());
+    underTest.start();
+
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), contains(marked));
+    assertThat(underTest.getBlobCount(), is(1L));
+  }
+
+  @Test
+  public void concurrentUpdatesKeepTotalSize() throws Exception {
+    final BlobId id = underTest.add(alive(0L));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Void>> futures = Lists.newArrayList();
+      for (int i = 1; i <= 200; i++) {
+        final long size = i;
+        futures.add(executor.submit(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws Exception {
+            underTest.update(id, alive(size));
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(underTest.getTotalSize(), is(underTest.get(id).getMetrics().getContentSize()));
+  }
+
+  @Test
+  public void migrateFromMapdb() throws Exception {
+    File mapdbDir = new File(util.createTempDir("databases"), "metadata");
+    BlobMetadataStore mapdb = MapdbBlobMetadataStore.create(mapdbDir);
+    mapdb.start();
+    BlobId alive = mapdb.add(alive(5L));
+    BlobId marked = mapdb.add(new BlobMetadata(BlobState.MARKED_FOR_DELETION, ImmutableMap.of("foo", "baz")));
+    mapdb.stop();
+
+    MapdbBlobMetadataMigrator migrator = new MapdbBlobMetadataMigrator();
+    assertThat(migrator.isMigrationRequired(mapdbDir), is(true));
+    assertThat(migrator.migrate(mapdbDir, underTest), is(2L));
+    assertThat(migrator.isMigrationRequired(mapdbDir), is(false));
+
+    assertThat(underTest.get(alive).getMetrics().getContentSize(), is(5L));
+    assertThat(findWithState(BlobState.ALIVE), containsInAnyOrder(alive));
+    assertThat(findWithState(BlobState.MARKED_FOR_DELETION), containsInAnyOrder(marked));
+    assertThat(underTest.getBlobCount(), is(2L));
+  }
+}
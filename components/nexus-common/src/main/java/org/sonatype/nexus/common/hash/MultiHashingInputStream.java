@@ -15,7 +15,9 @@ package org.sonatype.nexus.common.hash;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
@@ -38,6 +40,8 @@ public class MultiHashingInputStream
 
   private long count;
 
+  private Map<HashAlgorithm, HashCode> hashes;
+
   public MultiHashingInputStream(Iterable<HashAlgorithm> algorithms, InputStream inputStream) {
     super(checkNotNull(inputStream));
     for (HashAlgorithm algorithm : checkNotNull(algorithms)) {
@@ -84,14 +88,27 @@ public class MultiHashingInputStream
     throw new IOException("reset not supported");
   }
 
+  /**
+   * Gets the algorithms this stream is hashing with.
+   */
+  public Set<HashAlgorithm> algorithms() {
+    return Collections.unmodifiableSet(hashers.keySet());
+  }
+
   /**
    * Gets the {@link HashCode}s based on the data read from this stream.
+   *
+   * The hashes are finalized on the first call, so the stream should be fully consumed by then; later calls return
+   * the same result, allowing several consumers (e.g. a blob store and its caller) to share one hashing pass.
    */
   public Map<HashAlgorithm, HashCode> hashes() {
-    Map<HashAlgorithm, HashCode> hashes = Maps.newHashMap();
-    for (HashAlgorithm algorithm : hashers.keySet()) {
-      Hasher hasher = hashers.get(algorithm);
-      hashes.put(algorithm, hasher.hash());
+    if (hashes == null) {
+      Map<HashAlgorithm, HashCode> result = Maps.newHashMap();
+      for (HashAlgorithm algorithm : hashers.keySet()) {
+        Hasher hasher = hashers.get(algorithm);
+        result.put(algorithm, hasher.hash());
+      }
+      hashes = Collections.unmodifiableMap(result);
     }
     return hashes;
   }
@@ -0,0 +1,90 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.common.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Passes an InputStream through while keeping a copy of its first bytes in memory, so they can be inspected (for
+ * example for MIME type detection) after the stream has been consumed, without spooling the whole stream to disk.
+ *
+ * @since 3.0
+ */
+public class HeadCapturingInputStream
+    extends FilterInputStream
+{
+  private final byte[] head;
+
+  private int headLength;
+
+  public HeadCapturingInputStream(final InputStream inputStream, final int headSize) {
+    super(inputStream);
+    checkArgument(headSize > 0);
+    this.head = new byte[headSize];
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b != -1 && headLength < head.length) {
+      head[headLength++] = (byte) b;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] bytes, final int off, final int len) throws IOException {
+    int count = in.read(bytes, off, len);
+    if (count > 0 && headLength < head.length) {
+      int captured = Math.min(count, head.length - headLength);
+      System.arraycopy(bytes, off, head, headLength, captured);
+      headLength += captured;
+    }
+    return count;
+  }
+
+  /**
+   * Skipped bytes are not captured, so skipping would leave a gap in the head.
+   */
+  @Override
+  public long skip(final long n) throws IOException {
+    throw new IOException("skip not supported");
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(final int readlimit) {
+    // not supported
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  /**
+   * Returns a stream over the bytes captured so far, at most the head size given at construction.
+   */
+  public InputStream getHead() {
+    return new ByteArrayInputStream(head, 0, headLength);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.common.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HeadCapturingInputStreamTest
+    extends TestSupport
+{
+  final byte[] content = "0123456789".getBytes();
+
+  @Test
+  public void testHeadIsCapturedWhileStreaming() throws Exception {
+    HeadCapturingInputStream underTest = new HeadCapturingInputStream(new ByteArrayInputStream(content), 4);
+
+    assertThat(ByteStreams.toByteArray(underTest), is(content));
+    assertThat(ByteStreams.toByteArray(underTest.getHead()), is("0123".getBytes()));
+  }
+
+  @Test
+  public void testShortStreamIsCapturedWhole() throws Exception {
+    HeadCapturingInputStream underTest = new HeadCapturingInputStream(new ByteArrayInputStream(content), 64);
+
+    assertThat(underTest.read(), is((int) '0'));
+    ByteStreams.copy(underTest, ByteStreams.nullOutputStream());
+    try (InputStream head = underTest.getHead()) {
+      assertThat(ByteStreams.toByteArray(head), is(content));
+    }
+  }
+}
@@ -12,6 +12,7 @@
  */
 package org.sonatype.nexus.internal.httpclient;
 
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 import org.sonatype.sisu.goodies.common.Time;
@@ -27,6 +28,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Low priority daemon thread responsible to evict connection manager pooled connections.
  *
+ * May serve several connection managers, which are iterated on every run.
+ *
  * @since 2.2
  */
 class ConnectionEvictionThread
@@ -34,7 +37,7 @@ class ConnectionEvictionThread
 {
   private static final Logger log = LoggerFactory.getLogger(ConnectionEvictionThread.class);
 
-  private final HttpClientConnectionManager connectionManager;
+  private final Iterable<? extends HttpClientConnectionManager> connectionManagers;
 
   private final long idleTimeMillis;
 
@@ -44,10 +47,20 @@ class ConnectionEvictionThread
   ConnectionEvictionThread(final HttpClientConnectionManager connectionManager,
                            final long idleTimeMillis,
                            final long delay)
+  {
+    this(Collections.singleton(checkNotNull(connectionManager)), idleTimeMillis, delay);
+  }
+
+  /**
+   * @since 3.0
+   */
+  ConnectionEvictionThread(final Iterable<? extends HttpClientConnectionManager> connectionManagers,
+                           final long idleTimeMillis,
+                           final long delay)
   {
     super("nexus-httpclient-eviction-thread");
     checkArgument(idleTimeMillis > -1, "Keep alive period in milliseconds cannot be negative");
-    this.connectionManager = checkNotNull(connectionManager);
+    this.connectionManagers = checkNotNull(connectionManagers);
     this.idleTimeMillis = idleTimeMillis;
     this.delay = delay;
     setDaemon(true);
@@ -58,6 +71,15 @@ class ConnectionEvictionThread
     this(connectionManager, idleTime.toMillisI(), 5000);
   }
 
+  /**
+   * @since 3.0
+   */
+  ConnectionEvictionThread(final Iterable<? extends HttpClientConnectionManager> connectionManagers,
+                           final Time idleTime)
+  {
+    this(connectionManagers, idleTime.toMillisI(), 5000);
+  }
+
   @Override
   public void run() {
     log.debug("Starting '{}' (delay {} millis)", getName(), delay);
@@ -66,18 +88,20 @@ class ConnectionEvictionThread
         synchronized (this) {
           wait(delay);
 
-          try {
-            connectionManager.closeExpiredConnections();
-          }
-          catch (Exception e) {
-            log.warn("Failed to close expired connections", e);
-          }
+          for (HttpClientConnectionManager connectionManager : connectionManagers) {
+            try {
+              connectionManager.closeExpiredConnections();
+            }
+            catch (Exception e) {
+              log.warn("Failed to close expired connections", e);
+            }
 
-          try {
-            connectionManager.closeIdleConnections(idleTimeMillis, TimeUnit.MILLISECONDS);
-          }
-          catch (Exception e) {
-            log.warn("Failed to close idle connections", e);
+            try {
+              connectionManager.closeIdleConnections(idleTimeMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (Exception e) {
+              log.warn("Failed to close idle connections", e);
+            }
           }
         }
       }
@@ -41,6 +41,7 @@ import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -238,4 +239,10 @@ public class HttpClientManagerImpl
     // create with defaults only
     return create(null);
   }
+
+  @Override
+  @Guarded(by = STARTED)
+  public PoolingHttpClientConnectionManager createConnectionManager(final int maxTotal, final int maxPerRoute) {
+    return sharedConnectionManager.createDedicated(maxTotal, maxPerRoute);
+  }
 }
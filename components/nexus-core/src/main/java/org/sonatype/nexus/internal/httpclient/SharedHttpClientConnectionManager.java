@@ -12,7 +12,12 @@
  */
 package org.sonatype.nexus.internal.httpclient;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -22,8 +27,16 @@ import org.sonatype.nexus.httpclient.SSLContextSelector;
 import org.sonatype.sisu.goodies.common.Time;
 import org.sonatype.sisu.goodies.lifecycle.Lifecycle;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
@@ -39,6 +52,13 @@ import static org.sonatype.nexus.httpclient.HttpSchemes.HTTPS;
 /**
  * Shared {@link PoolingHttpClientConnectionManager}.
  *
+ * Also creates {@link #createDedicated(int, int) dedicated} pools, which use the same socket factories and are
+ * evicted of idle connections along with the shared pool.
+ *
+ * The pool max-size ({@code nexus.httpclient.connectionpool.maxSize}) caps the connections leased from the shared
+ * and all dedicated pools together. A dedicated pool may be sized larger than its share of the cap, and a lease
+ * beyond the cap waits for another lease to be released, within the connection request timeout.
+ *
  * @since 3.0
  */
 @Named("shared")
@@ -50,8 +70,17 @@ public class SharedHttpClientConnectionManager
 {
   private static final Logger log = LoggerFactory.getLogger(SharedHttpClientConnectionManager.class);
 
+  private final Registry<ConnectionSocketFactory> registry;
+
   private final Time connectionPoolIdleTime;
 
+  private final Set<PoolingHttpClientConnectionManager> dedicatedConnectionManagers = Sets.newConcurrentHashSet();
+
+  /**
+   * Permits for connections leased from the shared and all dedicated pools.
+   */
+  private final Semaphore leases;
+
   private ConnectionEvictionThread evictionThread;
 
   @Inject
@@ -61,9 +90,20 @@ public class SharedHttpClientConnectionManager
       @Named("${nexus.httpclient.connectionpool.maxSize:-200}") final int connectionPoolMaxSize,
       @Named("${nexus.httpclient.connectionpool.idleTime:-30s}") final Time connectionPoolIdleTime)
   {
-    super(createRegistry(sslContextSelectors));
+    this(createRegistry(sslContextSelectors), connectionPoolSize, connectionPoolMaxSize, connectionPoolIdleTime);
+  }
+
+  @VisibleForTesting
+  SharedHttpClientConnectionManager(final Registry<ConnectionSocketFactory> registry,
+                                    final int connectionPoolSize,
+                                    final int connectionPoolMaxSize,
+                                    final Time connectionPoolIdleTime)
+  {
+    super(registry);
+    this.registry = registry;
 
     setMaxTotal(connectionPoolMaxSize);
+    this.leases = new Semaphore(connectionPoolMaxSize, true);
     log.debug("Connection pool max-size: {}", connectionPoolMaxSize);
 
     setDefaultMaxPerRoute(Math.min(connectionPoolSize, connectionPoolMaxSize));
@@ -82,6 +122,108 @@ public class SharedHttpClientConnectionManager
     return builder.build();
   }
 
+  /**
+   * Creates a connection pool of its own for a single client, which is released when the client is closed. Its
+   * leases count against the pool max-size shared by all pools.
+   *
+   * @since 3.0
+   */
+  public PoolingHttpClientConnectionManager createDedicated(final int maxTotal, final int maxPerRoute) {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(registry)
+    {
+      @Override
+      public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+        return capped(super.requestConnection(route, state));
+      }
+
+      @Override
+      public void releaseConnection(final HttpClientConnection managedConn,
+                                    final Object state,
+                                    final long keepalive,
+                                    final TimeUnit tunit)
+      {
+        try {
+          super.releaseConnection(managedConn, state, keepalive, tunit);
+        }
+        finally {
+          leases.release();
+        }
+      }
+
+      @Override
+      public void shutdown() {
+        dedicatedConnectionManagers.remove(this);
+        super.shutdown();
+      }
+    };
+    connectionManager.setMaxTotal(maxTotal);
+    connectionManager.setDefaultMaxPerRoute(Math.min(maxPerRoute, maxTotal));
+    connectionManager.setValidateAfterInactivity(-1);
+    dedicatedConnectionManagers.add(connectionManager);
+    log.debug("Created dedicated connection pool max-size: {}, size: {}", maxTotal, maxPerRoute);
+    return connectionManager;
+  }
+
+  @Override
+  public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+    return capped(super.requestConnection(route, state));
+  }
+
+  @Override
+  public void releaseConnection(final HttpClientConnection managedConn,
+                                final Object state,
+                                final long keepalive,
+                                final TimeUnit tunit)
+  {
+    try {
+      super.releaseConnection(managedConn, state, keepalive, tunit);
+    }
+    finally {
+      leases.release();
+    }
+  }
+
+  /**
+   * Takes a lease permit before leasing from the given pool, giving it back if the pool fails to lease. The timeout
+   * covers both waits, and zero waits indefinitely as with the pool.
+   */
+  private ConnectionRequest capped(final ConnectionRequest request) {
+    return new ConnectionRequest()
+    {
+      @Override
+      public HttpClientConnection get(final long timeout, final TimeUnit tunit)
+          throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException
+      {
+        long started = System.nanoTime();
+        if (timeout > 0) {
+          if (!leases.tryAcquire(timeout, tunit)) {
+            request.cancel();
+            throw new ConnectionPoolTimeoutException("Timeout waiting for connection from pool");
+          }
+        }
+        else {
+          leases.acquire();
+        }
+        try {
+          long remaining = 0;
+          if (timeout > 0) {
+            remaining = Math.max(1, tunit.toNanos(timeout) - (System.nanoTime() - started));
+          }
+          return request.get(remaining, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException | ExecutionException | ConnectionPoolTimeoutException | RuntimeException e) {
+          leases.release();
+          throw e;
+        }
+      }
+
+      @Override
+      public boolean cancel() {
+        return request.cancel();
+      }
+    };
+  }
+
   /**
    * Do nothing in order to avoid unwanted shutdown of shared connection manager.
    *
@@ -105,7 +247,10 @@ public class SharedHttpClientConnectionManager
 
   @Override
   public void start() throws Exception {
-    evictionThread = new ConnectionEvictionThread(this, connectionPoolIdleTime);
+    evictionThread = new ConnectionEvictionThread(
+        Iterables.concat(Collections.<HttpClientConnectionManager>singleton(this), dedicatedConnectionManagers),
+        connectionPoolIdleTime
+    );
     evictionThread.start();
   }
 
@@ -114,6 +259,9 @@ public class SharedHttpClientConnectionManager
     evictionThread.interrupt();
     evictionThread = null;
 
+    for (PoolingHttpClientConnectionManager connectionManager : dedicatedConnectionManagers) {
+      connectionManager.shutdown();
+    }
     super.shutdown();
   }
 }
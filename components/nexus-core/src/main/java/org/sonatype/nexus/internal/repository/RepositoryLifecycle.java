@@ -21,6 +21,7 @@ import org.sonatype.nexus.common.app.NexusStartedEvent;
 import org.sonatype.nexus.common.app.NexusStoppedEvent;
 import org.sonatype.nexus.repository.config.ConfigurationStore;
 import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.storage.BucketPurger;
 import org.sonatype.sisu.goodies.eventbus.EventBus;
 import org.sonatype.sisu.goodies.lifecycle.LifecycleManagerImpl;
 
@@ -47,16 +48,20 @@ public class RepositoryLifecycle
 
   private final Provider<RepositoryManager> repositoryManager;
 
+  private final Provider<BucketPurger> bucketPurger;
+
   @Inject
   public RepositoryLifecycle(final EventBus eventBus,
                              final Provider<BlobStoreManager> blobStoreManager,
                              final Provider<ConfigurationStore> configurationStore,
-                             final Provider<RepositoryManager> repositoryManager)
+                             final Provider<RepositoryManager> repositoryManager,
+                             final Provider<BucketPurger> bucketPurger)
   {
     this.eventBus = checkNotNull(eventBus);
     this.blobStoreManager = checkNotNull(blobStoreManager);
     this.configurationStore = checkNotNull(configurationStore);
     this.repositoryManager = checkNotNull(repositoryManager);
+    this.bucketPurger = checkNotNull(bucketPurger);
 
     eventBus.register(this);
   }
@@ -66,6 +71,7 @@ public class RepositoryLifecycle
     add(blobStoreManager.get());
     add(configurationStore.get());
     add(repositoryManager.get());
+    add(bucketPurger.get());
     start();
   }
 
@@ -0,0 +1,103 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.internal.httpclient;
+
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.sisu.goodies.common.Time;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.fail;
+import static org.sonatype.nexus.httpclient.HttpSchemes.HTTP;
+
+/**
+ * Tests for {@link SharedHttpClientConnectionManager}.
+ */
+public class SharedHttpClientConnectionManagerTest
+    extends TestSupport
+{
+  private static final HttpRoute ROUTE = new HttpRoute(new HttpHost("localhost", 80));
+
+  private SharedHttpClientConnectionManager underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+        .register(HTTP, PlainConnectionSocketFactory.getSocketFactory())
+        .build();
+    underTest = new SharedHttpClientConnectionManager(registry, 2, 2, Time.seconds(30));
+    underTest.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (underTest != null) {
+      underTest.stop();
+    }
+  }
+
+  private HttpClientConnection lease(final PoolingHttpClientConnectionManager pool) throws Exception {
+    return pool.requestConnection(ROUTE, null).get(100, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void dedicatedPoolsShareTheMaxSize() throws Exception {
+    PoolingHttpClientConnectionManager first = underTest.createDedicated(2, 2);
+    PoolingHttpClientConnectionManager second = underTest.createDedicated(2, 2);
+
+    HttpClientConnection leased = lease(underTest);
+    lease(first);
+    try {
+      lease(second);
+      fail("Leased beyond the max-size");
+    }
+    catch (ConnectionPoolTimeoutException e) {
+      // expected
+    }
+
+    underTest.releaseConnection(leased, null, 0, TimeUnit.MILLISECONDS);
+    assertThat(lease(second), notNullValue());
+  }
+
+  @Test
+  public void failedLeaseGivesBackItsPermit() throws Exception {
+    PoolingHttpClientConnectionManager pool = underTest.createDedicated(1, 1);
+
+    lease(pool);
+    try {
+      lease(pool);
+      fail("Leased beyond the dedicated pool size");
+    }
+    catch (ConnectionPoolTimeoutException e) {
+      // expected
+    }
+
+    // the pool timed out, so its permit must be free for the shared pool
+    assertThat(lease(underTest), notNullValue());
+  }
+}
@@ -15,6 +15,7 @@ package org.sonatype.nexus.httpclient;
 import org.sonatype.nexus.httpclient.config.HttpClientConfiguration;
 
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
 /**
  * HTTP-client manager.
@@ -45,4 +46,14 @@ public interface HttpClientManager
    * Consider using {@code Provider<HttpClient>} instead.
    */
   CloseableHttpClient create();
+
+  /**
+   * Create a connection pool dedicated to one HTTP-client, so it does not compete for the shared pool.
+   *
+   * The pool is released when the client it is installed in is closed. Its leases still count against the global
+   * connection pool max-size, which caps the connections leased from all pools together.
+   *
+   * @since 3.0
+   */
+  PoolingHttpClientConnectionManager createConnectionManager(int maxTotal, int maxPerRoute);
 }
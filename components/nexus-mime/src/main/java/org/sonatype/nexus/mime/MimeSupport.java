@@ -26,6 +26,14 @@ import javax.annotation.Nullable;
  */
 public interface MimeSupport
 {
+  /**
+   * The number of leading content bytes that {@link #detectMimeTypes(InputStream, String)} inspects; callers may
+   * pass just this much of the content rather than all of it.
+   *
+   * @since 3.0
+   */
+  int DETECTION_HEAD_SIZE = 64 * 1024;
+
   /**
    * Makes a "guess" (usually based on file extension) about the MIME type that is most applicable to the given path
    * taking into consideration the requester MimeRulesSource MIME rules. When no "hard rule" present from
@@ -0,0 +1,181 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.conditional;
+
+import java.util.Date;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.repository.http.HttpMethods;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.http.HttpStatus;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Handler;
+import org.sonatype.nexus.repository.view.Headers;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.PayloadResponse;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.sisu.goodies.common.ComponentSupport;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.HashCode;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.client.utils.DateUtils;
+import org.joda.time.DateTime;
+
+/**
+ * Implements conditional GET and HEAD semantics (as per RFC 7232) for {@link Content} responses.
+ *
+ * The entity tag and last modified date are taken from the {@link Content} attributes, using the SHA1 hash for the
+ * entity tag when the content has no {@link Content#CONTENT_ETAG etag}. Requests whose {@code If-None-Match} or
+ * {@code If-Modified-Since} header matches are answered with a "304 Not Modified" response which carries no payload,
+ * so the content is never read from the blob store.
+ *
+ * Requests a group dispatches to its members are passed through unevaluated, see {@link #EVALUATED_OUTSIDE}.
+ *
+ * @since 3.0
+ */
+@Named
+@Singleton
+public class ConditionalRequestHandler
+    extends ComponentSupport
+    implements Handler
+{
+  /**
+   * Request attribute marking a request whose conditional headers are evaluated by an outer handler only. Groups set
+   * it on the request they dispatch to their members, as a member answering "304 Not Modified" would be left out of
+   * the group's response, and a merged response built without it.
+   */
+  public static final String EVALUATED_OUTSIDE = ConditionalRequestHandler.class.getName() + ".evaluatedOutside";
+
+  @Nonnull
+  @Override
+  public Response handle(@Nonnull final Context context) throws Exception {
+    // checked before proceeding, a group sets it while handling the request further down
+    if (context.getRequest().getAttributes().contains(EVALUATED_OUTSIDE)) {
+      return context.proceed();
+    }
+
+    final Response response = context.proceed();
+
+    final String action = context.getRequest().getAction();
+    if (!HttpMethods.GET.equals(action) && !HttpMethods.HEAD.equals(action)) {
+      return response;
+    }
+
+    if (response.getStatus().getCode() != HttpStatus.OK || !(response instanceof PayloadResponse)) {
+      return response;
+    }
+
+    final Payload payload = ((PayloadResponse) response).getPayload();
+    if (!(payload instanceof Content)) {
+      return response;
+    }
+
+    final Content content = (Content) payload;
+    final String etag = etag(content);
+    final DateTime lastModified = content.getAttributes().get(Content.CONTENT_LAST_MODIFIED, DateTime.class);
+
+    final Headers headers = response.getHeaders();
+    if (etag != null && !headers.contains(HttpHeaders.ETAG)) {
+      headers.set(HttpHeaders.ETAG, "\"" + etag + "\"");
+    }
+    if (lastModified != null && !headers.contains(HttpHeaders.LAST_MODIFIED)) {
+      headers.set(HttpHeaders.LAST_MODIFIED, DateUtils.formatDate(lastModified.toDate()));
+    }
+
+    if (!isNotModified(context.getRequest(), etag, lastModified)) {
+      return response;
+    }
+
+    log.trace("Not modified: {}", context.getRequest());
+    // the content is not going to be read
+    content.close();
+    final Response notModified = HttpResponses.notModified();
+    for (String name : new String[]{HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED}) {
+      if (headers.contains(name)) {
+        notModified.getHeaders().set(name, headers.getAll(name));
+      }
+    }
+    return notModified;
+  }
+
+  /**
+   * Returns the entity tag of the content, without quotes, or {@code null} if it has none.
+   */
+  @Nullable
+  private String etag(final Content content) {
+    final String etag = content.getAttributes().get(Content.CONTENT_ETAG, String.class);
+    if (etag != null) {
+      return etag;
+    }
+    @SuppressWarnings("unchecked")
+    final Map<HashAlgorithm, HashCode> hashCodes =
+        content.getAttributes().get(Content.CONTENT_HASH_CODES_MAP, Map.class);
+    if (hashCodes != null && hashCodes.get(HashAlgorithm.SHA1) != null) {
+      return "{SHA1{" + hashCodes.get(HashAlgorithm.SHA1) + "}}";
+    }
+    return null;
+  }
+
+  /**
+   * Evaluates {@code If-None-Match}, or {@code If-Modified-Since} when the request has no {@code If-None-Match}.
+   */
+  private boolean isNotModified(final Request request,
+                                @Nullable final String etag,
+                                @Nullable final DateTime lastModified)
+  {
+    final Headers headers = request.getHeaders();
+    if (headers.contains(HttpHeaders.IF_NONE_MATCH)) {
+      return etag != null && matches(headers.getAll(HttpHeaders.IF_NONE_MATCH), etag);
+    }
+
+    final String ifModifiedSince = headers.get(HttpHeaders.IF_MODIFIED_SINCE);
+    if (ifModifiedSince != null && lastModified != null) {
+      final Date since = DateUtils.parseDate(ifModifiedSince);
+      // HTTP dates have a precision of a second
+      return since != null && lastModified.getMillis() / 1000 <= since.getTime() / 1000;
+    }
+    return false;
+  }
+
+  /**
+   * Weak comparison (as per RFC 7232 section 2.3.2) of the entity tags of an {@code If-None-Match} header.
+   */
+  private boolean matches(final Iterable<String> ifNoneMatch, final String etag) {
+    for (String values : ifNoneMatch) {
+      for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(values)) {
+        if ("*".equals(value)) {
+          return true;
+        }
+        if (value.startsWith("W/")) {
+          value = value.substring(2);
+        }
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+          value = value.substring(1, value.length() - 1);
+        }
+        if (etag.equals(value)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -13,26 +13,50 @@
 
 package org.sonatype.nexus.repository.group;
 
+import java.io.Closeable;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.sonatype.nexus.common.app.NexusStoppedEvent;
+import org.sonatype.nexus.common.event.EventSubscriber;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.repository.MissingFacetException;
 import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.conditional.ConditionalRequestHandler;
 import org.sonatype.nexus.repository.http.HttpResponses;
 import org.sonatype.nexus.repository.http.HttpStatus;
 import org.sonatype.nexus.repository.view.Context;
 import org.sonatype.nexus.repository.view.Handler;
-import org.sonatype.nexus.repository.view.Request;
 import org.sonatype.nexus.repository.view.Response;
 import org.sonatype.nexus.repository.view.ViewFacet;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import static org.sonatype.nexus.repository.http.HttpMethods.GET;
 import static org.sonatype.nexus.repository.http.HttpMethods.HEAD;
@@ -46,29 +70,126 @@ import static org.sonatype.nexus.repository.http.HttpMethods.HEAD;
 @Singleton
 public class GroupHandler
     extends ComponentSupport
-    implements Handler
+    implements Handler, EventSubscriber
 {
   /**
    * Request-context state container for set of repositories already dispatched to.
    */
   protected static class DispatchedRepositories
   {
-    private final Set<String> dispatched = Sets.newHashSet();
+    /**
+     * Claimant of the repositories already dispatched to, repository names are never empty.
+     */
+    private static final String DISPATCHED = "";
+
+    // repository name -> name of the group which claimed it for dispatch, or DISPATCHED
+    // members of nested groups may be dispatched to concurrently, see DEFAULT_HEDGE_DELAY_MILLIS
+    private final ConcurrentMap<String, String> claims = Maps.newConcurrentMap();
 
     public void add(final Repository repository) {
-      dispatched.add(repository.getName());
+      claims.put(repository.getName(), DISPATCHED);
     }
 
     public boolean contains(final Repository repository) {
-      return dispatched.contains(repository.getName());
+      return claims.containsKey(repository.getName());
+    }
+
+    /**
+     * Claims the members for the group, and the members of nested groups for those groups in turn, depth first in
+     * group order, so a member of several nested groups is claimed by the one the sequential dispatch would reach
+     * first. Returns the members claimed by the group and not dispatched to yet.
+     */
+    List<Repository> claim(final Repository group, final List<Repository> members) {
+      final List<Repository> claimed = Lists.newArrayListWithCapacity(members.size());
+      for (Repository member : members) {
+        String claimant = claims.putIfAbsent(member.getName(), group.getName());
+        if (claimant == null) {
+          claimed.add(member);
+          List<Repository> nestedMembers = nestedMembers(member);
+          if (nestedMembers != null) {
+            claim(member, nestedMembers);
+          }
+        }
+        else if (claimant.equals(group.getName())) {
+          claimed.add(member);
+        }
+      }
+      return claimed;
+    }
+
+    /**
+     * Marks the member as dispatched to by the group. Returns {@code false} if it was dispatched to before or was
+     * claimed by another group.
+     */
+    boolean dispatch(final Repository group, final Repository member) {
+      return claims.putIfAbsent(member.getName(), DISPATCHED) == null
+          || claims.replace(member.getName(), group.getName(), DISPATCHED);
+    }
+
+    @Nullable
+    private static List<Repository> nestedMembers(final Repository member) {
+      try {
+        GroupFacet groupFacet = member.facet(GroupFacet.class);
+        return groupFacet != null ? groupFacet.members() : null;
+      }
+      catch (MissingFacetException e) {
+        return null;
+      }
     }
 
     @Override
     public String toString() {
-      return dispatched.toString();
+      return claims.toString();
     }
   }
 
+  /**
+   * Milliseconds to wait for a member before also dispatching to the next one. Negative (the default) dispatches to
+   * members strictly one after the other, zero dispatches to all members at once.
+   */
+  private static final long DEFAULT_HEDGE_DELAY_MILLIS =
+      SystemPropertiesHelper.getLong(GroupHandler.class.getName() + ".hedgeDelayMillis", -1L);
+
+  /**
+   * Maximum number of threads dispatching to members concurrently, shared by all groups. When all of them are busy
+   * the calling thread dispatches to the member itself.
+   */
+  private static final int DISPATCH_THREADS =
+      SystemPropertiesHelper.getInteger(GroupHandler.class.getName() + ".dispatchThreads", 100);
+
+  private final long hedgeDelayMillis;
+
+  private final ListeningExecutorService executor;
+
+  public GroupHandler() {
+    this(DEFAULT_HEDGE_DELAY_MILLIS);
+  }
+
+  @VisibleForTesting
+  GroupHandler(final long hedgeDelayMillis) {
+    this.hedgeDelayMillis = hedgeDelayMillis;
+
+    // direct hand-off, running on the calling thread when the pool is full also keeps nested group dispatches from
+    // waiting on each other for threads; unlike CallerRunsPolicy keeps running dispatches after shutdown
+    final ThreadPoolExecutor target = new ThreadPoolExecutor(0, DISPATCH_THREADS, 60L, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(),
+        new NexusThreadFactory("group", "group-dispatch", Thread.NORM_PRIORITY, true),
+        new RejectedExecutionHandler()
+        {
+          @Override
+          public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+            runnable.run();
+          }
+        });
+    this.executor = MoreExecutors.listeningDecorator(NexusExecutorService.forCurrentSubject(target));
+  }
+
+  @Subscribe
+  public void on(final NexusStoppedEvent event) {
+    // no interruption, dispatches still in flight end on their own
+    executor.shutdown();
+  }
+
   @Nonnull
   @Override
   public Response handle(final @Nonnull Context context) throws Exception {
@@ -76,6 +197,8 @@ public class GroupHandler
     switch (method) {
       case GET:
       case HEAD: {
+        // conditions are evaluated on the response of the group, never by its members
+        context.getRequest().getAttributes().set(ConditionalRequestHandler.EVALUATED_OUTSIDE, Boolean.TRUE);
         final DispatchedRepositories dispatched = context.getRequest().getAttributes()
             .getOrCreate(DispatchedRepositories.class);
         return doGet(context, dispatched);
@@ -94,29 +217,33 @@ public class GroupHandler
       throws Exception
   {
     final GroupFacet groupFacet = context.getRepository().facet(GroupFacet.class);
-    return getFirst(context.getRequest(), groupFacet.members(), dispatched);
+    return getFirst(context, groupFacet.members(), dispatched);
   }
 
   /**
    * Returns the first OK response from member repositories or {@link HttpResponses#notFound()} if none of the members
-   * responded with OK.
+   * responded with OK. Members are dispatched to concurrently if the hedge delay is not negative, in which case the
+   * response of the first member in group order still wins.
    */
-  protected Response getFirst(final @Nonnull Request request,
+  protected Response getFirst(final @Nonnull Context context,
                               final @Nonnull List<Repository> members,
                               final @Nonnull DispatchedRepositories dispatched)
       throws Exception
   {
+    if (hedgeDelayMillis >= 0) {
+      return getFirstConcurrently(context, members, dispatched);
+    }
+    final Repository group = context.getRepository();
     for (Repository member : members) {
       log.trace("Trying member: {}", member);
       // track repositories we have dispatched to, prevent circular dispatch for nested groups
-      if (dispatched.contains(member)) {
+      if (!dispatched.dispatch(group, member)) {
         log.trace("Skipping already dispatched member: {}", member);
         continue;
       }
-      dispatched.add(member);
 
       final ViewFacet view = member.facet(ViewFacet.class);
-      final Response response = view.dispatch(request);
+      final Response response = view.dispatch(context.getRequest());
       if (response.getStatus().isSuccessful()) {
         return response;
       }
@@ -124,10 +251,137 @@ public class GroupHandler
     return HttpResponses.notFound();
   }
 
+  /**
+   * Dispatches to members concurrently, starting the next member each time the hedge delay passes without a member
+   * responding. Returns the OK response of the first member in group order once all members before it failed,
+   * letting the dispatches still in flight end on their own and discarding their responses.
+   */
+  private Response getFirstConcurrently(final Context context,
+                                        final List<Repository> members,
+                                        final DispatchedRepositories dispatched)
+      throws Exception
+  {
+    // claim members of nested groups too, before any of them is dispatched to concurrently
+    final List<Repository> candidates = dispatched.claim(context.getRepository(), members);
+    if (candidates.isEmpty()) {
+      return HttpResponses.notFound();
+    }
+
+    final BlockingQueue<Repository> completed = new LinkedBlockingQueue<>();
+    final List<ListenableFuture<Response>> futures = Lists.newArrayListWithCapacity(candidates.size());
+    Future<Response> winner = null;
+    try {
+      do {
+        futures.add(dispatch(context, candidates.get(futures.size()), dispatched, completed));
+      }
+      while (hedgeDelayMillis == 0 && futures.size() < candidates.size());
+
+      int next = 0;
+      while (next < candidates.size()) {
+        final Future<Response> future = futures.get(next);
+        if (future.isDone()) {
+          final Response response = getResponse(future);
+          if (response.getStatus().isSuccessful()) {
+            log.trace("Member {} responded first", candidates.get(next));
+            winner = future;
+            return response;
+          }
+          next++;
+          if (next == futures.size() && next < candidates.size()) {
+            futures.add(dispatch(context, candidates.get(next), dispatched, completed));
+          }
+        }
+        else if (futures.size() < candidates.size()) {
+          if (completed.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS) == null) {
+            log.trace("Hedging after {} ms", hedgeDelayMillis);
+            futures.add(dispatch(context, candidates.get(futures.size()), dispatched, completed));
+          }
+        }
+        else {
+          completed.take();
+        }
+      }
+      return HttpResponses.notFound();
+    }
+    finally {
+      for (ListenableFuture<Response> future : futures) {
+        if (future != winner) {
+          discard(future);
+        }
+      }
+    }
+  }
+
+  private ListenableFuture<Response> dispatch(final Context context,
+                                              final Repository member,
+                                              final DispatchedRepositories dispatched,
+                                              final BlockingQueue<Repository> completed)
+  {
+    log.trace("Trying member: {}", member);
+    final ListenableFuture<Response> future;
+    if (dispatched.dispatch(context.getRepository(), member)) {
+      future = executor.submit(new Callable<Response>()
+      {
+        @Override
+        public Response call() throws Exception {
+          return member.facet(ViewFacet.class).dispatch(context.getRequest());
+        }
+      });
+    }
+    else {
+      log.trace("Skipping already dispatched member: {}", member);
+      future = Futures.immediateFuture(HttpResponses.notFound());
+    }
+    future.addListener(new Runnable()
+    {
+      @Override
+      public void run() {
+        completed.add(member);
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /**
+   * Cancels a dispatch which lost, unless already running, as interrupting it could leave the member's storage in
+   * the middle of an operation. Its response, once there, is closed instead of being read.
+   */
+  private void discard(final ListenableFuture<Response> future) {
+    future.cancel(false);
+    future.addListener(new Runnable()
+    {
+      @Override
+      public void run() {
+        if (future.isCancelled()) {
+          return;
+        }
+        try {
+          final Response response = Futures.getUnchecked(future);
+          if (response.getPayload() instanceof Closeable) {
+            ((Closeable) response.getPayload()).close();
+          }
+        }
+        catch (Exception e) {
+          log.debug("Failed to discard response of losing member", e);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private Response getResponse(final Future<Response> future) throws Exception {
+    try {
+      return future.get();
+    }
+    catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), Exception.class);
+      throw e;
+    }
+  }
+
   /**
    * Returns all responses from all members as a linked map, where order is group member order.
    */
-  protected LinkedHashMap<Repository, Response> getAll(final @Nonnull Request request,
+  protected LinkedHashMap<Repository, Response> getAll(final @Nonnull Context context,
                                                        final @Nonnull List<Repository> members,
                                                        final @Nonnull DispatchedRepositories dispatched)
       throws Exception
@@ -136,14 +390,13 @@ public class GroupHandler
     for (Repository member : members) {
       log.trace("Trying member: {}", member);
       // track repositories we have dispatched to, prevent circular dispatch for nested groups
-      if (dispatched.contains(member)) {
+      if (!dispatched.dispatch(context.getRepository(), member)) {
         log.trace("Skipping already dispatched member: {}", member);
         continue;
       }
-      dispatched.add(member);
 
       final ViewFacet view = member.facet(ViewFacet.class);
-      final Response response = view.dispatch(request);
+      final Response response = view.dispatch(context.getRequest());
 
       responses.put(member, response);
     }
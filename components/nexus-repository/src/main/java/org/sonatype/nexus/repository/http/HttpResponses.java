@@ -74,6 +74,12 @@ public class HttpResponses
     return noContent(null);
   }
 
+  // Not Modified: 304
+
+  public static Response notModified() {
+    return new Response(Status.success(NOT_MODIFIED));
+  }
+
   // Not Found: 404
 
   public static Response notFound(final @Nullable String message) {
@@ -0,0 +1,245 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.httpclient;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.common.sequence.NumberSequence;
+import org.sonatype.sisu.goodies.common.ComponentSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Circuit breaker guarding the calls made to a remote.
+ *
+ * The outcome and duration of the latest calls are kept in a sliding window. Once enough calls are recorded and the
+ * share of failed calls, or of slow calls, reaches its threshold the breaker opens and calls are rejected without
+ * reaching the remote. After a back-off period taken from the given sequence it half-opens and lets a single trial
+ * call through: the breaker closes if it succeeds, else opens again for the next back-off period.
+ *
+ * The move to half-open is scheduled on an executor which may be shared by many breakers. The optional probe, which
+ * checks the remote without waiting for a request, is then handed to the probe executor: a probe waits on the remote,
+ * and must not hold up the transitions of other breakers.
+ *
+ * @since 3.0
+ */
+class CircuitBreaker
+    extends ComponentSupport
+{
+  enum State
+  {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+
+  private final int minimumCalls;
+
+  private final int failureRatePercent;
+
+  private final long slowCallDurationMillis;
+
+  private final int slowCallRatePercent;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final NumberSequence backoff;
+
+  private final Executor probeExecutor;
+
+  private final Runnable probe;
+
+  private final boolean[] failed;
+
+  private final boolean[] slow;
+
+  private int next;
+
+  private int recorded;
+
+  private int failures;
+
+  private int slows;
+
+  private State state = State.CLOSED;
+
+  private boolean trialInFlight;
+
+  private long openUntil;
+
+  private ScheduledFuture<?> halfOpenTask;
+
+  CircuitBreaker(final String name,
+                 final int windowSize,
+                 final int minimumCalls,
+                 final int failureRatePercent,
+                 final long slowCallDurationMillis,
+                 final int slowCallRatePercent,
+                 final ScheduledExecutorService scheduler,
+                 final NumberSequence backoff,
+                 final Executor probeExecutor,
+                 @Nullable final Runnable probe)
+  {
+    checkArgument(windowSize > 0, "windowSize must be positive");
+    checkArgument(minimumCalls > 0 && minimumCalls <= windowSize, "minimumCalls must be within windowSize");
+    this.name = checkNotNull(name);
+    this.minimumCalls = minimumCalls;
+    this.failureRatePercent = failureRatePercent;
+    this.slowCallDurationMillis = slowCallDurationMillis;
+    this.slowCallRatePercent = slowCallRatePercent;
+    this.scheduler = checkNotNull(scheduler);
+    this.backoff = checkNotNull(backoff);
+    this.probeExecutor = checkNotNull(probeExecutor);
+    this.probe = probe;
+    this.failed = new boolean[windowSize];
+    this.slow = new boolean[windowSize];
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Returns {@code true} if a call may be made, in which case its outcome must be reported with
+   * {@link #onSuccess(long)}, {@link #onFailure(long)} or {@link #onIgnored()}.
+   */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case HALF_OPEN:
+        if (trialInFlight) {
+          return false;
+        }
+        trialInFlight = true;
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  public synchronized void onSuccess(final long durationMillis) {
+    if (state == State.HALF_OPEN) {
+      close();
+    }
+    else if (state == State.CLOSED) {
+      record(false, durationMillis >= slowCallDurationMillis);
+    }
+  }
+
+  public synchronized void onFailure(final long durationMillis) {
+    if (state == State.HALF_OPEN) {
+      open();
+    }
+    else if (state == State.CLOSED) {
+      record(true, durationMillis >= slowCallDurationMillis);
+    }
+  }
+
+  /**
+   * Reports a call whose outcome says nothing about the health of the remote.
+   */
+  public synchronized void onIgnored() {
+    if (state == State.HALF_OPEN) {
+      trialInFlight = false;
+    }
+  }
+
+  /**
+   * Cancels any scheduled transition.
+   */
+  public synchronized void shutdown() {
+    if (halfOpenTask != null) {
+      halfOpenTask.cancel(false);
+      halfOpenTask = null;
+    }
+  }
+
+  private void record(final boolean failure, final boolean slowCall) {
+    if (recorded == failed.length) {
+      failures -= failed[next] ? 1 : 0;
+      slows -= slow[next] ? 1 : 0;
+    }
+    else {
+      recorded++;
+    }
+    failed[next] = failure;
+    slow[next] = slowCall;
+    failures += failure ? 1 : 0;
+    slows += slowCall ? 1 : 0;
+    next = (next + 1) % failed.length;
+
+    if (recorded >= minimumCalls
+        && (failures * 100 >= failureRatePercent * recorded || slows * 100 >= slowCallRatePercent * recorded)) {
+      open();
+    }
+  }
+
+  private void open() {
+    long delay = backoff.next();
+    state = State.OPEN;
+    trialInFlight = false;
+    openUntil = System.currentTimeMillis() + delay;
+    log.debug("Opening circuit of {} for {} ms ({}/{} failed, {}/{} slow)", name, delay, failures, recorded, slows,
+        recorded);
+    halfOpenTask = scheduler.schedule(new Runnable()
+    {
+      @Override
+      public void run() {
+        if (halfOpen() && probe != null) {
+          probeExecutor.execute(probe);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized boolean halfOpen() {
+    if (state != State.OPEN) {
+      return false;
+    }
+    log.debug("Half-opening circuit of {}", name);
+    state = State.HALF_OPEN;
+    halfOpenTask = null;
+    return true;
+  }
+
+  private void close() {
+    log.debug("Closing circuit of {}", name);
+    state = State.CLOSED;
+    trialInFlight = false;
+    next = 0;
+    recorded = 0;
+    failures = 0;
+    slows = 0;
+    backoff.reset();
+    shutdown();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return getClass().getSimpleName() + "{" +
+        "name='" + name + '\'' +
+        ", state=" + state +
+        (state == State.OPEN ? ", openUntil=" + openUntil : "") +
+        ", failures=" + failures +
+        ", slows=" + slows +
+        ", recorded=" + recorded +
+        '}';
+  }
+}
@@ -15,14 +15,23 @@ package org.sonatype.nexus.repository.httpclient;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
 
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.sequence.FibonacciNumberSequence;
-import org.sonatype.nexus.common.sequence.NumberSequence;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 import org.sonatype.sisu.goodies.common.Time;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
@@ -31,52 +40,93 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
-import org.joda.time.DateTime;
-import org.joda.time.Duration;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-// FIXME: Describe what this class is for in javadocs instead of leaving it empty!
-
 /**
+ * {@link HttpClient} which tracks the status of the remote it is used for, and blocks requests to it when
+ * configured to.
+ *
+ * When auto-blocking a {@link CircuitBreaker} fails requests to an unhealthy remote immediately, rather than having
+ * each wait on connect timeouts. Breakers of all clients schedule their checks of the remote on one shared scheduler,
+ * and run them on a shared, bounded pool.
+ *
  * @since 3.0
  */
 public class FilteredHttpClient
     extends ComponentSupport
     implements HttpClient, Closeable
 {
+  private static final String PREFIX = FilteredHttpClient.class.getName();
 
-  private final HttpClient delegate;
+  private static final int WINDOW_SIZE = SystemPropertiesHelper.getInteger(PREFIX + ".windowSize", 20);
 
-  private final boolean blocked;
+  private static final int MINIMUM_CALLS = SystemPropertiesHelper.getInteger(PREFIX + ".minimumCalls", 5);
+
+  private static final int FAILURE_RATE_PERCENT = SystemPropertiesHelper.getInteger(PREFIX + ".failureRatePercent", 50);
+
+  private static final long SLOW_CALL_DURATION_MILLIS =
+      SystemPropertiesHelper.getLong(PREFIX + ".slowCallDurationMillis", Time.seconds(30).toMillis());
+
+  private static final int SLOW_CALL_RATE_PERCENT =
+      SystemPropertiesHelper.getInteger(PREFIX + ".slowCallRatePercent", 100);
 
-  private HttpHost mainTarget;
+  private static final ScheduledExecutorService STATUS_CHECK_SCHEDULER = Executors.newScheduledThreadPool(
+      SystemPropertiesHelper.getInteger(PREFIX + ".statusCheckThreads", 2),
+      new ThreadFactoryBuilder().setNameFormat("remote-status-check-%d").setDaemon(true).build()
+  );
 
-  private DateTime blockedUntil;
+  /**
+   * Runs the checks of remotes, which may each wait on a connect timeout. Checks beyond the pool size are dropped: the
+   * breaker stays half-open, so the next request to the remote is let through as the trial instead.
+   */
+  private static final ThreadPoolExecutor STATUS_CHECK_EXECUTOR = new ThreadPoolExecutor(0,
+      SystemPropertiesHelper.getInteger(PREFIX + ".statusCheckProbeThreads", 10), 60L, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(),
+      new ThreadFactoryBuilder().setNameFormat("remote-status-probe-%d").setDaemon(true).build(),
+      new DiscardPolicy()
+  );
 
-  private Thread checkThread;
+  private final HttpClient delegate;
+
+  private final boolean blocked;
 
-  private final boolean autoBlock;
+  private final CircuitBreaker circuitBreaker;
 
-  private final NumberSequence autoBlockSequence;
+  private volatile HttpHost mainTarget;
 
-  private RemoteConnectionStatus status;
+  private volatile RemoteConnectionStatus status;
 
   public FilteredHttpClient(final HttpClient delegate,
                             final HttpClientFacetImpl.Config config)
+  {
+    this(delegate, config, STATUS_CHECK_SCHEDULER, STATUS_CHECK_EXECUTOR, MINIMUM_CALLS, Time.seconds(40).toMillis());
+  }
+
+  @VisibleForTesting
+  FilteredHttpClient(final HttpClient delegate,
+                     final HttpClientFacetImpl.Config config,
+                     final ScheduledExecutorService scheduler,
+                     final Executor probeExecutor,
+                     final int minimumCalls,
+                     final long backoffMillis)
   {
     this.delegate = checkNotNull(delegate);
     checkNotNull(config);
     blocked = config.blocked != null ? config.blocked : false;
-    autoBlock = config.autoBlock != null ? config.autoBlock : false;
+    boolean autoBlock = config.autoBlock != null ? config.autoBlock : false;
     status = new RemoteConnectionStatus(blocked ? "Remote Manually Blocked" : "Remote Connection Pending...");
     // TODO shall we use config.getConnectionConfig().getTimeout() * 2 as in NX2?
-    autoBlockSequence = new FibonacciNumberSequence(Time.seconds(40).toMillis());
+    circuitBreaker = !autoBlock ? null : new CircuitBreaker(delegate.toString(),
+        Math.max(WINDOW_SIZE, minimumCalls), minimumCalls, FAILURE_RATE_PERCENT,
+        SLOW_CALL_DURATION_MILLIS, SLOW_CALL_RATE_PERCENT,
+        scheduler, new FibonacciNumberSequence(backoffMillis), probeExecutor, new CheckStatus());
   }
 
   private <T> T filter(final HttpHost target, final Filterable<T> filterable) throws IOException {
@@ -91,43 +141,30 @@ public class FilteredHttpClient
     if (blocked) {
       throw new IOException("Remote Manually Blocked");
     }
-    DateTime blockedUntilCopy = this.blockedUntil;
-    if (autoBlock && blockedUntilCopy != null && blockedUntilCopy.isAfterNow()) {
+    if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
       throw new IOException("Remote Auto Blocked");
     }
+    long start = System.nanoTime();
+    boolean reported = false;
     try {
       T result = filterable.call();
-      if (autoBlock) {
-        synchronized (this) {
-          if (blockedUntil != null) {
-            blockedUntil = null;
-            checkThread.interrupt();
-            checkThread = null;
-            autoBlockSequence.reset();
-          }
-        }
+      if (circuitBreaker != null) {
+        circuitBreaker.onSuccess(elapsedMillis(start));
+        reported = true;
       }
       status = new RemoteConnectionStatus("Remote Available");
       return result;
     }
     catch (IOException e) {
       if (isRemoteUnavailable(e)) {
-        if (autoBlock) {
-          synchronized (this) {
-            // avoid some other thread already increased the sequence
-            if (blockedUntil == null || blockedUntil.isBeforeNow()) {
-              blockedUntil = DateTime.now().plus(autoBlockSequence.next());
-              if (checkThread != null) {
-                checkThread.interrupt();
-              }
-              String uri = target.toURI();
-              // TODO maybe find different means to schedule status checking
-              checkThread = new Thread(new CheckStatus(uri, blockedUntil), "Check Status " + uri);
-              checkThread.setDaemon(true);
-              checkThread.start();
-            }
-          }
-          status = new RemoteConnectionStatus("Remote Auto Blocked and Unavailable", getReason(e));
+        if (circuitBreaker != null) {
+          circuitBreaker.onFailure(elapsedMillis(start));
+          reported = true;
+          status = new RemoteConnectionStatus(
+              circuitBreaker.getState() == CircuitBreaker.State.CLOSED
+                  ? "Remote Unavailable" : "Remote Auto Blocked and Unavailable",
+              getReason(e)
+          );
         }
         else {
           status = new RemoteConnectionStatus("Remote Unavailable", getReason(e));
@@ -136,15 +173,17 @@ public class FilteredHttpClient
       throw e;
     }
     finally {
-      blockedUntilCopy = blockedUntil;
-      log.debug(
-          "Remote status: {} {}",
-          status,
-          blockedUntilCopy != null ? "(blocked until " + blockedUntilCopy + ")" : ""
-      );
+      if (circuitBreaker != null && !reported) {
+        circuitBreaker.onIgnored();
+      }
+      log.debug("Remote status: {} {}", status, circuitBreaker != null ? circuitBreaker : "");
     }
   }
 
+  private static long elapsedMillis(final long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
   public RemoteConnectionStatus getStatus() {
     return status;
   }
@@ -300,8 +339,8 @@ public class FilteredHttpClient
 
   @Override
   public void close() throws IOException {
-    if (checkThread != null) {
-      checkThread.interrupt();
+    if (circuitBreaker != null) {
+      circuitBreaker.shutdown();
     }
     if (delegate instanceof Closeable) {
       ((Closeable) delegate).close();
@@ -318,40 +357,26 @@ public class FilteredHttpClient
     T call() throws IOException;
   }
 
+  /**
+   * Checks the main target once the circuit half-opens, so it closes again without waiting for a request.
+   */
   private class CheckStatus
       implements Runnable
   {
-
-    private final String uri;
-
-    private final DateTime fireAt;
-
-    private CheckStatus(final String uri, final DateTime fireAt) {
-      this.uri = uri;
-      this.fireAt = fireAt;
-    }
-
     @Override
     public void run() {
-      if (fireAt.isAfterNow()) {
-        try {
-          long durationTillFire = new Duration(DateTime.now(), fireAt).getMillis();
-          if (durationTillFire > 0) {
-            log.debug("Wait until {} to check status of {}", fireAt, uri);
-            Thread.sleep(durationTillFire);
-            log.debug("Time is up. Checking status of {}", uri);
-            execute(new HttpHead(uri));
-          }
-        }
-        catch (InterruptedException e) {
-          log.debug("Stopped checking status of {}", uri);
-        }
-        catch (IOException e) {
-          // ignore as we just want to access the host
-        }
+      HttpHost target = mainTarget;
+      if (target == null) {
+        return;
+      }
+      String uri = target.toURI();
+      log.debug("Checking status of {}", uri);
+      try {
+        HttpClientUtils.closeQuietly(execute(new HttpHead(uri)));
+      }
+      catch (IOException e) {
+        // ignore as we just want to access the host
       }
     }
-
   }
-
 }
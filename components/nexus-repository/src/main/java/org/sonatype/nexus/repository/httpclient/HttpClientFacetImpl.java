@@ -19,10 +19,13 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.httpclient.GlobalHttpClientConfigurationChanged;
 import org.sonatype.nexus.httpclient.HttpClientManager;
+import org.sonatype.nexus.httpclient.HttpClientPlan;
 import org.sonatype.nexus.httpclient.config.AuthenticationConfiguration;
 import org.sonatype.nexus.httpclient.config.AuthenticationConfigurationDeserializer;
 import org.sonatype.nexus.httpclient.config.ConfigurationCustomizer;
@@ -32,6 +35,7 @@ import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.config.Configuration;
 import org.sonatype.nexus.repository.config.ConfigurationFacet;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.eventbus.Subscribe;
@@ -43,6 +47,10 @@ import static org.sonatype.nexus.repository.FacetSupport.State.STARTED;
 /**
  * Default {@link HttpClientFacet} implementation.
  *
+ * Each repository gets a connection pool of its own, so a slow remote can not starve the others, whose statistics
+ * are exported as metrics. The pools are sized per repository, but the connections leased from all of them together
+ * are still capped by {@code nexus.httpclient.connectionpool.maxSize}.
+ *
  * @since 3.0
  */
 @Named
@@ -51,8 +59,16 @@ public class HttpClientFacetImpl
     extends FacetSupport
     implements HttpClientFacet
 {
+  private static final int DEFAULT_MAX_CONNECTIONS = SystemPropertiesHelper.getInteger(
+      HttpClientFacetImpl.class.getName() + ".maxConnections", 40);
+
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = SystemPropertiesHelper.getInteger(
+      HttpClientFacetImpl.class.getName() + ".maxConnectionsPerRoute", 20);
+
   private final HttpClientManager httpClientManager;
 
+  private final MetricRegistry metricRegistry;
+
   @VisibleForTesting
   static final String CONFIG_KEY = "httpclient";
 
@@ -73,6 +89,20 @@ public class HttpClientFacetImpl
 
     @Nullable
     public Boolean autoBlock;
+
+    /**
+     * Maximum connections to all remote hosts.
+     */
+    @Nullable
+    @Min(1)
+    public Integer maxConnections;
+
+    /**
+     * Maximum connections to each remote host.
+     */
+    @Nullable
+    @Min(1)
+    public Integer maxConnectionsPerRoute;
   }
 
   private Config config;
@@ -80,8 +110,9 @@ public class HttpClientFacetImpl
   private FilteredHttpClient httpClient;
 
   @Inject
-  public HttpClientFacetImpl(final HttpClientManager httpClientManager) {
+  public HttpClientFacetImpl(final HttpClientManager httpClientManager, final MetricRegistry metricRegistry) {
     this.httpClientManager = checkNotNull(httpClientManager);
+    this.metricRegistry = checkNotNull(metricRegistry);
   }
 
   @Override
@@ -130,7 +161,25 @@ public class HttpClientFacetImpl
     HttpClientConfiguration delegateConfig = new HttpClientConfiguration();
     delegateConfig.setConnection(config.connection);
     delegateConfig.setAuthentication(config.authentication);
-    HttpClient delegate = httpClientManager.create(new ConfigurationCustomizer(delegateConfig));
+    final ConfigurationCustomizer configurationCustomizer = new ConfigurationCustomizer(delegateConfig);
+
+    // use a connection pool of our own, which the delegate shuts down when closed
+    final InstrumentedHttpClientConnectionManager connectionManager = new InstrumentedHttpClientConnectionManager(
+        httpClientManager.createConnectionManager(
+            config.maxConnections != null ? config.maxConnections : DEFAULT_MAX_CONNECTIONS,
+            config.maxConnectionsPerRoute != null ? config.maxConnectionsPerRoute : DEFAULT_MAX_CONNECTIONS_PER_ROUTE
+        ),
+        metricRegistry,
+        MetricRegistry.name(HttpClientFacet.class, getRepository().getName(), "connection-pool")
+    );
+    HttpClient delegate = httpClientManager.create(new HttpClientPlan.Customizer()
+    {
+      @Override
+      public void customize(final HttpClientPlan plan) {
+        configurationCustomizer.customize(plan);
+        plan.getClient().setConnectionManager(connectionManager);
+      }
+    });
 
     // wrap delegate with auto-block aware client
     httpClient = new FilteredHttpClient(delegate, config);
@@ -0,0 +1,215 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.httpclient;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.sisu.goodies.common.ComponentSupport;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link HttpClientConnectionManager} which exports statistics of a connection pool as metrics.
+ *
+ * Registers {@code leased}, {@code pending}, {@code available} and {@code max} connection gauges, a
+ * {@code lease-wait} timer, {@code leases} and {@code connects} meters, a {@code connect} timer of the time spent
+ * opening new connections and a {@code reuse-ratio} gauge under the given metric prefix, until
+ * {@link #shutdown() shut down}.
+ *
+ * @since 3.0
+ */
+@SuppressWarnings("PackageAccessibility") // FIXME: httpclient usage is producing lots of OSGI warnings in IDEA
+class InstrumentedHttpClientConnectionManager
+    extends ComponentSupport
+    implements HttpClientConnectionManager
+{
+  private static final String[] METRICS = {
+      "leased", "pending", "available", "max", "lease-wait", "leases", "connects", "connect", "reuse-ratio"
+  };
+
+  private final PoolingHttpClientConnectionManager delegate;
+
+  private final MetricRegistry metricRegistry;
+
+  private final String metricPrefix;
+
+  private final Timer leaseWait;
+
+  private final Meter leases;
+
+  private final Meter connects;
+
+  private final Timer connect;
+
+  InstrumentedHttpClientConnectionManager(final PoolingHttpClientConnectionManager delegate,
+                                          final MetricRegistry metricRegistry,
+                                          final String metricPrefix)
+  {
+    this.delegate = checkNotNull(delegate);
+    this.metricRegistry = checkNotNull(metricRegistry);
+    this.metricPrefix = checkNotNull(metricPrefix);
+
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "leased"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue() {
+        return delegate.getTotalStats().getLeased();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "pending"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue() {
+        return delegate.getTotalStats().getPending();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "available"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue() {
+        return delegate.getTotalStats().getAvailable();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "max"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue() {
+        return delegate.getTotalStats().getMax();
+      }
+    });
+    leaseWait = metricRegistry.timer(MetricRegistry.name(metricPrefix, "lease-wait"));
+    leases = metricRegistry.meter(MetricRegistry.name(metricPrefix, "leases"));
+    connects = metricRegistry.meter(MetricRegistry.name(metricPrefix, "connects"));
+    connect = metricRegistry.timer(MetricRegistry.name(metricPrefix, "connect"));
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "reuse-ratio"), new RatioGauge()
+    {
+      @Override
+      protected Ratio getRatio() {
+        long leaseCount = leases.getCount();
+        return Ratio.of(leaseCount - connects.getCount(), leaseCount);
+      }
+    });
+  }
+
+  @Override
+  public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+    final ConnectionRequest request = delegate.requestConnection(route, state);
+    return new ConnectionRequest()
+    {
+      @Override
+      public HttpClientConnection get(final long timeout, final TimeUnit tunit)
+          throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException
+      {
+        Timer.Context waiting = leaseWait.time();
+        try {
+          HttpClientConnection connection = request.get(timeout, tunit);
+          leases.mark();
+          return connection;
+        }
+        finally {
+          waiting.stop();
+        }
+      }
+
+      @Override
+      public boolean cancel() {
+        return request.cancel();
+      }
+    };
+  }
+
+  @Override
+  public void releaseConnection(final HttpClientConnection conn,
+                                final Object newState,
+                                final long validDuration,
+                                final TimeUnit timeUnit)
+  {
+    delegate.releaseConnection(conn, newState, validDuration, timeUnit);
+  }
+
+  /**
+   * Only called for leased connections which are not open yet, i.e. were not reused.
+   */
+  @Override
+  public void connect(final HttpClientConnection conn,
+                      final HttpRoute route,
+                      final int connectTimeout,
+                      final HttpContext context) throws IOException
+  {
+    connects.mark();
+    Timer.Context connecting = connect.time();
+    try {
+      delegate.connect(conn, route, connectTimeout, context);
+    }
+    finally {
+      connecting.stop();
+    }
+  }
+
+  @Override
+  public void upgrade(final HttpClientConnection conn,
+                      final HttpRoute route,
+                      final HttpContext context) throws IOException
+  {
+    delegate.upgrade(conn, route, context);
+  }
+
+  @Override
+  public void routeComplete(final HttpClientConnection conn,
+                            final HttpRoute route,
+                            final HttpContext context) throws IOException
+  {
+    delegate.routeComplete(conn, route, context);
+  }
+
+  @Override
+  public void closeIdleConnections(final long idletime, final TimeUnit tunit) {
+    delegate.closeIdleConnections(idletime, tunit);
+  }
+
+  @Override
+  public void closeExpiredConnections() {
+    delegate.closeExpiredConnections();
+  }
+
+  @Override
+  public void shutdown() {
+    for (String metric : METRICS) {
+      metricRegistry.remove(MetricRegistry.name(metricPrefix, metric));
+    }
+    delegate.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "metricPrefix='" + metricPrefix + '\'' +
+        ", stats=" + delegate.getTotalStats() +
+        '}';
+  }
+}
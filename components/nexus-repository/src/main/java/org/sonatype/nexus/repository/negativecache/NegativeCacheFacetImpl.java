@@ -13,9 +13,21 @@
 
 package org.sonatype.nexus.repository.negativecache;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.config.Configuration;
@@ -37,6 +49,10 @@ import static org.sonatype.nexus.repository.FacetSupport.State.STARTED;
 /**
  * EHCache based {@link NegativeCacheFacet} implementation.
  *
+ * When the {@code trie} system property is set entries are kept in a bounded {@link NegativeCacheTrie} instead,
+ * which holds far more entries and invalidates subsets without scanning, and with {@code persistent} also set is
+ * written to the work directory on stop and read back on init.
+ *
  * @since 3.0
  */
 @Named("default")
@@ -44,8 +60,18 @@ public class NegativeCacheFacetImpl
     extends FacetSupport
     implements NegativeCacheFacet
 {
+  private static final String PREFIX = NegativeCacheFacetImpl.class.getName();
+
+  private static final boolean TRIE = SystemPropertiesHelper.getBoolean(PREFIX + ".trie", false);
+
+  private static final int TRIE_MAX_ENTRIES = SystemPropertiesHelper.getInteger(PREFIX + ".trieMaxEntries", 1_000_000);
+
+  private static final boolean PERSISTENT = SystemPropertiesHelper.getBoolean(PREFIX + ".persistent", false);
+
   private final CacheManager cacheManager;
 
+  private final ApplicationDirectories applicationDirectories;
+
   @VisibleForTesting
   static final String CONFIG_KEY = "negativeCache";
 
@@ -72,9 +98,14 @@ public class NegativeCacheFacetImpl
 
   private Ehcache cache;
 
+  private NegativeCacheTrie trie;
+
   @Inject
-  public NegativeCacheFacetImpl(final CacheManager cacheManager) {
+  public NegativeCacheFacetImpl(final CacheManager cacheManager,
+                                final ApplicationDirectories applicationDirectories)
+  {
     this.cacheManager = checkNotNull(cacheManager);
+    this.applicationDirectories = checkNotNull(applicationDirectories);
   }
 
   @Override
@@ -95,6 +126,9 @@ public class NegativeCacheFacetImpl
     // create cache if enabled
     if (config.enabled) {
       maybeCreateCache();
+      if (trie != null && PERSISTENT) {
+        load();
+      }
     }
   }
 
@@ -116,6 +150,18 @@ public class NegativeCacheFacetImpl
     }
   }
 
+  @Override
+  protected void doStop() throws Exception {
+    if (trie != null && PERSISTENT) {
+      save();
+    }
+  }
+
+  @Override
+  protected void doDelete() throws Exception {
+    Files.deleteIfExists(persistenceFile().toPath());
+  }
+
   @Override
   protected void doDestroy() throws Exception {
     maybeDestroyCache();
@@ -123,7 +169,13 @@ public class NegativeCacheFacetImpl
   }
 
   private void maybeCreateCache() {
-    if (cache == null) {
+    if (TRIE) {
+      if (trie == null) {
+        log.debug("Creating negative-cache trie for: {}", getRepository());
+        trie = new NegativeCacheTrie(TRIE_MAX_ENTRIES);
+      }
+    }
+    else if (cache == null) {
       log.debug("Creating negative-cache for: {}", getRepository());
       cache = newCache("negative-cache-" + getRepository().getName(), config.timeToLive);
       cacheManager.addCache(cache);
@@ -143,6 +195,10 @@ public class NegativeCacheFacetImpl
   }
 
   private void maybeDestroyCache() {
+    if (trie != null) {
+      log.debug("Destroying negative-cache trie for: {}", getRepository());
+      trie = null;
+    }
     if (cache != null) {
       log.debug("Destroying negative-cache for: {}", getRepository());
       if (STATUS_ALIVE.equals(cacheManager.getStatus())) {
@@ -156,6 +212,9 @@ public class NegativeCacheFacetImpl
   @Guarded(by = STARTED)
   public Status get(final NegativeCacheKey key) {
     checkNotNull(key);
+    if (trie != null) {
+      return trie.get(key, System.currentTimeMillis());
+    }
     if (cache != null) {
       Element element = cache.get(key);
       return element == null || element.isExpired() ? null : (Status) element.getObjectValue();
@@ -168,6 +227,10 @@ public class NegativeCacheFacetImpl
   public void put(final NegativeCacheKey key, final Status status) {
     checkNotNull(key);
     checkNotNull(status);
+    if (trie != null) {
+      log.debug("Adding {}={} to negative-cache of {}", key, status, getRepository());
+      trie.put(key, status, System.currentTimeMillis() + config.timeToLive * 1000L);
+    }
     if (cache != null) {
       log.debug("Adding {}={} to negative-cache of {}", key, status, getRepository());
       cache.put(new Element(key, status));
@@ -178,6 +241,10 @@ public class NegativeCacheFacetImpl
   @Guarded(by = STARTED)
   public void invalidate(final NegativeCacheKey key) {
     checkNotNull(key);
+    if (trie != null) {
+      log.debug("Removing {} from negative-cache of {}", key, getRepository());
+      trie.invalidate(key);
+    }
     if (cache != null) {
       log.debug("Removing {} from negative-cache of {}", key, getRepository());
       cache.remove(key);
@@ -185,11 +252,19 @@ public class NegativeCacheFacetImpl
   }
 
   @Override
+  @Guarded(by = STARTED)
   public void invalidateSubset(final NegativeCacheKey key) {
-    invalidate(key);
-    for (Object entry : cache.getKeys()) {
-      if (!key.equals(entry) && key.isParentOf((NegativeCacheKey) entry)) {
-        invalidate((NegativeCacheKey) entry);
+    checkNotNull(key);
+    if (trie != null) {
+      log.debug("Removing {} and children from negative-cache of {}", key, getRepository());
+      trie.invalidateSubset(key);
+    }
+    if (cache != null) {
+      invalidate(key);
+      for (Object entry : cache.getKeys()) {
+        if (!key.equals(entry) && key.isParentOf((NegativeCacheKey) entry)) {
+          invalidate((NegativeCacheKey) entry);
+        }
       }
     }
   }
@@ -197,6 +272,10 @@ public class NegativeCacheFacetImpl
   @Override
   @Guarded(by = STARTED)
   public void invalidate() {
+    if (trie != null) {
+      log.debug("Removing all from negative-cache of {}", getRepository());
+      trie.invalidateAll();
+    }
     if (cache != null) {
       log.debug("Removing all from negative-cache of {}", getRepository());
       cache.removeAll();
@@ -207,4 +286,37 @@ public class NegativeCacheFacetImpl
   public NegativeCacheKey getCacheKey(final Context context) {
     return new PathNegativeCacheKey(context.getRequest().getPath());
   }
+
+  private File persistenceFile() {
+    return new File(applicationDirectories.getWorkDirectory("negative-cache"), getRepository().getName() + ".bin");
+  }
+
+  private void load() {
+    File file = persistenceFile();
+    if (!file.exists()) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      trie.readFrom(in, System.currentTimeMillis());
+      log.debug("Loaded {} negative-cache entries of {} from {}", trie.size(), getRepository(), file);
+    }
+    catch (Exception e) {
+      log.warn("Failed to load negative-cache of {} from {}", getRepository(), file, e);
+    }
+  }
+
+  private void save() {
+    File file = persistenceFile();
+    File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        trie.writeTo(out, System.currentTimeMillis());
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.debug("Saved negative-cache of {} to {}", getRepository(), file);
+    }
+    catch (Exception e) {
+      log.warn("Failed to save negative-cache of {} to {}", getRepository(), file, e);
+    }
+  }
 }
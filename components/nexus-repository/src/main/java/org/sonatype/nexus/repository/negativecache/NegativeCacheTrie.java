@@ -0,0 +1,321 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.negativecache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.view.Status;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded negative-cache storage keyed by path segments.
+ *
+ * {@link PathNegativeCacheKey} paths are split on {@code /} into a trie, so that invalidating a directory key (one
+ * ending with {@code /}) drops the whole subtree in time proportional to its depth rather than to the number of
+ * cached entries. Other key types are stored as direct children of the root and have no subtree.
+ *
+ * Once more than {@code maxEntries} entries are held the oldest are evicted first. Expired entries are dropped when
+ * they are next looked up, or when they reach the head of the eviction queue.
+ *
+ * @since 3.0
+ */
+class NegativeCacheTrie
+{
+  private static final int FORMAT_VERSION = 1;
+
+  private static final Splitter PATH_SPLITTER = Splitter.on('/');
+
+  private static final Joiner PATH_JOINER = Joiner.on('/');
+
+  private final int maxEntries;
+
+  private final Node root = new Node(null, null);
+
+  /**
+   * Entry nodes in insertion order; may hold nodes since removed, which are skipped when polled.
+   */
+  private final Deque<Node> insertionOrder = new ArrayDeque<>();
+
+  NegativeCacheTrie(final int maxEntries) {
+    checkArgument(maxEntries > 0, "maxEntries must be positive");
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Returns the cached status, or {@code null} if there is no entry or it has expired.
+   */
+  @Nullable
+  public synchronized Status get(final NegativeCacheKey key, final long now) {
+    Node node = find(segments(key));
+    if (node == null || node.status == null) {
+      return null;
+    }
+    if (node.expiresAt <= now) {
+      removeEntry(node);
+      return null;
+    }
+    return node.status;
+  }
+
+  public synchronized void put(final NegativeCacheKey key, final Status status, final long expiresAt) {
+    checkNotNull(status);
+    Node node = root;
+    for (Object segment : segments(key)) {
+      node = node.childOrCreate(segment);
+    }
+    if (node.status == null) {
+      adjustEntries(node, 1);
+      insertionOrder.addLast(node);
+    }
+    node.status = status;
+    node.expiresAt = expiresAt;
+    evict();
+  }
+
+  public synchronized void invalidate(final NegativeCacheKey key) {
+    Node node = find(segments(key));
+    if (node != null && node.status != null) {
+      removeEntry(node);
+    }
+  }
+
+  /**
+   * Removes the entry for the key and, for a directory {@link PathNegativeCacheKey}, every entry below it.
+   */
+  public synchronized void invalidateSubset(final NegativeCacheKey key) {
+    List<Object> segments = segments(key);
+    Node node = find(segments);
+    if (node != null && node.status != null) {
+      removeEntry(node);
+    }
+    if (key instanceof PathNegativeCacheKey && ((PathNegativeCacheKey) key).getPath().endsWith("/")) {
+      // the trailing empty segment names the directory entry itself, its parent node is the directory
+      Node directory = find(segments.subList(0, segments.size() - 1));
+      if (directory != null && directory.children != null) {
+        int removed = directory.entries - (directory.status != null ? 1 : 0);
+        directory.children = null;
+        adjustEntries(directory, -removed);
+        prune(directory);
+      }
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    root.children = null;
+    root.entries = 0;
+    insertionOrder.clear();
+  }
+
+  public synchronized int size() {
+    return root.entries;
+  }
+
+  /**
+   * Writes all unexpired path entries, oldest first.
+   */
+  public synchronized void writeTo(final DataOutput out, final long now) throws IOException {
+    List<Node> entries = Lists.newArrayList();
+    Set<Node> seen = Sets.newIdentityHashSet();
+    for (Node node : insertionOrder) {
+      if (node.status != null && node.expiresAt > now && isAttached(node) && seen.add(node) && path(node) != null) {
+        entries.add(node);
+      }
+    }
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(entries.size());
+    for (Node node : entries) {
+      out.writeUTF(path(node));
+      out.writeBoolean(node.status.isSuccessful());
+      out.writeInt(node.status.getCode());
+      out.writeBoolean(node.status.getMessage() != null);
+      if (node.status.getMessage() != null) {
+        out.writeUTF(node.status.getMessage());
+      }
+      out.writeLong(node.expiresAt);
+    }
+  }
+
+  /**
+   * Adds the unexpired entries written by {@link #writeTo(DataOutput, long)}.
+   */
+  public synchronized void readFrom(final DataInput in, final long now) throws IOException {
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported negative-cache format version: " + version);
+    }
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String path = in.readUTF();
+      boolean successful = in.readBoolean();
+      int code = in.readInt();
+      String message = in.readBoolean() ? in.readUTF() : null;
+      long expiresAt = in.readLong();
+      if (expiresAt > now) {
+        put(new PathNegativeCacheKey(path), new Status(successful, code, message), expiresAt);
+      }
+    }
+  }
+
+  private List<Object> segments(final NegativeCacheKey key) {
+    checkNotNull(key);
+    if (key instanceof PathNegativeCacheKey) {
+      return Lists.<Object>newArrayList(PATH_SPLITTER.split(((PathNegativeCacheKey) key).getPath()));
+    }
+    return Collections.<Object>singletonList(key);
+  }
+
+  @Nullable
+  private Node find(final List<Object> segments) {
+    Node node = root;
+    for (Object segment : segments) {
+      node = node.children == null ? null : node.children.get(segment);
+      if (node == null) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+  private void evict() {
+    while (root.entries > maxEntries && !insertionOrder.isEmpty()) {
+      Node node = insertionOrder.pollFirst();
+      if (node.status != null && isAttached(node)) {
+        removeEntry(node);
+      }
+    }
+    // drop references to removed nodes so the queue stays bounded as well
+    if (insertionOrder.size() > 2 * maxEntries) {
+      Set<Node> live = Sets.newIdentityHashSet();
+      for (Node node : insertionOrder) {
+        if (node.status != null && isAttached(node)) {
+          live.add(node);
+        }
+      }
+      Deque<Node> compacted = new ArrayDeque<>(live.size());
+      for (Node node : insertionOrder) {
+        if (live.remove(node)) {
+          compacted.addLast(node);
+        }
+      }
+      insertionOrder.clear();
+      insertionOrder.addAll(compacted);
+    }
+  }
+
+  private void removeEntry(final Node node) {
+    node.status = null;
+    adjustEntries(node, -1);
+    prune(node);
+  }
+
+  private void adjustEntries(final Node node, final int delta) {
+    for (Node current = node; current != null; current = current.parent) {
+      current.entries += delta;
+    }
+  }
+
+  /**
+   * Detaches the node and its ancestors as long as they hold no entries.
+   */
+  private void prune(final Node node) {
+    Node current = node;
+    while (current.parent != null && current.entries == 0) {
+      Node parent = current.parent;
+      parent.children.remove(current.name);
+      if (parent.children.isEmpty()) {
+        parent.children = null;
+      }
+      current = parent;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the node is still reachable from the root, i.e. was not detached with a subtree.
+   */
+  private boolean isAttached(final Node node) {
+    Node current = node;
+    while (current.parent != null) {
+      Map<Object, Node> siblings = current.parent.children;
+      if (siblings == null || siblings.get(current.name) != current) {
+        return false;
+      }
+      current = current.parent;
+    }
+    return current == root;
+  }
+
+  @Nullable
+  private String path(final Node node) {
+    List<String> names = Lists.newArrayList();
+    for (Node current = node; current.parent != null; current = current.parent) {
+      if (!(current.name instanceof String)) {
+        return null;
+      }
+      names.add((String) current.name);
+    }
+    return PATH_JOINER.join(Lists.reverse(names));
+  }
+
+  private static class Node
+  {
+    private final Node parent;
+
+    private final Object name;
+
+    private Map<Object, Node> children;
+
+    private Status status;
+
+    private long expiresAt;
+
+    /**
+     * Number of entries in this subtree, including this node.
+     */
+    private int entries;
+
+    private Node(@Nullable final Node parent, @Nullable final Object name) {
+      this.parent = parent;
+      this.name = name;
+    }
+
+    private Node childOrCreate(final Object segment) {
+      if (children == null) {
+        children = new HashMap<>(4);
+      }
+      Node child = children.get(segment);
+      if (child == null) {
+        child = new Node(this, segment);
+        children.put(segment, child);
+      }
+      return child;
+    }
+  }
+}
@@ -14,9 +14,11 @@ package org.sonatype.nexus.repository.partial;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 import javax.annotation.Nullable;
 
+import org.sonatype.nexus.repository.view.FileChannelPayload;
 import org.sonatype.nexus.repository.view.Payload;
 
 import com.google.common.collect.Range;
@@ -27,7 +29,7 @@ import static com.google.common.io.ByteStreams.limit;
  * A wrapper {@link Payload} that returns only a portion of the original payload.
  */
 class PartialPayload
-    implements Payload
+    implements FileChannelPayload
 {
   private final Payload payload;
 
@@ -61,4 +63,22 @@ class PartialPayload
   public String getContentType() {
     return payload.getContentType();
   }
+
+  @Nullable
+  @Override
+  public FileChannel openFileChannel() throws IOException {
+    if (payload instanceof FileChannelPayload) {
+      return ((FileChannelPayload) payload).openFileChannel();
+    }
+    return null;
+  }
+
+  /**
+   * The range is sent by positioning within the whole payload's channel, rather than skipping through its stream.
+   */
+  @Override
+  public long getFileChannelOffset() {
+    long offset = payload instanceof FileChannelPayload ? ((FileChannelPayload) payload).getFileChannelOffset() : 0;
+    return offset + rangeToSend.lowerEndpoint();
+  }
 }
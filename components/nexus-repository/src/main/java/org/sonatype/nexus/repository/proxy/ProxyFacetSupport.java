@@ -13,16 +13,31 @@
 package org.sonatype.nexus.repository.proxy;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
 
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.MissingFacetException;
 import org.sonatype.nexus.repository.config.Configuration;
 import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.http.HttpMethods;
 import org.sonatype.nexus.repository.InvalidContentException;
 import org.sonatype.nexus.repository.httpclient.HttpClientFacet;
 import org.sonatype.nexus.repository.negativecache.NegativeCacheFacet;
@@ -31,9 +46,18 @@ import org.sonatype.nexus.repository.view.Context;
 import org.sonatype.nexus.repository.view.Payload;
 import org.sonatype.nexus.repository.view.payloads.HttpEntityPayload;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
 import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -80,12 +104,97 @@ public abstract class ProxyFacetSupport
     }
   }
 
+  /**
+   * Seconds a caller waits for a concurrent fetch of the same content before fetching it on its own.
+   */
+  private static final long FETCH_WAIT_TIMEOUT_SECONDS =
+      SystemPropertiesHelper.getLong(ProxyFacetSupport.class.getName() + ".fetchWaitTimeoutSeconds", 600L);
+
+  /**
+   * Whether GET requests receive remote content while it is being stored, rather than once it is stored.
+   */
+  private static final boolean TEE_DOWNLOADS =
+      SystemPropertiesHelper.getBoolean(ProxyFacetSupport.class.getName() + ".teeDownloads", false);
+
+  /**
+   * Seconds the store of a teed download waits for a client which fell behind, or a client waits for the store,
+   * before giving up on the other.
+   */
+  private static final long TEE_IDLE_TIMEOUT_SECONDS =
+      SystemPropertiesHelper.getLong(ProxyFacetSupport.class.getName() + ".teeIdleTimeoutSeconds", 60L);
+
+  /**
+   * Seconds the store of a teed download waits for the client to start reading, once more than the tee buffers was
+   * downloaded, before storing alone.
+   */
+  private static final long TEE_OPEN_TIMEOUT_SECONDS =
+      SystemPropertiesHelper.getLong(ProxyFacetSupport.class.getName() + ".teeOpenTimeoutSeconds", 5L);
+
+  /**
+   * Whether hot content is revalidated in the background shortly before it goes stale, see {@link RefreshAhead}.
+   */
+  private static final boolean REFRESH_AHEAD =
+      SystemPropertiesHelper.getBoolean(ProxyFacetSupport.class.getName() + ".refreshAhead", false);
+
+  /**
+   * Percentage of the max age content must have reached to be refreshed ahead.
+   */
+  private static final int REFRESH_AHEAD_PERCENT =
+      SystemPropertiesHelper.getInteger(ProxyFacetSupport.class.getName() + ".refreshAheadPercent", 80);
+
+  /**
+   * Requests content must have received since it was last refreshed to be refreshed ahead.
+   */
+  private static final int REFRESH_AHEAD_MIN_HITS =
+      SystemPropertiesHelper.getInteger(ProxyFacetSupport.class.getName() + ".refreshAheadMinHits", 3);
+
+  /**
+   * Number of paths whose requests are counted, the least recently requested are forgotten first.
+   */
+  private static final int REFRESH_AHEAD_TRACKED_PATHS =
+      SystemPropertiesHelper.getInteger(ProxyFacetSupport.class.getName() + ".refreshAheadTrackedPaths", 10000);
+
+  private static final int REFRESH_AHEAD_THREADS =
+      SystemPropertiesHelper.getInteger(ProxyFacetSupport.class.getName() + ".refreshAheadThreads", 2);
+
+  private static final int REFRESH_AHEAD_QUEUE_SIZE =
+      SystemPropertiesHelper.getInteger(ProxyFacetSupport.class.getName() + ".refreshAheadQueueSize", 100);
+
+  @VisibleForTesting
+  boolean refreshAhead = REFRESH_AHEAD;
+
+  @VisibleForTesting
+  int refreshAheadMinHits = REFRESH_AHEAD_MIN_HITS;
+
   private Config config;
 
+  /**
+   * Fetches in progress, keyed by the URL fetched.
+   */
+  private final ConcurrentMap<String, SettableFuture<Void>> inFlightFetches = Maps.newConcurrentMap();
+
   private HttpClientFacet httpClient;
 
   private boolean remoteUrlChanged;
 
+  private MetricRegistry metricRegistry;
+
+  private ExecutorService storeExecutor;
+
+  private ProxyMetrics metrics;
+
+  private ThreadPoolExecutor refreshExecutor;
+
+  /**
+   * Requests received by path since its content was last refreshed ahead.
+   */
+  private LoadingCache<String, AtomicInteger> hits;
+
+  @Inject
+  public void installMetricRegistry(final MetricRegistry metricRegistry) {
+    this.metricRegistry = checkNotNull(metricRegistry);
+  }
+
   @Override
   protected void doValidate(final Configuration configuration) throws Exception {
     facet(ConfigurationFacet.class).validateSection(configuration, CONFIG_KEY, Config.class);
@@ -119,6 +228,30 @@ public abstract class ProxyFacetSupport
   @Override
   protected void doStart() throws Exception {
     httpClient = facet(HttpClientFacet.class);
+    metrics = new ProxyMetrics(
+        metricRegistry, MetricRegistry.name(ProxyFacet.class, getRepository().getName())
+    );
+    storeExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("proxy-store-" + getRepository().getName() + "-%d").setDaemon(true)
+            .build()
+    );
+    if (refreshAhead) {
+      refreshExecutor = new ThreadPoolExecutor(REFRESH_AHEAD_THREADS, REFRESH_AHEAD_THREADS,
+          60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(REFRESH_AHEAD_QUEUE_SIZE),
+          new ThreadFactoryBuilder().setNameFormat("proxy-refresh-" + getRepository().getName() + "-%d")
+              .setDaemon(true).build()
+      );
+      refreshExecutor.allowCoreThreadTimeOut(true);
+      hits = CacheBuilder.newBuilder().maximumSize(REFRESH_AHEAD_TRACKED_PATHS).build(
+          new CacheLoader<String, AtomicInteger>()
+          {
+            @Override
+            public AtomicInteger load(final String key) {
+              return new AtomicInteger();
+            }
+          }
+      );
+    }
 
     if (remoteUrlChanged) {
       remoteUrlChanged = false;
@@ -135,12 +268,32 @@ public abstract class ProxyFacetSupport
   @Override
   protected void doStop() throws Exception {
     httpClient = null;
+    storeExecutor.shutdown();
+    storeExecutor = null;
+    if (refreshExecutor != null) {
+      // refreshes not yet started are dropped, which releases requests waiting on them
+      for (Runnable dropped : refreshExecutor.shutdownNow()) {
+        ((RefreshAhead) dropped).done();
+      }
+      refreshExecutor = null;
+      hits = null;
+    }
+    metrics.remove();
+    metrics = null;
   }
 
   public URI getRemoteUrl() {
     return config.remoteUrl;
   }
 
+  /**
+   * Returns the number of refreshes ahead queued or running.
+   */
+  public int getRefreshesInFlight() {
+    ProxyMetrics current = metrics;
+    return current != null ? current.getRefreshesInFlight() : 0;
+  }
+
   @Override
   public Content get(final Context context) throws IOException {
     checkNotNull(context);
@@ -148,25 +301,232 @@ public abstract class ProxyFacetSupport
     Content content = getCachedPayload(context);
 
     if (content == null || isStale(context)) {
+      // only one caller fetches a given URL at a time, the others wait and then read what it stored
+      final String key = getUrl(context);
+      final SettableFuture<Void> fetch = SettableFuture.create();
+      final SettableFuture<Void> inFlight = inFlightFetches.putIfAbsent(key, fetch);
+      if (inFlight != null) {
+        return awaitFetch(context, key, inFlight, content);
+      }
+      fetch.addListener(new Runnable()
+      {
+        @Override
+        public void run() {
+          inFlightFetches.remove(key, fetch);
+        }
+      }, MoreExecutors.directExecutor());
       try {
-        final Content remote = fetch(context, content);
-        if (remote != null) {
+        if (TEE_DOWNLOADS && HttpMethods.GET.equals(context.getRequest().getAction())) {
+          content = fetchAndTee(context, content, fetch);
+        }
+        else {
+          content = fetchAndStore(context, content);
+          fetch.set(null);
+        }
+      }
+      catch (IOException | RuntimeException e) {
+        fetch.setException(e);
+        throw e;
+      }
+    }
+    else if (refreshExecutor != null) {
+      maybeRefreshAhead(context, content);
+    }
+    return content;
+  }
 
-          // TODO: Introduce content validation.. perhaps content's type not matching path's implied type.
+  /**
+   * Counts a request of fresh content, and refreshes it in the background if it is requested often and about to go
+   * stale. Requests arriving meanwhile are served the cached content, unless it went stale, in which case they wait
+   * for the refresh as they would for any other fetch.
+   */
+  private void maybeRefreshAhead(final Context context, final Content content) throws IOException {
+    if (config.artifactMaxAge <= 0) {
+      return;
+    }
+    final String key = getUrl(context);
+    AtomicInteger count = hits.getUnchecked(key);
+    if (count.incrementAndGet() < refreshAheadMinHits) {
+      return;
+    }
+    DateTime lastUpdated = getCachedPayloadLastUpdatedDate(context);
+    long refreshAfterMillis = TimeUnit.MINUTES.toMillis(config.artifactMaxAge) * REFRESH_AHEAD_PERCENT / 100;
+    if (lastUpdated == null || lastUpdated.plus(refreshAfterMillis).isAfterNow()) {
+      return;
+    }
+
+    final SettableFuture<Void> fetch = SettableFuture.create();
+    if (inFlightFetches.putIfAbsent(key, fetch) != null) {
+      return;
+    }
+    fetch.addListener(new Runnable()
+    {
+      @Override
+      public void run() {
+        inFlightFetches.remove(key, fetch);
+      }
+    }, MoreExecutors.directExecutor());
+    count.set(0);
+
+    RefreshAhead refresh = new RefreshAhead(context, content, fetch, metrics);
+    try {
+      refreshExecutor.execute(refresh);
+      log.debug("Refreshing ahead: {}", key);
+    }
+    catch (RejectedExecutionException e) {
+      log.debug("Too many refreshes in flight, not refreshing ahead: {}", key);
+      refresh.done();
+    }
+  }
+
+  /**
+   * Fetches and stores content which is about to go stale. A failed refresh is only logged: the cached content stays
+   * in use until it goes stale and is fetched on request.
+   */
+  private class RefreshAhead
+      implements Runnable
+  {
+    private final Context context;
+
+    private final Content content;
+
+    private final SettableFuture<Void> fetch;
+
+    private final ProxyMetrics metrics;
+
+    private RefreshAhead(final Context context,
+                         final Content content,
+                         final SettableFuture<Void> fetch,
+                         final ProxyMetrics metrics)
+    {
+      this.context = context;
+      this.content = content;
+      this.fetch = fetch;
+      this.metrics = metrics;
+      metrics.refreshStarted();
+    }
+
+    @Override
+    public void run() {
+      try {
+        fetchAndStore(context, content);
+      }
+      catch (Exception e) {
+        log.debug("Failed to refresh ahead: {}", getUrl(context), e);
+      }
+      finally {
+        done();
+      }
+    }
+
+    private void done() {
+      metrics.refreshFinished();
+      fetch.set(null);
+    }
+  }
 
-          store(context, remote);
+  /**
+   * Fetches the content and returns it while it is being stored on another thread, see {@link TeeDownload}. The
+   * future completes once the content is stored, and fails only if fetching or storing it failed: whatever the client
+   * does with the returned content has no bearing on it.
+   */
+  private Content fetchAndTee(final Context context, final Content stale, final SettableFuture<Void> stored)
+      throws IOException
+  {
+    final ProxyMetrics.Timing fetchTime = metrics.fetch();
+    final Content remote;
+    try {
+      remote = fetch(context, stale);
+    }
+    catch (IOException | RuntimeException e) {
+      fetchTime.close();
+      log.warn("Failed to fetch: {}", getUrl(context), e);
+      throw e;
+    }
+    if (remote == null) {
+      fetchTime.discard();
+      stored.set(null);
+      return stale;
+    }
 
-          content = getCachedPayload(context);
+    final TeeDownload download = new TeeDownload(remote, TEE_OPEN_TIMEOUT_SECONDS, TEE_IDLE_TIMEOUT_SECONDS,
+        TimeUnit.SECONDS);
+    storeExecutor.execute(new Runnable()
+    {
+      @Override
+      public void run() {
+        try {
+          store(context, download.storeContent());
+          fetchTime.succeeded();
+          stored.set(null);
+        }
+        catch (Exception e) {
+          log.warn("Failed to store: {}", getUrl(context), e);
+          stored.setException(e);
+        }
+        finally {
+          fetchTime.close();
+          download.finish();
         }
       }
-      catch (IOException e) {
-        log.warn("Failed to fetch: {}", getUrl(context), e);
-        throw e;
+    });
+    return download.clientContent();
+  }
+
+  private Content fetchAndStore(final Context context, final Content stale) throws IOException {
+    Content content = stale;
+    try (ProxyMetrics.Timing fetchTime = metrics.fetch()) {
+      final Content remote = fetch(context, stale);
+      if (remote != null) {
+
+        // TODO: Introduce content validation.. perhaps content's type not matching path's implied type.
+
+        store(context, remote);
+        fetchTime.succeeded();
+
+        content = getCachedPayload(context);
       }
+      else {
+        fetchTime.discard();
+      }
+    }
+    catch (IOException e) {
+      log.warn("Failed to fetch: {}", getUrl(context), e);
+      throw e;
     }
     return content;
   }
 
+  /**
+   * Waits for the fetch of another caller, then returns what it stored. Fails as the other fetch did. If it takes
+   * longer than {@link #FETCH_WAIT_TIMEOUT_SECONDS} the caller gives up waiting and fetches on its own.
+   */
+  private Content awaitFetch(final Context context,
+                             final String key,
+                             final Future<Void> inFlight,
+                             final Content stale)
+      throws IOException
+  {
+    log.debug("Waiting for concurrent fetch: {}", key);
+    try {
+      inFlight.get(FETCH_WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+    catch (TimeoutException e) {
+      log.debug("Timed out waiting for concurrent fetch, fetching: {}", key);
+      return fetchAndStore(context, stale);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for concurrent fetch: " + key);
+    }
+    Content content = getCachedPayload(context);
+    return content != null ? content : stale;
+  }
+
   /**
    * If we have the content cached locally already, return that - otherwise {@code null}.
    */
@@ -188,29 +548,40 @@ public abstract class ProxyFacetSupport
     HttpClient client = httpClient.getHttpClient();
 
     HttpGet request = new HttpGet(config.remoteUrl.resolve(url));
+    boolean conditional = false;
     if (stale != null) {
       final DateTime lastModified = stale.getAttributes().get(Content.CONTENT_LAST_MODIFIED, DateTime.class);
       if (lastModified != null) {
         request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, DateUtils.formatDate(lastModified.toDate()));
+        conditional = true;
       }
       final String etag = stale.getAttributes().get(Content.CONTENT_ETAG, String.class);
       if (etag != null) {
         request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"" + etag + "\"");
+        conditional = true;
       }
     }
     log.debug("Fetching: {}", request);
 
-    HttpResponse response = client.execute(request);
+    HttpResponse response;
+    try (ProxyMetrics.Timing timeToFirstByte = metrics.timeToFirstByte()) {
+      response = client.execute(request);
+      timeToFirstByte.succeeded();
+    }
     log.debug("Response: {}", response);
 
     StatusLine status = response.getStatusLine();
     log.debug("Status: {}", status);
 
+    if (conditional) {
+      metrics.conditionalRequest(status.getStatusCode() == HttpStatus.SC_NOT_MODIFIED);
+    }
+
     if (status.getStatusCode() == HttpStatus.SC_OK) {
       HttpEntity entity = response.getEntity();
       log.debug("Entity: {}", entity);
 
-      Payload payload = new HttpEntityPayload(response, entity);
+      Payload payload = metrics.instrument(new HttpEntityPayload(response, entity));
       final Content result = new Content(payload);
       result.getAttributes().set(Content.CONTENT_LAST_MODIFIED, extractLastModified(response.getLastHeader(HttpHeaders.LAST_MODIFIED)));
       result.getAttributes().set(Content.CONTENT_ETAG, extractETag(response.getLastHeader(HttpHeaders.ETAG)));
@@ -0,0 +1,290 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.view.Payload;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Metrics of the fetches a {@link ProxyFacetSupport} makes from its remote.
+ *
+ * Registers under the given metric prefix, until {@link #remove() removed}:
+ * <ul>
+ * <li>{@code time-to-first-byte} timer, from sending a request until the response headers are received, and
+ * {@code failed-requests} timer of the requests failing before that</li>
+ * <li>{@code transfer-rate} histogram of the bytes per second content is read from the remote, and
+ * {@code bytes} meter</li>
+ * <li>{@code conditional-requests} and {@code not-modified} meters, and the {@code not-modified-ratio} gauge</li>
+ * <li>{@code fetch} timer, from sending a request until the fetched content is stored, and {@code failed-fetches}
+ * timer of the fetches failing to fetch or store the content</li>
+ * <li>{@code refreshes} meter and {@code refreshes-in-flight} gauge of the content refreshed ahead of going
+ * stale</li>
+ * </ul>
+ *
+ * Time to connect to the remote is tracked by the connection pool of the repository's
+ * {@link org.sonatype.nexus.repository.httpclient.HttpClientFacet}.
+ *
+ * @since 3.0
+ */
+class ProxyMetrics
+{
+  private static final String[] METRICS = {
+      "time-to-first-byte", "failed-requests", "transfer-rate", "bytes", "conditional-requests", "not-modified",
+      "not-modified-ratio", "fetch", "failed-fetches", "refreshes", "refreshes-in-flight"
+  };
+
+  private final MetricRegistry metricRegistry;
+
+  private final String metricPrefix;
+
+  private final Timer timeToFirstByte;
+
+  private final Timer failedRequests;
+
+  private final Histogram transferRate;
+
+  private final Meter bytes;
+
+  private final Meter conditionalRequests;
+
+  private final Meter notModified;
+
+  private final Timer fetch;
+
+  private final Timer failedFetches;
+
+  private final Meter refreshes;
+
+  private final AtomicInteger refreshesInFlight = new AtomicInteger();
+
+  ProxyMetrics(final MetricRegistry metricRegistry, final String metricPrefix) {
+    this.metricRegistry = checkNotNull(metricRegistry);
+    this.metricPrefix = checkNotNull(metricPrefix);
+
+    timeToFirstByte = metricRegistry.timer(MetricRegistry.name(metricPrefix, "time-to-first-byte"));
+    failedRequests = metricRegistry.timer(MetricRegistry.name(metricPrefix, "failed-requests"));
+    transferRate = metricRegistry.histogram(MetricRegistry.name(metricPrefix, "transfer-rate"));
+    bytes = metricRegistry.meter(MetricRegistry.name(metricPrefix, "bytes"));
+    conditionalRequests = metricRegistry.meter(MetricRegistry.name(metricPrefix, "conditional-requests"));
+    notModified = metricRegistry.meter(MetricRegistry.name(metricPrefix, "not-modified"));
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "not-modified-ratio"), new RatioGauge()
+    {
+      @Override
+      protected Ratio getRatio() {
+        return Ratio.of(notModified.getCount(), conditionalRequests.getCount());
+      }
+    });
+    fetch = metricRegistry.timer(MetricRegistry.name(metricPrefix, "fetch"));
+    failedFetches = metricRegistry.timer(MetricRegistry.name(metricPrefix, "failed-fetches"));
+    refreshes = metricRegistry.meter(MetricRegistry.name(metricPrefix, "refreshes"));
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "refreshes-in-flight"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue() {
+        return refreshesInFlight.get();
+      }
+    });
+  }
+
+  /**
+   * Removes all metrics from the registry.
+   */
+  void remove() {
+    for (String metric : METRICS) {
+      metricRegistry.remove(MetricRegistry.name(metricPrefix, metric));
+    }
+  }
+
+  Timing timeToFirstByte() {
+    return new Timing(timeToFirstByte, failedRequests);
+  }
+
+  Timing fetch() {
+    return new Timing(fetch, failedFetches);
+  }
+
+  void refreshStarted() {
+    refreshes.mark();
+    refreshesInFlight.incrementAndGet();
+  }
+
+  void refreshFinished() {
+    refreshesInFlight.decrementAndGet();
+  }
+
+  int getRefreshesInFlight() {
+    return refreshesInFlight.get();
+  }
+
+  void conditionalRequest(final boolean wasNotModified) {
+    conditionalRequests.mark();
+    if (wasNotModified) {
+      notModified.mark();
+    }
+  }
+
+  /**
+   * Returns a payload which records the rate its content is read at, from opening its stream until reaching the end
+   * of it. Content which is not read to the end, e.g. as storing it failed, is only counted in {@code bytes}.
+   */
+  Payload instrument(final Payload payload) {
+    return new Payload()
+    {
+      @Override
+      public InputStream openInputStream() throws IOException {
+        return new TransferRateInputStream(payload.openInputStream());
+      }
+
+      @Override
+      public long getSize() {
+        return payload.getSize();
+      }
+
+      @Nullable
+      @Override
+      public String getContentType() {
+        return payload.getContentType();
+      }
+    };
+  }
+
+  /**
+   * Times an operation from its creation, to be closed once the operation is over, typically by try-with-resources.
+   * Recorded by the success timer if {@link #succeeded()} was invoked, or by the failure timer otherwise, so failing
+   * operations neither skew nor go missing from the timings of the successful ones. {@link #discard() Discarded}
+   * timings are not recorded.
+   */
+  static class Timing
+      implements AutoCloseable
+  {
+    private final Timer success;
+
+    private final Timer failure;
+
+    private final long started = System.nanoTime();
+
+    private boolean done;
+
+    private Timing(final Timer success, final Timer failure) {
+      this.success = success;
+      this.failure = failure;
+    }
+
+    void succeeded() {
+      record(success);
+    }
+
+    void discard() {
+      done = true;
+    }
+
+    @Override
+    public void close() {
+      record(failure);
+    }
+
+    private void record(final Timer timer) {
+      if (!done) {
+        done = true;
+        timer.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Counts bytes read, without synchronization as a stream is read by one thread at a time, and records the
+   * transfer rate once the end of the stream is reached.
+   */
+  private class TransferRateInputStream
+      extends FilterInputStream
+  {
+    private final long started = System.nanoTime();
+
+    private long count;
+
+    private boolean done;
+
+    private TransferRateInputStream(final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b < 0) {
+        done();
+      }
+      else {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n < 0) {
+        done();
+      }
+      else {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      }
+      finally {
+        if (!done) {
+          bytes.mark(count);
+          done = true;
+        }
+      }
+    }
+
+    private void done() {
+      if (!done) {
+        done = true;
+        bytes.mark(count);
+        long elapsedNanos = Math.max(1L, System.nanoTime() - started);
+        transferRate.update((long) (count * 1e9 / elapsedNanos));
+      }
+    }
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Payload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Splits a remote download between the store and the client, so the client receives bytes while they are stored.
+ *
+ * The store drives the download: every chunk it reads from the remote stream is handed over, through a bounded
+ * queue, to the stream read by the client on another thread. The client never holds up the store for long, and never
+ * fails it: a client which closes its stream early, or {@link Closeable#close() closes} its content without reading
+ * it (like for a "304 Not Modified" response, or a losing group member), is dropped right away, and a client which
+ * falls behind by more than the queue holds is waited for at most the idle timeout, or the open timeout if it did not
+ * open its stream yet, then dropped. If the remote stream fails, both sides fail. If the store stops reading early,
+ * {@link #finish()} hands the rest of the remote stream to the client.
+ *
+ * @since 3.0
+ */
+class TeeDownload
+{
+  private static final int CAPACITY = 64;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final Object END = new Object();
+
+  private enum Client
+  {
+    WAITING, READING, GONE
+  }
+
+  private final Content remote;
+
+  private final long openTimeoutMillis;
+
+  private final long idleTimeoutMillis;
+
+  private final BlockingQueue<Object> chunks = new ArrayBlockingQueue<>(CAPACITY);
+
+  private final AtomicReference<Client> client = new AtomicReference<>(Client.WAITING);
+
+  // only used by the store's thread
+
+  private InputStream remoteStream;
+
+  private boolean remoteEnded;
+
+  TeeDownload(final Content remote, final long openTimeout, final long idleTimeout, final TimeUnit unit) {
+    this.remote = checkNotNull(remote);
+    this.openTimeoutMillis = unit.toMillis(openTimeout);
+    this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+  }
+
+  /**
+   * The content to return to the client.
+   */
+  Content clientContent() {
+    return copyAttributes(new Content(new ClientPayload()));
+  }
+
+  /**
+   * The content to store, with the same attributes as the remote content.
+   */
+  Content storeContent() {
+    return copyAttributes(new Content(new TeePayload()
+    {
+      @Override
+      public InputStream openInputStream() throws IOException {
+        if (remoteStream == null) {
+          remoteStream = remote.openInputStream();
+        }
+        return new StoreInputStream();
+      }
+    }));
+  }
+
+  /**
+   * To be called by the store's thread once done with the store's stream: if the store did not read the remote
+   * stream to its end, hands the rest of it to the client. Then closes the remote stream.
+   */
+  void finish() {
+    try {
+      if (!remoteEnded && client.get() != Client.GONE) {
+        if (remoteStream == null) {
+          remoteStream = remote.openInputStream();
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        while (!remoteEnded && client.get() != Client.GONE) {
+          read(buffer, 0, buffer.length);
+        }
+      }
+    }
+    catch (IOException e) {
+      // handed to the client already
+    }
+    finally {
+      if (remoteStream != null) {
+        try {
+          remoteStream.close();
+        }
+        catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private Content copyAttributes(final Content content) {
+    for (Entry<String, Object> entry : remote.getAttributes().entries()) {
+      content.getAttributes().set(entry.getKey(), entry.getValue());
+    }
+    return content;
+  }
+
+  /**
+   * Reads the remote stream, handing over every chunk read to the client.
+   */
+  private int read(final byte[] b, final int off, final int len) throws IOException {
+    if (remoteEnded) {
+      return -1;
+    }
+    final int n;
+    try {
+      n = remoteStream.read(b, off, len);
+    }
+    catch (IOException e) {
+      remoteEnded = true;
+      handOff(e);
+      throw e;
+    }
+    if (n == -1) {
+      remoteEnded = true;
+      handOff(END);
+    }
+    else if (n > 0) {
+      handOff(Arrays.copyOfRange(b, off, off + n));
+    }
+    return n;
+  }
+
+  private void handOff(final Object chunk) {
+    try {
+      Client state;
+      while ((state = client.get()) != Client.GONE) {
+        if (chunks.offer(chunk, state == Client.WAITING ? openTimeoutMillis : idleTimeoutMillis,
+            TimeUnit.MILLISECONDS)) {
+          return;
+        }
+        // still waiting to be opened, or not read from, after the timeout
+        if (client.compareAndSet(state, Client.GONE)) {
+          chunks.clear();
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      drop();
+    }
+  }
+
+  /**
+   * Drops the client, the store carries on alone.
+   */
+  private void drop() {
+    client.set(Client.GONE);
+    chunks.clear();
+  }
+
+  private abstract class TeePayload
+      implements Payload
+  {
+    @Override
+    public long getSize() {
+      return remote.getSize();
+    }
+
+    @Nullable
+    @Override
+    public String getContentType() {
+      return remote.getContentType();
+    }
+  }
+
+  private class ClientPayload
+      extends TeePayload
+      implements Closeable
+  {
+    @Override
+    public InputStream openInputStream() throws IOException {
+      if (!client.compareAndSet(Client.WAITING, Client.READING)) {
+        throw new IOException("Remote content no longer available");
+      }
+      return new ClientInputStream();
+    }
+
+    /**
+     * Drops the client if it never opened its stream.
+     */
+    @Override
+    public void close() {
+      if (client.compareAndSet(Client.WAITING, Client.GONE)) {
+        chunks.clear();
+      }
+    }
+  }
+
+  /**
+   * Reads the remote stream on behalf of the store.
+   */
+  private class StoreInputStream
+      extends InputStream
+  {
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      return TeeDownload.this.read(b, off, len);
+    }
+
+    @Override
+    public void close() {
+      // the remote stream is closed by finish(), once the client had the rest of it
+    }
+  }
+
+  /**
+   * Reads the chunks handed over by the store.
+   */
+  private class ClientInputStream
+      extends InputStream
+  {
+    private byte[] chunk = new byte[0];
+
+    private int position;
+
+    private boolean ended;
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (ended) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+      while (position == chunk.length) {
+        Object next = take();
+        if (next == END) {
+          ended = true;
+          return -1;
+        }
+        if (next instanceof IOException) {
+          ended = true;
+          throw new IOException("Remote download failed", (IOException) next);
+        }
+        chunk = (byte[]) next;
+        position = 0;
+      }
+      int n = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, n);
+      position += n;
+      return n;
+    }
+
+    private Object take() throws IOException {
+      try {
+        if (client.get() != Client.GONE) {
+          Object next = chunks.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+          if (next != null) {
+            return next;
+          }
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      drop();
+      throw new IOException("Remote download no longer available");
+    }
+
+    @Override
+    public void close() {
+      if (!ended) {
+        drop();
+      }
+    }
+  }
+}
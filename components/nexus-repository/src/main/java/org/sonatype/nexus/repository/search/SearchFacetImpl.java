@@ -15,27 +15,34 @@ package org.sonatype.nexus.repository.search;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.sonatype.nexus.common.entity.EntityHelper;
 import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.Format;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.search.SearchIndexQueue.Processor;
 import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.storage.StorageTxHook;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Supplier;
-import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -54,16 +61,31 @@ public class SearchFacetImpl
     implements SearchFacet
 
 {
+  private static final String CONFIG_PREFIX = SearchFacetImpl.class.getName();
+
+  private static final int BULK_SIZE = SystemPropertiesHelper.getInteger(CONFIG_PREFIX + ".bulkSize", 500);
+
+  private static final long FLUSH_INTERVAL_MILLIS =
+      SystemPropertiesHelper.getLong(CONFIG_PREFIX + ".flushIntervalMillis", 1000L);
+
+  private static final int QUEUE_CAPACITY = SystemPropertiesHelper.getInteger(CONFIG_PREFIX + ".queueCapacity", 10000);
+
   private final SearchService searchService;
 
   private final Map<String, ComponentMetadataProducer> componentMetadataProducers;
 
+  private final MetricRegistry metricRegistry;
+
+  private SearchIndexQueue queue;
+
   @Inject
   public SearchFacetImpl(final SearchService searchService,
-                         final Map<String, ComponentMetadataProducer> componentMetadataProducers)
+                         final Map<String, ComponentMetadataProducer> componentMetadataProducers,
+                         final MetricRegistry metricRegistry)
   {
     this.searchService = checkNotNull(searchService);
     this.componentMetadataProducers = checkNotNull(componentMetadataProducers);
+    this.metricRegistry = checkNotNull(metricRegistry);
   }
 
   @Override
@@ -79,42 +101,83 @@ public class SearchFacetImpl
   }
 
   /**
-   * Indexes a component with given id.
+   * Queues components with given ids for (de)indexing.
    */
   @Guarded(by = STARTED)
-  protected void put(final EntityId componentId) {
-    checkNotNull(componentId);
-    try {
+  protected void enqueue(final Iterable<EntityId> componentIds, final Iterable<EntityId> deletedComponentIds) {
+    checkNotNull(componentIds);
+    checkNotNull(deletedComponentIds);
+    queue.enqueue(componentIds, deletedComponentIds);
+  }
+
+  /**
+   * Indexes and deindexes a batch of components, reading them in a single transaction and sending all changes to
+   * the index in a single bulk request.
+   */
+  private void index(final List<EntityId> componentIds, final List<EntityId> deletedComponentIds) throws IOException {
+    Map<String, String> documents = Maps.newLinkedHashMap();
+    if (!componentIds.isEmpty()) {
       Map<String, Object> additional = Maps.newHashMap();
       additional.put(P_REPOSITORY_NAME, getRepository().getName());
-      Component component;
-      List<Asset> assets;
+      String additionalJson = JsonUtils.from(additional);
       try (StorageTx tx = facet(StorageFacet.class).openTx()) {
-        component = tx.findComponent(componentId, tx.getBucket());
-        if (component == null) {
-          return;
+        Bucket bucket = tx.getBucket();
+        // components are loaded by record id, and the assets of the whole batch read with a single query
+        List<Component> components = Lists.newArrayListWithCapacity(componentIds.size());
+        for (EntityId componentId : componentIds) {
+          Component component = tx.findComponent(componentId, bucket);
+          if (component != null) {
+            components.add(component);
+          }
+        }
+        ListMultimap<EntityId, Asset> assets = ArrayListMultimap.create();
+        for (Asset asset : tx.browseAssets(components)) {
+          assets.put(asset.componentId(), asset);
+        }
+        for (Component component : components) {
+          EntityId componentId = EntityHelper.id(component);
+          try {
+            String json = JsonUtils.merge(componentMetadata(component, assets.get(componentId)), additionalJson);
+            documents.put(componentId.toString(), json);
+          }
+          catch (Exception e) {
+            log.warn("Failed to produce index metadata for component {}", componentId, e);
+          }
         }
-        assets = Lists.newArrayList(tx.browseAssets(component));
       }
-      String json = JsonUtils.merge(componentMetadata(component, assets), JsonUtils.from(additional));
-      searchService.put(getRepository(), EntityHelper.id(component).toString(), json);
     }
-    catch (IOException e) {
-      throw Throwables.propagate(e);
+    List<String> identifiers = Lists.newArrayListWithCapacity(deletedComponentIds.size());
+    for (EntityId componentId : deletedComponentIds) {
+      identifiers.add(componentId.toString());
     }
-  }
-
-  /**
-   * Deindexes a component with given id.
-   */
-  @Guarded(by = STARTED)
-  protected void delete(final EntityId componentId) {
-    searchService.delete(getRepository(), componentId.toString());
+    searchService.bulk(getRepository(), documents, identifiers);
   }
 
   @Override
   protected void doStart() throws Exception {
     searchService.createIndex(getRepository());
+
+    String repositoryName = getRepository().getName();
+    queue = new SearchIndexQueue(
+        new Processor()
+        {
+          @Override
+          public void process(final List<EntityId> puts, final List<EntityId> deletes) throws Exception {
+            index(puts, deletes);
+          }
+        },
+        BULK_SIZE, FLUSH_INTERVAL_MILLIS, QUEUE_CAPACITY,
+        metricRegistry, MetricRegistry.name(SearchFacet.class, repositoryName)
+    );
+    queue.start(Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("search-index-" + repositoryName).setDaemon(true).build()
+    ));
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    queue.stop();
+    queue = null;
   }
 
   @Override
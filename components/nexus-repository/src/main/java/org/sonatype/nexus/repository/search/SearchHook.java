@@ -85,11 +85,6 @@ public class SearchHook
 
   @Override
   public void postCommit() {
-    for (EntityId entityId : deindexable) {
-      searchFacet.delete(entityId);
-    }
-    for (EntityId entityId : indexable) {
-      searchFacet.put(entityId);
-    }
+    searchFacet.enqueue(indexable, deindexable);
   }
 }
@@ -0,0 +1,239 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.search;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.sisu.goodies.common.ComponentSupport;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Bounded queue of component ids awaiting (de)indexing, drained in batches by a background flusher.
+ *
+ * Repeated changes to the same component coalesce into one pending entry, the latest change winning. A batch is
+ * flushed once {@code bulkSize} entries are pending, or every {@code flushInterval} otherwise. When
+ * {@code capacity} entries are pending callers block until the flusher catches up.
+ *
+ * Exposes the {@code queue-depth} (pending entries) and {@code lag} (age in milliseconds of the oldest pending
+ * entry) gauges under the given metric prefix.
+ *
+ * @since 3.0
+ */
+class SearchIndexQueue
+    extends ComponentSupport
+{
+  /**
+   * Processes a batch of pending changes.
+   */
+  interface Processor
+  {
+    void process(List<EntityId> puts, List<EntityId> deletes) throws Exception;
+  }
+
+  private static class Pending
+  {
+    private boolean delete;
+
+    private final long enqueuedMillis;
+
+    private Pending(final boolean delete, final long enqueuedMillis) {
+      this.delete = delete;
+      this.enqueuedMillis = enqueuedMillis;
+    }
+  }
+
+  private final Processor processor;
+
+  private final int bulkSize;
+
+  private final long flushIntervalMillis;
+
+  private final int capacity;
+
+  private final MetricRegistry metricRegistry;
+
+  private final String metricPrefix;
+
+  private final Map<EntityId, Pending> pending = Maps.newLinkedHashMap();
+
+  private final Runnable flusher = new Runnable()
+  {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private ScheduledExecutorService executor;
+
+  public SearchIndexQueue(final Processor processor,
+                          final int bulkSize,
+                          final long flushIntervalMillis,
+                          final int capacity,
+                          final MetricRegistry metricRegistry,
+                          final String metricPrefix)
+  {
+    this.processor = checkNotNull(processor);
+    checkArgument(bulkSize > 0, "bulkSize must be positive");
+    checkArgument(flushIntervalMillis > 0, "flushIntervalMillis must be positive");
+    checkArgument(capacity >= bulkSize, "capacity must be at least bulkSize");
+    this.bulkSize = bulkSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.capacity = capacity;
+    this.metricRegistry = checkNotNull(metricRegistry);
+    this.metricPrefix = checkNotNull(metricPrefix);
+  }
+
+  public synchronized void start(final ScheduledExecutorService executor) {
+    checkState(this.executor == null, "Already started");
+    this.executor = checkNotNull(executor);
+    executor.scheduleWithFixedDelay(flusher, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "queue-depth"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue() {
+        return getDepth();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(metricPrefix, "lag"), new Gauge<Long>()
+    {
+      @Override
+      public Long getValue() {
+        return getLagMillis();
+      }
+    });
+  }
+
+  /**
+   * Stops the background flusher, then flushes whatever is still pending on the calling thread.
+   */
+  public void stop() {
+    ScheduledExecutorService stopping;
+    synchronized (this) {
+      stopping = executor;
+      executor = null;
+      notifyAll();
+    }
+    if (stopping != null) {
+      stopping.shutdown();
+      try {
+        stopping.awaitTermination(1, TimeUnit.MINUTES);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      metricRegistry.remove(MetricRegistry.name(metricPrefix, "queue-depth"));
+      metricRegistry.remove(MetricRegistry.name(metricPrefix, "lag"));
+    }
+    flush();
+  }
+
+  /**
+   * Queues changes for indexing; blocks while the queue is at capacity.
+   */
+  public void enqueue(final Iterable<EntityId> puts, final Iterable<EntityId> deletes) {
+    boolean full;
+    synchronized (this) {
+      for (EntityId id : puts) {
+        add(id, false);
+      }
+      for (EntityId id : deletes) {
+        add(id, true);
+      }
+      full = pending.size() >= bulkSize;
+    }
+    if (full) {
+      requestFlush();
+    }
+  }
+
+  private void add(final EntityId id, final boolean delete) {
+    Pending existing = pending.get(id);
+    if (existing != null) {
+      existing.delete = delete;
+      return;
+    }
+    while (pending.size() >= capacity && executor != null) {
+      requestFlush();
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    pending.put(id, new Pending(delete, System.currentTimeMillis()));
+  }
+
+  private synchronized void requestFlush() {
+    if (executor != null) {
+      executor.execute(flusher);
+    }
+  }
+
+  /**
+   * Processes pending changes in batches of at most {@code bulkSize} until none are left.
+   */
+  void flush() {
+    List<EntityId> puts = Lists.newArrayList();
+    List<EntityId> deletes = Lists.newArrayList();
+    while (drain(puts, deletes)) {
+      try {
+        processor.process(puts, deletes);
+      }
+      catch (Exception e) {
+        log.warn("Failed to index {} and deindex {} components", puts.size(), deletes.size(), e);
+      }
+      puts.clear();
+      deletes.clear();
+    }
+  }
+
+  private synchronized boolean drain(final List<EntityId> puts, final List<EntityId> deletes) {
+    Iterator<Entry<EntityId, Pending>> entries = pending.entrySet().iterator();
+    for (int i = 0; i < bulkSize && entries.hasNext(); i++) {
+      Entry<EntityId, Pending> entry = entries.next();
+      (entry.getValue().delete ? deletes : puts).add(entry.getKey());
+      entries.remove();
+    }
+    notifyAll();
+    return !puts.isEmpty() || !deletes.isEmpty();
+  }
+
+  public synchronized int getDepth() {
+    return pending.size();
+  }
+
+  public synchronized long getLagMillis() {
+    if (pending.isEmpty()) {
+      return 0;
+    }
+    return System.currentTimeMillis() - pending.values().iterator().next().enqueuedMillis;
+  }
+}
@@ -12,6 +12,8 @@
  */
 package org.sonatype.nexus.repository.search;
 
+import java.util.Map;
+
 import org.sonatype.nexus.repository.Repository;
 
 import org.elasticsearch.action.search.SearchResponse;
@@ -46,6 +48,14 @@ public interface SearchService
    */
   void delete(Repository repository, String identifier);
 
+  /**
+   * Puts and removes data with given identifiers into/from index of given repository, in a single bulk request.
+   *
+   * @param documents   identifier to json of data to put
+   * @param identifiers identifiers of data to remove
+   */
+  void bulk(Repository repository, Map<String, String> documents, Iterable<String> identifiers);
+
   /**
    * Search component metadata and browse results.
    */
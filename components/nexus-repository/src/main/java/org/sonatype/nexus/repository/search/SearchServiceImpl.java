@@ -21,6 +21,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
 
@@ -42,6 +43,8 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.Resources;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.ShardSearchFailure;
 import org.elasticsearch.client.Client;
@@ -162,6 +165,32 @@ public class SearchServiceImpl
     client.get().prepareDelete(safeIndexName(repository), TYPE, identifier).execute();
   }
 
+  @Override
+  public void bulk(final Repository repository,
+                   final Map<String, String> documents,
+                   final Iterable<String> identifiers)
+  {
+    checkNotNull(repository);
+    checkNotNull(documents);
+    checkNotNull(identifiers);
+    String indexName = safeIndexName(repository);
+    BulkRequestBuilder bulk = client.get().prepareBulk();
+    for (Entry<String, String> document : documents.entrySet()) {
+      bulk.add(client.get().prepareIndex(indexName, TYPE, document.getKey()).setSource(document.getValue()));
+    }
+    for (String identifier : identifiers) {
+      bulk.add(client.get().prepareDelete(indexName, TYPE, identifier));
+    }
+    if (bulk.numberOfActions() == 0) {
+      return;
+    }
+    log.debug("Bulk indexing {} documents of {}", bulk.numberOfActions(), repository);
+    BulkResponse response = bulk.execute().actionGet();
+    if (response.hasFailures()) {
+      log.warn("Bulk indexing of {} failed: {}", repository, response.buildFailureMessage());
+    }
+  }
+
   @Override
   public Iterable<SearchHit> browse(final QueryBuilder query) {
     checkNotNull(query);
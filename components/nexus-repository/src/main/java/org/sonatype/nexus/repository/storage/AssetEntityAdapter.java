@@ -13,7 +13,10 @@
 
 package org.sonatype.nexus.repository.storage;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -25,6 +28,7 @@ import org.sonatype.nexus.orient.OClassNameBuilder;
 import org.sonatype.nexus.orient.OIndexNameBuilder;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
@@ -39,6 +43,7 @@ import static org.sonatype.nexus.repository.storage.StorageFacet.P_BLOB_REF;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_BUCKET;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_COMPONENT;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_CONTENT_TYPE;
+import static org.sonatype.nexus.repository.storage.StorageFacet.P_LAST_UPDATED;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_NAME;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_SIZE;
 
@@ -68,6 +73,15 @@ public class AssetEntityAdapter
       .property(P_COMPONENT)
       .build();
 
+  private static final String I_BUCKET_LAST_UPDATED = new OIndexNameBuilder()
+      .type(DB_CLASS)
+      .property(P_BUCKET)
+      .property(P_LAST_UPDATED)
+      .build();
+
+  private static final String BROWSE_BY_COMPONENTS_QUERY = String.format("select from %s where %s in :components",
+      DB_CLASS, P_COMPONENT);
+
   private final ComponentEntityAdapter componentEntityAdapter;
 
   @Inject
@@ -96,6 +110,24 @@ public class AssetEntityAdapter
     type.createIndex(I_COMPONENT, INDEX_TYPE.NOTUNIQUE, P_COMPONENT);
   }
 
+  @Override
+  public void register(final ODatabaseDocumentTx db) {
+    super.register(db);
+
+    // serves assets changed since a point in time, e.g. incremental metadata rebuilds; created here rather than in
+    // defineType so existing databases get it too
+    OClass type = getType();
+    if (type.getClassIndex(I_BUCKET_LAST_UPDATED) == null) {
+      type.createIndex(I_BUCKET_LAST_UPDATED, INDEX_TYPE.NOTUNIQUE, P_BUCKET, P_LAST_UPDATED);
+      log.info("Created index {}", I_BUCKET_LAST_UPDATED);
+    }
+  }
+
+  @Override
+  protected Set<String> getIndexedAttributes(final IndexedAttributesContributor contributor) {
+    return contributor.getAssetAttributes();
+  }
+
   @Override
   protected Asset newEntity() {
     return new Asset();
@@ -139,11 +171,25 @@ public class AssetEntityAdapter
     checkNotNull(component, "component");
     checkState(component.isPersisted(), "component must be persisted");
 
-    Map<String, Object> parameters = ImmutableMap.<String, Object>of(
-        "component", componentEntityAdapter.recordIdentity(component)
-    );
-    String query = String.format("select from %s where component = :component", DB_CLASS);
-    Iterable<ODocument> docs = db.command(new OCommandSQL(query)).execute(parameters);
+    return readEntities(browseByIndex(db, I_COMPONENT, componentEntityAdapter.recordIdentity(component)));
+  }
+
+  /**
+   * Browses the assets of all the given components with a single query, served by the component index.
+   */
+  Iterable<Asset> browseByComponents(final ODatabaseDocumentTx db, final Iterable<Component> components) {
+    checkNotNull(components, "components");
+
+    List<ORID> componentIds = Lists.newArrayList();
+    for (Component component : components) {
+      checkState(component.isPersisted(), "component must be persisted");
+      componentIds.add(componentEntityAdapter.recordIdentity(component));
+    }
+    if (componentIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Map<String, Object> parameters = ImmutableMap.<String, Object>of("components", componentIds);
+    Iterable<ODocument> docs = db.command(new OCommandSQL(BROWSE_BY_COMPONENTS_QUERY)).execute(parameters);
     return readEntities(docs);
   }
 }
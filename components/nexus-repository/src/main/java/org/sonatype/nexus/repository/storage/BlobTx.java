@@ -21,6 +21,7 @@ import javax.annotation.Nullable;
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.blobstore.api.BlobRef;
 import org.sonatype.nexus.blobstore.api.BlobStore;
+import org.sonatype.nexus.common.hash.MultiHashingInputStream;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
 import com.google.common.collect.Sets;
@@ -47,7 +48,17 @@ class BlobTx
   }
 
   public BlobRef create(InputStream inputStream, Map<String, String> headers) {
-    Blob blob = blobStore.create(inputStream, headers);
+    return track(blobStore.create(inputStream, headers));
+  }
+
+  /**
+   * Creates a blob from a stream that is already hashing its content, see {@link BlobStore#create(MultiHashingInputStream, Map)}.
+   */
+  public BlobRef create(MultiHashingInputStream inputStream, Map<String, String> headers) {
+    return track(blobStore.create(inputStream, headers));
+  }
+
+  private BlobRef track(final Blob blob) {
     BlobRef blobRef = new BlobRef("NODE", "STORE", blob.getId().asUniqueString());
     newlyCreatedBlobs.add(blobRef);
     return blobRef;
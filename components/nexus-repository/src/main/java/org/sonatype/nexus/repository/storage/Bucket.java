@@ -29,6 +29,10 @@ public class Bucket
 
   private String repositoryName;
 
+  private boolean pendingDeletion;
+
+  private String blobStoreName;
+
   /**
    * Gets the repository name.
    */
@@ -43,4 +47,34 @@ public class Bucket
     this.repositoryName = repositoryName;
     return this;
   }
+
+  /**
+   * Returns {@code true} if the repository owning this bucket was deleted and the bucket waits to be purged.
+   */
+  public boolean pendingDeletion() {
+    return pendingDeletion;
+  }
+
+  /**
+   * Sets whether this bucket waits to be purged.
+   */
+  public Bucket pendingDeletion(boolean pendingDeletion) {
+    this.pendingDeletion = pendingDeletion;
+    return this;
+  }
+
+  /**
+   * Gets the name of the blob store holding the content of this bucket, only recorded once pending deletion.
+   */
+  public String blobStoreName() {
+    return blobStoreName;
+  }
+
+  /**
+   * Sets the name of the blob store holding the content of this bucket.
+   */
+  public Bucket blobStoreName(String blobStoreName) {
+    this.blobStoreName = blobStoreName;
+    return this;
+  }
 }
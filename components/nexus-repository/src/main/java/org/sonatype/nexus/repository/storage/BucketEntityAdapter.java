@@ -13,6 +13,7 @@
 
 package org.sonatype.nexus.repository.storage;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -30,6 +31,8 @@ import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
 
+import static org.sonatype.nexus.repository.storage.StorageFacet.P_BLOB_STORE_NAME;
+import static org.sonatype.nexus.repository.storage.StorageFacet.P_PENDING_DELETION;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_REPOSITORY_NAME;
 
 /**
@@ -57,6 +60,9 @@ public class BucketEntityAdapter
   protected void defineType(final OClass type) {
     type.createProperty(P_REPOSITORY_NAME, OType.STRING).setMandatory(true).setNotNull(true);
 
+    type.createProperty(P_PENDING_DELETION, OType.BOOLEAN);
+    type.createProperty(P_BLOB_STORE_NAME, OType.STRING);
+
     type.createIndex(I_REPOSITORY_NAME, INDEX_TYPE.UNIQUE, P_REPOSITORY_NAME);
   }
 
@@ -68,13 +74,19 @@ public class BucketEntityAdapter
   @Override
   protected void readFields(final ODocument document, final Bucket entity) {
     String repositoryName = document.field(P_REPOSITORY_NAME, OType.STRING);
+    Boolean pendingDeletion = document.field(P_PENDING_DELETION, OType.BOOLEAN);
+    String blobStoreName = document.field(P_BLOB_STORE_NAME, OType.STRING);
 
     entity.repositoryName(repositoryName);
+    entity.pendingDeletion(Boolean.TRUE.equals(pendingDeletion));
+    entity.blobStoreName(blobStoreName);
   }
 
   @Override
   protected void writeFields(final ODocument document, final Bucket entity) {
     document.field(P_REPOSITORY_NAME, entity.repositoryName());
+    document.field(P_PENDING_DELETION, entity.pendingDeletion() ? Boolean.TRUE : null);
+    document.field(P_BLOB_STORE_NAME, entity.blobStoreName());
   }
 
   @Nullable
@@ -89,4 +101,19 @@ public class BucketEntityAdapter
     return readEntity(results.get(0));
   }
 
+  /**
+   * Browses buckets whose repository was deleted but which still wait to be purged.
+   */
+  List<Bucket> browsePendingDeletion(final ODatabaseDocumentTx db) {
+    OSQLSynchQuery<ODocument> query = new OSQLSynchQuery<>(
+        "select from " + DB_CLASS + " where " + P_PENDING_DELETION + " = true"
+    );
+    List<ODocument> results = db.command(query).execute();
+    List<Bucket> buckets = new ArrayList<>(results.size());
+    for (ODocument document : results) {
+      buckets.add(readEntity(document));
+    }
+    return buckets;
+  }
+
 }
@@ -0,0 +1,267 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.blobstore.api.BlobStoreManager;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.common.stateguard.StateGuardAspect;
+import org.sonatype.nexus.orient.DatabaseInstance;
+import org.sonatype.nexus.scheduling.CancelableSupport;
+import org.sonatype.nexus.scheduling.TaskScheduler;
+import org.sonatype.sisu.goodies.lifecycle.LifecycleSupport;
+
+import com.google.common.collect.Iterables;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Deletes the buckets of deleted repositories in the background.
+ *
+ * Deleting a repository only marks its bucket as pending deletion, renaming it so the repository name can be reused
+ * straight away. The contents are then purged by {@link PurgeDeletedBucketsTask} in small batches, each committed
+ * separately in a transaction of its own and followed by a pause so the database is not monopolized. Buckets stay
+ * marked until they are empty, so an interrupted purge simply resumes when next started, which happens whenever this
+ * component starts.
+ *
+ * Only one purge runs at a time. A purge requested while another runs is picked up by the running one once it has
+ * finished the buckets it started with.
+ *
+ * @since 3.0
+ */
+@Named
+@Singleton
+public class BucketPurger
+    extends LifecycleSupport
+{
+  private static final String CONFIG_PREFIX = BucketPurger.class.getName();
+
+  private static final int BATCH_SIZE = SystemPropertiesHelper.getInteger(CONFIG_PREFIX + ".batchSize", 100);
+
+  private static final long BATCH_PAUSE_MILLIS =
+      SystemPropertiesHelper.getLong(CONFIG_PREFIX + ".batchPauseMillis", 100L);
+
+  private static final long PROGRESS_INTERVAL = 10000L;
+
+  private final Provider<DatabaseInstance> databaseInstanceProvider;
+
+  private final BlobStoreManager blobStoreManager;
+
+  private final Provider<TaskScheduler> taskScheduler;
+
+  private final BucketEntityAdapter bucketEntityAdapter;
+
+  private final ComponentEntityAdapter componentEntityAdapter;
+
+  private final AssetEntityAdapter assetEntityAdapter;
+
+  private final AtomicBoolean purging = new AtomicBoolean();
+
+  private final AtomicBoolean purgeRequested = new AtomicBoolean();
+
+  /**
+   * Receives the progress of a purge.
+   */
+  public interface ProgressListener
+  {
+    void progress(String message);
+  }
+
+  @Inject
+  public BucketPurger(final @Named(ComponentDatabase.NAME) Provider<DatabaseInstance> databaseInstanceProvider,
+                      final BlobStoreManager blobStoreManager,
+                      final Provider<TaskScheduler> taskScheduler,
+                      final BucketEntityAdapter bucketEntityAdapter,
+                      final ComponentEntityAdapter componentEntityAdapter,
+                      final AssetEntityAdapter assetEntityAdapter)
+  {
+    this.databaseInstanceProvider = checkNotNull(databaseInstanceProvider);
+    this.blobStoreManager = checkNotNull(blobStoreManager);
+    this.taskScheduler = checkNotNull(taskScheduler);
+    this.bucketEntityAdapter = checkNotNull(bucketEntityAdapter);
+    this.componentEntityAdapter = checkNotNull(componentEntityAdapter);
+    this.assetEntityAdapter = checkNotNull(assetEntityAdapter);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    List<Bucket> buckets;
+    try (ODatabaseDocumentTx db = databaseInstanceProvider.get().connect()) {
+      bucketEntityAdapter.register(db);
+      componentEntityAdapter.register(db);
+      assetEntityAdapter.register(db);
+      buckets = bucketEntityAdapter.browsePendingDeletion(db);
+    }
+    if (!buckets.isEmpty()) {
+      log.info("Resuming purge of {} deleted repositories", buckets.size());
+      submitPurge();
+    }
+  }
+
+  /**
+   * Marks the bucket as pending deletion and submits its purge. The bucket is renamed, so it no longer belongs to
+   * the repository of that name, and remembers the blob store its content lives in.
+   */
+  public void markForDeletion(final Bucket bucket, final String blobStoreName) {
+    checkNotNull(bucket);
+    checkNotNull(blobStoreName);
+    checkState(bucket.isPersisted());
+
+    try (ODatabaseDocumentTx db = databaseInstanceProvider.get().acquire()) {
+      db.begin();
+      String repositoryName = bucket.repositoryName();
+      bucket.repositoryName(repositoryName + "$deleted$" + UUID.randomUUID())
+          .pendingDeletion(true)
+          .blobStoreName(blobStoreName);
+      bucketEntityAdapter.edit(db, bucket);
+      db.commit();
+      log.info("Marked bucket of repository {} for deletion", repositoryName);
+    }
+    purgeRequested.set(true);
+    if (!purging.get()) {
+      submitPurge();
+    }
+  }
+
+  private void submitPurge() {
+    TaskScheduler scheduler = taskScheduler.get();
+    scheduler.submit(scheduler.createTaskConfigurationInstance(PurgeDeletedBucketsTask.class));
+  }
+
+  /**
+   * Purges every bucket pending deletion, unless another purge is running, which then purges them instead. Checks for
+   * cancellation between batches.
+   */
+  public void purge(final ProgressListener progress) {
+    checkNotNull(progress);
+    purgeRequested.set(true);
+    // re-check once released, a request made while releasing found the purge still running
+    while (purgeRequested.get() && purging.compareAndSet(false, true)) {
+      try {
+        while (purgeRequested.getAndSet(false)) {
+          List<Bucket> buckets;
+          try (ODatabaseDocumentTx db = databaseInstanceProvider.get().acquire()) {
+            buckets = bucketEntityAdapter.browsePendingDeletion(db);
+          }
+          for (Bucket bucket : buckets) {
+            purge(bucket, progress);
+          }
+        }
+      }
+      finally {
+        purging.set(false);
+      }
+    }
+  }
+
+  private void purge(final Bucket bucket, final ProgressListener progress) {
+    log.info("Purging bucket {}", bucket.repositoryName());
+
+    long components = 0;
+    int count;
+    do {
+      count = 0;
+      try (StorageTx tx = openTx(bucket)) {
+        for (Component component : Iterables.limit(tx.browseComponents(bucket, BATCH_SIZE), BATCH_SIZE)) {
+          tx.deleteComponent(component);
+          count++;
+        }
+        tx.commit();
+      }
+      components = completeBatch(bucket, "components", components, count, progress);
+    }
+    while (count == BATCH_SIZE);
+
+    long assets = 0;
+    do {
+      count = 0;
+      try (StorageTx tx = openTx(bucket)) {
+        for (Asset asset : Iterables.limit(tx.browseAssets(bucket, BATCH_SIZE), BATCH_SIZE)) {
+          tx.deleteAsset(asset);
+          count++;
+        }
+        tx.commit();
+      }
+      assets = completeBatch(bucket, "standalone assets", assets, count, progress);
+    }
+    while (count == BATCH_SIZE);
+
+    try (ODatabaseDocumentTx db = databaseInstanceProvider.get().acquire()) {
+      db.begin();
+      bucketEntityAdapter.delete(db, bucket);
+      db.commit();
+    }
+    log.info("Purged bucket {}: {} components and {} standalone assets", bucket.repositoryName(), components,
+        assets);
+  }
+
+  /**
+   * Opens a transaction on a bucket pending deletion, the same way {@link StorageFacetImpl#openTx()} does for the
+   * bucket of a repository.
+   */
+  private StorageTx openTx(final Bucket bucket) {
+    return StateGuardAspect.around(
+        new StorageTxImpl(
+            new BlobTx(blobStoreManager.get(bucket.blobStoreName())),
+            databaseInstanceProvider.get().acquire(),
+            false, // userManagedDb
+            bucket,
+            WritePolicy.ALLOW,
+            WritePolicySelector.DEFAULT,
+            bucketEntityAdapter,
+            componentEntityAdapter,
+            assetEntityAdapter,
+            new StorageTxHooks(Collections.<StorageTxHook>emptyList())
+        )
+    );
+  }
+
+  /**
+   * Reports progress after a committed batch, logging it every {@link #PROGRESS_INTERVAL} deletions, and pauses
+   * before the next batch.
+   *
+   * @return the total number of deletions so far
+   */
+  private long completeBatch(final Bucket bucket, final String what, final long total, final int count,
+                             final ProgressListener progress)
+  {
+    long newTotal = total + count;
+    progress.progress(String.format("Purging deleted repository %s: %d %s deleted", bucket.repositoryName(),
+        newTotal, what));
+    if (newTotal / PROGRESS_INTERVAL > total / PROGRESS_INTERVAL) {
+      log.info("Purging bucket {}: {} {} deleted", bucket.repositoryName(), newTotal, what);
+    }
+    CancelableSupport.checkCancellation();
+    if (count > 0 && BATCH_PAUSE_MILLIS > 0) {
+      try {
+        Thread.sleep(BATCH_PAUSE_MILLIS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        CancelableSupport.checkCancellation();
+      }
+    }
+    return newTotal;
+  }
+}
@@ -13,6 +13,8 @@
 
 package org.sonatype.nexus.repository.storage;
 
+import java.util.Set;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -72,6 +74,11 @@ public class ComponentEntityAdapter
         new String[]{P_BUCKET, P_GROUP, P_NAME, P_VERSION});
   }
 
+  @Override
+  protected Set<String> getIndexedAttributes(final IndexedAttributesContributor contributor) {
+    return contributor.getComponentAttributes();
+  }
+
   @Override
   protected Component newEntity() {
     return new Component();
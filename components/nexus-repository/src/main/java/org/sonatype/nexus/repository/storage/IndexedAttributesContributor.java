@@ -0,0 +1,43 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.util.Set;
+
+/**
+ * Declares format-specific attributes by which components and assets are looked up, so they can be indexed.
+ *
+ * Attributes are keys of the {@code attributes.<format>} map, e.g. {@code key} for {@code attributes.maven2.key}.
+ * As OrientDB can not index keys of embedded maps, the entity-adapters mirror each declared attribute (as a string)
+ * into a top-level property, indexed together with the bucket, and look it up through that index in
+ * {@link StorageTx#findComponentWithProperty} and {@link StorageTx#findAssetWithProperty}.
+ *
+ * @since 3.0
+ */
+public interface IndexedAttributesContributor
+{
+  /**
+   * The format whose attributes are declared.
+   */
+  String getFormat();
+
+  /**
+   * Attributes of components to index.
+   */
+  Set<String> getComponentAttributes();
+
+  /**
+   * Attributes of assets to index.
+   */
+  Set<String> getAssetAttributes();
+}
@@ -0,0 +1,62 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.util.Set;
+
+import org.sonatype.nexus.repository.Format;
+import org.sonatype.sisu.goodies.common.ComponentSupport;
+
+import com.google.common.collect.ImmutableSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Support for {@link IndexedAttributesContributor} implementations.
+ *
+ * @since 3.0
+ */
+public class IndexedAttributesContributorSupport
+    extends ComponentSupport
+    implements IndexedAttributesContributor
+{
+  private final Format format;
+
+  private final Set<String> componentAttributes;
+
+  private final Set<String> assetAttributes;
+
+  public IndexedAttributesContributorSupport(final Format format,
+                                             final Set<String> componentAttributes,
+                                             final Set<String> assetAttributes)
+  {
+    this.format = checkNotNull(format);
+    this.componentAttributes = ImmutableSet.copyOf(componentAttributes);
+    this.assetAttributes = ImmutableSet.copyOf(assetAttributes);
+  }
+
+  @Override
+  public String getFormat() {
+    return format.getValue();
+  }
+
+  @Override
+  public Set<String> getComponentAttributes() {
+    return componentAttributes;
+  }
+
+  @Override
+  public Set<String> getAssetAttributes() {
+    return assetAttributes;
+  }
+}
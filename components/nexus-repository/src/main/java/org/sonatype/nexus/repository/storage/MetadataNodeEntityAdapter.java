@@ -13,11 +13,16 @@
 
 package org.sonatype.nexus.repository.storage;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 
 import org.sonatype.nexus.common.collect.NestedAttributesMap;
 import org.sonatype.nexus.orient.OIndexNameBuilder;
@@ -26,11 +31,19 @@ import org.sonatype.nexus.repository.Repository;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicates;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OCompositeKey;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexCursor;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OClass.INDEX_TYPE;
 import com.orientechnologies.orient.core.metadata.schema.OType;
@@ -38,6 +51,7 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
 import org.joda.time.DateTime;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_ATTRIBUTES;
@@ -55,11 +69,124 @@ public abstract class MetadataNodeEntityAdapter<T extends MetadataNode>
     extends CollectionEntityAdapter<T>
 {
 
+  /**
+   * An attribute declared by an {@link IndexedAttributesContributor}, and the top-level field it is mirrored to.
+   */
+  private static class IndexedAttribute
+  {
+    private final String format;
+
+    private final String key;
+
+    private final String field;
+
+    private final String indexName;
+
+    /**
+     * Custom attribute of the type recording that existing documents have been filled in.
+     */
+    private final String backfilledKey;
+
+    private IndexedAttribute(final String typeName, final String format, final String key) {
+      this.format = checkNotNull(format);
+      this.key = checkNotNull(key);
+      this.field = Joiner.on('_').join(P_ATTRIBUTES, format, key);
+      this.indexName = new OIndexNameBuilder().type(typeName).property(P_BUCKET).property(field).build();
+      this.backfilledKey = field + "_backfilled";
+    }
+  }
+
   private final BucketEntityAdapter bucketEntityAdapter;
 
+  private final String bucketIndexName;
+
+  private List<IndexedAttributesContributor> indexedAttributesContributors = Collections.emptyList();
+
+  /**
+   * Indexed attributes, keyed by their qualified property name (e.g. {@code attributes.maven2.key}).
+   */
+  private final Map<String, IndexedAttribute> indexedAttributes = Maps.newConcurrentMap();
+
   public MetadataNodeEntityAdapter(final String typeName, final BucketEntityAdapter bucketEntityAdapter) {
     super(typeName);
     this.bucketEntityAdapter = bucketEntityAdapter;
+    this.bucketIndexName = new OIndexNameBuilder().type(typeName).property(P_BUCKET).build();
+  }
+
+  @Inject
+  public void installIndexedAttributes(final List<IndexedAttributesContributor> indexedAttributesContributors) {
+    this.indexedAttributesContributors = checkNotNull(indexedAttributesContributors);
+  }
+
+  /**
+   * Returns the attributes the contributor declares for this type.
+   */
+  protected abstract Set<String> getIndexedAttributes(IndexedAttributesContributor contributor);
+
+  @Override
+  public void register(final ODatabaseDocumentTx db) {
+    super.register(db);
+    for (IndexedAttributesContributor contributor : indexedAttributesContributors) {
+      for (String key : getIndexedAttributes(contributor)) {
+        IndexedAttribute attribute = new IndexedAttribute(getTypeName(), contributor.getFormat(), key);
+        registerIndexedAttribute(db, attribute);
+        indexedAttributes.put(Joiner.on('.').join(P_ATTRIBUTES, attribute.format, attribute.key), attribute);
+      }
+    }
+  }
+
+  /**
+   * Creates the mirrored field of the attribute and its index, if missing, and fills in the field of existing
+   * documents of the attribute's format. Completion of the fill is recorded on the type, so a fill interrupted by a
+   * crash or failure is run again on the next registration.
+   */
+  private void registerIndexedAttribute(final ODatabaseDocumentTx db, final IndexedAttribute attribute) {
+    OClass type = getType();
+    if (type.getProperty(attribute.field) == null) {
+      type.createProperty(attribute.field, OType.STRING);
+    }
+    if (type.getClassIndex(attribute.indexName) == null) {
+      ODocument metadata = db.newInstance()
+          .field("ignoreNullValues", true)
+          .field("mergeKeys", false);
+      type.createIndex(attribute.indexName, INDEX_TYPE.NOTUNIQUE.name(), null, metadata,
+          new String[]{P_BUCKET, attribute.field}
+      );
+    }
+    if (Boolean.parseBoolean(type.getCustom(attribute.backfilledKey))) {
+      return;
+    }
+
+    // browse rather than query, so existing documents are streamed instead of collected in memory
+    long count = 0;
+    for (ODocument document : browseDocuments(db)) {
+      if (!attribute.format.equals(document.field(P_FORMAT, OType.STRING))) {
+        continue;
+      }
+      Map<String, Object> attributes = document.field(P_ATTRIBUTES, OType.EMBEDDEDMAP);
+      Object value = attributeValue(attributes, attribute);
+      String field = value != null ? value.toString() : null;
+      if (!Objects.equal(field, document.field(attribute.field, OType.STRING))) {
+        document.field(attribute.field, field);
+        document.save();
+        count++;
+      }
+    }
+    type.setCustom(attribute.backfilledKey, Boolean.TRUE.toString());
+
+    log.info("Indexed attribute {}.{}.{} of type '{}' as '{}', filled in {} existing documents",
+        P_ATTRIBUTES, attribute.format, attribute.key, getTypeName(), attribute.field, count);
+  }
+
+  @Nullable
+  private static Object attributeValue(@Nullable final Map<String, Object> attributes,
+                                       final IndexedAttribute attribute)
+  {
+    if (attributes == null) {
+      return null;
+    }
+    Object formatAttributes = attributes.get(attribute.format);
+    return formatAttributes instanceof Map ? ((Map<?, ?>) formatAttributes).get(attribute.key) : null;
   }
 
   @Override
@@ -69,8 +196,7 @@ public abstract class MetadataNodeEntityAdapter<T extends MetadataNode>
     type.createProperty(P_LAST_UPDATED, OType.DATETIME);
     type.createProperty(P_ATTRIBUTES, OType.EMBEDDEDMAP);
 
-    String indexName = new OIndexNameBuilder().type(getTypeName()).property(P_BUCKET).build();
-    type.createIndex(indexName, INDEX_TYPE.NOTUNIQUE, P_BUCKET);
+    type.createIndex(bucketIndexName, INDEX_TYPE.NOTUNIQUE, P_BUCKET);
   }
 
   @Override
@@ -93,18 +219,74 @@ public abstract class MetadataNodeEntityAdapter<T extends MetadataNode>
     document.field(P_FORMAT, entity.format());
     document.field(P_LAST_UPDATED, new Date());
     document.field(P_ATTRIBUTES, entity.attributes().backing());
+
+    for (IndexedAttribute attribute : indexedAttributes.values()) {
+      Object value = attribute.format.equals(entity.format())
+          ? attributeValue(entity.attributes().backing(), attribute)
+          : null;
+      document.field(attribute.field, value != null ? value.toString() : null);
+    }
   }
 
-  Iterable<T> browseByBucket(final ODatabaseDocumentTx db, final Bucket bucket) {
+  /**
+   * Browses the entities in the bucket straight from the bucket index, so no statement is run and nothing is sorted:
+   * a non-unique index keeps the record-ids of each key in a tree ordered by record-id, which the index cursor walks
+   * from where it left off, {@code pageSize} entries at a time. Only one page is held in memory however large the
+   * bucket is. Entities removed while browsing are simply not returned.
+   */
+  Iterable<T> browseByBucket(final ODatabaseDocumentTx db, final Bucket bucket, final int pageSize) {
     checkNotNull(bucket);
     checkState(bucket.isPersisted());
+    checkArgument(pageSize > 0, "Page size must be positive");
 
-    Map<String, Object> parameters = ImmutableMap.<String, Object>of(
-        "bucket", bucketEntityAdapter.recordIdentity(bucket)
-    );
-    String query = String.format("select from %s where bucket = :bucket", getTypeName());
-    Iterable<ODocument> docs = db.command(new OCommandSQL(query)).execute(parameters);
-    return readEntities(docs);
+    final ORID bucketId = bucketEntityAdapter.recordIdentity(bucket);
+    return new Iterable<T>()
+    {
+      @Override
+      public Iterator<T> iterator() {
+        // the index manager returns a transaction-aware index when a transaction is active
+        OIndex<?> index = db.getMetadata().getIndexManager().getIndex(bucketIndexName);
+        checkState(index != null, "Missing index: %s", bucketIndexName);
+        final OIndexCursor cursor = index.iterateEntries(Collections.singleton(bucketId), true);
+        cursor.setPrefetchSize(pageSize);
+
+        return new AbstractIterator<T>()
+        {
+          private Iterator<ODocument> page = Collections.emptyIterator();
+
+          @Override
+          protected T computeNext() {
+            while (!page.hasNext()) {
+              List<ODocument> docs = nextPage();
+              if (docs == null) {
+                return endOfData();
+              }
+              page = docs.iterator();
+            }
+            return readEntity(page.next());
+          }
+
+          /**
+           * Loads the documents of the next {@code pageSize} index entries, or returns {@code null} once the cursor is
+           * exhausted. Entries whose record is gone are skipped.
+           */
+          @Nullable
+          private List<ODocument> nextPage() {
+            List<ODocument> docs = Lists.newArrayListWithCapacity(pageSize);
+            int read = 0;
+            Map.Entry<Object, OIdentifiable> entry;
+            while (read < pageSize && (entry = cursor.nextEntry()) != null) {
+              read++;
+              ODocument doc = entry.getValue().getRecord();
+              if (doc != null) {
+                docs.add(doc);
+              }
+            }
+            return read > 0 ? docs : null;
+          }
+        };
+      }
+    };
   }
 
   T findByProperty(final ODatabaseDocumentTx db,
@@ -115,16 +297,58 @@ public abstract class MetadataNodeEntityAdapter<T extends MetadataNode>
     checkNotNull(propValue);
     checkNotNull(bucket);
 
+    IndexedAttribute attribute = indexedAttributes.get(propName);
+    if (attribute != null) {
+      // straight to the bucket + mirrored attribute index, no statement to parse
+      OCompositeKey key = new OCompositeKey(bucketEntityAdapter.recordIdentity(bucket), propValue.toString());
+      ODocument first = Iterables.getFirst(browseByIndex(db, attribute.indexName, key), null);
+      return first != null ? readEntity(first) : null;
+    }
+
     Map<String, Object> parameters = ImmutableMap.of(
         "propValue", propValue,
         "bucket", bucketEntityAdapter.recordIdentity(bucket)
     );
+    // OrientDB 2.0 parses the statement on every execution, and a command request holds the state of its execution
+    // so can not be shared between callers: only the indexed lookups above avoid the parse
     String query = String.format("select from %s where %s = :propValue and bucket = :bucket", getTypeName(), propName);
     Iterable<ODocument> docs = db.command(new OCommandSQL(query)).execute(parameters);
     ODocument first = Iterables.getFirst(docs, null);
     return first != null ? readEntity(first) : null;
   }
 
+  /**
+   * Returns the documents the named index holds under the given key. Used for hot lookups, where the cost of
+   * parsing an equivalent SQL statement on every call would dominate.
+   */
+  protected Iterable<ODocument> browseByIndex(final ODatabaseDocumentTx db, final String indexName, final Object key) {
+    // the index manager returns a transaction-aware index when a transaction is active
+    OIndex<?> index = db.getMetadata().getIndexManager().getIndex(indexName);
+    checkState(index != null, "Missing index: %s", indexName);
+
+    Object value = index.get(key);
+    Collection<OIdentifiable> identifiables;
+    if (value == null) {
+      identifiables = Collections.emptySet();
+    }
+    else if (value instanceof OIdentifiable) {
+      identifiables = Collections.singleton((OIdentifiable) value);
+    }
+    else {
+      //noinspection unchecked
+      identifiables = (Collection<OIdentifiable>) value;
+    }
+
+    return Iterables.filter(Iterables.transform(identifiables, new Function<OIdentifiable, ODocument>()
+    {
+      @Nullable
+      @Override
+      public ODocument apply(final OIdentifiable identifiable) {
+        return identifiable.getRecord();
+      }
+    }), Predicates.notNull());
+  }
+
   Iterable<T> browseByQuery(final ODatabaseDocumentTx db,
                             final @Nullable String whereClause,
                             final @Nullable Map<String, Object> parameters,
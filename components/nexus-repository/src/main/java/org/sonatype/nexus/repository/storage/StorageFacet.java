@@ -31,6 +31,8 @@ public interface StorageFacet
 
   static String P_BLOB_REF = "blob_ref";
 
+  static String P_BLOB_STORE_NAME = "blob_store_name";
+
   static String P_BUCKET = "bucket";
 
   static String P_CHECKSUM = "checksum";
@@ -49,6 +51,8 @@ public interface StorageFacet
 
   static String P_PATH = "path";
 
+  static String P_PENDING_DELETION = "pending_deletion";
+
   static String P_REPOSITORY_NAME = "repository_name";
 
   static String P_SIZE = "size";
@@ -61,6 +61,8 @@ public class StorageFacetImpl
 
   private final AssetEntityAdapter assetEntityAdapter;
 
+  private final BucketPurger bucketPurger;
+
   private final List<Supplier<StorageTxHook>> hookSuppliers;
 
   @VisibleForTesting
@@ -95,7 +97,8 @@ public class StorageFacetImpl
                           final @Named(ComponentDatabase.NAME) Provider<DatabaseInstance> databaseInstanceProvider,
                           final BucketEntityAdapter bucketEntityAdapter,
                           final ComponentEntityAdapter componentEntityAdapter,
-                          final AssetEntityAdapter assetEntityAdapter)
+                          final AssetEntityAdapter assetEntityAdapter,
+                          final BucketPurger bucketPurger)
   {
     this.blobStoreManager = checkNotNull(blobStoreManager);
     this.databaseInstanceProvider = checkNotNull(databaseInstanceProvider);
@@ -103,6 +106,7 @@ public class StorageFacetImpl
     this.bucketEntityAdapter = checkNotNull(bucketEntityAdapter);
     this.componentEntityAdapter = checkNotNull(componentEntityAdapter);
     this.assetEntityAdapter = checkNotNull(assetEntityAdapter);
+    this.bucketPurger = checkNotNull(bucketPurger);
 
     this.hookSuppliers = new ArrayList<>();
     this.hookSuppliers.add(new Supplier<StorageTxHook>()
@@ -162,10 +166,8 @@ public class StorageFacetImpl
 
   @Override
   protected void doDelete() throws Exception {
-    // TODO: Make this a soft delete and cleanup later so it doesn't block for large repos.
-    try (StorageTx tx = openStorageTx(null)) {
-      tx.deleteBucket(tx.getBucket());
-    }
+    // contents are purged in the background, large repositories can take hours to delete
+    bucketPurger.markForDeletion(bucket, config.blobStoreName);
   }
 
   @Override
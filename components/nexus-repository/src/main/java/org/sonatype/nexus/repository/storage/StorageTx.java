@@ -68,25 +68,46 @@ public interface StorageTx
   Iterable<Bucket> browseBuckets();
 
   /**
-   * Gets all assets owned by the specified bucket.
+   * Gets all assets owned by the specified bucket, read a page at a time with the default page size.
+   *
+   * @see #browseAssets(Bucket, int)
    */
   Iterable<Asset> browseAssets(Bucket bucket);
 
+  /**
+   * Gets all assets owned by the specified bucket in record-id order, reading {@code pageSize} assets at a time so
+   * memory use does not grow with the size of the bucket. Assets may be deleted while browsing.
+   */
+  Iterable<Asset> browseAssets(Bucket bucket, int pageSize);
+
   /**
    * Gets all assets owned by the specified component.
    */
   Iterable<Asset> browseAssets(Component component);
 
+  /**
+   * Gets all assets owned by the specified components, with a single query rather than one lookup per component.
+   */
+  Iterable<Asset> browseAssets(Iterable<Component> components);
+
   /**
    * Gets first asset owned by the specified component.
    */
   Asset firstAsset(Component component);
 
   /**
-   * Gets all components owned by the specified bucket.
+   * Gets all components owned by the specified bucket, read a page at a time with the default page size.
+   *
+   * @see #browseComponents(Bucket, int)
    */
   Iterable<Component> browseComponents(Bucket bucket);
 
+  /**
+   * Gets all components owned by the specified bucket in record-id order, reading {@code pageSize} components at a
+   * time so memory use does not grow with the size of the bucket. Components may be deleted while browsing.
+   */
+  Iterable<Component> browseComponents(Bucket bucket, int pageSize);
+
   /**
    * Gets an asset by id, owned by the specified bucket, or {@code null} if not found.
    */
@@ -26,6 +26,7 @@ import org.sonatype.nexus.common.collect.NestedAttributesMap;
 import org.sonatype.nexus.common.entity.EntityId;
 import org.sonatype.nexus.common.hash.HashAlgorithm;
 import org.sonatype.nexus.common.hash.MultiHashingInputStream;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.common.stateguard.Guarded;
 import org.sonatype.nexus.common.stateguard.StateGuard;
 import org.sonatype.nexus.common.stateguard.StateGuardAware;
@@ -35,6 +36,7 @@ import org.sonatype.nexus.repository.IllegalOperationException;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.hash.HashCode;
@@ -60,7 +62,10 @@ public class StorageTxImpl
     extends ComponentSupport
     implements StorageTx, StateGuardAware
 {
-  private static final long DELETE_BATCH_SIZE = 100L;
+  private static final int DELETE_BATCH_SIZE = 100;
+
+  private static final int BROWSE_PAGE_SIZE =
+      SystemPropertiesHelper.getInteger(StorageTxImpl.class.getName() + ".browsePageSize", 1000);
 
   private final BlobTx blobTx;
 
@@ -180,7 +185,13 @@ public class StorageTxImpl
   @Override
   @Guarded(by = OPEN)
   public Iterable<Asset> browseAssets(final Bucket bucket) {
-    return assetEntityAdapter.browseByBucket(db, bucket);
+    return browseAssets(bucket, BROWSE_PAGE_SIZE);
+  }
+
+  @Override
+  @Guarded(by = OPEN)
+  public Iterable<Asset> browseAssets(final Bucket bucket, final int pageSize) {
+    return assetEntityAdapter.browseByBucket(db, bucket, pageSize);
   }
 
   @Override
@@ -189,6 +200,12 @@ public class StorageTxImpl
     return assetEntityAdapter.browseByComponent(db, component);
   }
 
+  @Override
+  @Guarded(by = OPEN)
+  public Iterable<Asset> browseAssets(final Iterable<Component> components) {
+    return assetEntityAdapter.browseByComponents(db, components);
+  }
+
   @Override
   public Asset firstAsset(final Component component) {
     return Iterables.getFirst(browseAssets(component), null);
@@ -197,7 +214,13 @@ public class StorageTxImpl
   @Override
   @Guarded(by = OPEN)
   public Iterable<Component> browseComponents(final Bucket bucket) {
-    return componentEntityAdapter.browseByBucket(db, bucket);
+    return browseComponents(bucket, BROWSE_PAGE_SIZE);
+  }
+
+  @Override
+  @Guarded(by = OPEN)
+  public Iterable<Component> browseComponents(final Bucket bucket, final int pageSize) {
+    return componentEntityAdapter.browseByBucket(db, bucket, pageSize);
   }
 
   @Nullable
@@ -380,8 +403,8 @@ public class StorageTxImpl
 
     long count = 0;
 
-    // first delete all components and constituent assets
-    for (Component component : browseComponents(bucket)) {
+    // first delete all components and constituent assets, paging by record-id so the bucket is never loaded whole
+    for (Component component : browseComponents(bucket, DELETE_BATCH_SIZE)) {
       deleteComponent(component, false);
       count++;
       if (count == DELETE_BATCH_SIZE) {
@@ -392,7 +415,7 @@ public class StorageTxImpl
     commit();
 
     // then delete all standalone assets
-    for (Asset asset : browseAssets(bucket)) {
+    for (Asset asset : browseAssets(bucket, DELETE_BATCH_SIZE)) {
       deleteAsset(asset, null);
       count++;
       if (count == DELETE_BATCH_SIZE) {
@@ -413,11 +436,14 @@ public class StorageTxImpl
     checkNotNull(inputStream);
     checkNotNull(headers);
 
+    return blobTx.create(inputStream, storageHeaders(headers));
+  }
+
+  private Map<String, String> storageHeaders(final Map<String, String> headers) {
     ImmutableMap.Builder<String, String> storageHeaders = ImmutableMap.builder();
     storageHeaders.put(Bucket.REPO_NAME_HEADER, bucket.repositoryName());
     storageHeaders.putAll(headers);
-
-    return blobTx.create(inputStream, storageHeaders.build());
+    return storageHeaders.build();
   }
 
   @Override
@@ -444,9 +470,9 @@ public class StorageTxImpl
       deleteBlob(oldBlobRef, effectiveWritePolicy);
     }
 
-    // Store new blob while calculating hashes in one pass
-    final MultiHashingInputStream hashingStream = new MultiHashingInputStream(hashAlgorithms, inputStream);
-    final BlobRef newBlobRef = createBlob(hashingStream, headers);
+    // Store new blob while calculating hashes in one pass; the blob store reuses our SHA1 rather than hashing again
+    final MultiHashingInputStream hashingStream = new MultiHashingInputStream(withSha1(hashAlgorithms), inputStream);
+    final BlobRef newBlobRef = blobTx.create(hashingStream, storageHeaders(headers));
 
     asset.blobRef(newBlobRef);
     asset.size(hashingStream.count());
@@ -462,6 +488,16 @@ public class StorageTxImpl
     return newBlobRef;
   }
 
+  /**
+   * Adds {@link HashAlgorithm#SHA1}, which the blob store requires, to the requested algorithms if missing.
+   */
+  private static Iterable<HashAlgorithm> withSha1(final Iterable<HashAlgorithm> hashAlgorithms) {
+    if (Iterables.contains(hashAlgorithms, HashAlgorithm.SHA1)) {
+      return hashAlgorithms;
+    }
+    return Iterables.concat(hashAlgorithms, ImmutableList.of(HashAlgorithm.SHA1));
+  }
+
   @Nullable
   @Override
   @Guarded(by = OPEN)
@@ -12,8 +12,10 @@
  */
 package org.sonatype.nexus.repository.view;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -34,7 +36,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * @since 3.0
  */
 public class Content
-    implements Payload
+    implements FileChannelPayload, Closeable
 {
   /**
    * Key of the "last modified" attribute of type {@link DateTime}.
@@ -89,6 +91,34 @@ public class Content
     return payload.getContentType();
   }
 
+  @Nullable
+  @Override
+  public FileChannel openFileChannel() throws IOException {
+    if (payload instanceof FileChannelPayload) {
+      return ((FileChannelPayload) payload).openFileChannel();
+    }
+    return null;
+  }
+
+  @Override
+  public long getFileChannelOffset() {
+    if (payload instanceof FileChannelPayload) {
+      return ((FileChannelPayload) payload).getFileChannelOffset();
+    }
+    return 0;
+  }
+
+  /**
+   * Releases what the payload holds on to, for content which is not going to be read. Payloads which hold on to
+   * nothing until their stream is opened are left as they are.
+   */
+  @Override
+  public void close() throws IOException {
+    if (payload instanceof Closeable) {
+      ((Closeable) payload).close();
+    }
+  }
+
   @Nonnull
   public AttributesMap getAttributes() {
     return attributes;
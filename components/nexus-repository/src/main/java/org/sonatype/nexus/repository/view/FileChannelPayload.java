@@ -0,0 +1,41 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.view;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Payload} which may be backed by a file, allowing senders to transfer its content straight from a
+ * {@link FileChannel} instead of copying it through {@link #openInputStream()}.
+ *
+ * @since 3.0
+ */
+public interface FileChannelPayload
+    extends Payload
+{
+  /**
+   * Opens a channel to the file holding this payload's content, or returns {@code null} if the content is not held in
+   * a file. The content is the {@link #getSize()} bytes starting at {@link #getFileChannelOffset()}; the caller must
+   * close the channel.
+   */
+  @Nullable
+  FileChannel openFileChannel() throws IOException;
+
+  /**
+   * Returns the position of the first byte of this payload's content in its {@link #openFileChannel() channel}.
+   */
+  long getFileChannelOffset();
+}
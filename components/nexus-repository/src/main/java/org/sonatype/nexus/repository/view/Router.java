@@ -19,6 +19,7 @@ import java.util.Map;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -121,7 +122,8 @@ public class Router
   /**
    * Find the first matching route for the given context.
    */
-  private Route findRoute(final Context context) {
+  @VisibleForTesting
+  Route findRoute(final Context context) {
     for (Route route : routes) {
       if (route.getMatcher().matches(context)) {
         return route;
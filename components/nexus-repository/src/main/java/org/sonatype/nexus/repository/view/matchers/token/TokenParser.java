@@ -53,11 +53,19 @@ public class TokenParser
 
   private final Pattern pattern;
 
+  private final String literalPrefix;
+
+  private final String literalSuffix;
+
   public TokenParser(final String templatePattern) {
     final List<Token> tokens = new PatternParser(templatePattern).getTokens();
     pattern = Pattern.compile(regexp(tokens));
     log.trace("Pattern: {}", pattern);
 
+    // Leading and trailing literals allow rejecting most paths without running the regexp
+    literalPrefix = literal(tokens.isEmpty() ? null : tokens.get(0));
+    literalSuffix = literal(tokens.isEmpty() ? null : tokens.get(tokens.size() - 1));
+
     // Separate the variable tokens
     variables = new ArrayList<>();
     for (Token token : tokens) {
@@ -74,6 +82,9 @@ public class TokenParser
    */
   @Nullable
   public Map<String, String> parse(final String path) {
+    if (!path.startsWith(literalPrefix) || !path.endsWith(literalSuffix)) {
+      return null;
+    }
     final Matcher matcher = pattern.matcher(path);
     if (!matcher.matches()) {
       return null;
@@ -106,6 +117,10 @@ public class TokenParser
     return pattern.toString();
   }
 
+  private static String literal(@Nullable final Token token) {
+    return token instanceof LiteralToken ? token.value : "";
+  }
+
   private String regexp(final List<Token> tokens) {
     StringBuilder b = new StringBuilder();
     for (Token token : tokens) {
@@ -0,0 +1,192 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.conditional;
+
+import org.sonatype.nexus.common.collect.AttributesMap;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.repository.http.HttpMethods;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.http.HttpStatus;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Headers;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.PayloadResponse;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.client.utils.DateUtils;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ConditionalRequestHandler}.
+ */
+public class ConditionalRequestHandlerTest
+    extends TestSupport
+{
+  private static final String SHA1 = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+  private final DateTime lastModified = new DateTime(2015, 6, 1, 12, 0, 0, 0);
+
+  private final ConditionalRequestHandler underTest = new ConditionalRequestHandler();
+
+  @Mock
+  private Context context;
+
+  @Mock
+  private Request request;
+
+  @Mock
+  private Payload payload;
+
+  private final Headers requestHeaders = new Headers();
+
+  private final AttributesMap requestAttributes = new AttributesMap();
+
+  private Content content;
+
+  private Response response;
+
+  @Before
+  public void setUp() throws Exception {
+    content = new Content(payload);
+    content.getAttributes().set(Content.CONTENT_LAST_MODIFIED, lastModified);
+    content.getAttributes().set(Content.CONTENT_HASH_CODES_MAP,
+        ImmutableMap.of(HashAlgorithm.SHA1, HashCode.fromString(SHA1)));
+    response = HttpResponses.ok(content);
+
+    when(context.getRequest()).thenReturn(request);
+    when(context.proceed()).thenReturn(response);
+    when(request.getAction()).thenReturn(HttpMethods.GET);
+    when(request.getHeaders()).thenReturn(requestHeaders);
+    when(request.getAttributes()).thenReturn(requestAttributes);
+  }
+
+  private void assertNotModified(final Response result) throws Exception {
+    assertThat(result, not(instanceOf(PayloadResponse.class)));
+    assertThat(result.getStatus().getCode(), is(HttpStatus.NOT_MODIFIED));
+    assertThat(result.getHeaders().get(HttpHeaders.ETAG), equalTo("\"{SHA1{" + SHA1 + "}}\""));
+    assertThat(result.getHeaders().get(HttpHeaders.LAST_MODIFIED),
+        equalTo(DateUtils.formatDate(lastModified.toDate())));
+    verify(payload, never()).openInputStream();
+  }
+
+  @Test
+  public void unconditionalRequestGetsValidators() throws Exception {
+    Response result = underTest.handle(context);
+    assertThat(result, sameInstance(response));
+    assertThat(result.getHeaders().get(HttpHeaders.ETAG), equalTo("\"{SHA1{" + SHA1 + "}}\""));
+    assertThat(result.getHeaders().get(HttpHeaders.LAST_MODIFIED),
+        equalTo(DateUtils.formatDate(lastModified.toDate())));
+  }
+
+  @Test
+  public void etagAttributeIsPreferredOverHash() throws Exception {
+    content.getAttributes().set(Content.CONTENT_ETAG, "remote-etag");
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "\"remote-etag\"");
+    Response result = underTest.handle(context);
+    assertThat(result.getStatus().getCode(), is(HttpStatus.NOT_MODIFIED));
+    assertThat(result.getHeaders().get(HttpHeaders.ETAG), equalTo("\"remote-etag\""));
+  }
+
+  @Test
+  public void conditionsEvaluatedOutsideAreIgnored() throws Exception {
+    requestAttributes.set(ConditionalRequestHandler.EVALUATED_OUTSIDE, Boolean.TRUE);
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "\"{SHA1{" + SHA1 + "}}\"");
+    assertThat(underTest.handle(context), sameInstance(response));
+  }
+
+  @Test
+  public void ifNoneMatchHit() throws Exception {
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "\"other\", W/\"{SHA1{" + SHA1 + "}}\"");
+    assertNotModified(underTest.handle(context));
+  }
+
+  @Test
+  public void ifNoneMatchWildcard() throws Exception {
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "*");
+    assertNotModified(underTest.handle(context));
+  }
+
+  @Test
+  public void ifNoneMatchMissTakesPrecedenceOverIfModifiedSince() throws Exception {
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+    requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, DateUtils.formatDate(lastModified.plusDays(1).toDate()));
+    assertThat(underTest.handle(context), sameInstance(response));
+  }
+
+  @Test
+  public void ifModifiedSinceHit() throws Exception {
+    requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, DateUtils.formatDate(lastModified.toDate()));
+    assertNotModified(underTest.handle(context));
+  }
+
+  @Test
+  public void ifModifiedSinceMiss() throws Exception {
+    requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, DateUtils.formatDate(lastModified.minusSeconds(1).toDate()));
+    assertThat(underTest.handle(context), sameInstance(response));
+  }
+
+  @Test
+  public void unparsableIfModifiedSinceIsIgnored() throws Exception {
+    requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, "yesterday");
+    assertThat(underTest.handle(context), sameInstance(response));
+  }
+
+  @Test
+  public void headIsAnsweredToo() throws Exception {
+    when(request.getAction()).thenReturn(HttpMethods.HEAD);
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "\"{SHA1{" + SHA1 + "}}\"");
+    assertNotModified(underTest.handle(context));
+  }
+
+  @Test
+  public void otherMethodsAreIgnored() throws Exception {
+    when(request.getAction()).thenReturn(HttpMethods.PUT);
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "*");
+    assertThat(underTest.handle(context), sameInstance(response));
+  }
+
+  @Test
+  public void nonContentPayloadsAreIgnored() throws Exception {
+    Response plain = HttpResponses.ok(payload);
+    when(context.proceed()).thenReturn(plain);
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "*");
+    assertThat(underTest.handle(context), sameInstance(plain));
+  }
+
+  @Test
+  public void failuresAreIgnored() throws Exception {
+    Response notFound = HttpResponses.notFound();
+    when(context.proceed()).thenReturn(notFound);
+    requestHeaders.set(HttpHeaders.IF_NONE_MATCH, "*");
+    assertThat(underTest.handle(context), sameInstance(notFound));
+  }
+}
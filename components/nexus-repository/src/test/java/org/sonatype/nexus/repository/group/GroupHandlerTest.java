@@ -0,0 +1,293 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.group;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.repository.MissingFacetException;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.conditional.ConditionalRequestHandler;
+import org.sonatype.nexus.repository.group.GroupHandler.DispatchedRepositories;
+import org.sonatype.nexus.repository.http.HttpMethods;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.http.HttpStatus;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Headers;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.ViewFacet;
+import org.sonatype.nexus.repository.view.payloads.StringPayload;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.net.HttpHeaders;
+
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for concurrent member dispatch of {@link GroupHandler}.
+ */
+public class GroupHandlerTest
+    extends TestSupport
+{
+  private final Request request = new Request("/some/path");
+
+  private final DispatchedRepositories dispatched = new DispatchedRepositories();
+
+  private Context context;
+
+  @Before
+  public void setUp() {
+    // dispatches run as the current subject
+    Subject subject = mock(Subject.class);
+    when(subject.associateWith(any(Callable.class))).thenAnswer(new Answer<Object>()
+    {
+      @Override
+      public Object answer(final InvocationOnMock invocation) {
+        return invocation.getArguments()[0];
+      }
+    });
+    ThreadContext.bind(subject);
+
+    context = new Context(repository("group"), request);
+  }
+
+  @After
+  public void tearDown() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  public void hedgedDispatchOverlapsSlowMembers() throws Exception {
+    final CountDownLatch secondDispatched = new CountDownLatch(1);
+    final boolean[] overlapped = new boolean[1];
+    Repository first = member("first", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) throws Exception {
+        overlapped[0] = secondDispatched.await(5, TimeUnit.SECONDS);
+        return HttpResponses.notFound();
+      }
+    });
+    final Response found = HttpResponses.ok();
+    Repository second = member("second", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) {
+        secondDispatched.countDown();
+        return found;
+      }
+    });
+
+    Response response = new GroupHandler(50).getFirst(context, Arrays.asList(first, second), dispatched);
+
+    assertThat(response, sameInstance(found));
+    assertThat(overlapped[0], is(true));
+  }
+
+  @Test
+  public void firstMemberInGroupOrderWins() throws Exception {
+    final Response slow = HttpResponses.ok();
+    Repository first = member("first", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) throws Exception {
+        Thread.sleep(200);
+        return slow;
+      }
+    });
+    Repository second = member("second", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) {
+        return HttpResponses.ok();
+      }
+    });
+
+    Response response = new GroupHandler(0).getFirst(context, Arrays.asList(first, second), dispatched);
+
+    assertThat(response, sameInstance(slow));
+  }
+
+  @Test
+  public void losingDispatchesAreNotInterruptedButDiscarded() throws Exception {
+    final CountDownLatch secondDispatched = new CountDownLatch(1);
+    final CountDownLatch secondReleased = new CountDownLatch(1);
+    final boolean[] interrupted = new boolean[1];
+    final Response found = HttpResponses.ok();
+    Repository first = member("first", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) throws Exception {
+        secondDispatched.await(5, TimeUnit.SECONDS);
+        return found;
+      }
+    });
+    final Content losing = mock(Content.class);
+    Repository second = member("second", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) {
+        secondDispatched.countDown();
+        try {
+          secondReleased.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          interrupted[0] = true;
+        }
+        return HttpResponses.ok(losing);
+      }
+    });
+
+    Response response = new GroupHandler(0).getFirst(context, Arrays.asList(first, second), dispatched);
+    secondReleased.countDown();
+
+    assertThat(response, sameInstance(found));
+    verify(losing, timeout(5000)).close();
+    assertThat(interrupted[0], is(false));
+  }
+
+  @Test
+  public void membersOfNestedGroupsAreClaimedInGroupOrder() throws Exception {
+    // group = [nested, x], nested = [x, y]: x must win through nested even though y answers first
+    final Response fromX = HttpResponses.ok();
+    final Repository x = member("x", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) throws Exception {
+        Thread.sleep(200);
+        return fromX;
+      }
+    });
+    final Repository y = member("y", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) {
+        return HttpResponses.ok();
+      }
+    });
+    final GroupHandler handler = new GroupHandler(0);
+    final Repository nested = member("nested", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) throws Exception {
+        return handler.getFirst(new Context(repository("nested"), request), Arrays.asList(x, y), dispatched);
+      }
+    });
+    GroupFacet nestedFacet = mock(GroupFacet.class);
+    when(nestedFacet.members()).thenReturn(Arrays.asList(x, y));
+    doReturn(nestedFacet).when(nested).facet(GroupFacet.class);
+
+    Response response = handler.getFirst(context, Arrays.asList(nested, x), dispatched);
+
+    assertThat(response, sameInstance(fromX));
+    verify(x, times(1)).facet(ViewFacet.class);
+  }
+
+  @Test
+  public void alreadyDispatchedMembersAreSkipped() throws Exception {
+    Repository first = member("first", null);
+    Repository second = member("second", new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) {
+        return HttpResponses.notFound();
+      }
+    });
+    dispatched.add(first);
+
+    Response response = new GroupHandler(0).getFirst(context, Arrays.asList(first, second), dispatched);
+
+    assertThat(response.getStatus().isSuccessful(), is(false));
+    assertThat(dispatched.contains(second), is(true));
+    verify(first, never()).facet(ViewFacet.class);
+  }
+
+  @Test
+  public void membersDoNotEvaluateConditionsOfTheGroupRequest() throws Exception {
+    // the client's copy matches the member's content, but not what the group would serve
+    final Content content = new Content(new StringPayload("member", "text/plain"));
+    content.getAttributes().set(Content.CONTENT_ETAG, "member-etag");
+    final Request conditional = new Request("/some/path")
+    {
+      {
+        action = HttpMethods.GET;
+        headers = new Headers();
+        headers.set(HttpHeaders.IF_NONE_MATCH, "\"member-etag\"");
+      }
+    };
+    final Repository member = repository("member");
+    ViewFacet view = mock(ViewFacet.class);
+    when(view.dispatch(conditional)).thenAnswer(new Answer<Response>()
+    {
+      @Override
+      public Response answer(final InvocationOnMock invocation) throws Exception {
+        Context memberContext = mock(Context.class);
+        when(memberContext.getRequest()).thenReturn(conditional);
+        when(memberContext.proceed()).thenReturn(HttpResponses.ok(content));
+        return new ConditionalRequestHandler().handle(memberContext);
+      }
+    });
+    when(member.facet(ViewFacet.class)).thenReturn(view);
+
+    // like a metadata merge, which only takes OK responses of members
+    Response response = new GroupHandler(-1)
+    {
+      @Override
+      protected Response doGet(final Context context, final DispatchedRepositories dispatched) throws Exception {
+        return getAll(context, Arrays.asList(member), dispatched).get(member);
+      }
+    }.handle(new Context(repository("group"), conditional));
+
+    assertThat(response.getStatus().getCode(), is(HttpStatus.OK));
+  }
+
+  private Repository repository(final String name) {
+    Repository repository = mock(Repository.class);
+    when(repository.getName()).thenReturn(name);
+    MissingFacetException notGroup = new MissingFacetException(repository, GroupFacet.class);
+    when(repository.facet(GroupFacet.class)).thenThrow(notGroup);
+    return repository;
+  }
+
+  private Repository member(final String name, final Answer<Response> dispatch) throws Exception {
+    Repository repository = repository(name);
+    ViewFacet view = mock(ViewFacet.class);
+    if (dispatch != null) {
+      when(view.dispatch(request)).thenAnswer(dispatch);
+    }
+    when(repository.facet(ViewFacet.class)).thenReturn(view);
+    return repository;
+  }
+}
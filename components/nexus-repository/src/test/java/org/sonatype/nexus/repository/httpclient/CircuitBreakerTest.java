@@ -0,0 +1,207 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.httpclient;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.common.sequence.FibonacciNumberSequence;
+import org.sonatype.nexus.repository.httpclient.CircuitBreaker.State;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest
+    extends TestSupport
+{
+  private ScheduledExecutorService scheduler;
+
+  private ExecutorService probeExecutor;
+
+  private CountDownLatch probed;
+
+  private CircuitBreaker underTest;
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    probeExecutor = Executors.newCachedThreadPool();
+    probed = new CountDownLatch(1);
+    underTest = new CircuitBreaker("test", 10, 4, 50, 1000, 100, scheduler, new FibonacciNumberSequence(100),
+        probeExecutor, new Runnable()
+        {
+          @Override
+          public void run() {
+            probed.countDown();
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    underTest.shutdown();
+    scheduler.shutdownNow();
+    probeExecutor.shutdownNow();
+  }
+
+  private void call(final boolean success, final long durationMillis) {
+    assertThat(underTest.tryAcquire(), is(true));
+    if (success) {
+      underTest.onSuccess(durationMillis);
+    }
+    else {
+      underTest.onFailure(durationMillis);
+    }
+  }
+
+  private void open() {
+    for (int i = 0; i < 4; i++) {
+      call(false, 10);
+    }
+    assertThat(underTest.getState(), is(State.OPEN));
+  }
+
+  private void awaitHalfOpen() throws Exception {
+    assertThat(probed.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(underTest.getState(), is(State.HALF_OPEN));
+  }
+
+  @Test
+  public void staysClosedBelowMinimumCalls() {
+    call(false, 10);
+    call(false, 10);
+    call(false, 10);
+    assertThat(underTest.getState(), is(State.CLOSED));
+  }
+
+  @Test
+  public void staysClosedBelowFailureRate() {
+    for (int i = 0; i < 10; i++) {
+      call(i % 3 != 0, 10);
+    }
+    assertThat(underTest.getState(), is(State.CLOSED));
+  }
+
+  @Test
+  public void opensOnFailureRate() {
+    call(true, 10);
+    call(false, 10);
+    call(true, 10);
+    assertThat(underTest.getState(), is(State.CLOSED));
+    call(false, 10);
+    assertThat(underTest.getState(), is(State.OPEN));
+    assertThat(underTest.tryAcquire(), is(false));
+  }
+
+  @Test
+  public void opensOnSlowCallRate() {
+    for (int i = 0; i < 4; i++) {
+      call(true, 2000);
+    }
+    assertThat(underTest.getState(), is(State.OPEN));
+  }
+
+  @Test
+  public void ignoredCallsAreNotRecorded() {
+    for (int i = 0; i < 10; i++) {
+      assertThat(underTest.tryAcquire(), is(true));
+      underTest.onIgnored();
+    }
+    assertThat(underTest.getState(), is(State.CLOSED));
+  }
+
+  @Test
+  public void halfOpensAfterBackoffAndProbes() throws Exception {
+    open();
+    awaitHalfOpen();
+  }
+
+  @Test
+  public void halfOpenAllowsSingleTrial() throws Exception {
+    open();
+    awaitHalfOpen();
+    assertThat(underTest.tryAcquire(), is(true));
+    assertThat(underTest.tryAcquire(), is(false));
+    underTest.onIgnored();
+    assertThat(underTest.tryAcquire(), is(true));
+  }
+
+  @Test
+  public void successfulTrialCloses() throws Exception {
+    open();
+    awaitHalfOpen();
+    call(true, 10);
+    assertThat(underTest.getState(), is(State.CLOSED));
+
+    // window was reset, so a single failure does not reopen
+    call(false, 10);
+    assertThat(underTest.getState(), is(State.CLOSED));
+  }
+
+  @Test
+  public void failedTrialReopens() throws Exception {
+    open();
+    awaitHalfOpen();
+    probed = new CountDownLatch(1);
+    call(false, 10);
+    assertThat(underTest.getState(), is(State.OPEN));
+    assertThat(underTest.tryAcquire(), is(false));
+    awaitHalfOpen();
+  }
+
+  @Test
+  public void blockedProbeDoesNotHoldUpOtherBreakers() throws Exception {
+    final CountDownLatch probing = new CountDownLatch(1);
+    final CountDownLatch releaseProbe = new CountDownLatch(1);
+    CircuitBreaker hanging = new CircuitBreaker("hanging", 10, 4, 50, 1000, 100, scheduler,
+        new FibonacciNumberSequence(100), probeExecutor, new Runnable()
+        {
+          @Override
+          public void run() {
+            probing.countDown();
+            try {
+              releaseProbe.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    try {
+      for (int i = 0; i < 4; i++) {
+        assertThat(hanging.tryAcquire(), is(true));
+        hanging.onFailure(10);
+      }
+      assertThat(probing.await(5, TimeUnit.SECONDS), is(true));
+
+      // the probe of the other breaker waits on its remote, still this one half-opens on the shared scheduler
+      open();
+      awaitHalfOpen();
+    }
+    finally {
+      releaseProbe.countDown();
+      hanging.shutdown();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.httpclient;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link FilteredHttpClient}.
+ */
+public class FilteredHttpClientTest
+    extends TestSupport
+{
+  private static final String URL = "http://example.com/foo";
+
+  @Mock
+  private HttpClient delegate;
+
+  private ScheduledExecutorService scheduler;
+
+  @Before
+  public void setUp() throws Exception {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    when(delegate.execute(any(HttpUriRequest.class))).thenThrow(new ConnectException("Connection refused"));
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  private FilteredHttpClient client(final boolean autoBlock) {
+    HttpClientFacetImpl.Config config = new HttpClientFacetImpl.Config();
+    config.autoBlock = autoBlock;
+    return new FilteredHttpClient(delegate, config, scheduler, MoreExecutors.directExecutor(), 3, 60_000L);
+  }
+
+  private String executeExpectingFailure(final FilteredHttpClient underTest) {
+    try {
+      underTest.execute(new HttpGet(URL));
+      fail("Expected IOException");
+      return null;
+    }
+    catch (IOException e) {
+      return e.getMessage();
+    }
+  }
+
+  @Test
+  public void autoBlockFailsFastOnceOpen() throws Exception {
+    FilteredHttpClient underTest = client(true);
+
+    assertThat(executeExpectingFailure(underTest), is("Connection refused"));
+    assertThat(executeExpectingFailure(underTest), is("Connection refused"));
+    assertThat(underTest.getStatus().getDescription(), is("Remote Unavailable"));
+
+    assertThat(executeExpectingFailure(underTest), is("Connection refused"));
+    assertThat(underTest.getStatus().getDescription(), is("Remote Auto Blocked and Unavailable"));
+
+    assertThat(executeExpectingFailure(underTest), is("Remote Auto Blocked"));
+    assertThat(executeExpectingFailure(underTest), is("Remote Auto Blocked"));
+    verify(delegate, times(3)).execute(any(HttpUriRequest.class));
+
+    underTest.close();
+  }
+
+  @Test
+  public void successKeepsCircuitClosed() throws Exception {
+    FilteredHttpClient underTest = client(true);
+    HttpResponse response = mock(HttpResponse.class);
+
+    assertThat(executeExpectingFailure(underTest), is("Connection refused"));
+    when(delegate.execute(any(HttpUriRequest.class))).thenReturn(response);
+    for (int i = 0; i < 5; i++) {
+      assertThat(underTest.execute(new HttpGet(URL)), is(response));
+    }
+    assertThat(underTest.getStatus().getDescription(), is("Remote Available"));
+
+    underTest.close();
+  }
+
+  @Test
+  public void withoutAutoBlockAllCallsReachRemote() throws Exception {
+    FilteredHttpClient underTest = client(false);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(executeExpectingFailure(underTest), is("Connection refused"));
+    }
+    verify(delegate, times(10)).execute(any(HttpUriRequest.class));
+
+    underTest.close();
+  }
+}
@@ -71,4 +71,13 @@ class HttpClientFacetImplConfigTest
     assert violations.size() == 2
     assert violations.collect { it.propertyPath.toString() }.sort() == ['authentication.password', 'authentication.username']  
   }
+
+  @Test
+  void 'connection pool sizes must be positive'() {
+    def violations = validator.validate(new HttpClientFacetImpl.Config(
+        maxConnections: 0,
+        maxConnectionsPerRoute: 0
+    ))
+    assert violations.collect { it.propertyPath.toString() }.sort() == ['maxConnections', 'maxConnectionsPerRoute']
+  }
 }
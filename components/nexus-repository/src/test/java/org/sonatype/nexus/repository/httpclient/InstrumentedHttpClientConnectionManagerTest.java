@@ -0,0 +1,242 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.httpclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+/**
+ * Stress tests for {@link InstrumentedHttpClientConnectionManager}, with one repository's pool saturated by a slow
+ * remote while another repository keeps fetching.
+ */
+public class InstrumentedHttpClientConnectionManagerTest
+    extends TestSupport
+{
+  private static final int POOL_SIZE = 4;
+
+  private static final int SLOW_REQUESTS = 16;
+
+  private final CountDownLatch releaseSlow = new CountDownLatch(1);
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  private final List<CloseableHttpClient> clients = Lists.newArrayList();
+
+  private HttpServer server;
+
+  private ExecutorService serverExecutor;
+
+  private ExecutorService executor;
+
+  private String baseUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/slow", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        try {
+          releaseSlow.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        respond(exchange);
+      }
+    });
+    server.createContext("/fast", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        respond(exchange);
+      }
+    });
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+    executor = Executors.newFixedThreadPool(SLOW_REQUESTS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    releaseSlow.countDown();
+    executor.shutdownNow();
+    for (CloseableHttpClient client : clients) {
+      client.close();
+    }
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  public void slowRemoteDoesNotExhaustOtherRepositories() throws Exception {
+    InstrumentedHttpClientConnectionManager slowPool = pool("slow");
+    InstrumentedHttpClientConnectionManager fastPool = pool("fast");
+    CloseableHttpClient slowClient = client(slowPool, false);
+    CloseableHttpClient fastClient = client(fastPool, false);
+
+    List<Future<Integer>> slowResults = saturate(slowClient, "slow");
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    for (int i = 0; i < 8; i++) {
+      assertThat(get(fastClient, "/fast"), is(200));
+    }
+    assertThat(stopwatch.elapsed(TimeUnit.MILLISECONDS), lessThan(5000L));
+
+    assertThat(gauge("slow", "leased"), is(POOL_SIZE));
+    assertThat(gauge("slow", "pending"), greaterThan(0));
+    assertThat(gauge("fast", "leased"), is(0));
+    assertThat(metricRegistry.meter(MetricRegistry.name("fast", "leases")).getCount(), is(8L));
+    assertThat(metricRegistry.meter(MetricRegistry.name("fast", "connects")).getCount(), is(1L));
+    assertThat(ratio("fast"), is(7.0 / 8));
+
+    releaseSlow.countDown();
+    for (Future<Integer> result : slowResults) {
+      assertThat(result.get(10, TimeUnit.SECONDS), is(200));
+    }
+    assertThat(metricRegistry.timer(MetricRegistry.name("slow", "lease-wait")).getCount(), is((long) SLOW_REQUESTS));
+    assertThat(gauge("slow", "available"), is(POOL_SIZE));
+  }
+
+  @Test
+  public void slowRemoteExhaustsSharedPool() throws Exception {
+    InstrumentedHttpClientConnectionManager sharedPool = pool("shared");
+    CloseableHttpClient slowClient = client(sharedPool, true);
+    CloseableHttpClient fastClient = client(sharedPool, true);
+
+    saturate(slowClient, "shared");
+
+    try {
+      get(fastClient, "/fast");
+      fail("Expected pool exhaustion");
+    }
+    catch (ConnectionPoolTimeoutException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void metricsAreRemovedOnShutdown() throws Exception {
+    InstrumentedHttpClientConnectionManager pool = pool("removed");
+    assertThat(metricRegistry.getNames().isEmpty(), is(false));
+
+    pool.shutdown();
+
+    assertThat(metricRegistry.getNames().isEmpty(), is(true));
+  }
+
+  private InstrumentedHttpClientConnectionManager pool(final String name) {
+    PoolingHttpClientConnectionManager delegate = new PoolingHttpClientConnectionManager();
+    delegate.setMaxTotal(POOL_SIZE);
+    delegate.setDefaultMaxPerRoute(POOL_SIZE);
+    return new InstrumentedHttpClientConnectionManager(delegate, metricRegistry, name);
+  }
+
+  private CloseableHttpClient client(final InstrumentedHttpClientConnectionManager pool, final boolean shared) {
+    CloseableHttpClient client = HttpClients.custom()
+        .setConnectionManager(pool)
+        .setConnectionManagerShared(shared)
+        .setDefaultRequestConfig(RequestConfig.custom().setConnectionRequestTimeout(500).build())
+        .build();
+    clients.add(client);
+    return client;
+  }
+
+  /**
+   * Issues more slow requests than the pool holds, returning once the pool is exhausted.
+   */
+  private List<Future<Integer>> saturate(final CloseableHttpClient client, final String pool) throws Exception {
+    List<Future<Integer>> results = Lists.newArrayList();
+    for (int i = 0; i < SLOW_REQUESTS; i++) {
+      results.add(executor.submit(new Callable<Integer>()
+      {
+        @Override
+        public Integer call() throws Exception {
+          return get(client, "/slow");
+        }
+      }));
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (gauge(pool, "leased") < POOL_SIZE || gauge(pool, "pending") == 0) {
+      assertThat("Pool not saturated in time", System.currentTimeMillis(), lessThan(deadline));
+      Thread.sleep(10);
+    }
+    return results;
+  }
+
+  private int get(final CloseableHttpClient client, final String path) throws IOException {
+    HttpGet get = new HttpGet(baseUrl + path);
+    // slow requests may wait for a connection until released
+    if (path.equals("/slow")) {
+      get.setConfig(RequestConfig.custom().setConnectionRequestTimeout(10000).build());
+    }
+    try (CloseableHttpResponse response = client.execute(get)) {
+      EntityUtils.consume(response.getEntity());
+      return response.getStatusLine().getStatusCode();
+    }
+  }
+
+  private int gauge(final String pool, final String name) {
+    return (Integer) metricRegistry.getGauges().get(MetricRegistry.name(pool, name)).getValue();
+  }
+
+  private double ratio(final String pool) {
+    return (Double) metricRegistry.getGauges().get(MetricRegistry.name(pool, "reuse-ratio")).getValue();
+  }
+
+  private static void respond(final HttpExchange exchange) throws IOException {
+    byte[] content = "content".getBytes("UTF-8");
+    exchange.sendResponseHeaders(200, content.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(content);
+    }
+  }
+}
@@ -13,6 +13,7 @@
 
 package org.sonatype.nexus.repository.negativecache
 
+import org.sonatype.nexus.common.app.ApplicationDirectories
 import org.sonatype.nexus.repository.Repository
 import org.sonatype.nexus.repository.config.Configuration
 import org.sonatype.nexus.repository.config.ConfigurationFacet
@@ -65,7 +66,7 @@ class NegativeCacheFacetImplTest
     cacheManager = mock(CacheManager)
     when(cacheManager.status).thenReturn(STATUS_ALIVE)
     cache = mock(Ehcache)
-    underTest = new NegativeCacheFacetImpl(cacheManager) {
+    underTest = new NegativeCacheFacetImpl(cacheManager, mock(ApplicationDirectories)) {
       @Override
       Ehcache newCache(final String name, final int timeToLiveSeconds) {
         assert name == 'negative-cache-test'
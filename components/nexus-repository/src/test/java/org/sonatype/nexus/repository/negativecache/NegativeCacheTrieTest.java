@@ -0,0 +1,154 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.negativecache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.sonatype.nexus.repository.http.HttpStatus;
+import org.sonatype.nexus.repository.view.Status;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Tests for {@link NegativeCacheTrie}.
+ */
+public class NegativeCacheTrieTest
+    extends TestSupport
+{
+  private static final long NOW = 1_000_000L;
+
+  private static final long LATER = NOW + 1000L;
+
+  private final Status notFound = Status.failure(HttpStatus.NOT_FOUND, "Not found");
+
+  private final NegativeCacheTrie underTest = new NegativeCacheTrie(100);
+
+  @Test
+  public void putAndGet() {
+    underTest.put(path("/org/foo/bar.jar"), notFound, LATER);
+
+    assertThat(underTest.get(path("/org/foo/bar.jar"), NOW), sameInstance(notFound));
+    assertThat(underTest.get(path("/org/foo/bar.pom"), NOW), nullValue());
+    assertThat(underTest.get(path("/org/foo/"), NOW), nullValue());
+    assertThat(underTest.size(), is(1));
+  }
+
+  @Test
+  public void expiredEntriesAreDropped() {
+    underTest.put(path("/org/foo/bar.jar"), notFound, LATER);
+
+    assertThat(underTest.get(path("/org/foo/bar.jar"), LATER), nullValue());
+    assertThat(underTest.size(), is(0));
+  }
+
+  @Test
+  public void invalidateSubsetRemovesDirectoryAndChildren() {
+    underTest.put(path("/org/foo"), notFound, LATER);
+    underTest.put(path("/org/foo/"), notFound, LATER);
+    underTest.put(path("/org/foo/bar.jar"), notFound, LATER);
+    underTest.put(path("/org/foo/baz/qux.jar"), notFound, LATER);
+    underTest.put(path("/org/foobar.jar"), notFound, LATER);
+
+    underTest.invalidateSubset(path("/org/foo/"));
+
+    assertThat(underTest.get(path("/org/foo/"), NOW), nullValue());
+    assertThat(underTest.get(path("/org/foo/bar.jar"), NOW), nullValue());
+    assertThat(underTest.get(path("/org/foo/baz/qux.jar"), NOW), nullValue());
+    assertThat(underTest.get(path("/org/foo"), NOW), notNullValue());
+    assertThat(underTest.get(path("/org/foobar.jar"), NOW), notNullValue());
+    assertThat(underTest.size(), is(2));
+  }
+
+  @Test
+  public void invalidateSubsetOfFileRemovesOnlyThatEntry() {
+    underTest.put(path("/org/foo"), notFound, LATER);
+    underTest.put(path("/org/foo/bar.jar"), notFound, LATER);
+
+    underTest.invalidateSubset(path("/org/foo"));
+
+    assertThat(underTest.get(path("/org/foo"), NOW), nullValue());
+    assertThat(underTest.get(path("/org/foo/bar.jar"), NOW), notNullValue());
+  }
+
+  @Test
+  public void valueKeys() {
+    underTest.put(new ValueNegativeCacheKey("foo"), notFound, LATER);
+
+    assertThat(underTest.get(new ValueNegativeCacheKey("foo"), NOW), sameInstance(notFound));
+    assertThat(underTest.get(path("foo"), NOW), nullValue());
+
+    underTest.invalidate(new ValueNegativeCacheKey("foo"));
+    assertThat(underTest.get(new ValueNegativeCacheKey("foo"), NOW), nullValue());
+  }
+
+  @Test
+  public void oldestEntriesAreEvicted() {
+    for (int i = 0; i < 1000; i++) {
+      underTest.put(path("/org/foo/" + i + "/bar.jar"), notFound, LATER);
+      if (i % 3 == 1) {
+        underTest.invalidateSubset(path("/org/foo/" + i + "/"));
+      }
+    }
+
+    assertThat(underTest.size(), is(100));
+    assertThat(underTest.get(path("/org/foo/0/bar.jar"), NOW), nullValue());
+    assertThat(underTest.get(path("/org/foo/1/bar.jar"), NOW), nullValue());
+    assertThat(underTest.get(path("/org/foo/998/bar.jar"), NOW), notNullValue());
+  }
+
+  @Test
+  public void invalidateAll() {
+    underTest.put(path("/org/foo/bar.jar"), notFound, LATER);
+    underTest.put(new ValueNegativeCacheKey("foo"), notFound, LATER);
+
+    underTest.invalidateAll();
+
+    assertThat(underTest.size(), is(0));
+    assertThat(underTest.get(path("/org/foo/bar.jar"), NOW), nullValue());
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    underTest.put(path("/org/foo/bar.jar"), notFound, LATER);
+    underTest.put(path("/org/foo/"), Status.failure(HttpStatus.NOT_FOUND), LATER);
+    underTest.put(path("/org/expired.jar"), notFound, NOW);
+    underTest.put(new ValueNegativeCacheKey("foo"), notFound, LATER);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    underTest.writeTo(new DataOutputStream(bytes), NOW);
+    NegativeCacheTrie restored = new NegativeCacheTrie(100);
+    restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), NOW);
+
+    assertThat(restored.size(), is(2));
+    Status status = restored.get(path("/org/foo/bar.jar"), NOW);
+    assertThat(status.isSuccessful(), is(false));
+    assertThat(status.getCode(), is(HttpStatus.NOT_FOUND));
+    assertThat(status.getMessage(), is("Not found"));
+    assertThat(restored.get(path("/org/foo/"), NOW).getMessage(), nullValue());
+    assertThat(restored.get(path("/org/foo/bar.jar"), LATER), nullValue());
+  }
+
+  private static NegativeCacheKey path(final String path) {
+    return new PathNegativeCacheKey(path);
+  }
+}
@@ -14,6 +14,7 @@ package org.sonatype.nexus.repository.partial;
 
 import java.io.IOException;
 
+import org.sonatype.nexus.repository.view.FileChannelPayload;
 import org.sonatype.nexus.repository.view.payloads.BytesPayload;
 import org.sonatype.sisu.litmus.testsupport.TestSupport;
 
@@ -24,7 +25,10 @@ import org.junit.Test;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * Tests {@link PartialPayload}.
@@ -57,6 +61,24 @@ public class PartialPayloadTest
     assertThat(output, is(input));
   }
 
+  @Test
+  public void fileChannelOffsetIncludesRange() throws IOException {
+    final FileChannelPayload filePayload = mock(FileChannelPayload.class);
+    when(filePayload.getFileChannelOffset()).thenReturn(100L);
+
+    final PartialPayload partial = new PartialPayload(filePayload, Range.closed(5L, 9L));
+
+    assertThat(partial.getFileChannelOffset(), is(105L));
+    assertThat(partial.getSize(), is(5L));
+  }
+
+  @Test
+  public void streamOnlyPayloadHasNoFileChannel() throws IOException {
+    final PartialPayload partial = new PartialPayload(bytesPayload, Range.closed(2L, 4L));
+
+    assertThat(partial.openFileChannel(), is(nullValue()));
+  }
+
   private byte[] partial(final BytesPayload bytes, final Range<Long> closed) throws IOException {
     final PartialPayload partial = new PartialPayload(bytes, closed);
     return ByteStreams.toByteArray(partial.openInputStream());
@@ -0,0 +1,349 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.httpclient.HttpClientFacet;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.sisu.goodies.eventbus.EventBus;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for concurrent cache misses in {@link ProxyFacetSupport}, against a local stub server.
+ */
+public class ProxyFacetSupportTest
+    extends TestSupport
+{
+  private static final int CALLERS = 16;
+
+  private static final byte[] CONTENT = "content".getBytes(Charsets.UTF_8);
+
+  private final AtomicInteger upstreamHits = new AtomicInteger();
+
+  private final CountDownLatch releaseUpstream = new CountDownLatch(1);
+
+  private HttpServer server;
+
+  private ExecutorService serverExecutor;
+
+  private CloseableHttpClient httpClient;
+
+  private ExecutorService executor;
+
+  private Repository repository;
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  private TestProxyFacet underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler()
+    {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        upstreamHits.incrementAndGet();
+        try {
+          releaseUpstream.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        exchange.sendResponseHeaders(200, CONTENT.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+          body.write(CONTENT);
+        }
+      }
+    });
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.start();
+
+    httpClient = HttpClients.custom().setMaxConnPerRoute(CALLERS).setMaxConnTotal(CALLERS).build();
+    HttpClientFacet httpClientFacet = mock(HttpClientFacet.class);
+    when(httpClientFacet.getHttpClient()).thenReturn(httpClient);
+
+    ProxyFacetSupport.Config config = new ProxyFacetSupport.Config();
+    config.remoteUrl = new URI("http://localhost:" + server.getAddress().getPort() + "/");
+    config.artifactMaxAge = 60;
+    ConfigurationFacet configurationFacet = mock(ConfigurationFacet.class);
+    when(configurationFacet.readSection(any(Configuration.class), eq(ProxyFacetSupport.CONFIG_KEY),
+        eq(ProxyFacetSupport.Config.class))).thenReturn(config);
+
+    repository = mock(Repository.class);
+    when(repository.getName()).thenReturn("test-proxy");
+    when(repository.getConfiguration()).thenReturn(mock(Configuration.class));
+    when(repository.facet(ConfigurationFacet.class)).thenReturn(configurationFacet);
+    when(repository.facet(HttpClientFacet.class)).thenReturn(httpClientFacet);
+
+    underTest = new TestProxyFacet();
+    underTest.installDependencies(mock(EventBus.class));
+    underTest.installMetricRegistry(metricRegistry);
+    underTest.attach(repository);
+    underTest.init();
+    underTest.start();
+
+    executor = Executors.newFixedThreadPool(CALLERS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    releaseUpstream.countDown();
+    executor.shutdownNow();
+    underTest.stop();
+    httpClient.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  public void concurrentMissesFetchOnce() throws Exception {
+    List<Future<Content>> results = getConcurrently();
+
+    for (Future<Content> result : results) {
+      try (InputStream in = result.get(10, TimeUnit.SECONDS).openInputStream()) {
+        assertThat(ByteStreams.toByteArray(in), is(CONTENT));
+      }
+    }
+    assertThat(upstreamHits.get(), is(1));
+    assertThat(underTest.stores.get(), is(1));
+
+    // later requests are served from the cache
+    underTest.get(context());
+    assertThat(upstreamHits.get(), is(1));
+  }
+
+  @Test
+  public void fetchesAreMeasured() throws Exception {
+    releaseUpstream.countDown();
+    try (InputStream in = underTest.get(context()).openInputStream()) {
+      assertThat(ByteStreams.toByteArray(in), is(CONTENT));
+    }
+
+    String prefix = MetricRegistry.name(ProxyFacet.class, "test-proxy");
+    assertThat(metricRegistry.timer(MetricRegistry.name(prefix, "time-to-first-byte")).getCount(), is(1L));
+    assertThat(metricRegistry.timer(MetricRegistry.name(prefix, "fetch")).getCount(), is(1L));
+    assertThat(metricRegistry.meter(MetricRegistry.name(prefix, "bytes")).getCount(), is((long) CONTENT.length));
+    assertThat(metricRegistry.histogram(MetricRegistry.name(prefix, "transfer-rate")).getSnapshot().getMax(),
+        greaterThan(0L));
+    assertThat(metricRegistry.meter(MetricRegistry.name(prefix, "conditional-requests")).getCount(), is(0L));
+
+    underTest.stop();
+    assertThat(metricRegistry.getNames().tailSet(prefix).headSet(prefix + Character.MAX_VALUE), empty());
+    underTest.start();
+  }
+
+  @Test
+  public void failedFetchesAreMeasuredApart() throws Exception {
+    server.stop(0);
+    try {
+      underTest.get(context());
+      fail();
+    }
+    catch (IOException e) {
+      // expected
+    }
+
+    String prefix = MetricRegistry.name(ProxyFacet.class, "test-proxy");
+    assertThat(metricRegistry.timer(MetricRegistry.name(prefix, "time-to-first-byte")).getCount(), is(0L));
+    assertThat(metricRegistry.timer(MetricRegistry.name(prefix, "failed-requests")).getCount(), is(1L));
+    assertThat(metricRegistry.timer(MetricRegistry.name(prefix, "fetch")).getCount(), is(0L));
+    assertThat(metricRegistry.timer(MetricRegistry.name(prefix, "failed-fetches")).getCount(), is(1L));
+  }
+
+  @Test
+  public void hotContentIsRefreshedAhead() throws Exception {
+    underTest.stop();
+    underTest.refreshAhead = true;
+    underTest.refreshAheadMinHits = 2;
+    underTest.start();
+    releaseUpstream.countDown();
+
+    underTest.get(context());
+    assertThat(upstreamHits.get(), is(1));
+
+    // requested often, but not about to go stale
+    underTest.get(context());
+    underTest.get(context());
+    assertThat(underTest.getRefreshesInFlight(), is(0));
+
+    // about to go stale, served from the cache and refreshed in the background
+    DateTime aboutToGoStale = new DateTime().minusMinutes(55);
+    underTest.lastUpdated = aboutToGoStale;
+    assertThat(underTest.get(context()), notNullValue());
+
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (underTest.stores.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertThat(upstreamHits.get(), is(2));
+    assertThat(underTest.stores.get(), is(2));
+    assertThat(underTest.lastUpdated.isAfter(aboutToGoStale), is(true));
+    while (underTest.getRefreshesInFlight() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertThat(underTest.getRefreshesInFlight(), is(0));
+  }
+
+  @Test
+  public void waitingCallersFailAsTheFetchDid() throws Exception {
+    underTest.storeFailure = new IOException("store failed");
+
+    List<Future<Content>> results = getConcurrently();
+
+    for (Future<Content> result : results) {
+      try {
+        result.get(10, TimeUnit.SECONDS);
+        fail();
+      }
+      catch (ExecutionException e) {
+        assertThat(e.getCause(), instanceOf(IOException.class));
+        assertThat(e.getCause(), sameInstance((Throwable) underTest.storeFailure));
+      }
+    }
+    assertThat(upstreamHits.get(), is(1));
+  }
+
+  /**
+   * Starts all callers and releases the stub server once every caller missed the cache, so that all of them request
+   * the content while the first fetch is still in flight.
+   */
+  private List<Future<Content>> getConcurrently() throws Exception {
+    List<Future<Content>> results = Lists.newArrayList();
+    for (int i = 0; i < CALLERS; i++) {
+      results.add(executor.submit(new Callable<Content>()
+      {
+        @Override
+        public Content call() throws Exception {
+          return underTest.get(context());
+        }
+      }));
+    }
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (underTest.cacheMisses.get() < CALLERS && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertThat(underTest.cacheMisses.get(), is(CALLERS));
+    releaseUpstream.countDown();
+    return results;
+  }
+
+  private Context context() {
+    return new Context(repository, new Request("/some/artifact.jar"));
+  }
+
+  /**
+   * Proxy facet caching a single content in memory.
+   */
+  private static class TestProxyFacet
+      extends ProxyFacetSupport
+  {
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+
+    private final AtomicInteger stores = new AtomicInteger();
+
+    private volatile byte[] cached;
+
+    private volatile IOException storeFailure;
+
+    private volatile DateTime lastUpdated;
+
+    @Override
+    protected Content getCachedPayload(final Context context) throws IOException {
+      byte[] bytes = cached;
+      if (bytes == null) {
+        cacheMisses.incrementAndGet();
+        return null;
+      }
+      return new Content(new BytesPayload(bytes, "application/java-archive"));
+    }
+
+    @Override
+    protected void store(final Context context, final Content content) throws IOException {
+      try (InputStream in = content.openInputStream()) {
+        byte[] bytes = ByteStreams.toByteArray(in);
+        if (storeFailure != null) {
+          throw storeFailure;
+        }
+        stores.incrementAndGet();
+        cached = bytes;
+        lastUpdated = new DateTime();
+      }
+    }
+
+    @Override
+    protected DateTime getCachedPayloadLastUpdatedDate(final Context context) throws IOException {
+      return lastUpdated;
+    }
+
+    @Override
+    protected void indicateUpToDate(final Context context) throws IOException {
+      // nop
+    }
+
+    @Override
+    protected String getUrl(final @Nonnull Context context) {
+      return context.getRequest().getPath().substring(1);
+    }
+  }
+}
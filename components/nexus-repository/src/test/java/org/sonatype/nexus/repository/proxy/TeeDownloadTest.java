@@ -0,0 +1,202 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.repository.view.payloads.StreamPayload;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.io.ByteStreams;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link TeeDownload}.
+ */
+public class TeeDownloadTest
+    extends TestSupport
+{
+  private final byte[] bytes = new byte[1024 * 1024];
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    new Random(42).nextBytes(bytes);
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void clientAndStoreReceiveSameBytes() throws Exception {
+    DateTime lastModified = new DateTime();
+    Content remote = new Content(new BytesPayload(bytes, "application/octet-stream"));
+    remote.getAttributes().set(Content.CONTENT_LAST_MODIFIED, lastModified);
+    TeeDownload underTest = new TeeDownload(remote, 10, 10, TimeUnit.SECONDS);
+
+    Content stored = underTest.storeContent();
+    assertThat(stored.getSize(), is((long) bytes.length));
+    assertThat(stored.getAttributes().get(Content.CONTENT_LAST_MODIFIED, DateTime.class), is(lastModified));
+    Future<byte[]> store = store(underTest, stored);
+
+    try (InputStream in = underTest.clientContent().openInputStream()) {
+      assertThat(ByteStreams.toByteArray(in), is(bytes));
+    }
+    assertThat(store.get(10, TimeUnit.SECONDS), is(bytes));
+  }
+
+  @Test
+  public void storeCompletesWhenClientClosesEarly() throws Exception {
+    TeeDownload underTest = new TeeDownload(new Content(new BytesPayload(bytes, null)), 10, 10, TimeUnit.SECONDS);
+    Future<byte[]> store = store(underTest, underTest.storeContent());
+
+    try (InputStream in = underTest.clientContent().openInputStream()) {
+      ByteStreams.readFully(in, new byte[1000]);
+    }
+    assertThat(store.get(5, TimeUnit.SECONDS), is(bytes));
+  }
+
+  @Test
+  public void storeCompletesWithoutWaitingWhenClientContentIsClosed() throws Exception {
+    TeeDownload underTest = new TeeDownload(new Content(new BytesPayload(bytes, null)), 10, 10, TimeUnit.SECONDS);
+    Content client = underTest.clientContent();
+    Future<byte[]> store = store(underTest, underTest.storeContent());
+
+    client.close();
+
+    assertThat(store.get(5, TimeUnit.SECONDS), is(bytes));
+    try {
+      client.openInputStream();
+      fail();
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void storeDownloadsAloneWhenClientNeverReads() throws Exception {
+    TeeDownload underTest = new TeeDownload(new Content(new BytesPayload(bytes, null)), 100, 10000,
+        TimeUnit.MILLISECONDS);
+
+    assertThat(store(underTest, underTest.storeContent()).get(5, TimeUnit.SECONDS), is(bytes));
+    try {
+      underTest.clientContent().openInputStream();
+      fail();
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void storeAndClientFailWhenRemoteFails() throws Exception {
+    InputStream truncated = new InputStream()
+    {
+      private int count;
+
+      @Override
+      public int read() throws IOException {
+        if (count++ >= 100) {
+          throw new IOException("Premature end of Content-Length delimited message body");
+        }
+        return 0;
+      }
+    };
+    TeeDownload underTest = new TeeDownload(new Content(new StreamPayload(truncated, 1000, null)), 10, 10,
+        TimeUnit.SECONDS);
+    Future<byte[]> store = store(underTest, underTest.storeContent());
+
+    try (InputStream in = underTest.clientContent().openInputStream()) {
+      ByteStreams.toByteArray(in);
+      fail();
+    }
+    catch (IOException e) {
+      // expected
+    }
+    assertStoreFailed(store);
+  }
+
+  @Test
+  public void clientCarriesOnWhenStoreStops() throws Exception {
+    final TeeDownload underTest = new TeeDownload(new Content(new BytesPayload(bytes, null)), 10, 10,
+        TimeUnit.SECONDS);
+    executor.submit(new Callable<Void>()
+    {
+      @Override
+      public Void call() throws Exception {
+        try (InputStream in = underTest.storeContent().openInputStream()) {
+          ByteStreams.readFully(in, new byte[1000]);
+        }
+        finally {
+          underTest.finish();
+        }
+        return null;
+      }
+    });
+
+    try (InputStream in = underTest.clientContent().openInputStream()) {
+      assertThat(ByteStreams.toByteArray(in), is(bytes));
+    }
+  }
+
+  /**
+   * Stores the content on another thread, the way {@link ProxyFacetSupport} does.
+   */
+  private Future<byte[]> store(final TeeDownload download, final Content content) {
+    return executor.submit(new Callable<byte[]>()
+    {
+      @Override
+      public byte[] call() throws Exception {
+        try (InputStream in = content.openInputStream()) {
+          return ByteStreams.toByteArray(in);
+        }
+        finally {
+          download.finish();
+        }
+      }
+    });
+  }
+
+  private void assertStoreFailed(final Future<byte[]> store) throws Exception {
+    try {
+      store.get(10, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(IOException.class));
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.search;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Tests for {@link SearchIndexQueue}.
+ */
+public class SearchIndexQueueTest
+    extends TestSupport
+{
+  private final List<List<EntityId>> putBatches = Lists.newArrayList();
+
+  private final List<List<EntityId>> deleteBatches = Lists.newArrayList();
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  private final SearchIndexQueue.Processor processor = new SearchIndexQueue.Processor()
+  {
+    @Override
+    public synchronized void process(final List<EntityId> puts, final List<EntityId> deletes) {
+      putBatches.add(ImmutableList.copyOf(puts));
+      deleteBatches.add(ImmutableList.copyOf(deletes));
+    }
+  };
+
+  private static EntityId id(final String value) {
+    return new EntityId(value);
+  }
+
+  @Test
+  public void changesAreCoalescedLatestWinning() {
+    SearchIndexQueue underTest = new SearchIndexQueue(processor, 10, 60_000L, 100, metricRegistry, "test");
+
+    underTest.enqueue(ImmutableList.of(id("a"), id("b")), ImmutableList.<EntityId>of());
+    underTest.enqueue(ImmutableList.of(id("a")), ImmutableList.of(id("b")));
+    assertThat(underTest.getDepth(), is(2));
+
+    underTest.flush();
+
+    assertThat(putBatches, contains((List<EntityId>) ImmutableList.of(id("a"))));
+    assertThat(deleteBatches, contains((List<EntityId>) ImmutableList.of(id("b"))));
+    assertThat(underTest.getDepth(), is(0));
+    assertThat(underTest.getLagMillis(), is(0L));
+  }
+
+  @Test
+  public void flushesInBatchesOfBulkSize() {
+    SearchIndexQueue underTest = new SearchIndexQueue(processor, 2, 60_000L, 100, metricRegistry, "test");
+
+    underTest.enqueue(ImmutableList.of(id("a"), id("b"), id("c"), id("d"), id("e")), ImmutableList.<EntityId>of());
+    underTest.flush();
+
+    assertThat(putBatches, hasSize(3));
+    assertThat(putBatches.get(0), contains(id("a"), id("b")));
+    assertThat(putBatches.get(2), contains(id("e")));
+  }
+
+  @Test
+  public void stopFlushesPendingChangesAndRemovesMetrics() {
+    SearchIndexQueue underTest = new SearchIndexQueue(processor, 10, 60_000L, 100, metricRegistry, "test");
+    underTest.start(Executors.newSingleThreadScheduledExecutor());
+    assertThat(metricRegistry.getGauges(), hasKey("test.queue-depth"));
+
+    underTest.enqueue(ImmutableList.of(id("a")), ImmutableList.<EntityId>of());
+    underTest.stop();
+
+    assertThat(putBatches, contains((List<EntityId>) ImmutableList.of(id("a"))));
+    assertThat(metricRegistry.getGauges(), not(hasKey("test.queue-depth")));
+    assertThat(metricRegistry.getGauges().keySet(), empty());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
+import org.sonatype.nexus.orient.HexRecordIdObfuscator;
+import org.sonatype.nexus.orient.PersistentDatabaseInstanceRule;
+import org.sonatype.nexus.repository.Format;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.sonatype.nexus.common.entity.EntityHelper.id;
+import static org.sonatype.nexus.repository.storage.StorageFacet.P_ATTRIBUTES;
+
+/**
+ * Trial of asset lookup latency by format attribute in a large bucket, with the attribute indexed (declared by an
+ * {@link IndexedAttributesContributor}) versus not indexed.
+ *
+ * The number of assets defaults to 1M and can be changed with the {@code IndexedAttributeLookupTrial.assets} system
+ * property.
+ */
+public class IndexedAttributeLookupTrial
+    extends TestSupport
+{
+  private static final int ASSETS = SystemPropertiesHelper.getInteger(
+      IndexedAttributeLookupTrial.class.getSimpleName() + ".assets", 1_000_000);
+
+  private static final int BATCH_SIZE = 10_000;
+
+
+  private static final String FORMAT = "trial";
+
+  @Rule
+  public PersistentDatabaseInstanceRule database = new PersistentDatabaseInstanceRule("trial");
+
+  private AssetEntityAdapter assetEntityAdapter;
+
+  private Bucket bucket;
+
+  @Before
+  public void setUp() throws Exception {
+    HexRecordIdObfuscator recordIdObfuscator = new HexRecordIdObfuscator();
+    BucketEntityAdapter bucketEntityAdapter = new BucketEntityAdapter();
+    bucketEntityAdapter.installDependencies(recordIdObfuscator);
+    ComponentEntityAdapter componentEntityAdapter = new ComponentEntityAdapter(bucketEntityAdapter);
+    componentEntityAdapter.installDependencies(recordIdObfuscator);
+    assetEntityAdapter = new AssetEntityAdapter(bucketEntityAdapter, componentEntityAdapter);
+    assetEntityAdapter.installDependencies(recordIdObfuscator);
+    assetEntityAdapter.installIndexedAttributes(ImmutableList.<IndexedAttributesContributor>of(
+        new IndexedAttributesContributorSupport(new Format(FORMAT) {},
+            ImmutableSet.<String>of(), ImmutableSet.of("key"))
+    ));
+
+    try (ODatabaseDocumentTx db = database.getInstance().connect()) {
+      bucketEntityAdapter.register(db);
+      componentEntityAdapter.register(db);
+      assetEntityAdapter.register(db);
+    }
+
+    try (ODatabaseDocumentTx db = database.getInstance().acquire()) {
+      db.begin();
+      bucket = new Bucket().repositoryName("trial");
+      bucketEntityAdapter.add(db, bucket);
+      db.commit();
+
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      db.begin();
+      for (int i = 0; i < ASSETS; i++) {
+        Asset asset = new Asset();
+        asset.bucketId(id(bucket));
+        asset.format(FORMAT);
+        asset.name("asset-" + i);
+        asset.attributes(new NestedAttributesMap(P_ATTRIBUTES, new HashMap<String, Object>()));
+        asset.formatAttributes().set("key", key(i));
+        asset.formatAttributes().set("plain", key(i));
+        assetEntityAdapter.add(db, asset);
+        if ((i + 1) % BATCH_SIZE == 0) {
+          db.commit();
+          db.begin();
+        }
+      }
+      db.commit();
+      log("Created {} assets in {}", ASSETS, stopwatch);
+    }
+  }
+
+  private static String key(final int i) {
+    return "/org/example/artifact/" + i + "/artifact-" + i + ".jar";
+  }
+
+  @Test
+  public void indexed() {
+    lookup("indexed", "key", 1_000);
+  }
+
+  @Test
+  public void unindexed() {
+    // each lookup scans the bucket, so keep this short
+    lookup("unindexed", "plain", 20);
+  }
+
+  private void lookup(final String name, final String attribute, final int lookups) {
+    String property = P_ATTRIBUTES + "." + FORMAT + "." + attribute;
+    Random random = new Random(42);
+    List<Long> micros = Lists.newArrayListWithCapacity(lookups);
+    try (ODatabaseDocumentTx db = database.getInstance().acquire()) {
+      for (int i = 0; i < lookups; i++) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Asset asset = assetEntityAdapter.findByProperty(db, property, key(random.nextInt(ASSETS)), bucket);
+        micros.add(stopwatch.elapsed(TimeUnit.MICROSECONDS));
+        assertThat(asset, notNullValue());
+      }
+    }
+    Collections.sort(micros);
+    log("{} lookup of {} assets: median {} us, p99 {} us", name, ASSETS,
+        micros.get(lookups / 2), micros.get(lookups * 99 / 100));
+  }
+}
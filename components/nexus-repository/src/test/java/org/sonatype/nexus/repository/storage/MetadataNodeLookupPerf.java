@@ -0,0 +1,175 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.storage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.orient.HexRecordIdObfuscator;
+import org.sonatype.nexus.orient.PersistentDatabaseInstanceRule;
+import org.sonatype.nexus.repository.Format;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+import org.sonatype.sisu.litmus.testsupport.group.Perf;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.databene.contiperf.PerfTest;
+import org.databene.contiperf.junit.ContiPerfRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.sonatype.nexus.common.entity.EntityHelper.id;
+import static org.sonatype.nexus.repository.storage.StorageFacet.P_ATTRIBUTES;
+
+/**
+ * Performance tests of the hot {@link MetadataNodeEntityAdapter} lookups, comparing the per-call cost of an
+ * equivalent SQL statement (parsed on every execution) with the direct index lookups the adapters use.
+ */
+@Category(Perf.class)
+public class MetadataNodeLookupPerf
+    extends TestSupport
+{
+  private static final String FORMAT = "perf";
+
+  private static final int COMPONENTS = 1_000;
+
+  @Rule
+  public PersistentDatabaseInstanceRule database = new PersistentDatabaseInstanceRule("perf");
+
+  @Rule
+  public ContiPerfRule perfRule = new ContiPerfRule();
+
+  private BucketEntityAdapter bucketEntityAdapter;
+
+  private ComponentEntityAdapter componentEntityAdapter;
+
+  private AssetEntityAdapter assetEntityAdapter;
+
+  private ODatabaseDocumentTx db;
+
+  private Bucket bucket;
+
+  private Component component;
+
+  private int next;
+
+  @Before
+  public void setUp() throws Exception {
+    HexRecordIdObfuscator recordIdObfuscator = new HexRecordIdObfuscator();
+    bucketEntityAdapter = new BucketEntityAdapter();
+    bucketEntityAdapter.installDependencies(recordIdObfuscator);
+    componentEntityAdapter = new ComponentEntityAdapter(bucketEntityAdapter);
+    componentEntityAdapter.installDependencies(recordIdObfuscator);
+    assetEntityAdapter = new AssetEntityAdapter(bucketEntityAdapter, componentEntityAdapter);
+    assetEntityAdapter.installDependencies(recordIdObfuscator);
+    assetEntityAdapter.installIndexedAttributes(ImmutableList.<IndexedAttributesContributor>of(
+        new IndexedAttributesContributorSupport(new Format(FORMAT) {}, ImmutableSet.<String>of(), ImmutableSet.of("key"))
+    ));
+
+    try (ODatabaseDocumentTx db = database.getInstance().connect()) {
+      bucketEntityAdapter.register(db);
+      componentEntityAdapter.register(db);
+      assetEntityAdapter.register(db);
+    }
+
+    db = database.getInstance().acquire();
+    db.begin();
+    bucket = new Bucket().repositoryName("perf");
+    bucketEntityAdapter.add(db, bucket);
+    for (int i = 0; i < COMPONENTS; i++) {
+      Component component = new Component();
+      component.bucketId(id(bucket));
+      component.format(FORMAT);
+      component.name("component-" + i);
+      component.attributes(new NestedAttributesMap(P_ATTRIBUTES, new HashMap<String, Object>()));
+      componentEntityAdapter.add(db, component);
+      for (String extension : ImmutableList.of("pom", "jar")) {
+        Asset asset = new Asset();
+        asset.bucketId(id(bucket));
+        asset.componentId(id(component));
+        asset.format(FORMAT);
+        asset.name("component-" + i + "." + extension);
+        asset.attributes(new NestedAttributesMap(P_ATTRIBUTES, new HashMap<String, Object>()));
+        asset.formatAttributes().set("key", key(i, extension));
+        assetEntityAdapter.add(db, asset);
+      }
+      this.component = component;
+    }
+    db.commit();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (db != null) {
+      db.close();
+    }
+  }
+
+  private static String key(final int i, final String extension) {
+    return "/org/example/component-" + i + "/component-" + i + "." + extension;
+  }
+
+  private String nextKey() {
+    return key(next++ % COMPONENTS, "jar");
+  }
+
+  @Test
+  @PerfTest(invocations = 20000)
+  public void findByKeySql() {
+    Map<String, Object> parameters = ImmutableMap.<String, Object>of(
+        "propValue", nextKey(),
+        "bucket", bucketEntityAdapter.recordIdentity(bucket)
+    );
+    String query = "select from " + AssetEntityAdapter.DB_CLASS +
+        " where bucket = :bucket and " + P_ATTRIBUTES + "_" + FORMAT + "_key = :propValue";
+    List<ODocument> docs = db.command(new OCommandSQL(query)).execute(parameters);
+    assertThat(docs, hasSize(1));
+  }
+
+  @Test
+  @PerfTest(invocations = 20000)
+  public void findByKeyIndex() {
+    Asset asset = assetEntityAdapter.findByProperty(db, P_ATTRIBUTES + "." + FORMAT + ".key", nextKey(), bucket);
+    assertThat(asset, notNullValue());
+  }
+
+  @Test
+  @PerfTest(invocations = 20000)
+  public void browseByComponentSql() {
+    Map<String, Object> parameters = ImmutableMap.<String, Object>of(
+        "component", componentEntityAdapter.recordIdentity(component)
+    );
+    String query = "select from " + AssetEntityAdapter.DB_CLASS + " where component = :component";
+    List<ODocument> docs = db.command(new OCommandSQL(query)).execute(parameters);
+    assertThat(docs, hasSize(2));
+  }
+
+  @Test
+  @PerfTest(invocations = 20000)
+  public void browseByComponentIndex() {
+    Iterable<Asset> assets = assetEntityAdapter.browseByComponent(db, component);
+    assertThat(ImmutableList.copyOf(assets), hasSize(2));
+  }
+}
@@ -22,20 +22,25 @@ import org.sonatype.nexus.common.collect.NestedAttributesMap;
 import org.sonatype.nexus.common.entity.EntityId;
 import org.sonatype.nexus.common.entity.EntityVersion;
 import org.sonatype.nexus.orient.HexRecordIdObfuscator;
+import org.sonatype.nexus.orient.OIndexNameBuilder;
 import org.sonatype.nexus.orient.PersistentDatabaseInstanceRule;
 import org.sonatype.nexus.repository.Format;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.config.Configuration;
 import org.sonatype.nexus.repository.config.ConfigurationFacet;
 import org.sonatype.nexus.repository.search.SearchFacet;
+import org.sonatype.nexus.scheduling.TaskConfiguration;
+import org.sonatype.nexus.scheduling.TaskScheduler;
 import org.sonatype.sisu.goodies.eventbus.EventBus;
 import org.sonatype.sisu.litmus.testsupport.TestSupport;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.inject.util.Providers;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
@@ -46,7 +51,9 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
@@ -54,9 +61,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sonatype.nexus.common.entity.EntityHelper.id;
 import static org.sonatype.nexus.repository.storage.StorageFacet.P_NAME;
@@ -80,6 +89,12 @@ public class StorageFacetImplIT
 
   private AssetEntityAdapter assetEntityAdapter;
 
+  private BucketEntityAdapter bucketEntityAdapter;
+
+  private BucketPurger bucketPurger;
+
+  private TaskScheduler taskScheduler = mock(TaskScheduler.class);
+
   private class TestFormat
       extends Format
   {
@@ -92,17 +107,31 @@ public class StorageFacetImplIT
   public void setUp() throws Exception {
     BlobStoreManager mockBlobStoreManager = mock(BlobStoreManager.class);
     when(mockBlobStoreManager.get(anyString())).thenReturn(mock(BlobStore.class));
-    BucketEntityAdapter bucketEntityAdapter = new BucketEntityAdapter();
+    bucketEntityAdapter = new BucketEntityAdapter();
     HexRecordIdObfuscator recordIdObfuscator = new HexRecordIdObfuscator();
     bucketEntityAdapter.installDependencies(recordIdObfuscator);
     ComponentEntityAdapter componentEntityAdapter = new ComponentEntityAdapter(bucketEntityAdapter);
     componentEntityAdapter.installDependencies(recordIdObfuscator);
     assetEntityAdapter = new AssetEntityAdapter(bucketEntityAdapter, componentEntityAdapter);
     assetEntityAdapter.installDependencies(recordIdObfuscator);
+    List<IndexedAttributesContributor> indexedAttributes = ImmutableList.<IndexedAttributesContributor>of(
+        new IndexedAttributesContributorSupport(testFormat, ImmutableSet.of("key"), ImmutableSet.of("key"))
+    );
+    componentEntityAdapter.installIndexedAttributes(indexedAttributes);
+    assetEntityAdapter.installIndexedAttributes(indexedAttributes);
+    when(taskScheduler.createTaskConfigurationInstance(PurgeDeletedBucketsTask.class))
+        .thenReturn(new TaskConfiguration());
+    bucketPurger = new BucketPurger(
+        Providers.of(database.getInstance()),
+        mockBlobStoreManager,
+        Providers.of(taskScheduler),
+        bucketEntityAdapter, componentEntityAdapter, assetEntityAdapter
+    );
     underTest = new StorageFacetImpl(
         mockBlobStoreManager,
         Providers.of(database.getInstance()),
-        bucketEntityAdapter, componentEntityAdapter, assetEntityAdapter
+        bucketEntityAdapter, componentEntityAdapter, assetEntityAdapter,
+        bucketPurger
     );
     underTest.installDependencies(mock(EventBus.class));
 
@@ -398,6 +427,70 @@ public class StorageFacetImplIT
     }
   }
 
+  @Test
+  public void indexedAttributeLookups() {
+    try (StorageTx tx = underTest.openTx()) {
+      Bucket bucket = tx.getBucket();
+      Component component = tx.createComponent(bucket, testFormat).name("component");
+      component.formatAttributes().set("key", "component-key");
+      tx.saveComponent(component);
+
+      Asset asset = tx.createAsset(bucket, component).name("asset");
+      asset.formatAttributes().set("key", "asset-key");
+      tx.saveAsset(asset);
+
+      Asset unindexed = tx.createAsset(bucket, component).name("unindexed");
+      unindexed.attributes().child("other").set("key", "other-key");
+      tx.saveAsset(unindexed);
+
+      tx.commit();
+    }
+
+    try (StorageTx tx = underTest.openTx()) {
+      Bucket bucket = tx.getBucket();
+      assertThat(tx.findComponentWithProperty("attributes.test.key", "component-key", bucket).name(),
+          is("component"));
+      assertThat(tx.findAssetWithProperty("attributes.test.key", "asset-key", bucket).name(), is("asset"));
+      assertThat(tx.findAssetWithProperty("attributes.test.key", "other-key", bucket), is(nullValue()));
+      assertThat(tx.findAssetWithProperty("attributes.other.key", "other-key", bucket).name(), is("unindexed"));
+
+      String indexName = new OIndexNameBuilder()
+          .type(AssetEntityAdapter.DB_CLASS)
+          .property(StorageFacet.P_BUCKET)
+          .property("attributes_test_key")
+          .build();
+      assertThat(tx.getDb().getMetadata().getSchema().getClass(AssetEntityAdapter.DB_CLASS).getClassIndex(indexName),
+          is(notNullValue()));
+    }
+  }
+
+  @Test
+  public void interruptedAttributeFillIsCompletedOnRegistration() {
+    try (StorageTx tx = underTest.openTx()) {
+      Asset asset = tx.createAsset(tx.getBucket(), testFormat).name("asset");
+      asset.formatAttributes().set("key", "asset-key");
+      tx.saveAsset(asset);
+      tx.commit();
+    }
+
+    // as if the fill stopped after the field and its index were created
+    try (ODatabaseDocumentTx db = database.getInstance().acquire()) {
+      db.getMetadata().getSchema().getClass(AssetEntityAdapter.DB_CLASS).removeCustom("attributes_test_key_backfilled");
+      db.command(new OCommandSQL("update " + AssetEntityAdapter.DB_CLASS + " set attributes_test_key = null"))
+          .execute();
+    }
+    try (StorageTx tx = underTest.openTx()) {
+      assertThat(tx.findAssetWithProperty("attributes.test.key", "asset-key", tx.getBucket()), is(nullValue()));
+    }
+
+    try (ODatabaseDocumentTx db = database.getInstance().acquire()) {
+      assetEntityAdapter.register(db);
+    }
+    try (StorageTx tx = underTest.openTx()) {
+      assertThat(tx.findAssetWithProperty("attributes.test.key", "asset-key", tx.getBucket()).name(), is("asset"));
+    }
+  }
+
   @Test
   public void componentAssetLinksAreDurable() {
     try (StorageTx tx = underTest.openTx()) {
@@ -421,6 +514,33 @@ public class StorageFacetImplIT
     }
   }
 
+  @Test
+  public void assetsOfSeveralComponentsAreBrowsedAtOnce() {
+    try (StorageTx tx = underTest.openTx()) {
+      Bucket bucket = tx.getBucket();
+      for (String name : ImmutableList.of("one", "two", "three")) {
+        Component component = tx.createComponent(bucket, testFormat).name(name);
+        tx.saveComponent(component);
+        tx.saveAsset(tx.createAsset(bucket, component).name(name + ".jar"));
+        tx.saveAsset(tx.createAsset(bucket, component).name(name + ".pom"));
+      }
+      tx.commit();
+    }
+
+    try (StorageTx tx = underTest.openTx()) {
+      Bucket bucket = tx.getBucket();
+      Component one = tx.findComponentWithProperty(P_NAME, "one", bucket);
+      Component three = tx.findComponentWithProperty(P_NAME, "three", bucket);
+
+      List<String> names = Lists.newArrayList();
+      for (Asset asset : tx.browseAssets(ImmutableList.of(one, three))) {
+        names.add(asset.name());
+      }
+      assertThat(names, containsInAnyOrder("one.jar", "one.pom", "three.jar", "three.pom"));
+      checkSize(tx.browseAssets(ImmutableList.<Component>of()), 0);
+    }
+  }
+
   @Test
   public void concurrentTransactionWithoutConflictTest() throws Exception {
     doConcurrentTransactionTest(false);
@@ -599,6 +719,88 @@ public class StorageFacetImplIT
     assertThat(Iterators.size(iterable.iterator()), is(expectedSize));
   }
 
+  @Test
+  public void browseByBucketPagesThroughAllEntities() throws Exception {
+    try (StorageTx tx = underTest.openTx()) {
+      for (int i = 0; i < 7; i++) {
+        tx.saveComponent(tx.createComponent(tx.getBucket(), testFormat).name("component" + i));
+        tx.saveAsset(tx.createAsset(tx.getBucket(), testFormat).name("asset" + i));
+      }
+      tx.commit();
+    }
+
+    try (StorageTx tx = underTest.openTx()) {
+      Bucket bucket = tx.getBucket();
+      checkSize(tx.browseComponents(bucket, 1), 7);
+      checkSize(tx.browseComponents(bucket, 3), 7);
+      checkSize(tx.browseComponents(bucket, 7), 7);
+      checkSize(tx.browseAssets(bucket, 2), 7);
+      checkSize(tx.browseAssets(bucket, 100), 7);
+
+      List<String> names = Lists.newArrayList();
+      for (Component component : tx.browseComponents(bucket, 2)) {
+        names.add(component.name());
+      }
+      assertThat(names, containsInAnyOrder("component0", "component1", "component2", "component3", "component4",
+          "component5", "component6"));
+    }
+
+    // deleting while browsing must neither skip nor repeat entities
+    try (StorageTx tx = underTest.openTx()) {
+      int count = 0;
+      for (Asset asset : tx.browseAssets(tx.getBucket(), 2)) {
+        tx.deleteAsset(asset);
+        count++;
+      }
+      assertThat(count, is(7));
+      tx.commit();
+    }
+
+    try (StorageTx tx = underTest.openTx()) {
+      checkSize(tx.browseAssets(tx.getBucket()), 0);
+    }
+  }
+
+  @Test
+  public void deletedRepositoryIsPurgedInTheBackground() throws Exception {
+    // more than one batch of components
+    try (StorageTx tx = underTest.openTx()) {
+      for (int i = 0; i < 150; i++) {
+        Component component = tx.createComponent(tx.getBucket(), testFormat).name("component" + i);
+        tx.saveComponent(component);
+        tx.saveAsset(tx.createAsset(tx.getBucket(), component).name("asset" + i));
+      }
+      tx.saveAsset(tx.createAsset(tx.getBucket(), testFormat).name("standalone"));
+      tx.commit();
+    }
+
+    underTest.stop();
+    underTest.delete();
+    verify(taskScheduler).submit(any(TaskConfiguration.class));
+
+    // the repository name is free again, while the content waits to be purged
+    try (ODatabaseDocumentTx db = database.getInstance().acquire()) {
+      assertThat(bucketEntityAdapter.getByRepositoryName(db, "test-repository-1"), is(nullValue()));
+      List<Bucket> pending = bucketEntityAdapter.browsePendingDeletion(db);
+      assertThat(pending, hasSize(1));
+      assertThat(pending.get(0).blobStoreName(), is("default"));
+      assertThat(db.countClass(ComponentEntityAdapter.DB_CLASS), is(150L));
+      assertThat(db.countClass(AssetEntityAdapter.DB_CLASS), is(151L));
+    }
+
+    BucketPurger.ProgressListener progress = mock(BucketPurger.ProgressListener.class);
+    bucketPurger.purge(progress);
+    verify(progress).progress(contains("150 components deleted"));
+    verify(progress).progress(contains("1 standalone assets deleted"));
+
+    try (ODatabaseDocumentTx db = database.getInstance().acquire()) {
+      assertThat(bucketEntityAdapter.browsePendingDeletion(db), hasSize(0));
+      assertThat(db.countClass(BucketEntityAdapter.DB_CLASS), is(0L));
+      assertThat(db.countClass(ComponentEntityAdapter.DB_CLASS), is(0L));
+      assertThat(db.countClass(AssetEntityAdapter.DB_CLASS), is(0L));
+    }
+  }
+
   @Test
   public void repeatedAssetModificationsAreSaved() throws Exception {
     createComponent("testGroup", "testName", "testVersion");
@@ -20,6 +20,7 @@ import org.mockito.Mock
 import org.sonatype.nexus.blobstore.api.BlobRef
 import org.sonatype.nexus.common.collect.NestedAttributesMap
 import org.sonatype.nexus.common.hash.HashAlgorithm
+import org.sonatype.nexus.common.hash.MultiHashingInputStream
 import org.sonatype.nexus.repository.IllegalOperationException
 import org.sonatype.sisu.litmus.testsupport.TestSupport
 
@@ -181,7 +182,7 @@ extends TestSupport
     }
     catch (IllegalOperationException e) {}
     verify(blobTx, never()).delete(any(BlobRef))
-    verify(blobTx, never()).create(any(InputStream), any(Map))
+    verify(blobTx, never()).create(any(MultiHashingInputStream), any(Map))
     verify(asset, never()).blobRef(any(BlobRef))
   }
 
@@ -205,7 +206,7 @@ extends TestSupport
     }
     catch (IllegalOperationException e) {}
     verify(blobTx, never()).delete(any(BlobRef))
-    verify(blobTx, never()).create(any(InputStream), any(Map))
+    verify(blobTx, never()).create(any(MultiHashingInputStream), any(Map))
     verify(asset, never()).blobRef(any(BlobRef))
   }
 
@@ -232,7 +233,7 @@ extends TestSupport
     }
     catch (IllegalOperationException e) {}
     verify(blobTx, never()).delete(any(BlobRef))
-    verify(blobTx, never()).create(any(InputStream), any(Map))
+    verify(blobTx, never()).create(any(MultiHashingInputStream), any(Map))
     verify(asset, never()).blobRef(any(BlobRef))
   }
 
@@ -251,10 +252,10 @@ extends TestSupport
     when(asset.attributes()).thenReturn(mock(NestedAttributesMap))
     def newBlobRef = mock(BlobRef)
     when(bucket.repositoryName()).thenReturn('testRepo')
-    when(blobTx.create(any(InputStream), any(Map))).thenReturn(newBlobRef)
+    when(blobTx.create(any(MultiHashingInputStream), any(Map))).thenReturn(newBlobRef)
     def underTest = new StorageTxImpl(blobTx, db, false, bucket, WritePolicy.ALLOW_ONCE, WritePolicySelector.DEFAULT, bucketEntityAdapter, componentEntityAdapter, assetEntityAdapter, new StorageTxHooks(emptyList()))
     underTest.setBlob(inputStream, headers, asset, hashAlgorithms, "text/plain")
-    verify(blobTx, times(1)).create(any(InputStream), eq(expectedHeaders))
+    verify(blobTx, times(1)).create(any(MultiHashingInputStream), eq(expectedHeaders))
     verify(asset, times(1)).blobRef(newBlobRef)
   }
 
@@ -276,11 +277,11 @@ extends TestSupport
     when(asset.attributes()).thenReturn(mock(NestedAttributesMap))
     def newBlobRef = mock(BlobRef)
     when(bucket.repositoryName()).thenReturn('testRepo')
-    when(blobTx.create(any(InputStream), any(Map))).thenReturn(newBlobRef)
+    when(blobTx.create(any(MultiHashingInputStream), any(Map))).thenReturn(newBlobRef)
     def underTest = new StorageTxImpl(blobTx, db, false, bucket, WritePolicy.ALLOW, WritePolicySelector.DEFAULT, bucketEntityAdapter, componentEntityAdapter, assetEntityAdapter, new StorageTxHooks(emptyList()))
     underTest.setBlob(inputStream, headers, asset, hashAlgorithms, "text/plain")
     verify(blobTx, times(1)).delete(blobRef)
-    verify(blobTx, times(1)).create(any(InputStream), eq(expectedHeaders))
+    verify(blobTx, times(1)).create(any(MultiHashingInputStream), eq(expectedHeaders))
     verify(asset, times(1)).blobRef(newBlobRef)
   }
 
@@ -299,10 +300,10 @@ extends TestSupport
     when(asset.attributes()).thenReturn(mock(NestedAttributesMap))
     def newBlobRef = mock(BlobRef)
     when(bucket.repositoryName()).thenReturn('testRepo')
-    when(blobTx.create(any(InputStream), any(Map))).thenReturn(newBlobRef)
+    when(blobTx.create(any(MultiHashingInputStream), any(Map))).thenReturn(newBlobRef)
     def underTest = new StorageTxImpl(blobTx, db, false, bucket, WritePolicy.ALLOW, WritePolicySelector.DEFAULT, bucketEntityAdapter, componentEntityAdapter, assetEntityAdapter, new StorageTxHooks(emptyList()))
     underTest.setBlob(inputStream, headers, asset, hashAlgorithms, "text/plain")
-    verify(blobTx, times(1)).create(any(InputStream), eq(expectedHeaders))
+    verify(blobTx, times(1)).create(any(MultiHashingInputStream), eq(expectedHeaders))
     verify(asset, times(1)).blobRef(newBlobRef)
   }
 
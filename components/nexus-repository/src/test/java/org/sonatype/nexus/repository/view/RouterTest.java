@@ -0,0 +1,89 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.view;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.view.matchers.LiteralMatcher;
+import org.sonatype.nexus.repository.view.matchers.logic.LogicMatchers;
+import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link Router}.
+ */
+public class RouterTest
+    extends TestSupport
+{
+  private Matcher opaque;
+
+  private Route packages;
+
+  private Route metadata;
+
+  private Route any;
+
+  private Route root;
+
+  private Router underTest;
+
+  @Before
+  public void setUp() {
+    opaque = mock(Matcher.class);
+    packages = route(LogicMatchers.or(new TokenMatcher("/Packages()"), new TokenMatcher("/Packages({params:.+})")));
+    metadata = route(LogicMatchers.and(opaque, new TokenMatcher("/{path:.+}/maven-metadata.xml")));
+    any = route(opaque);
+    root = route(new LiteralMatcher("/"));
+    underTest = new Router.Builder()
+        .route(packages)
+        .route(metadata)
+        .route(any)
+        .route(root)
+        .defaultHandlers()
+        .create();
+  }
+
+  @Test
+  public void firstMatchingRouteWins() {
+    when(opaque.matches(any(Context.class))).thenReturn(true);
+
+    assertThat(underTest.findRoute(context("/Packages()")), sameInstance(packages));
+    assertThat(underTest.findRoute(context("/org/foo/maven-metadata.xml")), sameInstance(metadata));
+    assertThat(underTest.findRoute(context("/org/foo/foo-1.0.jar")), sameInstance(any));
+    assertThat(underTest.findRoute(context("/")), sameInstance(any));
+  }
+
+  @Test
+  public void defaultRouteWhenNothingMatches() {
+    when(opaque.matches(any(Context.class))).thenReturn(false);
+
+    assertThat(underTest.findRoute(context("/org/foo/foo-1.0.jar")), instanceOf(DefaultRoute.class));
+  }
+
+  private Context context(final String path) {
+    return new Context(mock(Repository.class), new Request(path));
+  }
+
+  private static Route route(final Matcher matcher) {
+    return new Route.Builder().matcher(matcher).handler(mock(Handler.class)).create();
+  }
+}
@@ -138,4 +138,18 @@ public class TokenParserTest
     assertThat(tokens.get("version"), is(equalTo("8.1.16.v20140903")));
     assertThat(tokens.get("ext"), is(equalTo("pom")));
   }
+
+  @Test
+  public void leadingAndTrailingLiterals() {
+    final TokenParser parser = new TokenParser("/Packages(Id='{id}',Version='{version}')");
+    log(parser);
+
+    assertThat(parser.parse("/Search()"), is(nullValue()));
+    assertThat(parser.parse("/Packages(Id='foo',Version='1.0'"), is(nullValue()));
+
+    final Map<String, String> tokens = parser.parse("/Packages(Id='foo',Version='1.0')");
+    assertThat(tokens, is(notNullValue()));
+    assertThat(tokens.get("id"), is(equalTo("foo")));
+    assertThat(tokens.get("version"), is(equalTo("1.0")));
+  }
 }
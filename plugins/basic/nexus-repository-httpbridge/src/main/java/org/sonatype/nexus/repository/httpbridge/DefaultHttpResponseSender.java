@@ -12,9 +12,15 @@
  */
 package org.sonatype.nexus.repository.httpbridge;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -24,6 +30,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 
 import org.sonatype.nexus.repository.http.HttpMethods;
+import org.sonatype.nexus.repository.view.FileChannelPayload;
 import org.sonatype.nexus.repository.view.Payload;
 import org.sonatype.nexus.repository.view.PayloadResponse;
 import org.sonatype.nexus.repository.view.Request;
@@ -32,6 +39,7 @@ import org.sonatype.nexus.repository.view.Status;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
 import com.google.common.io.ByteStreams;
+import org.eclipse.jetty.server.HttpOutput;
 
 /**
  * Default {@link HttpResponseSender}.
@@ -44,6 +52,8 @@ public class DefaultHttpResponseSender
     extends ComponentSupport
     implements HttpResponseSender
 {
+  private static final boolean JETTY_PRESENT = isJettyPresent();
+
   @Override
   public void send(final @Nullable Request request, final Response response, final HttpServletResponse httpResponse)
       throws ServletException, IOException
@@ -70,7 +80,7 @@ public class DefaultHttpResponseSender
           httpResponse.setContentLengthLong(payload.getSize());
         }
 
-        if (request != null && !HttpMethods.HEAD.equals(request.getAction())) {
+        if (request != null && !HttpMethods.HEAD.equals(request.getAction()) && !transfer(payload, httpResponse)) {
           try (InputStream input = payload.openInputStream(); OutputStream output = httpResponse.getOutputStream()) {
             ByteStreams.copy(input, output);
           }
@@ -81,4 +91,129 @@ public class DefaultHttpResponseSender
       httpResponse.sendError(status.getCode(), status.getMessage());
     }
   }
+
+  /**
+   * Sends a file backed payload from its channel rather than its stream. Jetty's output is handed the channel, and
+   * reads it into its own direct buffers; for an output that is a channel {@link FileChannel#transferTo} is used, which
+   * lets the kernel do the copy.
+   *
+   * @return {@code false} if the payload is not file backed, and has to be copied from its stream instead.
+   */
+  private boolean transfer(final Payload payload, final HttpServletResponse httpResponse) throws IOException {
+    if (!(payload instanceof FileChannelPayload) || payload.getSize() == Payload.UNKNOWN_SIZE) {
+      return false;
+    }
+    FileChannelPayload channelPayload = (FileChannelPayload) payload;
+    try (FileChannel input = channelPayload.openFileChannel()) {
+      if (input == null) {
+        return false;
+      }
+      log.trace("Transferring payload from channel: {}", payload);
+
+      OutputStream output = httpResponse.getOutputStream();
+      if (JETTY_PRESENT && JettyOutput.sendContent(output,
+          new FileRegionChannel(input, channelPayload.getFileChannelOffset(), payload.getSize()))) {
+        return true;
+      }
+      try (OutputStream closing = output) {
+        WritableByteChannel target = output instanceof WritableByteChannel
+            ? (WritableByteChannel) output
+            : Channels.newChannel(output);
+        long position = channelPayload.getFileChannelOffset();
+        long remaining = payload.getSize();
+        while (remaining > 0) {
+          long transferred = input.transferTo(position, remaining, target);
+          if (transferred <= 0) {
+            throw new EOFException("Premature end of content at position " + position);
+          }
+          position += transferred;
+          remaining -= transferred;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isJettyPresent() {
+    try {
+      Class.forName("org.eclipse.jetty.server.HttpOutput", false, DefaultHttpResponseSender.class.getClassLoader());
+      return true;
+    }
+    catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Jetty specific sending, kept apart so Jetty classes are loaded only when Jetty is present.
+   */
+  private static class JettyOutput
+  {
+    /**
+     * Sends the content through the output if it is Jetty's, which also completes the response.
+     *
+     * @return {@code false} if the output is not Jetty's.
+     */
+    private static boolean sendContent(final OutputStream output, final ReadableByteChannel content)
+        throws IOException
+    {
+      if (!(output instanceof HttpOutput)) {
+        return false;
+      }
+      ((HttpOutput) output).sendContent(content);
+      return true;
+    }
+  }
+
+  /**
+   * Channel reading a region of a {@link FileChannel}, without moving its position.
+   */
+  private static class FileRegionChannel
+      implements ReadableByteChannel
+  {
+    private final FileChannel channel;
+
+    private final long end;
+
+    private long position;
+
+    private FileRegionChannel(final FileChannel channel, final long offset, final long size) {
+      this.channel = channel;
+      this.position = offset;
+      this.end = offset + size;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+      if (position >= end) {
+        return -1;
+      }
+      int limit = dst.limit();
+      if (dst.remaining() > end - position) {
+        dst.limit(dst.position() + (int) (end - position));
+      }
+      int read;
+      try {
+        read = channel.read(dst, position);
+      }
+      finally {
+        dst.limit(limit);
+      }
+      if (read < 0) {
+        throw new EOFException("Premature end of content at position " + position);
+      }
+      position += read;
+      return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
 }
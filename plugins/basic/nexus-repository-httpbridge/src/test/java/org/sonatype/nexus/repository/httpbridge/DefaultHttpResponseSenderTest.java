@@ -0,0 +1,185 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.httpbridge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sonatype.nexus.repository.http.HttpMethods;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.view.FileChannelPayload;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.base.Charsets;
+import org.eclipse.jetty.server.HttpOutput;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * UT for {@link DefaultHttpResponseSender}.
+ */
+public class DefaultHttpResponseSenderTest
+    extends TestSupport
+{
+  private static final byte[] CONTENT = "some content of a file".getBytes(Charsets.UTF_8);
+
+  private static final int OFFSET = 5;
+
+  @Mock
+  private Request request;
+
+  @Mock
+  private HttpServletResponse httpResponse;
+
+  private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+  private final DefaultHttpResponseSender underTest = new DefaultHttpResponseSender();
+
+  @Before
+  public void setUp() throws Exception {
+    when(request.getAction()).thenReturn(HttpMethods.GET);
+    when(httpResponse.getOutputStream()).thenReturn(new ServletOutputStream()
+    {
+      @Override
+      public void write(final int b) throws IOException {
+        sent.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(final WriteListener writeListener) {
+        throw new UnsupportedOperationException();
+      }
+    });
+  }
+
+  @Test
+  public void streamPayloadIsCopied() throws Exception {
+    underTest.send(request, HttpResponses.ok(new BytesPayload(CONTENT, "text/plain")), httpResponse);
+
+    assertThat(sent.toByteArray(), equalTo(CONTENT));
+    verify(httpResponse).setContentLengthLong(CONTENT.length);
+  }
+
+  @Test
+  public void filePayloadIsTransferredFromChannel() throws Exception {
+    underTest.send(request, HttpResponses.ok(filePayload()), httpResponse);
+
+    assertThat(sent.toByteArray(), equalTo(CONTENT));
+    verify(httpResponse).setContentLengthLong(CONTENT.length);
+  }
+
+  @Test
+  public void filePayloadIsSentThroughJettyOutput() throws Exception {
+    final HttpOutput jettyOutput = mock(HttpOutput.class);
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(final InvocationOnMock invocation) throws Throwable {
+        try (ReadableByteChannel content = (ReadableByteChannel) invocation.getArguments()[0]) {
+          final ByteBuffer buffer = ByteBuffer.allocate(4);
+          while (content.read(buffer) >= 0) {
+            buffer.flip();
+            sent.write(buffer.array(), 0, buffer.limit());
+            buffer.clear();
+          }
+        }
+        return null;
+      }
+    }).when(jettyOutput).sendContent(any(ReadableByteChannel.class));
+    when(httpResponse.getOutputStream()).thenReturn(jettyOutput);
+
+    underTest.send(request, HttpResponses.ok(filePayload()), httpResponse);
+
+    assertThat(sent.toByteArray(), equalTo(CONTENT));
+    verify(jettyOutput, never()).write(any(byte[].class), any(Integer.class), any(Integer.class));
+  }
+
+  @Test
+  public void headSendsNoContent() throws Exception {
+    when(request.getAction()).thenReturn(HttpMethods.HEAD);
+    underTest.send(request, HttpResponses.ok(filePayload()), httpResponse);
+
+    assertThat(sent.size(), is(0));
+    verify(httpResponse).setContentLengthLong(CONTENT.length);
+  }
+
+  /**
+   * File payload of {@link #CONTENT} at {@link #OFFSET} of the file, followed by unrelated bytes. Its stream must
+   * not be used.
+   */
+  private Payload filePayload() throws IOException {
+    final File file = util.createTempFile();
+    final byte[] bytes = new byte[OFFSET + CONTENT.length + OFFSET];
+    System.arraycopy(CONTENT, 0, bytes, OFFSET, CONTENT.length);
+    Files.write(file.toPath(), bytes);
+    return new FileChannelPayload()
+    {
+      @Override
+      public FileChannel openFileChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      }
+
+      @Override
+      public long getFileChannelOffset() {
+        return OFFSET;
+      }
+
+      @Override
+      public InputStream openInputStream() throws IOException {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public long getSize() {
+        return CONTENT.length;
+      }
+
+      @Override
+      public String getContentType() {
+        return "application/octet-stream";
+      }
+    };
+  }
+}
@@ -17,6 +17,7 @@ import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -30,7 +31,7 @@ import org.sonatype.nexus.blobstore.api.BlobRef;
 import org.sonatype.nexus.blobstore.api.BlobStore;
 import org.sonatype.nexus.common.collect.NestedAttributesMap;
 import org.sonatype.nexus.common.hash.HashAlgorithm;
-import org.sonatype.nexus.common.io.TempStreamSupplier;
+import org.sonatype.nexus.common.io.HeadCapturingInputStream;
 import org.sonatype.nexus.mime.MimeSupport;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.InvalidContentException;
@@ -50,11 +51,12 @@ import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.types.HostedType;
 import org.sonatype.nexus.repository.types.ProxyType;
 import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.ContentTypes;
 import org.sonatype.nexus.repository.view.Payload;
 import org.sonatype.nexus.repository.view.payloads.BlobPayload;
+import org.sonatype.nexus.repository.view.payloads.StringPayload;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
@@ -75,7 +77,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <ul>
  * <li>CMA assets: keyed by path</li>
  * </ul>
- * In both cases, "external" hashes are stored as separate asset, as their path differs too.
+ * Hashes (.sha1/.md5 files) of stored content are not stored as separate assets, but are served from the hashes
+ * recorded in the checksum attributes of the content asset, without reading any blob. Hashes of content not present in
+ * storage are stored as separate asset, as their path differs too.
  *
  * @since 3.0
  */
@@ -100,11 +104,11 @@ public class MavenFacetImpl
 
   // artifact component properties
 
-  private static final String P_COMPONENT_KEY = "key";
+  public static final String P_COMPONENT_KEY = "key";
 
   // shared properties for both artifact and metadata assets
 
-  private static final String P_ASSET_KEY = "key";
+  public static final String P_ASSET_KEY = "key";
 
   private static final String P_CONTENT_LAST_MODIFIED = "contentLastModified";
 
@@ -112,6 +116,8 @@ public class MavenFacetImpl
 
   private static final String P_LAST_VERIFIED = "lastVerified";
 
+  private static final String P_HASHES = "hashes";
+
   private final MimeSupport mimeSupport;
 
   private final Map<String, MavenPathParser> mavenPathParsers;
@@ -198,6 +204,12 @@ public class MavenFacetImpl
   @Override
   public Content get(final StorageTx tx, final MavenPath path) throws IOException {
     log.debug("GET {} : {}", getRepository().getName(), path.getPath());
+    if (path.isHash()) {
+      final Asset hashedAsset = findHashedAsset(tx, path);
+      if (hashedAsset != null) {
+        return toHashContent(hashedAsset, path.getHashType());
+      }
+    }
     final Asset asset = findAsset(tx, tx.getBucket(), path);
     if (asset == null) {
       return null;
@@ -229,6 +241,18 @@ public class MavenFacetImpl
     return result;
   }
 
+  /**
+   * Creates hash {@link Content} out of the checksum attributes of passed in {@link Asset}.
+   */
+  private Content toHashContent(final Asset asset, final HashType hashType) {
+    final String hash = checkNotNull(getHash(asset, hashType));
+    final Date lastModifiedDate = asset.formatAttributes().get(P_CONTENT_LAST_MODIFIED, Date.class);
+    final Content result = new Content(new StringPayload(hash, ContentTypes.TEXT_PLAIN));
+    result.getAttributes()
+        .set(Content.CONTENT_LAST_MODIFIED, lastModifiedDate == null ? null : new DateTime(lastModifiedDate));
+    return result;
+  }
+
   @Override
   public Content put(final MavenPath path, final Payload payload)
       throws IOException, InvalidContentException
@@ -245,6 +269,12 @@ public class MavenFacetImpl
       throws IOException, InvalidContentException
   {
     log.debug("PUT {} : {}", getRepository().getName(), path.getPath());
+    if (path.isHash()) {
+      final Asset hashedAsset = findHashedAsset(tx, path);
+      if (hashedAsset != null) {
+        return putHash(tx, path, hashedAsset, payload);
+      }
+    }
     if (path.getCoordinates() != null) {
       return putArtifact(tx, path, payload);
     }
@@ -294,6 +324,7 @@ public class MavenFacetImpl
 
     putAssetPayload(path, tx, asset, payload);
     tx.saveAsset(asset);
+    deleteStoredHashes(tx, path);
     return toContent(tx, asset);
   }
 
@@ -312,9 +343,40 @@ public class MavenFacetImpl
 
     putAssetPayload(path, tx, asset, payload);
     tx.saveAsset(asset);
+    deleteStoredHashes(tx, path);
     return toContent(tx, asset);
   }
 
+  /**
+   * Puts hash of content present in storage: nothing is stored, as the hash is served from the content asset. The
+   * passed in hash must match the one of the content, otherwise {@link InvalidContentException} is thrown.
+   */
+  private Content putHash(final StorageTx tx, final MavenPath path, final Asset hashedAsset, final Payload payload)
+      throws IOException, InvalidContentException
+  {
+    final String expected = getHash(hashedAsset, path.getHashType());
+    final String actual = DigestExtractor.extract(payload.openInputStream());
+    if (!Objects.equals(expected, actual)) {
+      throw new InvalidContentException(String.format("%s %s does not match %s of stored %s",
+          path.getHashType(), actual, expected, path.subordinateOf().getPath()));
+    }
+    // stored earlier, before the content was
+    deleteFile(path, tx);
+    return toHashContent(hashedAsset, path.getHashType());
+  }
+
+  /**
+   * Deletes hashes of passed in path which were stored as separate assets, as they are served from its asset.
+   */
+  private void deleteStoredHashes(final StorageTx tx, final MavenPath path) {
+    if (path.isHash()) {
+      return;
+    }
+    for (HashType hashType : HashType.values()) {
+      deleteFile(path.hash(hashType), tx);
+    }
+  }
+
   private void putAssetPayload(final MavenPath path,
                                final StorageTx tx,
                                final Asset asset,
@@ -326,16 +388,21 @@ public class MavenFacetImpl
         BlobStore.CREATED_BY_HEADER, "unknown"
     );
 
-    try (InputStream inputStream = payload.openInputStream()) {
-      try (TempStreamSupplier supplier = new TempStreamSupplier(inputStream)) {
-        final String contentType = determineContentType(path, supplier, payload.getContentType());
-        try (InputStream is = supplier.get()) {
-          tx.setBlob(is, headers, asset, HashType.ALGORITHMS, contentType);
-        }
+    // Stream straight into the blob store, keeping only the head of the content for type detection; if the
+    // content is rejected the exception leaves the tx uncommitted, so the new blob is rolled back on close
+    try (HeadCapturingInputStream is = new HeadCapturingInputStream(payload.openInputStream(),
+        MimeSupport.DETECTION_HEAD_SIZE)) {
+      String provisionalContentType = payload.getContentType();
+      if (provisionalContentType == null) {
+        provisionalContentType = mimeSupport.guessMimeTypeFromPath(path.getPath());
       }
+      tx.setBlob(is, headers, asset, HashType.ALGORITHMS, provisionalContentType);
+      asset.contentType(determineContentType(path, is.getHead(), payload.getContentType()));
     }
 
     final NestedAttributesMap formatAttributes = asset.formatAttributes();
+    // hashes verified against remote were of the previous content
+    formatAttributes.remove(P_HASHES);
     if (payload instanceof Content) {
       Content content = (Content) payload;
       final DateTime lastModified = content.getAttributes().get(Content.CONTENT_LAST_MODIFIED, DateTime.class);
@@ -389,7 +456,7 @@ public class MavenFacetImpl
     return true;
   }
 
-  private boolean deleteFile(final MavenPath path, final StorageTx tx) throws IOException {
+  private boolean deleteFile(final MavenPath path, final StorageTx tx) {
     final Asset asset = findAsset(tx, tx.getBucket(), path);
     if (asset == null) {
       return false;
@@ -401,11 +468,12 @@ public class MavenFacetImpl
   @Override
   public DateTime getLastVerified(final MavenPath path) throws IOException {
     try (StorageTx tx = storageFacet.openTx()) {
-      final Asset asset = findAsset(tx, tx.getBucket(), path);
+      final Asset hashedAsset = path.isHash() ? findHashedAsset(tx, path) : null;
+      final Asset asset = hashedAsset != null ? hashedAsset : findAsset(tx, tx.getBucket(), path);
       if (asset == null) {
         return null;
       }
-      final NestedAttributesMap attributes = asset.formatAttributes();
+      final NestedAttributesMap attributes = verifiedAttributes(asset, hashedAsset != null ? path.getHashType() : null);
       final Date date = attributes.get(P_LAST_VERIFIED, Date.class);
       if (date == null) {
         return null;
@@ -417,11 +485,12 @@ public class MavenFacetImpl
   @Override
   public boolean setLastVerified(final MavenPath path, final DateTime verified) throws IOException {
     try (StorageTx tx = storageFacet.openTx()) {
-      final Asset asset = findAsset(tx, tx.getBucket(), path);
+      final Asset hashedAsset = path.isHash() ? findHashedAsset(tx, path) : null;
+      final Asset asset = hashedAsset != null ? hashedAsset : findAsset(tx, tx.getBucket(), path);
       if (asset == null) {
         return false;
       }
-      final NestedAttributesMap attributes = asset.formatAttributes();
+      final NestedAttributesMap attributes = verifiedAttributes(asset, hashedAsset != null ? path.getHashType() : null);
       attributes.set(P_LAST_VERIFIED, verified.toDate());
       tx.saveAsset(asset);
       tx.commit();
@@ -491,12 +560,42 @@ public class MavenFacetImpl
     return tx.findAssetWithProperty(assetKeyName, getAssetKey(mavenPath), bucket);
   }
 
+  /**
+   * Finds the asset holding the hash of passed in hash path, which is the asset of the path it is hash of, if it has
+   * such hash recorded.
+   */
+  @Nullable
+  private Asset findHashedAsset(final StorageTx tx, final MavenPath hashPath) {
+    final Asset asset = findAsset(tx, tx.getBucket(), hashPath.subordinateOf());
+    if (asset == null || getHash(asset, hashPath.getHashType()) == null) {
+      return null;
+    }
+    return asset;
+  }
+
+  /**
+   * Returns the hash of given type recorded in checksum attributes of the asset, or {@code null}.
+   */
+  @Nullable
+  private String getHash(final Asset asset, final HashType hashType) {
+    return asset.attributes().child(StorageFacet.P_CHECKSUM).get(hashType.getHashAlgorithm().name(), String.class);
+  }
+
+  /**
+   * Returns the attributes holding the last verified date of the asset, or of the hash of given type served from
+   * the asset. Hashes are verified apart from the asset, as verifying a hash says nothing about the asset itself.
+   */
+  private NestedAttributesMap verifiedAttributes(final Asset asset, @Nullable final HashType hashType) {
+    final NestedAttributesMap formatAttributes = asset.formatAttributes();
+    return hashType == null ? formatAttributes : formatAttributes.child(P_HASHES).child(hashType.name());
+  }
+
   /**
    * Determines or confirms the content type for the content, or throws {@link InvalidContentException} if it cannot.
    */
   @Nonnull
   private String determineContentType(final MavenPath mavenPath,
-                                      final Supplier<InputStream> inputStreamSupplier,
+                                      final InputStream is,
                                       final String declaredContentType)
       throws IOException
   {
@@ -504,9 +603,7 @@ public class MavenFacetImpl
 
     if (contentType == null) {
       log.trace("Content PUT to {} has no content type.", mavenPath);
-      try (InputStream is = inputStreamSupplier.get()) {
-        contentType = mimeSupport.detectMimeType(is, mavenPath.getPath());
-      }
+      contentType = mimeSupport.detectMimeType(is, mavenPath.getPath());
       log.trace("Mime support implies content type {}", contentType);
 
       if (contentType == null && config.strictContentTypeValidation) {
@@ -514,14 +611,12 @@ public class MavenFacetImpl
       }
     }
     else {
-      try (InputStream is = inputStreamSupplier.get()) {
-        final List<String> types = mimeSupport.detectMimeTypes(is, mavenPath.getPath());
-        if (!types.isEmpty() && !types.contains(contentType)) {
-          log.debug("Discovered content type {} ", types);
-          if (config.strictContentTypeValidation) {
-            throw new InvalidContentException(
-                String.format("Declared content type %s, but discovered %s.", contentType, types));
-          }
+      final List<String> types = mimeSupport.detectMimeTypes(is, mavenPath.getPath());
+      if (!types.isEmpty() && !types.contains(contentType)) {
+        log.debug("Discovered content type {} ", types);
+        if (config.strictContentTypeValidation) {
+          throw new InvalidContentException(
+              String.format("Declared content type %s, but discovered %s.", contentType, types));
         }
       }
     }
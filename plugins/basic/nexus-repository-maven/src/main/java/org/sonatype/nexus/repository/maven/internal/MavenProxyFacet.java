@@ -51,7 +51,20 @@ public class MavenProxyFacet
 
   @Override
   protected void store(final Context context, final Content payload) throws IOException, InvalidContentException {
-    mavenFacet.put(mavenPath(context), payload);
+    final MavenPath mavenPath = mavenPath(context);
+    try {
+      mavenFacet.put(mavenPath, payload);
+    }
+    catch (InvalidContentException e) {
+      if (!mavenPath.isHash()) {
+        throw e;
+      }
+      // remote hash not matching cached content means remote content changed: have it fetched again, while the hash
+      // of cached content keeps being served, as that is the content clients get until then
+      log.warn("Remote hash not matching cached content of {}, marking it stale: {}", getRepository().getName(),
+          e.getMessage());
+      mavenFacet.setLastVerified(mavenPath.subordinateOf(), new DateTime(0));
+    }
   }
 
   @Override
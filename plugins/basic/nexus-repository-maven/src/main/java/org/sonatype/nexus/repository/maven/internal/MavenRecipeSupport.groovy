@@ -18,6 +18,7 @@ import javax.inject.Provider
 import org.sonatype.nexus.repository.Format
 import org.sonatype.nexus.repository.RecipeSupport
 import org.sonatype.nexus.repository.Type
+import org.sonatype.nexus.repository.conditional.ConditionalRequestHandler
 import org.sonatype.nexus.repository.maven.MavenPathParser
 import org.sonatype.nexus.repository.partial.PartialFetchHandler
 import org.sonatype.nexus.repository.security.SecurityFacet
@@ -57,6 +58,9 @@ abstract class MavenRecipeSupport
   @Inject
   PartialFetchHandler partialFetchHandler
 
+  @Inject
+  ConditionalRequestHandler conditionalRequestHandler
+
   @Inject
   MavenHeadersHandler mavenHeadersHandler
 
@@ -0,0 +1,261 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.maven.internal.maven2.Maven2MetadataMerger.MetadataEnvelope;
+import org.sonatype.sisu.goodies.common.ComponentSupport;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.eclipse.aether.version.Version;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maven 2 repository metadata merge of group members, that is updated incrementally as members change.
+ *
+ * The versions of all members are kept reference counted and ordered, so a changed member only has its added and
+ * removed versions applied, and each version string is parsed only once. The rest of metadata (plugins, snapshots,
+ * timestamps) is small, and is merged by {@link Maven2MetadataMerger} out of the member metadata kept without
+ * versions. Members are merged in the order given at creation, whatever the order of updates is.
+ *
+ * Instances are not thread safe.
+ *
+ * @since 3.0
+ */
+public class IncrementalMetadataMerge
+    extends ComponentSupport
+{
+  // Heap retained, in bytes, as measured on a 64-bit JVM with compressed oops: by a version of a member (its string
+  // and entry in the member's versions), by a distinct version (its count, parsed form and entry in the ordered
+  // versions), by a member (its stripped metadata and key), and by a snapshot version or plugin of a member.
+
+  private static final int MEMBER_VERSION_SIZE = 90;
+
+  private static final int VERSION_SIZE = 340;
+
+  private static final int MEMBER_SIZE = 200;
+
+  private static final int MEMBER_ENTRY_SIZE = 100;
+
+  private final Maven2MetadataMerger metadataMerger;
+
+  /**
+   * Member metadata without versions, in member order, {@code null} if member has no (usable) metadata.
+   */
+  private final LinkedHashMap<String, Metadata> members;
+
+  /**
+   * The key of member metadata as last applied, {@code null} if member was not applied yet.
+   */
+  private final Map<String, String> memberKeys;
+
+  private final Map<String, Set<String>> memberVersions;
+
+  private final Map<String, Version> parsedVersions;
+
+  private final Multiset<String> versionCounts;
+
+  private final TreeSet<String> versions;
+
+  public IncrementalMetadataMerge(final Maven2MetadataMerger metadataMerger, final List<String> origins) {
+    this.metadataMerger = checkNotNull(metadataMerger);
+    this.members = Maps.newLinkedHashMap();
+    for (String origin : origins) {
+      members.put(origin, null);
+    }
+    this.memberKeys = Maps.newHashMap();
+    this.memberVersions = Maps.newHashMap();
+    this.parsedVersions = Maps.newHashMap();
+    this.versionCounts = HashMultiset.create();
+    this.versions = new TreeSet<>(new Comparator<String>()
+    {
+      @Override
+      public int compare(final String o1, final String o2) {
+        final int result = parsedVersions.get(o1).compareTo(parsedVersions.get(o2));
+        return result != 0 ? result : o1.compareTo(o2);
+      }
+    });
+  }
+
+  /**
+   * Returns the members this merge is made of, in order.
+   */
+  public List<String> getOrigins() {
+    return ImmutableList.copyOf(members.keySet());
+  }
+
+  /**
+   * Returns the key of the member metadata as last applied, or {@code null}.
+   */
+  @Nullable
+  public String getKey(final String origin) {
+    return memberKeys.get(origin);
+  }
+
+  /**
+   * Returns the total count of versions kept for all members.
+   */
+  public int getVersionCount() {
+    return versionCounts.size();
+  }
+
+  /**
+   * Returns a rough estimate in bytes of the heap this merge retains.
+   */
+  public long getEstimatedSize() {
+    long size = (long) versionCounts.size() * MEMBER_VERSION_SIZE + (long) versions.size() * VERSION_SIZE;
+    for (Metadata member : members.values()) {
+      size += MEMBER_SIZE;
+      if (member != null) {
+        if (member.getVersioning() != null) {
+          size += (long) member.getVersioning().getSnapshotVersions().size() * MEMBER_ENTRY_SIZE;
+        }
+        size += (long) member.getPlugins().size() * MEMBER_ENTRY_SIZE;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Applies the member metadata, identified by given key. Passed in {@code null} metadata means member has no usable
+   * metadata. The passed in instance is not mutated.
+   */
+  public void update(final String origin, final String key, @Nullable final Metadata metadata) {
+    checkArgument(members.containsKey(origin), "Unknown member: %s", origin);
+    checkNotNull(key);
+    Metadata member = metadata;
+    if (member != null && !matches(origin, member)) {
+      log.warn("Bad metadata {}: coordinates mismatch", origin);
+      member = null;
+    }
+
+    final Set<String> oldVersions = memberVersions.containsKey(origin)
+        ? memberVersions.get(origin) : Collections.<String>emptySet();
+    final Set<String> newVersions = Sets.newHashSet();
+    Metadata stripped = null;
+    if (member != null) {
+      stripped = member.clone();
+      if (stripped.getVersioning() != null) {
+        for (String version : stripped.getVersioning().getVersions()) {
+          if (version != null && !"null".equals(version)) {
+            newVersions.add(version);
+          }
+        }
+        stripped.getVersioning().setVersions(Lists.<String>newArrayList());
+      }
+    }
+    for (String version : oldVersions) {
+      if (!newVersions.contains(version)) {
+        removeVersion(version);
+      }
+    }
+    for (String version : newVersions) {
+      if (!oldVersions.contains(version)) {
+        addVersion(version);
+      }
+    }
+
+    members.put(origin, stripped);
+    memberKeys.put(origin, key);
+    memberVersions.put(origin, newVersions);
+  }
+
+  /**
+   * Returns the merged metadata, or {@code null} if no member has usable metadata. The returned instance is not
+   * shared with this merge.
+   */
+  @Nullable
+  public Metadata toMetadata() {
+    final List<MetadataEnvelope> envelopes = Lists.newArrayList();
+    for (Map.Entry<String, Metadata> entry : members.entrySet()) {
+      if (entry.getValue() != null) {
+        envelopes.add(new MetadataEnvelope(entry.getKey(), entry.getValue()));
+      }
+    }
+    final Metadata result = metadataMerger.merge(envelopes);
+    if (result == null || versions.isEmpty()) {
+      return result;
+    }
+    if (result.getVersioning() == null) {
+      result.setVersioning(new Versioning());
+    }
+    result.getVersioning().setVersions(Lists.newArrayList(versions));
+    // the last in ordered list
+    result.getVersioning().setLatest(versions.last());
+    // the last non-snapshot in ordered list, may be null
+    String release = null;
+    for (Iterator<String> iterator = versions.descendingIterator(); iterator.hasNext(); ) {
+      final String version = iterator.next();
+      if (!version.endsWith("SNAPSHOT")) {
+        release = version;
+        break;
+      }
+    }
+    result.getVersioning().setRelease(release);
+    return result;
+  }
+
+  private void addVersion(final String version) {
+    if (versionCounts.add(version, 1) == 0) {
+      parsedVersions.put(version, metadataMerger.version(version));
+      versions.add(version);
+    }
+  }
+
+  private void removeVersion(final String version) {
+    if (versionCounts.remove(version, 1) == 1) {
+      versions.remove(version);
+      parsedVersions.remove(version);
+    }
+  }
+
+  /**
+   * Checks the coordinates of member metadata against the first other member having metadata, where both set.
+   */
+  private boolean matches(final String origin, final Metadata metadata) {
+    for (Map.Entry<String, Metadata> entry : members.entrySet()) {
+      final Metadata other = entry.getValue();
+      if (other != null && !entry.getKey().equals(origin)) {
+        return matches(metadata.getGroupId(), other.getGroupId())
+            && matches(metadata.getArtifactId(), other.getArtifactId())
+            && matches(metadata.getVersion(), other.getVersion());
+      }
+    }
+    return true;
+  }
+
+  private boolean matches(final String left, final String right) {
+    return Strings.isNullOrEmpty(left) || Strings.isNullOrEmpty(right) || Objects.equals(left.trim(), right.trim());
+  }
+}
@@ -19,6 +19,12 @@ import java.io.InputStream;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -26,6 +32,7 @@ import javax.inject.Named;
 
 import org.sonatype.nexus.common.hash.HashAlgorithm;
 import org.sonatype.nexus.common.hash.Hashes;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.repository.Facet;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.config.Configuration;
@@ -35,7 +42,6 @@ import org.sonatype.nexus.repository.manager.RepositoryManager;
 import org.sonatype.nexus.repository.maven.MavenFacet;
 import org.sonatype.nexus.repository.maven.MavenPath;
 import org.sonatype.nexus.repository.maven.MavenPath.HashType;
-import org.sonatype.nexus.repository.maven.internal.maven2.Maven2MetadataMerger.MetadataEnvelope;
 import org.sonatype.nexus.repository.storage.AssetEvent;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.util.TypeTokens;
@@ -45,11 +51,21 @@ import org.sonatype.nexus.repository.view.Response;
 import org.sonatype.nexus.repository.view.payloads.BytesPayload;
 import org.sonatype.nexus.repository.view.payloads.StringPayload;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
@@ -61,6 +77,16 @@ import static com.google.common.base.Preconditions.checkArgument;
 /**
  * Maven2 specific implementation of {@link GroupFacetImpl}: metadata merge is specific to Maven2 format.
  *
+ * Merged metadata is kept in a bounded in-memory cache, along with its hashes and the key of the member metadata it
+ * was merged from, and is written to storage in the background only when evicted by size. Entries not written when
+ * the facet is stopped are dropped, they are merged again when next requested.
+ *
+ * Member metadata changes advance a generation, and a cached entry is served only if merged from member metadata
+ * read at or after the last change of its path, so a merge racing with a member change is never taken as fresh.
+ * If the members of a stale entry later turn out to have the same key (ie. only attributes changed), the entry is
+ * reused without merging again. Otherwise only the changed members are parsed and applied to the
+ * {@link IncrementalMetadataMerge} of the entry.
+ *
  * @since 3.0
  */
 @Named
@@ -68,10 +94,38 @@ import static com.google.common.base.Preconditions.checkArgument;
 public class Maven2GroupFacet
     extends GroupFacetImpl
 {
+  /**
+   * Maximum total size in bytes of the merged metadata kept in memory, per group repository, including the estimated
+   * heap of the merges kept to update them incrementally.
+   */
+  private static final long CACHE_SIZE =
+      SystemPropertiesHelper.getLong(Maven2GroupFacet.class.getName() + ".mergedMetadataCacheSize", 10L * 1024 * 1024);
+
+  /**
+   * Maximum number of evicted merged metadata waiting to be written to storage, more are dropped.
+   */
+  private static final int WRITE_QUEUE_SIZE = 1000;
+
+  /**
+   * Number of stripes the generation of the last member metadata change is tracked in, by path.
+   */
+  private static final int CHANGE_STRIPES = 64;
+
   private final Maven2MetadataMerger metadataMerger;
 
+  private final AtomicLong generation = new AtomicLong();
+
+  private final AtomicLongArray changes = new AtomicLongArray(CHANGE_STRIPES);
+
+  @VisibleForTesting
+  long cacheSize = CACHE_SIZE;
+
   private MavenFacet mavenFacet;
 
+  private Cache<String, MergedMetadata> cache;
+
+  private ThreadPoolExecutor writer;
+
   @Inject
   public Maven2GroupFacet(final RepositoryManager repositoryManager) {
     super(repositoryManager);
@@ -84,21 +138,80 @@ public class Maven2GroupFacet
     this.mavenFacet = facet(MavenFacet.class);
   }
 
+  @Override
+  protected void doStart() throws Exception {
+    super.doStart();
+    // single writer, so eviction never waits for storage on the request thread
+    writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(WRITE_QUEUE_SIZE),
+        new ThreadFactoryBuilder().setNameFormat("maven-group-metadata-" + getRepository().getName()).setDaemon(true)
+            .build(),
+        new DiscardPolicy());
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(cacheSize)
+        .weigher(new Weigher<String, MergedMetadata>()
+        {
+          @Override
+          public int weigh(final String path, final MergedMetadata merged) {
+            return path.length() * 2 + merged.weight;
+          }
+        })
+        .removalListener(new RemovalListener<String, MergedMetadata>()
+        {
+          @Override
+          public void onRemoval(final RemovalNotification<String, MergedMetadata> notification) {
+            if (notification.wasEvicted()) {
+              writeThrough(notification.getKey(), notification.getValue());
+            }
+          }
+        })
+        .build();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    cache = null;
+    // let the write in progress, if any, end on its own
+    writer.getQueue().clear();
+    writer.shutdown();
+    if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+      log.warn("Timed out waiting for merged metadata write of {}", getRepository().getName());
+    }
+    writer = null;
+    super.doStop();
+  }
+
   /**
-   * Fetches cached metadata if exists, or {@code null}.
+   * Returns the current generation of member metadata changes. To be taken before reading the member metadata passed
+   * to {@link #mergeAndCacheMetadata}.
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Fetches cached metadata (or hash of it) if exists, or {@code null}.
    */
   @Nullable
   public Content getCachedMergedMetadata(final MavenPath mavenPath) throws IOException {
-    return mavenFacet.get(mavenPath);
+    final MergedMetadata merged = cache.getIfPresent(mavenPath.main().getPath());
+    if (merged == null) {
+      return mavenFacet.get(mavenPath);
+    }
+    if (!isFresh(mavenPath.main().getPath(), merged)) {
+      return null;
+    }
+    return mavenPath.isHash() ? merged.toHashContent(mavenPath.getHashType()) : merged.toContent();
   }
 
   /**
    * Merges and caches and returns the merged metadata. Returns {@code null} if no usable response was in passed in
-   * map.
+   * map. The generation is the one {@link #getGeneration() taken} before reading the member metadata.
    */
   @Nullable
   public Content mergeAndCacheMetadata(final MavenPath mavenPath,
-                                       final LinkedHashMap<Repository, Response> responses) throws IOException
+                                       final LinkedHashMap<Repository, Response> responses,
+                                       final long generation) throws IOException
   {
     checkArgument(mavenFacet.getMavenPathParser().isRepositoryMetadata(mavenPath),
         "Only metadata can be merged and cached: %s", mavenPath);
@@ -116,71 +229,187 @@ public class Maven2GroupFacet
     if (metadataContents.isEmpty()) {
       return null;
     }
-    final Content content = mergeMetadata(mavenPath, metadataContents);
-    if (content == null) {
+    final Map<String, String> memberKeys = memberKeys(metadataContents);
+    final String membersKey = memberKeys != null ? Joiner.on(',').withKeyValueSeparator("=").join(memberKeys) : null;
+    final MergedMetadata cached = cache.getIfPresent(mavenPath.getPath());
+    if (cached != null && membersKey != null && membersKey.equals(cached.membersKey)) {
+      cached.validate(generation);
+      return cached.toContent();
+    }
+    final MergedMetadata merged = mergeMetadata(mavenPath, metadataContents, memberKeys, membersKey,
+        cached != null ? cached.merge : null, generation);
+    if (merged == null) {
       return null;
     }
-    return cacheMetadata(mavenPath, content);
+    // cached in memory only, written to storage lazily
+    cache.put(mavenPath.getPath(), merged);
+    return merged.toContent();
+  }
+
+  /**
+   * Returns the keys identifying the member metadata by their ETag or SHA1, or {@code null} if any of them lacks both.
+   */
+  @Nullable
+  private Map<String, String> memberKeys(final LinkedHashMap<Repository, Content> metadataContents) {
+    final Map<String, String> memberKeys = Maps.newLinkedHashMap();
+    for (Map.Entry<Repository, Content> entry : metadataContents.entrySet()) {
+      String version = entry.getValue().getAttributes().get(Content.CONTENT_ETAG, String.class);
+      if (version == null) {
+        final Map<HashAlgorithm, HashCode> hashCodes = entry.getValue().getAttributes().get(
+            Content.CONTENT_HASH_CODES_MAP, TypeTokens.HASH_CODES_MAP);
+        if (hashCodes == null || hashCodes.get(HashAlgorithm.SHA1) == null) {
+          return null;
+        }
+        version = hashCodes.get(HashAlgorithm.SHA1).toString();
+      }
+      memberKeys.put(entry.getKey().getName(), version);
+    }
+    return memberKeys;
   }
 
-  private Content mergeMetadata(final MavenPath mavenPath,
-                                final LinkedHashMap<Repository, Content> metadataContents) throws IOException
+  /**
+   * Merges the member metadata. Having the keys of all members, the merge of previous (cached) metadata is updated
+   * with the changed members only, if made of same members.
+   */
+  @Nullable
+  private MergedMetadata mergeMetadata(final MavenPath mavenPath,
+                                       final LinkedHashMap<Repository, Content> metadataContents,
+                                       @Nullable final Map<String, String> memberKeys,
+                                       @Nullable final String membersKey,
+                                       @Nullable final IncrementalMetadataMerge previous,
+                                       final long generation) throws IOException
   {
     if (metadataContents.size() == 1) {
-      return metadataContents.get(metadataContents.keySet().iterator().next());
+      final Content member = metadataContents.values().iterator().next();
+      final byte[] byteArray;
+      try (InputStream inputStream = member.openInputStream()) {
+        byteArray = ByteStreams.toByteArray(inputStream);
+      }
+      final DateTime lastModified = member.getAttributes().get(Content.CONTENT_LAST_MODIFIED, DateTime.class);
+      return newMergedMetadata(byteArray, lastModified != null ? lastModified : DateTime.now(), membersKey, null,
+          generation);
     }
-    final MetadataXpp3Reader reader = new MetadataXpp3Reader();
-    List<MetadataEnvelope> metadatas = Lists.newArrayList();
-    for (Map.Entry<Repository, Content> entry : metadataContents.entrySet()) {
-      final String origin = entry.getKey().getName() + " @ " + mavenPath.getPath();
-      try (InputStream inputStream = entry.getValue().openInputStream()) {
-        final Metadata metadata = reader.read(inputStream);
-        metadatas.add(new MetadataEnvelope(origin, metadata));
+
+    final List<String> origins = Lists.newArrayList();
+    for (Repository member : metadataContents.keySet()) {
+      origins.add(member.getName());
+    }
+    IncrementalMetadataMerge merge = previous;
+    if (memberKeys == null || merge == null || !merge.getOrigins().equals(origins)) {
+      merge = new IncrementalMetadataMerge(metadataMerger, origins);
+    }
+    synchronized (merge) {
+      final MetadataXpp3Reader reader = new MetadataXpp3Reader();
+      for (Map.Entry<Repository, Content> entry : metadataContents.entrySet()) {
+        final String name = entry.getKey().getName();
+        final String key = memberKeys != null ? memberKeys.get(name) : "";
+        if (key.equals(merge.getKey(name))) {
+          continue; // unchanged
+        }
+        final String origin = name + " @ " + mavenPath.getPath();
+        Metadata metadata = null;
+        try (InputStream inputStream = entry.getValue().openInputStream()) {
+          metadata = reader.read(inputStream);
+        }
+        catch (XmlPullParserException e) {
+          // skip it, log it
+          log.info("Unparseable repository metadata: {}", origin, e);
+        }
+        merge.update(name, key, metadata);
       }
-      catch (XmlPullParserException e) {
-        // skip it, log it
-        log.info("Unparseable repository metadata: {}", origin, e);
+
+      final Metadata mergedMetadata = merge.toMetadata();
+      if (mergedMetadata == null) {
+        return null;
       }
+      final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+      new MetadataXpp3Writer().write(byteArrayOutputStream, mergedMetadata);
+      // Metadata is rather small, so let's do it like this
+      return newMergedMetadata(byteArrayOutputStream.toByteArray(), DateTime.now(), membersKey,
+          memberKeys != null ? merge : null, generation);
     }
+  }
 
-    final Metadata mergedMetadata = metadataMerger.merge(metadatas);
-    if (mergedMetadata == null) {
-      return null;
-    }
-    final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    new MetadataXpp3Writer().write(byteArrayOutputStream, mergedMetadata);
-    // Metadata is rather small, so let's do it like this
-    final byte[] byteArray = byteArrayOutputStream.toByteArray();
+  private MergedMetadata newMergedMetadata(final byte[] byteArray,
+                                           final DateTime lastModified,
+                                           @Nullable final String membersKey,
+                                           @Nullable final IncrementalMetadataMerge merge,
+                                           final long generation) throws IOException
+  {
     final Map<HashAlgorithm, HashCode> hashCodes = Hashes.hash(HashType.ALGORITHMS,
         new ByteArrayInputStream(byteArray));
-    final Content content = new Content(
-        new BytesPayload(
-            byteArray,
-            Maven2Format.METADATA_CONTENT_TYPE
-        ));
-    content.getAttributes().set(Content.CONTENT_LAST_MODIFIED, DateTime.now());
-    content.getAttributes().set(Content.CONTENT_ETAG, "{SHA1{" + hashCodes.get(HashAlgorithm.SHA1).toString() + "}}");
-    content.getAttributes().set(Content.CONTENT_HASH_CODES_MAP, hashCodes);
-    return content;
-  }
-
-  private Content cacheMetadata(final MavenPath mavenPath, final Content content) throws IOException {
-    final Map<HashAlgorithm, HashCode> hashCodes = content.getAttributes().require(
-        Content.CONTENT_HASH_CODES_MAP, TypeTokens.HASH_CODES_MAP);
-    final DateTime now = content.getAttributes().require(Content.CONTENT_LAST_MODIFIED, DateTime.class);
-    // cache the metadata and the hashes
-    mavenFacet.put(mavenPath, content);
-    for (HashType hashType : HashType.values()) {
-      final HashCode hashCode = hashCodes.get(hashType.getHashAlgorithm());
-      if (hashCode != null) {
-        final Content hashContent = new Content(
-            new StringPayload(hashCode.toString(), Maven2Format.CHECKSUM_CONTENT_TYPE));
-        hashContent.getAttributes().set(Content.CONTENT_LAST_MODIFIED, now);
-        mavenFacet.put(mavenPath.hash(hashType), hashContent);
+    final int weight = Ints.saturatedCast(byteArray.length + (merge != null ? merge.getEstimatedSize() : 0L));
+    return new MergedMetadata(byteArray, lastModified, hashCodes, membersKey, merge, weight, generation);
+  }
+
+  /**
+   * Returns whether the merged metadata was merged from member metadata read after its path last changed.
+   */
+  private boolean isFresh(final String path, final MergedMetadata merged) {
+    return merged.generation >= changes.get(stripe(path));
+  }
+
+  /**
+   * Records a change of member metadata at the path, as of a new generation.
+   */
+  private void changed(final String path) {
+    final long changed = generation.incrementAndGet();
+    final int stripe = stripe(path);
+    long last;
+    do {
+      last = changes.get(stripe);
+    }
+    while (last < changed && !changes.compareAndSet(stripe, last, changed));
+  }
+
+  private static int stripe(final String path) {
+    return (path.hashCode() & Integer.MAX_VALUE) % CHANGE_STRIPES;
+  }
+
+  /**
+   * Hands the merged metadata to the writer, which writes it to storage unless stale or written already. Its hashes
+   * are served by {@link MavenFacet} from the stored metadata.
+   */
+  private void writeThrough(final String path, final MergedMetadata merged) {
+    writer.execute(new Runnable()
+    {
+      @Override
+      public void run() {
+        if (merged.written || !isFresh(path, merged)) {
+          return;
+        }
+        final MavenPath mavenPath = mavenFacet.getMavenPathParser().parsePath(path);
+        try {
+          mavenFacet.put(mavenPath, merged.toContent());
+          merged.written = true;
+          if (!isFresh(path, merged)) {
+            // a member changed while writing, and its deletion of the stored copy may have come first
+            deleteStored(mavenPath);
+          }
+        }
+        catch (Exception e) {
+          log.warn("Could not write merged metadata of {} at {}", getRepository().getName(), path, e);
+        }
       }
+    });
+  }
+
+  /**
+   * Deletes the stored merged metadata and its hashes.
+   */
+  private void deleteStored(final MavenPath mavenPath) {
+    try {
+      final List<MavenPath> paths = Lists.newArrayList();
+      paths.add(mavenPath.main());
+      for (HashType hashType : HashType.values()) {
+        paths.add(mavenPath.main().hash(hashType));
+      }
+      mavenFacet.delete(paths.toArray(new MavenPath[paths.size()]));
+    }
+    catch (IOException e) {
+      log.warn("Could not evict merged metadata from {} cache at {}", getRepository().getName(),
+          mavenPath.getPath(), e);
     }
-    // reload it from cache
-    return mavenFacet.get(mavenPath);
   }
 
   @Subscribe
@@ -191,19 +420,82 @@ public class Maven2GroupFacet
       final MavenPath mavenPath = mavenFacet.getMavenPathParser().parsePath(path);
       // group deletes md + hashes, but it should do only on md change in member
       if (!mavenPath.isHash() && mavenFacet.getMavenPathParser().isRepositoryMetadata(mavenPath)) {
-        try {
-          final List<MavenPath> paths = Lists.newArrayList();
-          paths.add(mavenPath.main());
-          for (HashType hashType : HashType.values()) {
-            paths.add(mavenPath.main().hash(hashType));
-          }
-          mavenFacet.delete(paths.toArray(new MavenPath[paths.size()]));
-        }
-        catch (IOException e) {
-          log.warn("Could not evict merged metadata from {} cache at {}", getRepository().getName(),
-              mavenPath.getPath(), e);
+        changed(mavenPath.main().getPath());
+        final MergedMetadata merged = cache != null ? cache.getIfPresent(mavenPath.main().getPath()) : null;
+        if (merged != null) {
+          // storage copy is deleted below
+          merged.written = false;
         }
+        deleteStored(mavenPath);
+      }
+    }
+  }
+
+  /**
+   * Merged metadata kept in memory, with its hashes and the key of the member metadata it was merged from, and the
+   * merge to update incrementally when members change.
+   */
+  private static class MergedMetadata
+  {
+    private final byte[] bytes;
+
+    private final DateTime lastModified;
+
+    private final Map<HashAlgorithm, HashCode> hashCodes;
+
+    @Nullable
+    private final String membersKey;
+
+    @Nullable
+    private final IncrementalMetadataMerge merge;
+
+    private final int weight;
+
+    /**
+     * Generation of member metadata changes this was merged from, or last found to be the same as.
+     */
+    private volatile long generation;
+
+    private volatile boolean written;
+
+    private MergedMetadata(final byte[] bytes,
+                           final DateTime lastModified,
+                           final Map<HashAlgorithm, HashCode> hashCodes,
+                           @Nullable final String membersKey,
+                           @Nullable final IncrementalMetadataMerge merge,
+                           final int weight,
+                           final long generation)
+    {
+      this.bytes = bytes;
+      this.lastModified = lastModified;
+      this.hashCodes = hashCodes;
+      this.membersKey = membersKey;
+      this.merge = merge;
+      this.weight = weight;
+      this.generation = generation;
+    }
+
+    private synchronized void validate(final long generation) {
+      this.generation = Math.max(this.generation, generation);
+    }
+
+    private Content toContent() {
+      final Content content = new Content(new BytesPayload(bytes, Maven2Format.METADATA_CONTENT_TYPE));
+      content.getAttributes().set(Content.CONTENT_LAST_MODIFIED, lastModified);
+      content.getAttributes().set(Content.CONTENT_ETAG, "{SHA1{" + hashCodes.get(HashAlgorithm.SHA1).toString() + "}}");
+      content.getAttributes().set(Content.CONTENT_HASH_CODES_MAP, hashCodes);
+      return content;
+    }
+
+    @Nullable
+    private Content toHashContent(final HashType hashType) {
+      final HashCode hashCode = hashCodes.get(hashType.getHashAlgorithm());
+      if (hashCode == null) {
+        return null;
       }
+      final Content content = new Content(new StringPayload(hashCode.toString(), Maven2Format.CHECKSUM_CONTENT_TYPE));
+      content.getAttributes().set(Content.CONTENT_LAST_MODIFIED, lastModified);
+      return content;
     }
   }
 }
@@ -42,6 +42,8 @@ public class Maven2GroupMetadataHandler
   {
     final MavenPath mavenPath = context.getAttributes().require(MavenPath.class);
     final Maven2GroupFacet groupFacet = context.getRepository().facet(Maven2GroupFacet.class);
+    // taken before reading any member metadata, so merges racing with member changes are not cached as fresh
+    final long generation = groupFacet.getGeneration();
     // get cached one
     Content content = groupFacet.getCachedMergedMetadata(mavenPath);
     if (content != null) {
@@ -56,8 +58,8 @@ public class Maven2GroupMetadataHandler
     else {
       // metadata, merge and cache it and get it
       final LinkedHashMap<Repository, Response> responses =
-          getAll(context.getRequest(), groupFacet.members(), dispatched);
-      content = groupFacet.mergeAndCacheMetadata(mavenPath, responses);
+          getAll(context, groupFacet.members(), dispatched);
+      content = groupFacet.mergeAndCacheMetadata(mavenPath, responses, generation);
       if (content != null) {
         return HttpResponses.ok(content);
       }
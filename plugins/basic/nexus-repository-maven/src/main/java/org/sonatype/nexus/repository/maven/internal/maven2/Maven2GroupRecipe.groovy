@@ -88,11 +88,13 @@ extends MavenRecipeSupport
 
     builder.route(newArtifactRouteBuilder()
         .handler(partialFetchHandler)
+        .handler(conditionalRequestHandler)
         .handler(groupHandler)
         .create())
 
     // Note: partialFetchHandler NOT added for Maven metadata
     builder.route(newMetadataRouteBuilder()
+        .handler(conditionalRequestHandler)
         .handler(mavenHeadersHandler)
         .handler(groupMetadataHandler)
         .create())
@@ -97,12 +97,14 @@ extends MavenRecipeSupport
     builder.route(newArtifactRouteBuilder()
         .handler(partialFetchHandler)
         .handler(versionPolicyHandler)
+        .handler(conditionalRequestHandler)
         .handler(mavenHeadersHandler)
         .handler(hostedHandler)
         .create())
 
     // Note: partialFetchHandler NOT added for Maven metadata
     builder.route(newMetadataRouteBuilder()
+        .handler(conditionalRequestHandler)
         .handler(mavenHeadersHandler)
         .handler(hostedHandler)
         .create())
@@ -0,0 +1,41 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.repository.Format;
+import org.sonatype.nexus.repository.storage.IndexedAttributesContributorSupport;
+
+import com.google.common.collect.ImmutableSet;
+
+import static org.sonatype.nexus.repository.maven.internal.MavenFacetImpl.P_ASSET_KEY;
+import static org.sonatype.nexus.repository.maven.internal.MavenFacetImpl.P_COMPONENT_KEY;
+
+/**
+ * Indexes the component and asset keys Maven 2 repositories look up content by.
+ *
+ * @since 3.0
+ */
+@Named
+@Singleton
+public class Maven2IndexedAttributesContributor
+    extends IndexedAttributesContributorSupport
+{
+  @Inject
+  public Maven2IndexedAttributesContributor(final @Named(Maven2Format.NAME) Format format) {
+    super(format, ImmutableSet.of(P_COMPONENT_KEY), ImmutableSet.of(P_ASSET_KEY));
+  }
+}
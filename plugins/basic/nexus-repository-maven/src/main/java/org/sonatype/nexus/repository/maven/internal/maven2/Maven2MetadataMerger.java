@@ -16,7 +16,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -24,6 +26,8 @@ import javax.annotation.Nullable;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.artifact.repository.metadata.Plugin;
 import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
@@ -67,17 +71,6 @@ public class Maven2MetadataMerger
    */
   private final VersionScheme versionScheme = new GenericVersionScheme();
 
-  /**
-   * Version comparator that uses version scheme to sort version strings.
-   */
-  private final Comparator<String> versionStringComparator = new Comparator<String>()
-  {
-    @Override
-    public int compare(final String o1, final String o2) {
-      return version(o1).compareTo(version(o2));
-    }
-  };
-
   /**
    * Plugin comparator that uses artifactId to sort plugin elements.
    */
@@ -92,7 +85,7 @@ public class Maven2MetadataMerger
   /**
    * Parses out Aether version from a string.
    */
-  private Version version(final String version) {
+  Version version(final String version) {
     try {
       return versionScheme.parseVersion(version);
     }
@@ -149,7 +142,7 @@ public class Maven2MetadataMerger
       return null;
     }
     if (result.getVersioning() != null && !result.getVersioning().getVersions().isEmpty()) {
-      Collections.sort(result.getVersioning().getVersions(), versionStringComparator);
+      sortVersions(result.getVersioning().getVersions());
       // the last in ordered list
       String latest = result.getVersioning().getVersions().get(result.getVersioning().getVersions().size() - 1);
       // the last non-snapshot in ordered list, may be null
@@ -173,6 +166,23 @@ public class Maven2MetadataMerger
     return result;
   }
 
+  /**
+   * Sorts version strings using version scheme, parsing each of them only once.
+   */
+  private void sortVersions(final List<String> versions) {
+    final Map<String, Version> parsed = Maps.newHashMapWithExpectedSize(versions.size());
+    for (String version : versions) {
+      parsed.put(version, version(version));
+    }
+    Collections.sort(versions, new Comparator<String>()
+    {
+      @Override
+      public int compare(final String o1, final String o2) {
+        return parsed.get(o1).compareTo(parsed.get(o2));
+      }
+    });
+  }
+
   /**
    * Merges the "right" on top of "left" and returns the result, the instances are mutated.
    */
@@ -263,8 +273,9 @@ public class Maven2MetadataMerger
     // versions: just add strings not in list
     nullElementFilter(lv.getVersions());
     nullElementFilter(rv.getVersions());
+    final Set<String> versions = Sets.newHashSet(lv.getVersions());
     for (String version : rv.getVersions()) {
-      if (!lv.getVersions().contains(version)) {
+      if (versions.add(version)) {
         lv.getVersions().add(version);
       }
     }
@@ -108,6 +108,7 @@ extends MavenRecipeSupport
         .handler(negativeCacheHandler)
         .handler(partialFetchHandler)
         .handler(versionPolicyHandler)
+        .handler(conditionalRequestHandler)
         .handler(mavenHeadersHandler)
         .handler(proxyHandler)
         .create())
@@ -115,6 +116,7 @@ extends MavenRecipeSupport
     // Note: partialFetchHandler NOT added for Maven metadata
     builder.route(newMetadataRouteBuilder()
         .handler(negativeCacheHandler)
+        .handler(conditionalRequestHandler)
         .handler(mavenHeadersHandler)
         .handler(proxyHandler)
         .create())
@@ -0,0 +1,121 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.view.FileChannelPayload;
+import org.sonatype.nexus.repository.view.Payload;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.codehaus.plexus.util.xml.pull.MXParser;
+import org.codehaus.plexus.util.xml.pull.XmlPullParser;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Utility class for extracting the few values needed for metadata out of Maven POMs and plugin descriptors. The XML
+ * is read with a pull parser that stops as soon as the values were read, and the plugin descriptor is looked up in
+ * the plugin JAR through the zip central directory when the JAR is held in a file.
+ *
+ * @since 3.0
+ */
+public class MavenModelExtractor
+{
+  public static final String PLUGIN_DESCRIPTOR = "META-INF/maven/plugin.xml";
+
+  private static final Logger log = LoggerFactory.getLogger(MavenModelExtractor.class);
+
+  private MavenModelExtractor() {}
+
+  /**
+   * Reads the text of the given immediate children of the root element. Reading stops once all of them were found,
+   * the missing ones are not present in returned map. The passed in stream is not closed.
+   */
+  public static Map<String, String> readRootChildren(final InputStream stream, final String... names)
+      throws IOException, XmlPullParserException
+  {
+    checkNotNull(stream);
+    final ImmutableSet<String> wanted = ImmutableSet.copyOf(names);
+    final Map<String, String> result = Maps.newHashMapWithExpectedSize(wanted.size());
+    final XmlPullParser parser = new MXParser();
+    parser.setInput(stream, null);
+    int eventType = parser.getEventType();
+    while (eventType != XmlPullParser.END_DOCUMENT && result.size() < wanted.size()) {
+      if (eventType == XmlPullParser.START_TAG && parser.getDepth() == 2 && wanted.contains(parser.getName())
+          && !result.containsKey(parser.getName())) {
+        final String name = parser.getName();
+        result.put(name, parser.nextText().trim());
+      }
+      eventType = parser.next();
+    }
+    return result;
+  }
+
+  /**
+   * Reads the goal prefix from the plugin descriptor of a Maven plugin JAR, or returns {@code null} if JAR has no
+   * descriptor or descriptor has no prefix. JARs not held in a file, or not supported by {@link ZipCentralDirectory},
+   * are scanned sequentially.
+   */
+  @Nullable
+  public static String readGoalPrefix(final Payload jar) throws IOException, XmlPullParserException {
+    checkNotNull(jar);
+    if (jar instanceof FileChannelPayload && jar.getSize() >= 0) {
+      final FileChannelPayload filePayload = (FileChannelPayload) jar;
+      final FileChannel channel = filePayload.openFileChannel();
+      if (channel != null) {
+        try (FileChannel ignored = channel) {
+          final InputStream descriptor = ZipCentralDirectory.openEntry(channel, filePayload.getFileChannelOffset(),
+              jar.getSize(), PLUGIN_DESCRIPTOR);
+          if (descriptor == null) {
+            return null;
+          }
+          try (InputStream is = descriptor) {
+            return readGoalPrefix(is);
+          }
+        }
+        catch (ZipException e) {
+          log.debug("Falling back to sequential scan of {}", jar, e);
+        }
+      }
+    }
+    try (ZipInputStream zip = new ZipInputStream(jar.openInputStream())) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (!entry.isDirectory() && entry.getName().equals(PLUGIN_DESCRIPTOR)) {
+          return readGoalPrefix(zip);
+        }
+        zip.closeEntry();
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static String readGoalPrefix(final InputStream descriptor) throws IOException, XmlPullParserException {
+    return Strings.emptyToNull(readRootChildren(descriptor, "goalPrefix").get("goalPrefix"));
+  }
+}
@@ -12,31 +12,50 @@
  */
 package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 
+import org.sonatype.nexus.common.app.ApplicationDirectories;
 import org.sonatype.nexus.common.collect.AttributesMap;
+import org.sonatype.nexus.common.property.SystemPropertiesHelper;
 import org.sonatype.nexus.orient.DatabaseInstance;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.maven.MavenFacet;
 import org.sonatype.nexus.repository.maven.MavenPath;
 import org.sonatype.nexus.repository.maven.MavenPath.HashType;
 import org.sonatype.nexus.repository.maven.MavenPathParser;
-import org.sonatype.nexus.repository.maven.internal.DigestExtractor;
 import org.sonatype.nexus.repository.maven.internal.maven2.Maven2Format;
+import org.sonatype.nexus.repository.maven.internal.maven2.metadata.Maven2Metadata.Plugin;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.BucketEntityAdapter;
 import org.sonatype.nexus.repository.storage.Component;
@@ -44,24 +63,26 @@ import org.sonatype.nexus.repository.storage.ComponentDatabase;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.view.Content;
-import org.sonatype.nexus.repository.view.payloads.StringPayload;
+import org.sonatype.nexus.scheduling.CancelableSupport;
+import org.sonatype.nexus.scheduling.CancelableSupport.CancelableFlagHolder;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.orientechnologies.orient.core.command.OCommandResultListener;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
-import com.orientechnologies.orient.core.tx.OTransaction.TXTYPE;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -69,6 +90,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Maven 2 repository metadata re-builder.
  *
+ * The work is split by GA coordinates across a bounded pool of workers, each using its own database connection and
+ * metadata builder, while the group level (plugin) metadata is written once all the artifacts of the group were
+ * processed. An incremental rebuild processes only the GAs having assets updated since the last complete rebuild of
+ * the repository, as recorded by a watermark kept in the work directory.
+ *
  * @since 3.0
  */
 @Singleton
@@ -76,16 +102,93 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class MetadataRebuilder
     extends ComponentSupport
 {
+  /**
+   * Number of worker threads of a single rebuild.
+   */
+  private static final int THREADS =
+      SystemPropertiesHelper.getInteger(MetadataRebuilder.class.getName() + ".threads", 4);
+
+  /**
+   * How often the progress of a running rebuild is reported.
+   */
+  private static final long PROGRESS_INTERVAL_SECONDS =
+      SystemPropertiesHelper.getLong(MetadataRebuilder.class.getName() + ".progressIntervalSeconds", 30L);
+
+  private static final String WATERMARK_BUCKET = "bucket";
+
+  private static final String WATERMARK_SINCE = "since";
+
+  /**
+   * Receives the progress of a running rebuild.
+   */
+  public interface ProgressListener
+  {
+    /**
+     * Invoked periodically while the rebuild runs, and once it is done.
+     */
+    void onProgress(Progress progress);
+  }
+
+  /**
+   * Snapshot of the progress of a rebuild.
+   */
+  public static class Progress
+  {
+    private final long artifacts;
+
+    private final long assets;
+
+    private final long elapsedMillis;
+
+    public Progress(final long artifacts, final long assets, final long elapsedMillis) {
+      this.artifacts = artifacts;
+      this.assets = assets;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * The count of processed GAs.
+     */
+    public long getArtifacts() {
+      return artifacts;
+    }
+
+    /**
+     * The count of processed (non-subordinate) assets.
+     */
+    public long getAssets() {
+      return assets;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    public long getAssetsPerSecond() {
+      return elapsedMillis > 0 ? assets * 1000L / elapsedMillis : assets;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d artifacts, %d assets in %d s (%d assets/s)",
+          artifacts, assets, TimeUnit.MILLISECONDS.toSeconds(elapsedMillis), getAssetsPerSecond());
+    }
+  }
+
   private final Provider<DatabaseInstance> databaseInstanceProvider;
 
   private final BucketEntityAdapter bucketEntityAdapter;
 
+  private final ApplicationDirectories applicationDirectories;
+
   @Inject
   public MetadataRebuilder(final @Named(ComponentDatabase.NAME) Provider<DatabaseInstance> databaseInstanceProvider,
-                           final BucketEntityAdapter bucketEntityAdapter)
+                           final BucketEntityAdapter bucketEntityAdapter,
+                           final ApplicationDirectories applicationDirectories)
   {
     this.databaseInstanceProvider = checkNotNull(databaseInstanceProvider);
     this.bucketEntityAdapter = checkNotNull(bucketEntityAdapter);
+    this.applicationDirectories = checkNotNull(applicationDirectories);
   }
 
   /**
@@ -103,30 +206,113 @@ public class MetadataRebuilder
                       @Nullable final String groupId,
                       @Nullable final String artifactId,
                       @Nullable final String baseVersion)
+  {
+    rebuild(repository, update, false, groupId, artifactId, baseVersion, null);
+  }
+
+  /**
+   * Rebuilds/updates Maven metadata, optionally incrementally, reporting the progress to given listener.
+   *
+   * @param repository  The repository whose metadata needs rebuild (Maven2 format, Hosted type only).
+   * @param update      if {@code true}, updates existing metadata, otherwise overwrites them with newly generated
+   *                    ones.
+   * @param incremental if {@code true} and the work is not scoped, only the GAs having assets updated since the last
+   *                    complete rebuild are processed. Without a recorded complete rebuild, all GAs are processed.
+   * @param groupId     scope the work to given groupId.
+   * @param artifactId  scope the work to given artifactId (groupId must be given).
+   * @param baseVersion scope the work to given baseVersion (groupId and artifactId must ge given).
+   * @param listener    receives the progress, if given.
+   */
+  public void rebuild(final Repository repository,
+                      final boolean update,
+                      final boolean incremental,
+                      @Nullable final String groupId,
+                      @Nullable final String artifactId,
+                      @Nullable final String baseVersion,
+                      @Nullable final ProgressListener listener)
   {
     checkNotNull(repository);
-    final StringBuilder sql = new StringBuilder();
-    final Map<String, Object> sqlParams = Maps.newHashMap();
-    buildSql(sql, sqlParams, groupId, artifactId, baseVersion);
+    final boolean scoped = !Strings.isNullOrEmpty(groupId);
+    final Date started = new Date();
 
     try (ODatabaseDocumentTx db = databaseInstanceProvider.get().acquire()) {
+      final ORID bucketOrid;
       try (StorageTx tx = repository.facet(StorageFacet.class).openTx(db)) {
-        final ORID bucketOrid = bucketEntityAdapter.recordIdentity(tx.getBucket());
-        sqlParams.put("bucket", bucketOrid);
+        bucketOrid = bucketEntityAdapter.recordIdentity(tx.getBucket());
       }
-      final Worker worker = new Worker(db, repository, update, sql.toString(), sqlParams);
-      worker.rebuildMetadata();
+
+      Date since = null;
+      if (incremental && !scoped) {
+        since = readWatermark(repository, bucketOrid);
+        if (since == null) {
+          log.info("No complete metadata rebuild of {} recorded, processing all artifacts", repository.getName());
+        }
+      }
+
+      // incremental rebuild sees only some artifacts of a group, hence group level metadata must be merged
+      final Rebuild rebuild = new Rebuild(repository, update, update || since != null, listener);
+      final Date changedSince = since;
+      execute(rebuild, new Runnable()
+      {
+        @Override
+        public void run() {
+          if (changedSince == null) {
+            final StringBuilder sql = new StringBuilder();
+            final Map<String, Object> sqlParams = Maps.newHashMap();
+            buildSql(sql, sqlParams, groupId, artifactId, baseVersion);
+            sqlParams.put("bucket", bucketOrid);
+            rebuild.submitArtifacts(db, sql.toString(), sqlParams);
+          }
+          else {
+            log.info("Rebuilding metadata of {} for artifacts updated since {}", repository.getName(), changedSince);
+            rebuild.submitChangedArtifacts(db, bucketOrid, changedSince);
+          }
+        }
+      }, bucketOrid, started, !scoped);
+    }
+  }
+
+  /**
+   * Runs the producer submitting the artifacts of the rebuild, then the groups seen, and waits for all the work to
+   * finish. Only if the rebuild completed, and {@code advance} is set, is {@code started} recorded as the watermark of
+   * the repository. A failure of the producer stops the rebuild as a failing worker does: the work already running is
+   * let finish, the work still queued is skipped.
+   */
+  @VisibleForTesting
+  void execute(final Rebuild rebuild,
+               final Runnable producer,
+               final ORID bucketOrid,
+               final Date started,
+               final boolean advance)
+  {
+    try {
+      producer.run();
+      rebuild.awaitSubmitted();
+      rebuild.submitGroups();
+      rebuild.awaitSubmitted();
+    }
+    catch (RuntimeException | Error e) {
+      rebuild.fail(e);
+      throw e;
+    }
+    finally {
+      rebuild.shutdown();
+    }
+    rebuild.checkCompleted();
+
+    if (advance) {
+      writeWatermark(rebuild.repository, bucketOrid, started);
     }
   }
 
   /**
    * Builds up SQL and populates parameters map for it based on passed in parameters.
    */
-  private void buildSql(final StringBuilder sql,
-                        final Map<String, Object> sqlParams,
-                        @Nullable final String groupId,
-                        @Nullable final String artifactId,
-                        @Nullable final String baseVersion)
+  private static void buildSql(final StringBuilder sql,
+                               final Map<String, Object> sqlParams,
+                               @Nullable final String groupId,
+                               @Nullable final String artifactId,
+                               @Nullable final String baseVersion)
   {
     sql.append(
         "SELECT " +
@@ -150,87 +336,134 @@ public class MetadataRebuilder
     sql.append(" GROUP BY group, name");
   }
 
+  private File watermarkFile(final Repository repository) {
+    return new File(applicationDirectories.getWorkDirectory("maven-metadata"), repository.getName() + ".properties");
+  }
+
+  /**
+   * Returns the start of the last complete rebuild of the repository, or {@code null} if not known. The watermark is
+   * ignored if recorded for another bucket, ie. a former repository of same name.
+   */
+  @Nullable
+  @VisibleForTesting
+  Date readWatermark(final Repository repository, final ORID bucketOrid) {
+    final File file = watermarkFile(repository);
+    if (!file.exists()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      properties.load(in);
+      if (!bucketOrid.toString().equals(properties.getProperty(WATERMARK_BUCKET))) {
+        return null;
+      }
+      return new Date(Long.parseLong(properties.getProperty(WATERMARK_SINCE)));
+    }
+    catch (Exception e) {
+      log.warn("Failed to read metadata rebuild watermark of {} from {}", repository.getName(), file, e);
+      return null;
+    }
+  }
+
+  private void writeWatermark(final Repository repository, final ORID bucketOrid, final Date since) {
+    final File file = watermarkFile(repository);
+    final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+    final Properties properties = new Properties();
+    properties.setProperty(WATERMARK_BUCKET, bucketOrid.toString());
+    properties.setProperty(WATERMARK_SINCE, Long.toString(since.getTime()));
+    try {
+      try (OutputStream out = new FileOutputStream(temp)) {
+        properties.store(out, null);
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      log.warn("Failed to write metadata rebuild watermark of {} to {}", repository.getName(), file, e);
+    }
+  }
+
   /**
-   * Inner class that encapsulates the work, as metadata builder is stateful.
+   * State of a single rebuild: the producer (calling thread) submits work per GA, and then per group, to a bounded
+   * pool of {@link Worker}s.
    */
-  private static class Worker
-      extends ComponentSupport
+  @VisibleForTesting
+  class Rebuild
   {
-    private final ODatabaseDocumentTx db;
+    private final Repository repository;
 
-    private final String sql;
+    private final boolean update;
 
-    private final Map<String, Object> sqlParams;
+    private final boolean updateGroups;
 
-    private final Repository repository;
+    private final ProgressListener listener;
 
-    private final StorageFacet storageFacet;
+    private final CancelableFlagHolder cancelable;
 
-    private final MavenFacet mavenFacet;
+    private final ThreadPoolExecutor executor;
 
-    private final MavenPathParser mavenPathParser;
+    private final int maxInFlight;
 
-    private final MetadataBuilder metadataBuilder;
+    private final Semaphore inFlight;
 
-    private final MetadataUpdater metadataUpdater;
+    /**
+     * Plugins found per groupId, a key being present for every group seen.
+     */
+    private final ConcurrentMap<String, Queue<Plugin>> groups = new ConcurrentHashMap<>();
+
+    private final AtomicLong artifacts = new AtomicLong();
+
+    private final AtomicLong assets = new AtomicLong();
 
-    private final DocumentBuilderFactory documentBuilderFactory;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
 
-    public Worker(final ODatabaseDocumentTx db,
-                  final Repository repository,
-                  final boolean update,
-                  final String sql,
-                  final Map<String, Object> sqlParams)
+    private final long startNanos = System.nanoTime();
+
+    private long lastReportNanos = startNanos;
+
+    Rebuild(final Repository repository,
+                    final boolean update,
+                    final boolean updateGroups,
+                    @Nullable final ProgressListener listener)
     {
-      this.db = db;
-      this.sql = sql;
-      this.sqlParams = sqlParams;
       this.repository = repository;
-      this.storageFacet = repository.facet(StorageFacet.class);
-      this.mavenFacet = repository.facet(MavenFacet.class);
-      this.mavenPathParser = mavenFacet.getMavenPathParser();
-      this.metadataBuilder = new MetadataBuilder();
-      this.metadataUpdater = new MetadataUpdater(update, repository);
-      this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
+      this.update = update;
+      this.updateGroups = updateGroups;
+      this.listener = listener;
+      this.cancelable = CancelableSupport.getCurrent();
+      this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setNameFormat("maven-metadata-rebuild-" + repository.getName() + "-%d")
+              .setDaemon(true).build());
+      this.maxInFlight = THREADS * 2;
+      this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    private boolean isStopped() {
+      return failure.get() != null || (cancelable != null && cancelable.isCanceled());
     }
 
     /**
-     * Method rebuilding metadata that performs the group level processing. It uses memory conservative "async" SQL
-     * approach, and calls {@link #rebuildMetadataInner(String, String, Set)} method as results are arriving.
+     * Submits all GAs selected by the SQL. Uses memory conservative "async" SQL approach, while the bounded number
+     * of tasks in flight keeps the query from outrunning the workers.
      */
-    public void rebuildMetadata()
-    {
+    private void submitArtifacts(final ODatabaseDocumentTx db, final String sql, final Map<String, Object> sqlParams) {
       db.command(
           new OSQLAsynchQuery<ODocument>(
               sql,
               new OCommandResultListener()
               {
-                String currentGroupId = null;
-
                 @Override
                 public boolean result(Object iRecord) {
                   final ODocument doc = (ODocument) iRecord;
                   final String groupId = doc.field("groupId", OType.STRING);
                   final String artifactId = doc.field("artifactId", OType.STRING);
                   final Set<String> baseVersions = doc.field("baseVersions", OType.EMBEDDEDSET);
-
-                  final boolean groupChange = !Objects.equals(currentGroupId, groupId);
-                  if (groupChange) {
-                    if (currentGroupId != null) {
-                      rebuildMetadataExitGroup(currentGroupId);
-                    }
-                    currentGroupId = groupId;
-                    metadataBuilder.onEnterGroupId(groupId);
-                  }
-                  rebuildMetadataInner(groupId, artifactId, baseVersions);
-                  return true;
+                  return submitArtifact(groupId, artifactId, baseVersions);
                 }
 
                 @Override
                 public void end() {
-                  if (currentGroupId != null) {
-                    rebuildMetadataExitGroup(currentGroupId);
-                  }
+                  // nop
                 }
               }
           )
@@ -238,218 +471,429 @@ public class MetadataRebuilder
     }
 
     /**
-     * Process exits from group level, executed in isolation.
+     * Submits the GAs having any asset updated since given date. Their base versions are queried by the workers.
      */
-    private void rebuildMetadataExitGroup(final String currentGroupId) {
-      try (StorageTx tx = storageFacet.openTx(db)) {
-        metadataUpdater.processMetadata(
-            tx,
-            metadataMavenPath(currentGroupId, null, null),
-            metadataBuilder.onExitGroupId()
-        );
-        tx.commit();
+    private void submitChangedArtifacts(final ODatabaseDocumentTx db, final ORID bucketOrid, final Date since) {
+      final Map<String, Set<String>> changed = Maps.newTreeMap();
+      db.command(
+          new OSQLAsynchQuery<ODocument>(
+              "SELECT " +
+                  "attributes.maven2.groupId as groupId, " +
+                  "attributes.maven2.artifactId as artifactId " +
+                  "FROM asset WHERE bucket=:bucket and component is not null and last_updated > :since",
+              new OCommandResultListener()
+              {
+                @Override
+                public boolean result(Object iRecord) {
+                  final ODocument doc = (ODocument) iRecord;
+                  final String groupId = doc.field("groupId", OType.STRING);
+                  final String artifactId = doc.field("artifactId", OType.STRING);
+                  if (groupId != null && artifactId != null) {
+                    Set<String> artifactIds = changed.get(groupId);
+                    if (artifactIds == null) {
+                      artifactIds = Sets.newTreeSet();
+                      changed.put(groupId, artifactIds);
+                    }
+                    artifactIds.add(artifactId);
+                  }
+                  return true;
+                }
+
+                @Override
+                public void end() {
+                  // nop
+                }
+              }
+          )
+      ).execute(ImmutableMap.<String, Object>of("bucket", bucketOrid, "since", since));
+
+      for (Entry<String, Set<String>> entry : changed.entrySet()) {
+        for (String artifactId : entry.getValue()) {
+          if (!submitArtifact(entry.getKey(), artifactId, null)) {
+            return;
+          }
+        }
       }
     }
 
+    private boolean submitArtifact(final String groupId,
+                                   final String artifactId,
+                                   @Nullable final Set<String> baseVersions)
+    {
+      groups.putIfAbsent(groupId, new ConcurrentLinkedQueue<Plugin>());
+      return submit(new Runnable()
+      {
+        @Override
+        public void run() {
+          final List<Plugin> plugins = newWorker().rebuildArtifact(groupId, artifactId, baseVersions);
+          groups.get(groupId).addAll(plugins);
+          artifacts.incrementAndGet();
+        }
+      });
+    }
+
     /**
-     * Method rebuilding metadata that performs artifact and baseVersion processing. While it is called from {@link
-     * #rebuildMetadata()} method, it will use a separate TX/DB to perform writes, it does NOT
-     * accept the TX from caller. Executed in isolation.
+     * Submits group level processing of all the groups seen.
      */
-    private void rebuildMetadataInner(final String groupId,
-                                      final String artifactId,
-                                      final Set<String> baseVersions)
-    {
-      metadataBuilder.onEnterArtifactId(artifactId);
-      for (String baseVersion : baseVersions) {
-        metadataBuilder.onEnterBaseVersion(baseVersion);
-        try (StorageTx tx = storageFacet.openTx(db)) {
-          final Iterable<Component> components = tx.findComponents(
-              "group = :groupId and name = :artifactId and attributes.maven2.baseVersion = :baseVersion",
-              ImmutableMap.<String, Object>of(
-                  "groupId", groupId,
-                  "artifactId", artifactId,
-                  "baseVersion", baseVersion
-              ),
-              ImmutableList.of(repository),
-              null // order by
-          );
-          for (Component component : components) {
-            for (Asset asset : tx.browseAssets(component)) {
-              final MavenPath mavenPath = mavenPathParser.parsePath(
-                  asset.formatAttributes().require(StorageFacet.P_PATH, String.class)
-              );
-              if (mavenPath.isSubordinate()) {
-                continue;
-              }
-              metadataBuilder.addArtifactVersion(mavenPath);
-              mayUpdateChecksum(tx, asset, mavenPath, HashType.SHA1);
-              mayUpdateChecksum(tx, asset, mavenPath, HashType.MD5);
-              if (mavenPath.isPom()) {
-                final Document pom = getModel(tx, mavenPath);
-                if (pom != null) {
-                  final String packaging = getChildValue(pom, "packaging", "jar");
-                  log.debug("POM packaging: {}", packaging);
-                  if ("maven-plugin".equals(packaging)) {
-                    metadataBuilder.addPlugin(getPluginPrefix(tx, mavenPath.locateMainArtifact("jar")), artifactId,
-                        getChildValue(pom, "name", null));
-                  }
-                }
-              }
-            }
+    private void submitGroups() {
+      for (final Entry<String, Queue<Plugin>> entry : groups.entrySet()) {
+        final boolean submitted = submit(new Runnable()
+        {
+          @Override
+          public void run() {
+            newWorker().rebuildGroup(entry.getKey(), entry.getValue());
           }
-          metadataUpdater.processMetadata(
-              tx,
-              metadataMavenPath(groupId, artifactId, baseVersion),
-              metadataBuilder.onExitBaseVersion()
-          );
-          tx.commit();
+        });
+        if (!submitted) {
+          return;
         }
       }
-      try (StorageTx tx = storageFacet.openTx(db)) {
-        metadataUpdater.processMetadata(
-            tx,
-            metadataMavenPath(groupId, artifactId, null),
-            metadataBuilder.onExitArtifactId()
-        );
-        tx.commit();
-      }
     }
 
     /**
-     * Verifies and may fix/create the broken/non-existent Maven hashes (.sha1/.md5 files).
+     * Submits work to the pool, blocking while the maximum of tasks are in flight. Returns {@code false} if the
+     * rebuild is stopped and no more work should be submitted.
      */
-    private void mayUpdateChecksum(final StorageTx tx, final Asset asset, final MavenPath mavenPath,
-                                   final HashType hashType)
-    {
-      final AttributesMap checksums = asset.attributes().child(StorageFacet.P_CHECKSUM);
-      final String assetChecksum = (String) checksums.get(hashType.getHashAlgorithm().name());
-      if (Strings.isNullOrEmpty(assetChecksum)) {
-        // this means that an asset stored in maven repository lacks checksum required by maven repository (see maven facet)
-        log.warn("Asset with path {} lacks checksum {}", mavenPath, hashType);
-        return;
+    boolean submit(final Runnable work) {
+      if (isStopped()) {
+        return false;
       }
-      final MavenPath checksumPath = mavenPath.hash(hashType);
       try {
-        final Content content = mavenFacet.get(tx, checksumPath);
-        if (content != null) {
-          try (InputStream is = content.openInputStream()) {
-            final String mavenChecksum = DigestExtractor.extract(is);
-            if (Objects.equals(assetChecksum, mavenChecksum)) {
-              return; // all is OK: exists and matches
+        inFlight.acquire();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        fail(e);
+        return false;
+      }
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run() {
+          try {
+            if (!isStopped()) {
+              work.run();
             }
           }
+          catch (Throwable e) {
+            fail(e);
+          }
+          finally {
+            inFlight.release();
+          }
         }
-      }
-      catch (IOException e) {
-        // TODO: ignore that underlying storage puke on read?
-        log.warn("Error reading {}", checksumPath, e);
-      }
-      // we need to generate/write it
+      });
+      maybeReport();
+      return true;
+    }
+
+    /**
+     * Waits for all the work submitted so far to finish, reporting the progress meanwhile.
+     */
+    void awaitSubmitted() {
       try {
-        final StringPayload mavenChecksum = new StringPayload(assetChecksum, Maven2Format.CHECKSUM_CONTENT_TYPE);
-        mavenFacet.put(tx, checksumPath, mavenChecksum);
+        while (!inFlight.tryAcquire(maxInFlight, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+          maybeReport();
+        }
+        inFlight.release(maxInFlight);
       }
-      catch (IOException e) {
-        log.warn("Error writing {}", checksumPath, e);
-        throw Throwables.propagate(e);
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        fail(e);
       }
     }
 
     /**
-     * Assembles {@link MavenPath} for repository metadata out of groupId, artifactId and baseVersion.
+     * Stops the rebuild, unless already stopped, recording the cause as its failure.
      */
-    private MavenPath metadataMavenPath(final String groupId,
-                                        @Nullable final String artifactId,
-                                        @Nullable final String baseVersion)
-    {
-      final StringBuilder sb = new StringBuilder("/");
-      sb.append(groupId.replace('.', '/'));
-      if (artifactId != null) {
-        sb.append("/").append(artifactId);
-        if (baseVersion != null) {
-          sb.append("/").append(baseVersion);
-        }
-      }
-      sb.append("/").append(Maven2Format.METADATA_FILENAME);
-      return mavenPathParser.parsePath(sb.toString());
+    private void fail(final Throwable e) {
+      failure.compareAndSet(null, e);
     }
 
     /**
-     * Reads and parses Maven POM.
+     * Waits for the pool to terminate. Workers are not interrupted, as that would fail them in the middle of
+     * database or blob store operations, while the tasks still queued of a stopped rebuild are skipped.
      */
-    @Nullable
-    private Document getModel(final StorageTx tx, final MavenPath mavenPath) {
-      // sanity checks: is artifact and extension is "pom", only possibility for maven POM currently
-      checkArgument(mavenPath.isPom(), "Not a pom path: %s", mavenPath);
+    private void shutdown() {
+      executor.shutdown();
       try {
-        final Content pomContent = mavenFacet.get(tx, mavenPath);
-        if (pomContent != null) {
-          try (InputStream is = pomContent.openInputStream()) {
-            final DocumentBuilder db = documentBuilderFactory.newDocumentBuilder();
-            return db.parse(is);
-          }
+        while (!executor.awaitTermination(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+          report();
         }
       }
-      catch (SAXException e) {
-        log.debug("Could not parse POM: {}", mavenPath, e);
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        fail(e);
       }
-      catch (Exception e) {
+      report();
+    }
+
+    /**
+     * Propagates the first failure of the workers, or the cancellation of the calling task.
+     */
+    private void checkCompleted() {
+      final Throwable e = failure.get();
+      if (e != null) {
+        log.warn("Metadata rebuild of {} failed after {}", repository.getName(), progress());
         throw Throwables.propagate(e);
       }
-      return null;
+      CancelableSupport.checkCancellation();
+      log.info("Metadata rebuild of {} done: {}", repository.getName(), progress());
+    }
+
+    private Progress progress() {
+      return new Progress(artifacts.get(), assets.get(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private void maybeReport() {
+      if (System.nanoTime() - lastReportNanos >= TimeUnit.SECONDS.toNanos(PROGRESS_INTERVAL_SECONDS)) {
+        report();
+      }
+    }
+
+    private void report() {
+      lastReportNanos = System.nanoTime();
+      final Progress progress = progress();
+      log.debug("Metadata rebuild of {}: {}", repository.getName(), progress);
+      if (listener != null) {
+        listener.onProgress(progress);
+      }
+    }
+
+    private Worker newWorker() {
+      return new Worker();
     }
 
     /**
-     * Returns the plugin prefix of a Maven plugin, by opening up the plugin JAR, and reading the Maven Plugin
-     * Descriptor. If fails, falls back to mangle artifactId (ie. extract XXX from XXX-maven-plugin or
-     * maven-XXX-plugin).
+     * Encapsulates the work of a single GA or group, as metadata builder is stateful. Uses its own database
+     * connection, as those may not be shared across threads.
      */
-    private String getPluginPrefix(final StorageTx tx, final MavenPath mavenPath) {
-      // sanity checks: is artifact and extension is "jar", only possibility for maven plugins currently
-      checkArgument(mavenPath.getCoordinates() != null);
-      checkArgument(Objects.equals(mavenPath.getCoordinates().getExtension(), "jar"));
-      String prefix = null;
-      try {
-        final Content jarFile = mavenFacet.get(tx, mavenPath);
-        if (jarFile != null) {
-          try (ZipInputStream zip = new ZipInputStream(jarFile.openInputStream())) {
-            ZipEntry entry;
-            while ((entry = zip.getNextEntry()) != null) {
-              if (!entry.isDirectory() && entry.getName().equals("META-INF/maven/plugin.xml")) {
-                final DocumentBuilder db = documentBuilderFactory.newDocumentBuilder();
-                final Document document = db.parse(zip);
-                prefix = getChildValue(document, "goalPrefix", null);
-                break;
+    private class Worker
+    {
+      private final StorageFacet storageFacet;
+
+      private final MavenFacet mavenFacet;
+
+      private final MavenPathParser mavenPathParser;
+
+      private final MetadataBuilder metadataBuilder;
+
+      private Worker() {
+        this.storageFacet = repository.facet(StorageFacet.class);
+        this.mavenFacet = repository.facet(MavenFacet.class);
+        this.mavenPathParser = mavenFacet.getMavenPathParser();
+        this.metadataBuilder = new MetadataBuilder();
+      }
+
+      /**
+       * Writes group level metadata out of the plugins found in the group, executed in isolation.
+       */
+      private void rebuildGroup(final String groupId, final Iterable<Plugin> plugins) {
+        metadataBuilder.onEnterGroupId(groupId);
+        for (Plugin plugin : plugins) {
+          metadataBuilder.addPlugin(plugin.getPrefix(), plugin.getArtifactId(), plugin.getName());
+        }
+        try (ODatabaseDocumentTx db = databaseInstanceProvider.get().acquire();
+             StorageTx tx = storageFacet.openTx(db)) {
+          new MetadataUpdater(updateGroups, repository).processMetadata(
+              tx,
+              metadataMavenPath(groupId, null, null),
+              metadataBuilder.onExitGroupId()
+          );
+          tx.commit();
+        }
+      }
+
+      /**
+       * Performs artifact and baseVersion processing of a GA, each baseVersion in a separate TX. If base versions are
+       * not given, they are queried first. Returns the plugins found, to be recorded in the group level metadata.
+       */
+      private List<Plugin> rebuildArtifact(final String groupId,
+                                           final String artifactId,
+                                           @Nullable final Set<String> baseVersions)
+      {
+        final MetadataUpdater metadataUpdater = new MetadataUpdater(update, repository);
+        metadataBuilder.onEnterGroupId(groupId);
+        metadataBuilder.onEnterArtifactId(artifactId);
+        try (ODatabaseDocumentTx db = databaseInstanceProvider.get().acquire()) {
+          for (String baseVersion : baseVersions != null ? baseVersions : queryBaseVersions(db, groupId, artifactId)) {
+            metadataBuilder.onEnterBaseVersion(baseVersion);
+            try (StorageTx tx = storageFacet.openTx(db)) {
+              final Iterable<Component> components = tx.findComponents(
+                  "group = :groupId and name = :artifactId and attributes.maven2.baseVersion = :baseVersion",
+                  ImmutableMap.<String, Object>of(
+                      "groupId", groupId,
+                      "artifactId", artifactId,
+                      "baseVersion", baseVersion
+                  ),
+                  ImmutableList.of(repository),
+                  null // order by
+              );
+              for (Component component : components) {
+                for (Asset asset : tx.browseAssets(component)) {
+                  final MavenPath mavenPath = mavenPathParser.parsePath(
+                      asset.formatAttributes().require(StorageFacet.P_PATH, String.class)
+                  );
+                  if (mavenPath.isSubordinate()) {
+                    continue;
+                  }
+                  assets.incrementAndGet();
+                  metadataBuilder.addArtifactVersion(mavenPath);
+                  checkChecksum(tx, asset, mavenPath, HashType.SHA1);
+                  checkChecksum(tx, asset, mavenPath, HashType.MD5);
+                  if (mavenPath.isPom()) {
+                    final Map<String, String> pom = getModel(tx, mavenPath);
+                    if (pom != null) {
+                      final String packaging = pom.containsKey("packaging") ? pom.get("packaging") : "jar";
+                      log.debug("POM packaging: {}", packaging);
+                      if ("maven-plugin".equals(packaging)) {
+                        metadataBuilder.addPlugin(getPluginPrefix(tx, mavenPath.locateMainArtifact("jar")),
+                            artifactId, pom.get("name"));
+                      }
+                    }
+                  }
+                }
               }
-              zip.closeEntry();
+              metadataUpdater.processMetadata(
+                  tx,
+                  metadataMavenPath(groupId, artifactId, baseVersion),
+                  metadataBuilder.onExitBaseVersion()
+              );
+              tx.commit();
             }
           }
+          try (StorageTx tx = storageFacet.openTx(db)) {
+            metadataUpdater.processMetadata(
+                tx,
+                metadataMavenPath(groupId, artifactId, null),
+                metadataBuilder.onExitArtifactId()
+            );
+            tx.commit();
+          }
         }
+        final Maven2Metadata groupMetadata = metadataBuilder.onExitGroupId();
+        return groupMetadata != null ? groupMetadata.getPlugins() : Collections.<Plugin>emptyList();
       }
-      catch (Exception e) {
-        log.debug("Unable to read plugin.xml of {}", mavenPath, e);
+
+      /**
+       * Queries all the base versions of a GA, none if it has no more components.
+       */
+      private Set<String> queryBaseVersions(final ODatabaseDocumentTx db,
+                                            final String groupId,
+                                            final String artifactId)
+      {
+        final StringBuilder sql = new StringBuilder();
+        final Map<String, Object> sqlParams = Maps.newHashMap();
+        buildSql(sql, sqlParams, groupId, artifactId, null);
+        try (StorageTx tx = storageFacet.openTx(db)) {
+          sqlParams.put("bucket", bucketEntityAdapter.recordIdentity(tx.getBucket()));
+        }
+        final List<ODocument> results = db.command(new OSQLSynchQuery<ODocument>(sql.toString())).execute(sqlParams);
+        if (results.isEmpty()) {
+          return Collections.emptySet();
+        }
+        final Set<String> baseVersions = results.get(0).field("baseVersions", OType.EMBEDDEDSET);
+        return baseVersions != null ? baseVersions : Collections.<String>emptySet();
       }
-      if (prefix != null) {
-        return prefix;
+
+      /**
+       * Verifies the asset has the checksum its Maven hash (.sha1/.md5 file) is served from, and deletes the hash if it
+       * was stored as separate asset, as it is not served anymore.
+       */
+      private void checkChecksum(final StorageTx tx, final Asset asset, final MavenPath mavenPath,
+                                 final HashType hashType)
+      {
+        final AttributesMap checksums = asset.attributes().child(StorageFacet.P_CHECKSUM);
+        final String assetChecksum = (String) checksums.get(hashType.getHashAlgorithm().name());
+        if (Strings.isNullOrEmpty(assetChecksum)) {
+          // this means that an asset stored in maven repository lacks checksum required by maven repository
+          // (see maven facet)
+          log.warn("Asset with path {} lacks checksum {}", mavenPath, hashType);
+          return;
+        }
+        final MavenPath checksumPath = mavenPath.hash(hashType);
+        try {
+          mavenFacet.delete(tx, checksumPath);
+        }
+        catch (IOException e) {
+          log.warn("Error deleting {}", checksumPath, e);
+          throw Throwables.propagate(e);
+        }
       }
-      if ("maven-plugin-plugin".equals(mavenPath.getCoordinates().getArtifactId())) {
-        return "plugin";
+
+      /**
+       * Assembles {@link MavenPath} for repository metadata out of groupId, artifactId and baseVersion.
+       */
+      private MavenPath metadataMavenPath(final String groupId,
+                                          @Nullable final String artifactId,
+                                          @Nullable final String baseVersion)
+      {
+        final StringBuilder sb = new StringBuilder("/");
+        sb.append(groupId.replace('.', '/'));
+        if (artifactId != null) {
+          sb.append("/").append(artifactId);
+          if (baseVersion != null) {
+            sb.append("/").append(baseVersion);
+          }
+        }
+        sb.append("/").append(Maven2Format.METADATA_FILENAME);
+        return mavenPathParser.parsePath(sb.toString());
       }
-      else {
-        return mavenPath.getCoordinates().getArtifactId().replaceAll("-?maven-?", "").replaceAll("-?plugin-?", "");
+
+      /**
+       * Reads the packaging and name out of Maven POM.
+       */
+      @Nullable
+      private Map<String, String> getModel(final StorageTx tx, final MavenPath mavenPath) {
+        // sanity checks: is artifact and extension is "pom", only possibility for maven POM currently
+        checkArgument(mavenPath.isPom(), "Not a pom path: %s", mavenPath);
+        try {
+          final Content pomContent = mavenFacet.get(tx, mavenPath);
+          if (pomContent != null) {
+            try (InputStream is = pomContent.openInputStream()) {
+              return MavenModelExtractor.readRootChildren(is, "packaging", "name");
+            }
+          }
+        }
+        catch (XmlPullParserException e) {
+          log.debug("Could not parse POM: {}", mavenPath, e);
+        }
+        catch (Exception e) {
+          throw Throwables.propagate(e);
+        }
+        return null;
       }
-    }
 
-    /**
-     * Helper method to get node's immediate child or default.
-     */
-    private String getChildValue(final Document doc, final String childName, final String defaultValue) {
-      NodeList nl = doc.getDocumentElement().getElementsByTagName(childName);
-      if (nl.getLength() == 0) {
-        return defaultValue;
+      /**
+       * Returns the plugin prefix of a Maven plugin, by opening up the plugin JAR, and reading the Maven Plugin
+       * Descriptor. If fails, falls back to mangle artifactId (ie. extract XXX from XXX-maven-plugin or
+       * maven-XXX-plugin).
+       */
+      private String getPluginPrefix(final StorageTx tx, final MavenPath mavenPath) {
+        // sanity checks: is artifact and extension is "jar", only possibility for maven plugins currently
+        checkArgument(mavenPath.getCoordinates() != null);
+        checkArgument(Objects.equals(mavenPath.getCoordinates().getExtension(), "jar"));
+        String prefix = null;
+        try {
+          final Content jarFile = mavenFacet.get(tx, mavenPath);
+          if (jarFile != null) {
+            prefix = MavenModelExtractor.readGoalPrefix(jarFile);
+          }
+        }
+        catch (Exception e) {
+          log.debug("Unable to read plugin.xml of {}", mavenPath, e);
+        }
+        if (prefix != null) {
+          return prefix;
+        }
+        if ("maven-plugin-plugin".equals(mavenPath.getCoordinates().getArtifactId())) {
+          return "plugin";
+        }
+        else {
+          return mavenPath.getCoordinates().getArtifactId().replaceAll("-?maven-?", "").replaceAll("-?plugin-?", "");
+        }
       }
-      return nl.item(0).getTextContent();
     }
   }
 }
@@ -17,11 +17,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Nullable;
 
-import org.sonatype.nexus.common.hash.HashAlgorithm;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.maven.MavenFacet;
 import org.sonatype.nexus.repository.maven.MavenPath;
@@ -32,17 +30,14 @@ import org.sonatype.nexus.repository.maven.internal.maven2.Maven2MetadataMerger.
 import org.sonatype.nexus.repository.maven.internal.maven2.metadata.Maven2Metadata.Plugin;
 import org.sonatype.nexus.repository.maven.internal.maven2.metadata.Maven2Metadata.Snapshot;
 import org.sonatype.nexus.repository.storage.StorageTx;
-import org.sonatype.nexus.repository.util.TypeTokens;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.payloads.BytesPayload;
-import org.sonatype.nexus.repository.view.payloads.StringPayload;
 import org.sonatype.sisu.goodies.common.ComponentSupport;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.hash.HashCode;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
 import org.apache.maven.artifact.repository.metadata.Versioning;
@@ -52,7 +47,6 @@ import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 import org.joda.time.DateTime;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Maven 2 repository metadata updater.
@@ -237,26 +231,17 @@ public class MetadataUpdater
   }
 
   /**
-   * Writes passed in metadata as XML.
+   * Writes passed in metadata as XML. Its hashes are served by {@link MavenFacet} from the stored metadata.
    */
   private void write(final StorageTx tx, final MavenPath mavenPath, final Metadata metadata)
       throws IOException
   {
     final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
     metadataWriter.write(byteArrayOutputStream, metadata);
-    final Content mainContent = mavenFacet.put(
+    mavenFacet.put(
         tx,
         mavenPath,
         new BytesPayload(byteArrayOutputStream.toByteArray(), Maven2Format.METADATA_CONTENT_TYPE)
     );
-    final Map<HashAlgorithm, HashCode> hashCodes = mainContent.getAttributes().require(
-        Content.CONTENT_HASH_CODES_MAP, TypeTokens.HASH_CODES_MAP);
-    checkState(hashCodes != null, "hashCodes");
-    for (HashType hashType : HashType.values()) {
-      final MavenPath checksumPath = mavenPath.hash(hashType);
-      final HashCode hashCode = hashCodes.get(hashType.getHashAlgorithm());
-      checkState(hashCode != null, "hashCode: type=%s", hashType);
-      mavenFacet.put(tx, checksumPath, new StringPayload(hashCode.toString(), Maven2Format.CHECKSUM_CONTENT_TYPE));
-    }
   }
 }
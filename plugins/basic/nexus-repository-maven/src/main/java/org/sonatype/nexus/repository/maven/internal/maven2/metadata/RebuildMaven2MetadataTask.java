@@ -0,0 +1,76 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.maven.MavenHostedFacet;
+import org.sonatype.nexus.repository.maven.internal.maven2.metadata.MetadataRebuilder.Progress;
+import org.sonatype.nexus.repository.maven.internal.maven2.metadata.MetadataRebuilder.ProgressListener;
+import org.sonatype.nexus.scheduling.Cancelable;
+import org.sonatype.nexus.scheduling.TaskSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rebuilds the metadata of a Maven2 hosted repository, see {@link MetadataRebuilder}.
+ *
+ * @since 3.0
+ */
+@Named
+public class RebuildMaven2MetadataTask
+    extends TaskSupport
+    implements Cancelable
+{
+  private final RepositoryManager repositoryManager;
+
+  private final MetadataRebuilder metadataRebuilder;
+
+  @Inject
+  public RebuildMaven2MetadataTask(final RepositoryManager repositoryManager,
+                                   final MetadataRebuilder metadataRebuilder)
+  {
+    this.repositoryManager = checkNotNull(repositoryManager);
+    this.metadataRebuilder = checkNotNull(metadataRebuilder);
+  }
+
+  @Override
+  protected Void execute() throws Exception {
+    final String repositoryName = getConfiguration().getRepositoryId();
+    final Repository repository = repositoryManager.get(checkNotNull(repositoryName, "repository"));
+    checkArgument(repository != null, "Repository not found: %s", repositoryName);
+    // only hosted repositories have metadata rebuilt
+    repository.facet(MavenHostedFacet.class);
+
+    final boolean incremental =
+        getConfiguration().getBoolean(RebuildMaven2MetadataTaskDescriptor.INCREMENTAL_FIELD_ID, false);
+    metadataRebuilder.rebuild(repository, false, incremental, null, null, null, new ProgressListener()
+    {
+      @Override
+      public void onProgress(final Progress progress) {
+        log.info("Rebuilding metadata of {}: {}", repositoryName, progress);
+        getConfiguration().setMessage("Rebuilding metadata of " + repositoryName + ": " + progress);
+      }
+    });
+    return null;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Rebuilding metadata of " + getConfiguration().getRepositoryId();
+  }
+}
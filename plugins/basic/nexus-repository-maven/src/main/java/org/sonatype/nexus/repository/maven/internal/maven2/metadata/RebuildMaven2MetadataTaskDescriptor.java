@@ -0,0 +1,56 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.formfields.CheckboxFormField;
+import org.sonatype.nexus.formfields.FormField;
+import org.sonatype.nexus.formfields.RepositoryCombobox;
+import org.sonatype.nexus.repository.maven.internal.maven2.Maven2Format;
+import org.sonatype.nexus.repository.types.HostedType;
+import org.sonatype.nexus.scheduling.TaskConfiguration;
+import org.sonatype.nexus.scheduling.TaskDescriptorSupport;
+
+/**
+ * Task descriptor for {@link RebuildMaven2MetadataTask}.
+ *
+ * @since 3.0
+ */
+@Named
+@Singleton
+public class RebuildMaven2MetadataTaskDescriptor
+    extends TaskDescriptorSupport<RebuildMaven2MetadataTask>
+{
+  public static final String REPOSITORY_FIELD_ID = TaskConfiguration.REPOSITORY_ID_KEY;
+
+  public static final String INCREMENTAL_FIELD_ID = "incremental";
+
+  public RebuildMaven2MetadataTaskDescriptor() {
+    super(RebuildMaven2MetadataTask.class, "Rebuild Maven2 metadata",
+        new RepositoryCombobox(
+            REPOSITORY_FIELD_ID,
+            "Repository",
+            "Select the Maven2 hosted repository to rebuild metadata of",
+            FormField.MANDATORY
+        ).includingAnyOfFormats(Maven2Format.NAME).includingAnyOfTypes(HostedType.NAME),
+        new CheckboxFormField(
+            INCREMENTAL_FIELD_ID,
+            "Incremental",
+            "Only process the artifacts updated since the last complete rebuild",
+            FormField.OPTIONAL
+        )
+    );
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Utility class for random access lookup of a zip entry through the central directory at the end of the zip, instead
+ * of scanning all the entries from the start, as {@link java.util.zip.ZipInputStream} does. Only stored and deflated
+ * entries are supported, and Zip64 archives are not.
+ *
+ * @since 3.0
+ */
+public class ZipCentralDirectory
+{
+  private static final int END_SIGNATURE = 0x06054b50;
+
+  private static final int END_LENGTH = 22;
+
+  private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+  private static final int CENTRAL_LENGTH = 46;
+
+  private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+  private static final int LOCAL_LENGTH = 30;
+
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+  private static final int SHORT_TAIL_LENGTH = END_LENGTH + 256;
+
+  private ZipCentralDirectory() {}
+
+  /**
+   * Opens the named entry of the zip held in the channel, starting at given offset and of given size, or returns
+   * {@code null} if zip has no such entry. The returned stream reads the channel by moving its position, and
+   * closing it closes the channel.
+   *
+   * @throws ZipException if the content is not a zip, or is an unsupported one.
+   */
+  @Nullable
+  public static InputStream openEntry(final FileChannel channel,
+                                      final long offset,
+                                      final long size,
+                                      final String name) throws IOException
+  {
+    checkNotNull(channel);
+    checkArgument(offset >= 0 && size >= 0);
+    checkNotNull(name);
+
+    // end of central directory record, followed by comment of at most 64k, rarely present
+    ByteBuffer tail = read(channel, offset, size, SHORT_TAIL_LENGTH);
+    int end = findEnd(tail);
+    if (end == -1 && tail.capacity() < size) {
+      tail = read(channel, offset, size, END_LENGTH + 0xFFFF);
+      end = findEnd(tail);
+    }
+    if (end == -1) {
+      throw new ZipException("No zip end of central directory record");
+    }
+    final int entries = tail.getShort(end + 10) & 0xFFFF;
+    final long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC;
+    final long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+    if (entries == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+      throw new ZipException("Zip64 not supported");
+    }
+    if (directoryOffset + directorySize > size) {
+      throw new ZipException("Bad zip central directory location");
+    }
+
+    final byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+    final ByteBuffer directory = read(channel, offset + directoryOffset, (int) directorySize);
+    int position = 0;
+    for (int i = 0; i < entries; i++) {
+      if (position + CENTRAL_LENGTH > directorySize || directory.getInt(position) != CENTRAL_SIGNATURE) {
+        throw new ZipException("Bad zip central directory entry");
+      }
+      final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+      final int extraLength = directory.getShort(position + 30) & 0xFFFF;
+      final int commentLength = directory.getShort(position + 32) & 0xFFFF;
+      if (nameLength == nameBytes.length && nameMatches(directory, position + CENTRAL_LENGTH, nameBytes)) {
+        final int method = directory.getShort(position + 10) & 0xFFFF;
+        final long compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+        final long localOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+        return openData(channel, offset, size, method, compressedSize, localOffset);
+      }
+      position += CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+    }
+    return null;
+  }
+
+  /**
+   * Reads at most given length of the end of the zip.
+   */
+  private static ByteBuffer read(final FileChannel channel, final long offset, final long size, final int length)
+      throws IOException
+  {
+    final int tailLength = (int) Math.min(size, length);
+    return read(channel, offset + size - tailLength, tailLength);
+  }
+
+  /**
+   * Returns the position of end of central directory record in the tail, or -1 if not found.
+   */
+  private static int findEnd(final ByteBuffer tail) {
+    for (int i = tail.capacity() - END_LENGTH; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIGNATURE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean nameMatches(final ByteBuffer directory, final int position, final byte[] nameBytes) {
+    for (int i = 0; i < nameBytes.length; i++) {
+      if (directory.get(position + i) != nameBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static InputStream openData(final FileChannel channel,
+                                      final long offset,
+                                      final long size,
+                                      final int method,
+                                      final long compressedSize,
+                                      final long localOffset) throws IOException
+  {
+    if (compressedSize == ZIP64_MAGIC || localOffset == ZIP64_MAGIC) {
+      throw new ZipException("Zip64 not supported");
+    }
+    // local header name and extra lengths may differ from the ones in central directory
+    final ByteBuffer local = read(channel, offset + localOffset, LOCAL_LENGTH);
+    if (local.getInt(0) != LOCAL_SIGNATURE) {
+      throw new ZipException("Bad zip local entry header");
+    }
+    final long dataOffset = localOffset + LOCAL_LENGTH + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+    if (dataOffset + compressedSize > size) {
+      throw new ZipException("Bad zip entry location");
+    }
+    channel.position(offset + dataOffset);
+    final InputStream data = ByteStreams.limit(Channels.newInputStream(channel), compressedSize);
+    if (method == ZipEntry.STORED) {
+      return data;
+    }
+    else if (method == ZipEntry.DEFLATED) {
+      final Inflater inflater = new Inflater(true);
+      // "nowrap" inflater may need an extra dummy byte at the end of input
+      return new InflaterInputStream(new SequenceInputStream(data, new ByteArrayInputStream(new byte[1])), inflater)
+      {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          }
+          finally {
+            inflater.end();
+          }
+        }
+      };
+    }
+    throw new ZipException("Unsupported zip compression method: " + method);
+  }
+
+  private static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new ZipException("Unexpected end of zip");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sonatype.nexus.blobstore.api.BlobRef;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.common.hash.HashAlgorithm;
+import org.sonatype.nexus.mime.MimeSupport;
+import org.sonatype.nexus.repository.Format;
+import org.sonatype.nexus.repository.InvalidContentException;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.maven.MavenPath;
+import org.sonatype.nexus.repository.maven.MavenPath.HashType;
+import org.sonatype.nexus.repository.maven.MavenPathParser;
+import org.sonatype.nexus.repository.maven.internal.maven2.Maven2Format;
+import org.sonatype.nexus.repository.maven.internal.maven2.Maven2MavenPathParser;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.payloads.StringPayload;
+import org.sonatype.sisu.goodies.eventbus.EventBus;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * UT for {@link MavenFacetImpl} serving of hashes.
+ *
+ * @since 3.0
+ */
+public class MavenFacetImplTest
+    extends TestSupport
+{
+  private static final String KEY = "attributes." + Maven2Format.NAME + "." + MavenFacetImpl.P_ASSET_KEY;
+
+  private static final String SHA1 = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+  private static final String MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private StorageFacet storageFacet;
+
+  @Mock
+  private StorageTx tx;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private Asset jarAsset;
+
+  private final MavenPathParser mavenPathParser = new Maven2MavenPathParser();
+
+  private final MavenPath jarPath = mavenPathParser.parsePath("/org/foo/bar/1.0/bar-1.0.jar");
+
+  private final MavenPath sha1Path = jarPath.hash(HashType.SHA1);
+
+  private MavenFacetImpl underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    final ConfigurationFacet configurationFacet = mock(ConfigurationFacet.class);
+    when(configurationFacet.readSection(any(Configuration.class), eq(MavenFacetImpl.CONFIG_KEY),
+        eq(MavenFacetImpl.Config.class))).thenReturn(new MavenFacetImpl.Config());
+    when(repository.getName()).thenReturn("maven-hosted");
+    when(repository.getFormat()).thenReturn(new Maven2Format());
+    when(repository.getConfiguration()).thenReturn(mock(Configuration.class));
+    when(repository.facet(ConfigurationFacet.class)).thenReturn(configurationFacet);
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(storageFacet.openTx()).thenReturn(tx);
+    when(tx.getBucket()).thenReturn(bucket);
+
+    final NestedAttributesMap attributes = new NestedAttributesMap(StorageFacet.P_ATTRIBUTES,
+        new HashMap<String, Object>());
+    attributes.child(StorageFacet.P_CHECKSUM).set(HashAlgorithm.SHA1.name(), SHA1);
+    attributes.child(StorageFacet.P_CHECKSUM).set(HashAlgorithm.MD5.name(), MD5);
+    when(jarAsset.attributes()).thenReturn(attributes);
+    when(jarAsset.formatAttributes()).thenReturn(attributes.child(Maven2Format.NAME));
+    when(tx.findAssetWithProperty(KEY, jarPath.getPath(), bucket)).thenReturn(jarAsset);
+
+    underTest = new MavenFacetImpl(mock(MimeSupport.class),
+        ImmutableMap.of(Maven2Format.NAME, mavenPathParser));
+    underTest.installDependencies(mock(EventBus.class));
+    underTest.attach(repository);
+    underTest.init();
+  }
+
+  @Test
+  public void hashServedFromAssetChecksum() throws Exception {
+    assertThat(read(underTest.get(tx, sha1Path)), equalTo(SHA1));
+    assertThat(read(underTest.get(tx, jarPath.hash(HashType.MD5))), equalTo(MD5));
+    verify(tx, never()).requireBlob(any(BlobRef.class));
+    verify(tx, never()).findAssetWithProperty(KEY, sha1Path.getPath(), bucket);
+  }
+
+  @Test
+  public void hashOfMissingContentIsLookedUpAsIs() throws Exception {
+    final MavenPath pomSha1 = mavenPathParser.parsePath("/org/foo/bar/1.0/bar-1.0.pom.sha1");
+    assertThat(underTest.get(tx, pomSha1), nullValue());
+    verify(tx).findAssetWithProperty(KEY, pomSha1.getPath(), bucket);
+  }
+
+  @Test
+  public void hashOfStoredContentIsNotStored() throws Exception {
+    final Content content = underTest.put(tx, sha1Path, new StringPayload(SHA1 + "  bar-1.0.jar", "text/plain"));
+    assertThat(read(content), equalTo(SHA1));
+    verify(tx, never()).setBlob(any(InputStream.class), any(Map.class), any(Asset.class),
+        any(Iterable.class), anyString());
+    verify(tx, never()).createAsset(any(Bucket.class), any(Format.class));
+  }
+
+  @Test(expected = InvalidContentException.class)
+  public void mismatchingHashIsRejected() throws Exception {
+    underTest.put(tx, sha1Path, new StringPayload("0000000000000000000000000000000000000000", "text/plain"));
+  }
+
+  @Test
+  public void hashIsVerifiedApartFromAsset() throws Exception {
+    final DateTime verified = new DateTime(1430000000000L);
+    underTest.setLastVerified(sha1Path, verified);
+    assertThat(underTest.getLastVerified(sha1Path), equalTo(verified));
+    assertThat(underTest.getLastVerified(jarPath.hash(HashType.MD5)), nullValue());
+    assertThat(underTest.getLastVerified(jarPath), nullValue());
+
+    final DateTime jarVerified = new DateTime(1440000000000L);
+    underTest.setLastVerified(jarPath, jarVerified);
+    assertThat(underTest.getLastVerified(jarPath), equalTo(jarVerified));
+    assertThat(underTest.getLastVerified(sha1Path), equalTo(verified));
+  }
+
+  private String read(final Content content) throws Exception {
+    try (InputStream is = content.openInputStream()) {
+      return new String(ByteStreams.toByteArray(is), Charsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2;
+
+import java.util.Arrays;
+
+import org.sonatype.nexus.repository.maven.internal.maven2.Maven2MetadataMerger.MetadataEnvelope;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Plugin;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * UT for {@link IncrementalMetadataMerge}
+ *
+ * @since 3.0
+ */
+public class IncrementalMetadataMergeTest
+    extends TestSupport
+{
+  private final Maven2MetadataMerger merger = new Maven2MetadataMerger();
+
+  private final IncrementalMetadataMerge underTest =
+      new IncrementalMetadataMerge(merger, ImmutableList.of("one", "two", "three"));
+
+  private Metadata a(final String lastUpdated, final String... versions) {
+    final Metadata m = new Metadata();
+    m.setGroupId("org.foo");
+    m.setArtifactId("some-project");
+    m.setVersioning(new Versioning());
+    m.getVersioning().setLastUpdated(lastUpdated);
+    m.getVersioning().getVersions().addAll(Arrays.asList(versions));
+    return m;
+  }
+
+  @Test
+  public void sameAsFullMerge() throws Exception {
+    final Metadata m1 = a("20150324121500", "1.0.0", "1.0.1");
+    final Metadata m2 = a("20150324121700", "1.0.2", "1.0.10");
+    final Metadata m3 = a("20150324121600", "1.1.0-SNAPSHOT", "1.0.1");
+
+    // updates arriving in any order, merged in member order
+    underTest.update("three", "3", m3);
+    underTest.update("one", "1", m1);
+    underTest.update("two", "2", m2);
+
+    final Metadata m = underTest.toMetadata();
+    final Metadata full = merger.merge(ImmutableList.of(
+        new MetadataEnvelope("one", m1), new MetadataEnvelope("two", m2), new MetadataEnvelope("three", m3)));
+    assertThat(m, notNullValue());
+    assertThat(m.getVersioning().getVersions(), equalTo(full.getVersioning().getVersions()));
+    assertThat(m.getVersioning().getVersions(), contains("1.0.0", "1.0.1", "1.0.2", "1.0.10", "1.1.0-SNAPSHOT"));
+    assertThat(m.getVersioning().getLatest(), equalTo(full.getVersioning().getLatest()));
+    assertThat(m.getVersioning().getRelease(), equalTo(full.getVersioning().getRelease()));
+    assertThat(m.getVersioning().getRelease(), equalTo("1.0.10"));
+    assertThat(m.getVersioning().getLastUpdated(), equalTo(full.getVersioning().getLastUpdated()));
+    assertThat(m.getModelVersion(), equalTo(full.getModelVersion()));
+
+    // inputs are not mutated
+    assertThat(m1.getVersioning().getVersions(), contains("1.0.0", "1.0.1"));
+  }
+
+  @Test
+  public void appliesMemberDelta() throws Exception {
+    underTest.update("one", "1", a("20150324121500", "1.0.0", "1.0.1"));
+    underTest.update("two", "2", a("20150324121700", "1.0.1", "1.0.2"));
+    assertThat(underTest.getVersionCount(), equalTo(4));
+
+    // two drops 1.0.1 and 1.0.2 and adds 1.0.3: 1.0.1 is still present in one
+    underTest.update("two", "2'", a("20150324121800", "1.0.3"));
+    Metadata m = underTest.toMetadata();
+    assertThat(m.getVersioning().getVersions(), contains("1.0.0", "1.0.1", "1.0.3"));
+    assertThat(m.getVersioning().getLatest(), equalTo("1.0.3"));
+    assertThat(m.getVersioning().getLastUpdated(), equalTo("20150324121800"));
+    assertThat(underTest.getKey("two"), equalTo("2'"));
+
+    // one has no usable metadata anymore
+    underTest.update("one", "1'", null);
+    m = underTest.toMetadata();
+    assertThat(m.getVersioning().getVersions(), contains("1.0.3"));
+    assertThat(underTest.getVersionCount(), equalTo(1));
+  }
+
+  @Test
+  public void estimatedSizeFollowsVersions() throws Exception {
+    final long empty = underTest.getEstimatedSize();
+    underTest.update("one", "1", a("20150324121500", "1.0.0", "1.0.1"));
+    final long one = underTest.getEstimatedSize();
+    assertThat(one, greaterThan(empty));
+
+    // versions two shares with one are parsed and ordered once
+    underTest.update("two", "2", a("20150324121700", "1.0.0", "1.0.1"));
+    final long shared = underTest.getEstimatedSize();
+    assertThat(shared - one, lessThan(one - empty));
+
+    underTest.update("two", "2'", a("20150324121800", "1.0.2", "1.0.3"));
+    assertThat(underTest.getEstimatedSize(), greaterThan(shared));
+
+    underTest.update("one", "1'", null);
+    underTest.update("two", "2''", null);
+    assertThat(underTest.getEstimatedSize(), equalTo(empty));
+  }
+
+  @Test
+  public void nothingToMerge() throws Exception {
+    assertThat(underTest.toMetadata(), nullValue());
+    underTest.update("one", "1", null);
+    assertThat(underTest.toMetadata(), nullValue());
+    assertThat(underTest.getKey("one"), equalTo("1"));
+    assertThat(underTest.getKey("two"), nullValue());
+  }
+
+  @Test
+  public void mismatchingMemberLeftOut() throws Exception {
+    underTest.update("one", "1", a("20150324121500", "1.0.0"));
+    final Metadata other = a("20150324121700", "2.0.0");
+    other.setArtifactId("other-project");
+    underTest.update("two", "2", other);
+
+    final Metadata m = underTest.toMetadata();
+    assertThat(m.getArtifactId(), equalTo("some-project"));
+    assertThat(m.getVersioning().getVersions(), contains("1.0.0"));
+  }
+
+  @Test
+  public void groupLevelMd() throws Exception {
+    final Metadata m1 = new Metadata();
+    final Plugin plugin = new Plugin();
+    plugin.setPrefix("foo");
+    plugin.setArtifactId("foo-maven-plugin");
+    m1.addPlugin(plugin);
+    underTest.update("one", "1", m1);
+    underTest.update("two", "2", new Metadata());
+
+    final Metadata m = underTest.toMetadata();
+    assertThat(m.getPlugins(), hasSize(1));
+    assertThat(m.getVersioning(), nullValue());
+  }
+}
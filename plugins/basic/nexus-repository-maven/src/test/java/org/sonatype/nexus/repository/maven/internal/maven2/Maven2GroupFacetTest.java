@@ -0,0 +1,206 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.config.Configuration;
+import org.sonatype.nexus.repository.config.ConfigurationFacet;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.maven.MavenFacet;
+import org.sonatype.nexus.repository.maven.MavenPath;
+import org.sonatype.nexus.repository.maven.MavenPathParser;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.AssetUpdatedEvent;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.payloads.StringPayload;
+import org.sonatype.sisu.goodies.eventbus.EventBus;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * UT for {@link Maven2GroupFacet} caching of merged metadata.
+ *
+ * @since 3.0
+ */
+public class Maven2GroupFacetTest
+    extends TestSupport
+{
+  private final MavenPathParser mavenPathParser = new Maven2MavenPathParser();
+
+  private final MavenPath metadataPath = mavenPathParser.parsePath("/org/foo/bar/maven-metadata.xml");
+
+  @Mock
+  private Repository repository;
+
+  @Mock
+  private Repository one;
+
+  @Mock
+  private Repository two;
+
+  @Mock
+  private MavenFacet mavenFacet;
+
+  private Maven2GroupFacet underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("maven-group");
+    when(repository.getFormat()).thenReturn(new Maven2Format());
+    when(repository.getConfiguration()).thenReturn(mock(Configuration.class));
+    when(repository.facet(ConfigurationFacet.class)).thenReturn(mock(ConfigurationFacet.class));
+    when(repository.facet(MavenFacet.class)).thenReturn(mavenFacet);
+    when(mavenFacet.getMavenPathParser()).thenReturn(mavenPathParser);
+    when(one.getName()).thenReturn("one");
+    when(two.getName()).thenReturn("two");
+
+    underTest = new Maven2GroupFacet(mock(RepositoryManager.class))
+    {
+      @Override
+      public boolean member(final Repository repository) {
+        return true;
+      }
+    };
+    underTest.installDependencies(mock(EventBus.class));
+    underTest.attach(repository);
+    underTest.init();
+  }
+
+  @Test
+  public void mergedMetadataIsServedFromMemory() throws Exception {
+    underTest.start();
+
+    final Content merged = merge(underTest.getGeneration());
+
+    assertThat(read(merged), containsString("<version>1.0</version>"));
+    assertThat(read(merged), containsString("<version>2.0</version>"));
+    assertThat(read(underTest.getCachedMergedMetadata(metadataPath)), containsString("<version>2.0</version>"));
+    verify(mavenFacet, never()).get(metadataPath);
+    verify(mavenFacet, never()).put(any(MavenPath.class), any(Payload.class));
+  }
+
+  @Test
+  public void memberChangeMakesMergedMetadataStale() throws Exception {
+    underTest.start();
+    merge(underTest.getGeneration());
+
+    memberChanged();
+
+    assertThat(underTest.getCachedMergedMetadata(metadataPath), nullValue());
+  }
+
+  @Test
+  public void mergeRacingWithMemberChangeIsNotFresh() throws Exception {
+    underTest.start();
+    final long beforeReading = underTest.getGeneration();
+    memberChanged();
+
+    assertThat(merge(beforeReading), notNullValue());
+    assertThat(underTest.getCachedMergedMetadata(metadataPath), nullValue());
+
+    // same member metadata read again after the change
+    merge(underTest.getGeneration());
+    assertThat(underTest.getCachedMergedMetadata(metadataPath), notNullValue());
+  }
+
+  @Test
+  public void evictedMetadataIsWrittenInBackground() throws Exception {
+    underTest.cacheSize = 1;
+    underTest.start();
+    final AtomicReference<Thread> writer = new AtomicReference<>();
+    when(mavenFacet.put(eq(metadataPath), any(Payload.class))).thenAnswer(new Answer<Content>()
+    {
+      @Override
+      public Content answer(final InvocationOnMock invocation) {
+        writer.set(Thread.currentThread());
+        return null;
+      }
+    });
+
+    merge(underTest.getGeneration());
+
+    verify(mavenFacet, timeout(5000)).put(eq(metadataPath), any(Payload.class));
+    assertThat(writer.get(), not(sameInstance(Thread.currentThread())));
+  }
+
+  @Test
+  public void unwrittenMetadataIsDroppedOnStop() throws Exception {
+    underTest.start();
+    merge(underTest.getGeneration());
+
+    underTest.stop();
+
+    verify(mavenFacet, never()).put(any(MavenPath.class), any(Payload.class));
+  }
+
+  private Content merge(final long generation) throws Exception {
+    final LinkedHashMap<Repository, Response> responses = new LinkedHashMap<>();
+    responses.put(one, metadata("1.0", "one-1"));
+    responses.put(two, metadata("2.0", "two-1"));
+    return underTest.mergeAndCacheMetadata(metadataPath, responses, generation);
+  }
+
+  private Response metadata(final String version, final String etag) {
+    final Content content = new Content(new StringPayload(
+        "<metadata><groupId>org.foo</groupId><artifactId>bar</artifactId><versioning><versions><version>" +
+            version + "</version></versions></versioning></metadata>", Maven2Format.METADATA_CONTENT_TYPE));
+    content.getAttributes().set(Content.CONTENT_ETAG, etag);
+    return HttpResponses.ok(content);
+  }
+
+  private void memberChanged() {
+    final NestedAttributesMap attributes = new NestedAttributesMap(StorageFacet.P_ATTRIBUTES,
+        new HashMap<String, Object>());
+    attributes.child(Maven2Format.NAME).set(StorageFacet.P_PATH, metadataPath.getPath());
+    final Asset asset = mock(Asset.class);
+    when(asset.formatAttributes()).thenReturn(attributes.child(Maven2Format.NAME));
+    underTest.onAssetEvent(new AssetUpdatedEvent(asset, one));
+  }
+
+  private String read(final Content content) throws Exception {
+    try (InputStream in = content.openInputStream()) {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    }
+  }
+}
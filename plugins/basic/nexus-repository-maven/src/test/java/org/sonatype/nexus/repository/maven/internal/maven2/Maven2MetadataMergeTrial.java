@@ -0,0 +1,114 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2;
+
+import java.util.List;
+
+import org.sonatype.nexus.repository.maven.internal.maven2.Maven2MetadataMerger.MetadataEnvelope;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.collect.Lists;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Trials of merging artifact level metadata of 5k versions spread across 10 members, after one member changed: full
+ * merge of all members versus applying the delta of the changed member with {@link IncrementalMetadataMerge}.
+ */
+public class Maven2MetadataMergeTrial
+    extends TestSupport
+{
+  private static final int MEMBERS = 10;
+
+  private static final int VERSIONS = 5000;
+
+  private static final int ROUNDS = 50;
+
+  private final Maven2MetadataMerger merger = new Maven2MetadataMerger();
+
+  private final List<String> origins = Lists.newArrayList();
+
+  private final List<Metadata> members = Lists.newArrayList();
+
+  @Before
+  public void setUp() {
+    for (int i = 0; i < MEMBERS; i++) {
+      origins.add("member-" + i);
+      members.add(metadata(i, VERSIONS / MEMBERS));
+    }
+  }
+
+  /**
+   * Member versions are interleaved, "1.{n}.0" going to member n % 10, with a snapshot of its own per member.
+   */
+  private Metadata metadata(final int member, final int count) {
+    final Metadata m = new Metadata();
+    m.setGroupId("org.foo");
+    m.setArtifactId("some-project");
+    m.setVersioning(new Versioning());
+    m.getVersioning().setLastUpdated("20150324121500");
+    for (int i = 0; i < count; i++) {
+      m.getVersioning().addVersion("1." + (i * MEMBERS + member) + ".0");
+    }
+    m.getVersioning().addVersion("2." + member + ".0-SNAPSHOT");
+    return m;
+  }
+
+  /**
+   * Returns the member metadata with a version deployed.
+   */
+  private Metadata deployed(final int member, final int round) {
+    final Metadata m = members.get(member).clone();
+    m.getVersioning().addVersion("3." + round + ".0");
+    m.getVersioning().setLastUpdated("20150324" + (121500 + round));
+    return m;
+  }
+
+  @Test
+  public void fullMerge() throws Exception {
+    long start = System.nanoTime();
+    for (int round = 0; round < ROUNDS; round++) {
+      final List<MetadataEnvelope> envelopes = Lists.newArrayList();
+      for (int i = 0; i < MEMBERS; i++) {
+        envelopes.add(new MetadataEnvelope(origins.get(i), i == round % MEMBERS ? deployed(i, round) : members.get(i)));
+      }
+      merger.merge(envelopes);
+    }
+    report("full merge", start);
+  }
+
+  @Test
+  public void incrementalMerge() throws Exception {
+    final IncrementalMetadataMerge merge = new IncrementalMetadataMerge(merger, origins);
+    for (int i = 0; i < MEMBERS; i++) {
+      merge.update(origins.get(i), "0", members.get(i));
+    }
+    merge.toMetadata();
+
+    long start = System.nanoTime();
+    for (int round = 0; round < ROUNDS; round++) {
+      final int member = round % MEMBERS;
+      merge.update(origins.get(member), Integer.toString(round), deployed(member, round));
+      merge.toMetadata();
+    }
+    report("incremental merge", start);
+  }
+
+  private void report(final String name, final long startNanos) {
+    long millis = (System.nanoTime() - startNanos) / 1_000_000L;
+    log("{}: {} merges of {} versions across {} members in {} ms ({} ms/merge)", name, ROUNDS, VERSIONS, MEMBERS,
+        millis, millis / (double) ROUNDS);
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.sonatype.nexus.repository.view.FileChannelPayload;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * UT for {@link MavenModelExtractor} and {@link ZipCentralDirectory}.
+ *
+ * @since 3.0
+ */
+public class MavenModelExtractorTest
+    extends TestSupport
+{
+  private static final String POM = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+      "  <parent><artifactId>parent</artifactId><packaging>pom</packaging></parent>\n" +
+      "  <artifactId>foo-maven-plugin</artifactId>\n" +
+      "  <packaging>maven-plugin</packaging>\n" +
+      "  <name> Foo Plugin </name>\n" +
+      "  <organization><name>Org</name></organization>\n" +
+      "</project>\n";
+
+  private static final String PLUGIN_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<plugin>\n" +
+      "  <name>Foo Plugin</name>\n" +
+      "  <goalPrefix>foo</goalPrefix>\n" +
+      "  <mojos><mojo><goal>run</goal></mojo></mojos>\n" +
+      "</plugin>\n";
+
+  @Test
+  public void readsRootChildrenOnly() throws Exception {
+    final Map<String, String> values = MavenModelExtractor.readRootChildren(stream(POM), "packaging", "name");
+    assertThat(values.get("packaging"), equalTo("maven-plugin"));
+    assertThat(values.get("name"), equalTo("Foo Plugin"));
+  }
+
+  @Test
+  public void missingChildrenAreAbsent() throws Exception {
+    final Map<String, String> values = MavenModelExtractor.readRootChildren(
+        stream("<project><artifactId>foo</artifactId></project>"), "packaging", "name");
+    assertThat(values, not(hasKey("packaging")));
+    assertThat(values, not(hasKey("name")));
+  }
+
+  @Test
+  public void goalPrefixFromFileJar() throws Exception {
+    for (int method : new int[]{ZipEntry.DEFLATED, ZipEntry.STORED}) {
+      final byte[] jar = jar(method, PLUGIN_XML);
+      assertThat(MavenModelExtractor.readGoalPrefix(filePayload(jar, 0)), equalTo("foo"));
+      // content at an offset of the file, as blobs may be
+      assertThat(MavenModelExtractor.readGoalPrefix(filePayload(jar, 100)), equalTo("foo"));
+    }
+  }
+
+  @Test
+  public void goalPrefixFromFileJarWithLongComment() throws Exception {
+    final byte[] jar = jar(ZipEntry.DEFLATED, PLUGIN_XML, Strings.repeat("comment ", 1000));
+    assertThat(MavenModelExtractor.readGoalPrefix(filePayload(jar, 0)), equalTo("foo"));
+  }
+
+  @Test
+  public void goalPrefixFromStreamedJar() throws Exception {
+    final byte[] jar = jar(ZipEntry.DEFLATED, PLUGIN_XML);
+    assertThat(MavenModelExtractor.readGoalPrefix(new BytesPayload(jar, "application/java-archive")),
+        equalTo("foo"));
+  }
+
+  @Test
+  public void noPluginDescriptor() throws Exception {
+    final byte[] jar = jar(ZipEntry.DEFLATED, null);
+    assertThat(MavenModelExtractor.readGoalPrefix(filePayload(jar, 0)), nullValue());
+    assertThat(MavenModelExtractor.readGoalPrefix(new BytesPayload(jar, null)), nullValue());
+  }
+
+  @Test
+  public void notZipFallsBackToScan() throws Exception {
+    final byte[] notZip = "not a zip".getBytes(Charsets.UTF_8);
+    assertThat(MavenModelExtractor.readGoalPrefix(filePayload(notZip, 0)), nullValue());
+  }
+
+  private InputStream stream(final String xml) {
+    return new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8));
+  }
+
+  private byte[] jar(final int method, final String pluginXml) throws IOException {
+    return jar(method, pluginXml, "trailing comment");
+  }
+
+  private byte[] jar(final int method, final String pluginXml, final String comment) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+      putEntry(zip, method, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n");
+      putEntry(zip, method, "org/foo/FooMojo.class", "not really a class");
+      if (pluginXml != null) {
+        putEntry(zip, method, MavenModelExtractor.PLUGIN_DESCRIPTOR, pluginXml);
+      }
+      zip.setComment(comment);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void putEntry(final ZipOutputStream zip, final int method, final String name, final String content)
+      throws IOException
+  {
+    final byte[] data = content.getBytes(Charsets.UTF_8);
+    final ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      final CRC32 crc = new CRC32();
+      crc.update(data);
+      entry.setSize(data.length);
+      entry.setCrc(crc.getValue());
+    }
+    zip.putNextEntry(entry);
+    zip.write(data);
+    zip.closeEntry();
+  }
+
+  /**
+   * Writes the content to a file, after given count of unrelated bytes.
+   */
+  private Payload filePayload(final byte[] content, final int offset) throws IOException {
+    final File file = util.createTempFile();
+    final byte[] bytes = new byte[offset + content.length];
+    System.arraycopy(content, 0, bytes, offset, content.length);
+    Files.write(file.toPath(), bytes);
+    return new FileChannelPayload()
+    {
+      @Override
+      public FileChannel openFileChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      }
+
+      @Override
+      public long getFileChannelOffset() {
+        return offset;
+      }
+
+      @Override
+      public InputStream openInputStream() throws IOException {
+        final InputStream in = new FileInputStream(file);
+        ByteStreams.skipFully(in, offset);
+        return in;
+      }
+
+      @Override
+      public long getSize() {
+        return content.length;
+      }
+
+      @Override
+      public String getContentType() {
+        return null;
+      }
+    };
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.sonatype.nexus.repository.view.FileChannelPayload;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.google.common.base.Charsets;
+import com.sun.management.ThreadMXBean;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Trials of the throughput and allocation of reading packaging, name and goal prefix of a Maven plugin, as done
+ * by metadata rebuild: DOM parsing of POM and plugin descriptor found by scanning the JAR sequentially, versus
+ * {@link MavenModelExtractor} pull parsing with the descriptor located through the zip central directory.
+ */
+public class MavenModelExtractorTrial
+    extends TestSupport
+{
+  private static final int CLASSES = 500;
+
+  private static final int DEPENDENCIES = 100;
+
+  private static final int MOJOS = 50;
+
+  private static final int ROUNDS = 500;
+
+  private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+
+  private byte[] pom;
+
+  private File jar;
+
+  @Before
+  public void setUp() throws Exception {
+    final StringBuilder pomXml = new StringBuilder("<project>\n  <modelVersion>4.0.0</modelVersion>\n")
+        .append("  <artifactId>foo-maven-plugin</artifactId>\n  <packaging>maven-plugin</packaging>\n")
+        .append("  <name>Foo Plugin</name>\n  <dependencies>\n");
+    for (int i = 0; i < DEPENDENCIES; i++) {
+      pomXml.append("    <dependency><groupId>org.foo</groupId><artifactId>dep-").append(i)
+          .append("</artifactId><version>1.0</version></dependency>\n");
+    }
+    pom = pomXml.append("  </dependencies>\n</project>\n").toString().getBytes(Charsets.UTF_8);
+
+    final StringBuilder pluginXml = new StringBuilder("<plugin>\n  <name>Foo Plugin</name>\n")
+        .append("  <goalPrefix>foo</goalPrefix>\n  <mojos>\n");
+    for (int i = 0; i < MOJOS; i++) {
+      pluginXml.append("    <mojo><goal>goal-").append(i).append("</goal><description>Goal ").append(i)
+          .append(" of the plugin</description></mojo>\n");
+    }
+    pluginXml.append("  </mojos>\n</plugin>\n");
+
+    // descriptor is placed after the classes, as maven-plugin-plugin generates it late in the build
+    final Random random = new Random(0);
+    final byte[] clazz = new byte[4096];
+    jar = util.createTempFile();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (int i = 0; i < CLASSES; i++) {
+        random.nextBytes(clazz);
+        zip.putNextEntry(new ZipEntry("org/foo/Class" + i + ".class"));
+        zip.write(clazz);
+        zip.closeEntry();
+      }
+      zip.putNextEntry(new ZipEntry(MavenModelExtractor.PLUGIN_DESCRIPTOR));
+      zip.write(pluginXml.toString().getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    }
+  }
+
+  @Test
+  public void domAndSequentialScan() throws Exception {
+    final long[] start = start();
+    for (int round = 0; round < ROUNDS; round++) {
+      final Document model = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(pom));
+      check(getChildValue(model, "packaging"), "maven-plugin");
+      check(getChildValue(model, "name"), "Foo Plugin");
+      try (ZipInputStream zip = new ZipInputStream(new FileInputStream(jar))) {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+          if (entry.getName().equals(MavenModelExtractor.PLUGIN_DESCRIPTOR)) {
+            check(getChildValue(documentBuilderFactory.newDocumentBuilder().parse(zip), "goalPrefix"), "foo");
+            break;
+          }
+          zip.closeEntry();
+        }
+      }
+    }
+    report("DOM and sequential scan", start);
+  }
+
+  @Test
+  public void pullParserAndCentralDirectory() throws Exception {
+    final FileChannelPayload payload = filePayload();
+    final long[] start = start();
+    for (int round = 0; round < ROUNDS; round++) {
+      final Map<String, String> model =
+          MavenModelExtractor.readRootChildren(new ByteArrayInputStream(pom), "packaging", "name");
+      check(model.get("packaging"), "maven-plugin");
+      check(model.get("name"), "Foo Plugin");
+      check(MavenModelExtractor.readGoalPrefix(payload), "foo");
+    }
+    report("pull parser and central directory", start);
+  }
+
+  private String getChildValue(final Document doc, final String childName) {
+    NodeList nl = doc.getDocumentElement().getElementsByTagName(childName);
+    return nl.getLength() == 0 ? null : nl.item(0).getTextContent();
+  }
+
+  private void check(final String actual, final String expected) {
+    if (!expected.equals(actual)) {
+      throw new AssertionError("Expected " + expected + " but was " + actual);
+    }
+  }
+
+  private FileChannelPayload filePayload() {
+    return new FileChannelPayload()
+    {
+      @Override
+      public FileChannel openFileChannel() throws IOException {
+        return FileChannel.open(jar.toPath(), StandardOpenOption.READ);
+      }
+
+      @Override
+      public long getFileChannelOffset() {
+        return 0;
+      }
+
+      @Override
+      public InputStream openInputStream() throws IOException {
+        return new FileInputStream(jar);
+      }
+
+      @Override
+      public long getSize() {
+        return jar.length();
+      }
+
+      @Override
+      public String getContentType() {
+        return null;
+      }
+    };
+  }
+
+  private long[] start() {
+    final long id = Thread.currentThread().getId();
+    return new long[]{System.nanoTime(), threads.getThreadAllocatedBytes(id)};
+  }
+
+  private void report(final String name, final long[] start) {
+    final long nanos = System.nanoTime() - start[0];
+    final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start[1];
+    log("{}: {} ops/s, {} KB allocated/op", name, (long) (ROUNDS / (nanos / 1e9)), allocated / ROUNDS / 1024);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2008-2015 Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Provider;
+
+import org.sonatype.nexus.common.app.ApplicationDirectories;
+import org.sonatype.nexus.orient.DatabaseInstance;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.maven.internal.maven2.metadata.MetadataRebuilder.Rebuild;
+import org.sonatype.nexus.repository.storage.BucketEntityAdapter;
+import org.sonatype.sisu.litmus.testsupport.TestSupport;
+
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * UT for {@link MetadataRebuilder} watermark and failure handling.
+ */
+public class MetadataRebuilderTest
+    extends TestSupport
+{
+  private static final Runnable NO_ARTIFACTS = new Runnable()
+  {
+    @Override
+    public void run() {
+      // nop
+    }
+  };
+
+  @Mock
+  private Provider<DatabaseInstance> databaseInstanceProvider;
+
+  @Mock
+  private BucketEntityAdapter bucketEntityAdapter;
+
+  @Mock
+  private ApplicationDirectories applicationDirectories;
+
+  @Mock
+  private Repository repository;
+
+  private final ORID bucketOrid = new ORecordId(10, 1L);
+
+  private MetadataRebuilder underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(repository.getName()).thenReturn("maven-releases");
+    when(applicationDirectories.getWorkDirectory("maven-metadata")).thenReturn(util.createTempDir("maven-metadata"));
+    underTest = new MetadataRebuilder(databaseInstanceProvider, bucketEntityAdapter, applicationDirectories);
+  }
+
+  private Rebuild newRebuild() {
+    return underTest.new Rebuild(repository, false, false, null);
+  }
+
+  @Test
+  public void completeRebuildAdvancesWatermark() {
+    assertThat(underTest.readWatermark(repository, bucketOrid), is(nullValue()));
+
+    underTest.execute(newRebuild(), NO_ARTIFACTS, bucketOrid, new Date(1000L), true);
+    assertThat(underTest.readWatermark(repository, bucketOrid), is(new Date(1000L)));
+
+    underTest.execute(newRebuild(), NO_ARTIFACTS, bucketOrid, new Date(2000L), true);
+    assertThat(underTest.readWatermark(repository, bucketOrid), is(new Date(2000L)));
+  }
+
+  @Test
+  public void scopedRebuildKeepsWatermark() {
+    underTest.execute(newRebuild(), NO_ARTIFACTS, bucketOrid, new Date(1000L), true);
+    underTest.execute(newRebuild(), NO_ARTIFACTS, bucketOrid, new Date(2000L), false);
+    assertThat(underTest.readWatermark(repository, bucketOrid), is(new Date(1000L)));
+  }
+
+  @Test
+  public void watermarkOfAnotherBucketIsIgnored() {
+    underTest.execute(newRebuild(), NO_ARTIFACTS, bucketOrid, new Date(1000L), true);
+    assertThat(underTest.readWatermark(repository, new ORecordId(10, 2L)), is(nullValue()));
+  }
+
+  @Test
+  public void failingWorkerStopsRebuildAndKeepsWatermark() {
+    underTest.execute(newRebuild(), NO_ARTIFACTS, bucketOrid, new Date(1000L), true);
+
+    final IllegalStateException failure = new IllegalStateException("broken POM");
+    final AtomicBoolean submittedAfterFailure = new AtomicBoolean();
+    final AtomicBoolean ranAfterFailure = new AtomicBoolean();
+    final Rebuild rebuild = newRebuild();
+    try {
+      underTest.execute(rebuild, new Runnable()
+      {
+        @Override
+        public void run() {
+          rebuild.submit(new Runnable()
+          {
+            @Override
+            public void run() {
+              throw failure;
+            }
+          });
+          rebuild.awaitSubmitted();
+          submittedAfterFailure.set(rebuild.submit(new Runnable()
+          {
+            @Override
+            public void run() {
+              ranAfterFailure.set(true);
+            }
+          }));
+        }
+      }, bucketOrid, new Date(2000L), true);
+      fail();
+    }
+    catch (IllegalStateException e) {
+      assertThat(e, is(sameInstance(failure)));
+    }
+
+    assertThat(submittedAfterFailure.get(), is(false));
+    assertThat(ranAfterFailure.get(), is(false));
+    assertThat(underTest.readWatermark(repository, bucketOrid), is(new Date(1000L)));
+  }
+
+  @Test
+  public void failingQueryLetsRunningWorkFinishAndKeepsWatermark() {
+    underTest.execute(newRebuild(), NO_ARTIFACTS, bucketOrid, new Date(1000L), true);
+
+    final IllegalStateException failure = new IllegalStateException("query failed");
+    final CountDownLatch running = new CountDownLatch(1);
+    final AtomicBoolean finished = new AtomicBoolean();
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final Rebuild rebuild = newRebuild();
+    try {
+      underTest.execute(rebuild, new Runnable()
+      {
+        @Override
+        public void run() {
+          rebuild.submit(new Runnable()
+          {
+            @Override
+            public void run() {
+              running.countDown();
+              try {
+                Thread.sleep(200L);
+              }
+              catch (InterruptedException e) {
+                interrupted.set(true);
+              }
+              finished.set(true);
+            }
+          });
+          try {
+            running.await();
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          throw failure;
+        }
+      }, bucketOrid, new Date(2000L), true);
+      fail();
+    }
+    catch (IllegalStateException e) {
+      assertThat(e, is(sameInstance(failure)));
+    }
+
+    assertThat(finished.get(), is(true));
+    assertThat(interrupted.get(), is(false));
+    assertThat(underTest.readWatermark(repository, bucketOrid), is(new Date(1000L)));
+  }
+}
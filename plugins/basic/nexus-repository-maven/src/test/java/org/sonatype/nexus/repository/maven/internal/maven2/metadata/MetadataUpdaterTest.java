@@ -14,10 +14,7 @@ package org.sonatype.nexus.repository.maven.internal.maven2.metadata;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Map;
 
-import org.sonatype.nexus.common.collect.AttributesMap;
-import org.sonatype.nexus.common.hash.HashAlgorithm;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.maven.MavenFacet;
 import org.sonatype.nexus.repository.maven.MavenPath;
@@ -25,15 +22,11 @@ import org.sonatype.nexus.repository.maven.MavenPath.HashType;
 import org.sonatype.nexus.repository.maven.internal.maven2.Maven2MavenPathParser;
 import org.sonatype.nexus.repository.maven.internal.maven2.metadata.Maven2Metadata.Plugin;
 import org.sonatype.nexus.repository.storage.StorageTx;
-import org.sonatype.nexus.repository.util.TypeTokens;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Payload;
 import org.sonatype.nexus.repository.view.payloads.StringPayload;
 import org.sonatype.sisu.litmus.testsupport.TestSupport;
 
-import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.hash.HashCode;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -66,22 +59,12 @@ public class MetadataUpdaterTest
   @Mock
   private StorageTx tx;
 
-  @Mock
-  private AttributesMap contentAttributes;
-
-  private final Map<HashAlgorithm, HashCode> hashes = ImmutableMap.of(
-      HashAlgorithm.SHA1, HashAlgorithm.SHA1.function().hashString("sha1", Charsets.UTF_8),
-      HashAlgorithm.MD5, HashAlgorithm.MD5.function().hashString("md5", Charsets.UTF_8)
-  );
-
   private final MavenPath mavenPath = new Maven2MavenPathParser().parsePath("/foo/bar");
 
   private MetadataUpdater testSubject;
 
   @Before
   public void prepare() throws IOException {
-    when(contentAttributes.require(Content.CONTENT_HASH_CODES_MAP, TypeTokens.HASH_CODES_MAP)).thenReturn(hashes);
-    when(content.getAttributes()).thenReturn(contentAttributes);
     when(mavenFacet.put(eq(tx), any(MavenPath.class), any(Payload.class))).thenReturn(content);
 
     when(repository.getName()).thenReturn("name");
@@ -95,6 +78,8 @@ public class MetadataUpdaterTest
     verify(tx, times(0)).commit();
     verify(mavenFacet, times(1)).get(eq(tx), eq(mavenPath));
     verify(mavenFacet, times(1)).put(eq(tx), eq(mavenPath), any(Payload.class));
+    verify(mavenFacet, times(0)).put(eq(tx), eq(mavenPath.hash(HashType.SHA1)), any(Payload.class));
+    verify(mavenFacet, times(0)).put(eq(tx), eq(mavenPath.hash(HashType.MD5)), any(Payload.class));
   }
 
   @Test
@@ -23,7 +23,7 @@ import javax.inject.Inject;
 import org.sonatype.nexus.blobstore.api.Blob;
 import org.sonatype.nexus.blobstore.api.BlobStore;
 import org.sonatype.nexus.common.hash.HashAlgorithm;
-import org.sonatype.nexus.common.io.TempStreamSupplier;
+import org.sonatype.nexus.common.io.HeadCapturingInputStream;
 import org.sonatype.nexus.mime.MimeSupport;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.config.Configuration;
@@ -144,10 +144,16 @@ public class RawContentFacetImpl
       final ImmutableMap<String, String> headers = ImmutableMap
           .of(BlobStore.BLOB_NAME_HEADER, path, BlobStore.CREATED_BY_HEADER, "unknown");
 
-      try (TempStreamSupplier supplier = new TempStreamSupplier(content.openInputStream())) {
-        try (InputStream is1 = supplier.get(); InputStream is2 = supplier.get()) {
-          tx.setBlob(is1, headers, asset, hashAlgorithms, determineContentType(path, is2, content.getContentType()));
+      // Stream straight into the blob store, keeping only the head of the content for type detection; if the
+      // content is rejected the exception leaves the tx uncommitted, so the new blob is rolled back on close
+      try (HeadCapturingInputStream is = new HeadCapturingInputStream(content.openInputStream(),
+          MimeSupport.DETECTION_HEAD_SIZE)) {
+        String provisionalContentType = content.getContentType();
+        if (provisionalContentType == null) {
+          provisionalContentType = mimeSupport.guessMimeTypeFromPath(path);
         }
+        tx.setBlob(is, headers, asset, hashAlgorithms, provisionalContentType);
+        asset.contentType(determineContentType(path, is.getHead(), content.getContentType()));
       }
 
       tx.saveAsset(asset);
@@ -224,7 +230,7 @@ public class RawContentFacetImpl
   @Override
   public void updateLastUpdated(final String path, final DateTime lastUpdated) throws IOException {
     try (StorageTx tx = getStorage().openTx()) {
-      Component component = tx.findComponentWithProperty(P_PATH, path, tx.getBucket());
+      Component component = getComponent(tx, path, tx.getBucket());
 
       if (component == null) {
         log.debug("Updating lastUpdated time for non-existent raw component {}", path);
@@ -241,7 +247,7 @@ public class RawContentFacetImpl
     return getRepository().facet(StorageFacet.class);
   }
 
-  // TODO: Consider a top-level indexed property (e.g. "locator") to make these common lookups fast
+  // indexed, see RawIndexedAttributesContributor
   private Component getComponent(StorageTx tx, String path, Bucket bucket) {
     String property = String.format("%s.%s.%s", P_ATTRIBUTES, RawFormat.NAME, P_PATH);
     return tx.findComponentWithProperty(property, path, bucket);